@@ -0,0 +1,117 @@
+package ca.on.oicr.pde.cnv;
+
+import ca.on.oicr.pde.cnv.annotate.GeneSummary;
+import ca.on.oicr.pde.cnv.annotate.SegmentIndexer;
+import ca.on.oicr.pde.cnv.bench.LocalRunner;
+import ca.on.oicr.pde.cnv.bench.SyntheticGenerator;
+import ca.on.oicr.pde.cnv.bench.TaskMonitor;
+import ca.on.oicr.pde.cnv.bench.TaskResources;
+import ca.on.oicr.pde.cnv.compare.OutputComparator;
+import ca.on.oicr.pde.cnv.consensus.ConsensusCaller;
+import ca.on.oicr.pde.cnv.coverage.BicSeqExport;
+import ca.on.oicr.pde.cnv.coverage.CoverageCopyNumber;
+import ca.on.oicr.pde.cnv.coverage.CoverageIndexer;
+import ca.on.oicr.pde.cnv.freec.FreecBaf;
+import ca.on.oicr.pde.cnv.freec.FreecCounts;
+import ca.on.oicr.pde.cnv.freec.FreecMerge;
+import ca.on.oicr.pde.cnv.freec.GcProfileCache;
+import ca.on.oicr.pde.cnv.hmmcopy.HmmCopyPlots;
+import ca.on.oicr.pde.cnv.hmmcopy.HmmSegment;
+import ca.on.oicr.pde.cnv.hmmcopy.NormalProfileCache;
+import ca.on.oicr.pde.cnv.hmmcopy.PairCounter;
+import ca.on.oicr.pde.cnv.hmmcopy.ReadCounter;
+import ca.on.oicr.pde.cnv.hmmcopy.WigToBins;
+import ca.on.oicr.pde.cnv.varscan.CopyCaller;
+import ca.on.oicr.pde.cnv.varscan.RegionCompiler;
+import ca.on.oicr.pde.cnv.varscan.SegmentVarscan;
+import ca.on.oicr.pde.cnv.varscan.SortedMerge;
+import ca.on.oicr.pde.cnv.varscan.VarscanHeap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import joptsimple.OptionException;
+
+/**
+ * Entry point of cnv-tools.jar, dispatches to one of the registered commands:
+ *
+ * java -jar cnv-tools.jar [command] [options]
+ */
+public class Main {
+
+    /**
+     * A command is anything with a main-like method
+     */
+    public interface Command {
+        void run(String[] args) throws Exception;
+    }
+
+    private static final Map<String, Command> COMMANDS     = new LinkedHashMap<String, Command>();
+    private static final Map<String, String>  DESCRIPTIONS = new LinkedHashMap<String, String>();
+
+    static {
+        register("merge-sorted", "Merge sorted Varscan/vcf shards into one file", SortedMerge::main);
+        register("compile-regions", "Merge and pack .bed targets into scatter shards", RegionCompiler::main);
+        register("copy-caller", "Streaming copy number calling of Varscan output, optional outlier smoothing", CopyCaller::main);
+        register("varscan-heap", "Size the Varscan heap and task memory of a pileup shard", VarscanHeap::main);
+        register("segment-varscan", "Circular binary segmentation of Varscan log ratios", SegmentVarscan::main);
+        register("read-counter", "Count reads in windows, writes HMMcopy .wig or .bins", ReadCounter::main);
+        register("pair-counter", "Count tumor and normal reads in windows at once, writes one .bins", PairCounter::main);
+        register("wig-to-bins", "Convert reference .wig files into one binary .bins file", WigToBins::main);
+        register("normal-cache", "Look up or store corrected HMMcopy normal profiles", NormalProfileCache::main);
+        register("hmm-segment", "Six-state HMMcopy segmentation of corrected copy", HmmSegment::main);
+        register("plot-hmmcopy", "Render HMMcopy QC images from plot data", HmmCopyPlots::main);
+        register("merge-freec", "Gather FREEC outputs of chromosome groups", FreecMerge::main);
+        register("gc-profile-cache", "Look up or store FREEC GC-content profiles", GcProfileCache::main);
+        register("freec-counts", "Count tumor and normal reads in FREEC windows", FreecCounts::main);
+        register("freec-baf", "Mini pileups at known SNP sites for FREEC BAF analysis", FreecBaf::main);
+        register("coverage-index", "Index read starts and depth of a .bam once for all CNV workflows", CoverageIndexer::main);
+        register("coverage-copynumber", "Varscan copynumber regions from tumor and normal coverage indexes", CoverageCopyNumber::main);
+        register("coverage-to-bicseq", "BICseq .seq files and configuration from coverage indexes", BicSeqExport::main);
+        register("consensus", "Consensus segments of BICseq, Varscan, HMMcopy and FREEC calls", ConsensusCaller::main);
+        register("segment-index", "Index caller segments for region queries, writes .sidx", SegmentIndexer::main);
+        register("gene-matrix", "Gene-level log2 ratios of a cohort into a samples x genes matrix", GeneSummary::main);
+        register("compare-outputs", "Compare segments and variants of two workflow runs for regression tests", OutputComparator::main);
+        register("run-local", "Run the CNV workflow tasks locally and report time, memory and I/O per task", LocalRunner::main);
+        register("synthetic-data", "Write a synthetic tumor/normal pair with planted copy number events for scale tests", SyntheticGenerator::main);
+        register("task-monitor", "Sample CPU, memory and I/O of the process tree of a workflow task into a JSON metrics file", TaskMonitor::main);
+        register("task-resources", "Summarise task metrics of many runs into recommended memory and timeout settings", TaskResources::main);
+    }
+
+    private static void register(String name, String description, Command command) {
+        COMMANDS.put(name, command);
+        DESCRIPTIONS.put(name, description);
+    }
+
+    /**
+     * @return registered command, null if there is none with this name
+     */
+    public static Command command(String name) {
+        return COMMANDS.get(name);
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0 || !COMMANDS.containsKey(args[0])) {
+            usage();
+            System.exit(1);
+        }
+        try {
+            COMMANDS.get(args[0]).run(Arrays.copyOfRange(args, 1, args.length));
+        } catch (OptionException oe) {
+            System.err.println(args[0] + ": " + oe.getMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            Logger.getLogger(Main.class.getName()).log(Level.SEVERE, args[0] + " failed", e);
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -jar cnv-tools.jar [command] [options]");
+        System.err.println("Commands:");
+        for (Map.Entry<String, String> e : DESCRIPTIONS.entrySet()) {
+            System.err.println(String.format("  %-24s%s", e.getKey(), e.getValue()));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ca.on.oicr.pde.cnv.annotate;
+
+import ca.on.oicr.pde.cnv.io.Bed;
+import ca.on.oicr.pde.cnv.io.GeneMatrix;
+import ca.on.oicr.pde.cnv.io.Interval;
+import ca.on.oicr.pde.cnv.io.SegmentIndex;
+import ca.on.oicr.pde.cnv.io.SegmentReader;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Gene-level copy number of a cohort: the log2 ratio of every gene of a .bed
+ * in every sample of a manifest, weighted by how much of the gene each
+ * segment covers, written to a {@link GeneMatrix}. Every result file is read
+ * once into a {@link SegmentIndex}, samples are read on --threads threads and
+ * write their values straight into the memory-mapped matrix.
+ *
+ * Manifest lines: sample, result file and optionally its format (bicseq,
+ * varscan, hmmcopy, freec, freec-ratio), tab-delimited. Genes stay in .bed
+ * order, named by the 4th column.
+ */
+public class GeneSummary {
+
+    private static final Logger LOG = Logger.getLogger(GeneSummary.class.getName());
+
+    private GeneSummary() {
+    }
+
+    /**
+     * Line of the manifest
+     */
+    static final class Sample {
+
+        final String name;
+        final File file;
+        final SegmentReader.Format format;
+
+        Sample(String name, File file, SegmentReader.Format format) {
+            this.name = name;
+            this.file = file;
+            this.format = format;
+        }
+    }
+
+    static List<Sample> readManifest(File manifest, SegmentReader.Format defaultFormat) throws IOException {
+        List<Sample> samples = new ArrayList<Sample>();
+        try (BufferedReader reader = TextFiles.openReader(manifest)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tmp = line.split("\t");
+                if (tmp.length < 2) {
+                    throw new IOException("Line " + lineNumber + " of " + manifest + " has no result file");
+                }
+                File file = new File(tmp[1]);
+                if (!file.isAbsolute() && manifest.getAbsoluteFile().getParentFile() != null) {
+                    file = new File(manifest.getAbsoluteFile().getParentFile(), tmp[1]);
+                }
+                samples.add(new Sample(tmp[0], file, tmp.length > 2 && !tmp[2].isEmpty() ? SegmentReader.Format.forName(tmp[2]) : defaultFormat));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return number of genes with a value
+     */
+    static int summarise(Sample sample, int column, List<Interval> genes, double ploidy, GeneMatrix matrix) throws IOException {
+        int found = 0;
+        try (SegmentIndex index = SegmentIndex.load(sample.file, sample.format, ploidy)) {
+            SegmentIndex.Contig contig = null;
+            for (int g = 0; g < genes.size(); g++) {
+                Interval gene = genes.get(g);
+                if (contig == null || !contig.getName().equals(gene.getContig())) {
+                    contig = index.contig(gene.getContig());
+                    if (contig == null) {
+                        continue;
+                    }
+                }
+                double mean = contig.mean(gene.getStart(), gene.getEnd());
+                if (!Double.isNaN(mean)) {
+                    matrix.set(g, column, (float) mean);
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    static void writeText(GeneMatrix matrix, File output) throws IOException {
+        try (BufferedWriter writer = TextFiles.openWriter(output)) {
+            writer.write("gene\tchrom\tstart\tend");
+            for (String sample : matrix.getSamples()) {
+                writer.write("\t" + sample);
+            }
+            writer.newLine();
+            for (int g = 0; g < matrix.getGenes().size(); g++) {
+                Interval gene = matrix.getGenes().get(g);
+                StringBuilder line = new StringBuilder(GeneMatrix.name(gene)).append('\t').append(gene.getContig()).append('\t')
+                        .append(gene.getStart() + 1).append('\t').append(gene.getEnd());
+                for (int s = 0; s < matrix.getSamples().size(); s++) {
+                    float v = matrix.get(g, s);
+                    line.append('\t').append(Float.isNaN(v) ? "NA" : String.format(Locale.ROOT, "%.4f", v));
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> genesSpec = parser.accepts("genes", "Required. Genes .bed with names in the 4th column").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> manifestSpec = parser.accepts("manifest", "Required. Sample, result file and optional format per line").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Gene matrix, .gmx").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> formatSpec = parser.accepts("format", "Optional. Format of result files without one in the manifest")
+                .withRequiredArg().defaultsTo("hmmcopy");
+        OptionSpec<Double> ploidySpec = parser.accepts("ploidy", "Optional. Ploidy of FREEC copy numbers and ratios").withRequiredArg().ofType(Double.class).defaultsTo(2.0);
+        OptionSpec<File> textSpec = parser.accepts("text", "Optional. Also write the matrix as a tab-delimited genes x samples table").withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of result files read at the same time").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        File output = options.valueOf(outputSpec);
+        if (!GeneMatrix.isGeneMatrix(output)) {
+            throw new IllegalArgumentException("Matrix " + output + " must be named *" + GeneMatrix.EXTENSION);
+        }
+        final List<Interval> genes = Bed.read(options.valueOf(genesSpec));
+        final List<Sample> samples = readManifest(options.valueOf(manifestSpec), SegmentReader.Format.forName(options.valueOf(formatSpec)));
+        final double ploidy = options.valueOf(ploidySpec);
+        List<String> names = new ArrayList<String>();
+        for (Sample s : samples) {
+            names.add(s.name);
+        }
+
+        try (final GeneMatrix matrix = GeneMatrix.create(output, names, genes)) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, options.valueOf(threadsSpec)));
+            try {
+                List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+                for (int i = 0; i < samples.size(); i++) {
+                    final int column = i;
+                    futures.add(pool.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws IOException {
+                            return summarise(samples.get(column), column, genes, ploidy, matrix);
+                        }
+                    }));
+                }
+                long cells = 0;
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        cells += futures.get(i).get();
+                    } catch (ExecutionException ee) {
+                        throw new IOException("Summarising " + samples.get(i).name + " (" + samples.get(i).file + ") failed", ee.getCause());
+                    }
+                }
+                LOG.info("Summarised " + genes.size() + " genes in " + samples.size() + " samples, " + cells + " values, into " + output);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while summarising genes", ie);
+            } finally {
+                pool.shutdownNow();
+            }
+            if (options.has(textSpec)) {
+                writeText(matrix, options.valueOf(textSpec));
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ca.on.oicr.pde.cnv.annotate;
+
+import ca.on.oicr.pde.cnv.io.Interval;
+import ca.on.oicr.pde.cnv.io.SegmentIndex;
+import ca.on.oicr.pde.cnv.io.SegmentReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Writes the {@link SegmentIndex} of a caller output (.seg, .bicseg,
+ * .copynumber, _ratio.txt, _CNVs) to a .sidx file, or prints the segments
+ * overlapping regions of an index or caller output.
+ */
+public class SegmentIndexer {
+
+    private static final Logger LOG = Logger.getLogger(SegmentIndexer.class.getName());
+
+    private SegmentIndexer() {
+    }
+
+    /**
+     * @param region chr, chr:start or chr:start-end, 1-based inclusive
+     * @return region as an interval, a whole contig ends at the largest position an index holds
+     */
+    static Interval parseRegion(String region) {
+        int colon = region.lastIndexOf(':');
+        if (colon < 0) {
+            return new Interval(region, 0, Integer.MAX_VALUE);
+        }
+        String range = region.substring(colon + 1).replace(",", "");
+        int dash = range.indexOf('-');
+        long start = Long.parseLong(dash < 0 ? range : range.substring(0, dash)) - 1;
+        long end = dash < 0 ? start + 1 : Long.parseLong(range.substring(dash + 1));
+        return new Interval(region.substring(0, colon), start, end);
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> inputSpec = parser.accepts("input", "Required. Caller output or .sidx index").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> formatSpec = parser.accepts("format", "Optional. Format of the caller output: bicseq, varscan, hmmcopy, freec (_CNVs) or freec-ratio")
+                .withRequiredArg();
+        OptionSpec<Double> ploidySpec = parser.accepts("ploidy", "Optional. Ploidy of FREEC copy numbers and ratios").withRequiredArg().ofType(Double.class).defaultsTo(2.0);
+        OptionSpec<File> outputSpec = parser.accepts("output", "Optional. Index to write, .sidx").withRequiredArg().ofType(File.class);
+        OptionSpec<String> regionSpec = parser.accepts("region", "Optional. Print the segments overlapping chr:start-end, repeatable").withRequiredArg();
+        OptionSet options = parser.parse(args);
+
+        File input = options.valueOf(inputSpec);
+        if (!SegmentIndex.isSegmentIndex(input) && !options.has(formatSpec)) {
+            throw new IllegalArgumentException("--format is required for " + input);
+        }
+        SegmentReader.Format format = options.has(formatSpec) ? SegmentReader.Format.forName(options.valueOf(formatSpec)) : null;
+        try (final SegmentIndex index = SegmentIndex.load(input, format, options.valueOf(ploidySpec))) {
+            if (options.has(outputSpec)) {
+                File output = options.valueOf(outputSpec);
+                if (!SegmentIndex.isSegmentIndex(output)) {
+                    throw new IllegalArgumentException("Index " + output + " must be named *" + SegmentIndex.EXTENSION);
+                }
+                index.write(output);
+                LOG.info("Indexed " + index.size() + " segments on " + index.getContigs().size() + " contigs into " + output);
+            }
+            for (String region : options.valuesOf(regionSpec)) {
+                Interval r = parseRegion(region);
+                final SegmentIndex.Contig contig = index.contig(r.getContig());
+                if (contig == null) {
+                    continue;
+                }
+                contig.overlaps(r.getStart(), r.getEnd(), new IntConsumer() {
+                    @Override
+                    public void accept(int i) {
+                        System.out.println(contig.getName() + "\t" + (contig.start(i) + 1) + "\t" + contig.end(i) + "\t"
+                                + String.format(Locale.ROOT, "%.4f", contig.value(i)));
+                    }
+                });
+            }
+        }
+    }
+}
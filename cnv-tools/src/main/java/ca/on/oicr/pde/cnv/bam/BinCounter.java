@@ -0,0 +1,178 @@
+package ca.on.oicr.pde.cnv.bam;
+
+import ca.on.oicr.pde.cnv.coverage.CoverageIndex;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts read starts in fixed-size windows, the same way HMMcopy readCounter
+ * does: a read goes to the window of its leftmost aligned base. With a BAM
+ * index contigs are counted in parallel, each thread querying its own reader.
+ * Without an index the file is read once sequentially.
+ *
+ * Only primary alignments of mapped reads with mapping quality of at least
+ * minQuality are counted. A coverage index (.cov) can be given instead of the
+ * .bam, counts are then made from its read starts.
+ */
+public class BinCounter {
+
+    private final int window;
+    private final int minQuality;
+    private final int threads;
+    private boolean asyncDecoding;
+
+    /**
+     * @param window     window size in bases
+     * @param minQuality minimum mapping quality
+     * @param threads    number of contigs counted at the same time
+     */
+    public BinCounter(int window, int minQuality, int threads) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window should be positive, got " + window);
+        }
+        this.window = window;
+        this.minQuality = minQuality;
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Decompress BGZF blocks on a separate thread for every open reader, ahead
+     * of the thread that counts. Helps when there are spare cores, e.g. fewer
+     * contigs than threads or no index.
+     */
+    public void setAsyncDecoding(boolean asyncDecoding) {
+        this.asyncDecoding = asyncDecoding;
+    }
+
+    /**
+     * @param bam      input .bam or .cov coverage index
+     * @param index    .bai for the input, null to look next to the bam
+     * @param contigs  contigs to count, null or empty for all contigs in the header
+     * @return bin counts per contig, in header order
+     * @throws IOException
+     */
+    public Map<String, int[]> count(final File bam, final File index, List<String> contigs) throws IOException {
+        if (CoverageIndex.isCoverageIndex(bam)) {
+            try (CoverageIndex coverage = CoverageIndex.open(bam)) {
+                return coverage.countStarts(window, minQuality, contigs);
+            }
+        }
+        final SAMSequenceDictionary dictionary;
+        final boolean indexed;
+        try (SamReader reader = open(bam, index)) {
+            dictionary = reader.getFileHeader().getSequenceDictionary();
+            indexed = reader.hasIndex();
+        }
+        Map<String, int[]> bins = new LinkedHashMap<String, int[]>();
+        for (SAMSequenceRecord sequence : dictionary.getSequences()) {
+            if (contigs == null || contigs.isEmpty() || contigs.contains(sequence.getSequenceName())) {
+                bins.put(sequence.getSequenceName(), new int[binCount(sequence.getSequenceLength())]);
+            }
+        }
+        if (!indexed || threads == 1) {
+            countSequentially(bam, index, bins);
+            return bins;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final Map.Entry<String, int[]> entry : bins.entrySet()) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        try (SamReader reader = open(bam, index);
+                             SAMRecordIterator it = reader.queryOverlapping(entry.getKey(), 0, 0)) {
+                            int[] counts = entry.getValue();
+                            while (it.hasNext()) {
+                                add(it.next(), counts);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting " + bam, ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Counting of " + bam + " failed", ee.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return bins;
+    }
+
+    private void countSequentially(File bam, File index, Map<String, int[]> bins) throws IOException {
+        try (SamReader reader = open(bam, index);
+             SAMRecordIterator it = reader.iterator()) {
+            String contig = null;
+            int[] counts = null;
+            while (it.hasNext()) {
+                SAMRecord r = it.next();
+                if (r.getReadUnmappedFlag()) {
+                    continue;
+                }
+                if (!r.getReferenceName().equals(contig)) {
+                    contig = r.getReferenceName();
+                    counts = bins.get(contig);
+                }
+                if (counts != null) {
+                    add(r, counts);
+                }
+            }
+        }
+    }
+
+    private void add(SAMRecord r, int[] counts) {
+        if (r.getReadUnmappedFlag() || r.isSecondaryOrSupplementary() || r.getMappingQuality() < minQuality) {
+            return;
+        }
+        // queryOverlapping also returns reads which start before the contig, there are none on a contig start
+        int bin = (r.getAlignmentStart() - 1) / window;
+        if (bin >= 0 && bin < counts.length) {
+            counts[bin]++;
+        }
+    }
+
+    /**
+     * @param length contig length
+     * @return number of windows covering the contig
+     */
+    public int binCount(int length) {
+        return (int) ((length + (long) window - 1) / window);
+    }
+
+    private SamReader open(File bam, File index) {
+        SamReaderFactory factory = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).setUseAsyncIo(asyncDecoding);
+        SamInputResource resource = SamInputResource.of(bam);
+        if (index != null) {
+            resource = resource.index(index);
+        }
+        return factory.open(resource);
+    }
+}
@@ -0,0 +1,132 @@
+package ca.on.oicr.pde.cnv.bam;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pileup of one contig at known sites only, in samtools mpileup format
+ * (contig, position, reference base, depth, bases, base qualities). Only the
+ * parts of the .bam around the sites are read, through the index: sites closer
+ * than MERGE_GAP are queried as one interval. Positions without coverage are
+ * not written, like mpileup does.
+ *
+ * Reads which are unmapped, secondary, supplementary, duplicates, fail vendor
+ * checks or have a mapping quality below the minimum are skipped. A deletion
+ * at a site is not counted.
+ */
+public class SitePileup {
+
+    /**
+     * Sites closer than this are read with one index query
+     */
+    static final int MERGE_GAP = 1000;
+
+    private final int minMappingQuality;
+    private final int minBaseQuality;
+
+    /**
+     * @param minMappingQuality minimum mapping quality of a read
+     * @param minBaseQuality    minimum base quality at a site
+     */
+    public SitePileup(int minMappingQuality, int minBaseQuality) {
+        this.minMappingQuality = minMappingQuality;
+        this.minBaseQuality = minBaseQuality;
+    }
+
+    /**
+     * Bases seen at one site
+     */
+    private static final class Column {
+        final StringBuilder bases = new StringBuilder();
+        final StringBuilder qualities = new StringBuilder();
+    }
+
+    /**
+     * @param reader    open reader with an index
+     * @param contig    contig name as in the .bam header
+     * @param positions sorted 1-based positions of the sites
+     * @param reference reference base of every site
+     * @param out       destination of the pileup lines
+     * @return number of lines written
+     * @throws IOException
+     */
+    public long pileup(SamReader reader, String contig, int[] positions, byte[] reference, Writer out) throws IOException {
+        int contigIndex = reader.getFileHeader().getSequenceIndex(contig);
+        if (contigIndex < 0 || positions.length == 0) {
+            return 0;
+        }
+        List<QueryInterval> intervals = new ArrayList<QueryInterval>();
+        int start = positions[0];
+        int end = positions[0];
+        for (int p : positions) {
+            if (p - end > MERGE_GAP) {
+                intervals.add(new QueryInterval(contigIndex, start, end));
+                start = p;
+            }
+            end = p;
+        }
+        intervals.add(new QueryInterval(contigIndex, start, end));
+
+        Column[] columns = new Column[positions.length];
+        int next = 0;
+        long lines = 0;
+        try (SAMRecordIterator it = reader.queryOverlapping(intervals.toArray(new QueryInterval[intervals.size()]))) {
+            while (it.hasNext()) {
+                SAMRecord r = it.next();
+                if (r.getReadUnmappedFlag() || r.isSecondaryOrSupplementary() || r.getDuplicateReadFlag()
+                        || r.getReadFailsVendorQualityCheckFlag() || r.getMappingQuality() < minMappingQuality) {
+                    continue;
+                }
+                // Reads come sorted by start, sites before this one are complete
+                int readStart = r.getAlignmentStart();
+                while (next < positions.length && positions[next] < readStart) {
+                    lines += write(out, contig, positions[next], reference[next], columns[next]);
+                    columns[next++] = null;
+                }
+                int readEnd = r.getAlignmentEnd();
+                byte[] bases = r.getReadBases();
+                byte[] qualities = r.getBaseQualities();
+                for (int i = next; i < positions.length && positions[i] <= readEnd; i++) {
+                    int offset = r.getReadPositionAtReferencePosition(positions[i]) - 1;
+                    if (offset < 0 || offset >= bases.length) {
+                        continue;
+                    }
+                    int quality = qualities.length > offset ? qualities[offset] : 0;
+                    if (quality < minBaseQuality) {
+                        continue;
+                    }
+                    if (columns[i] == null) {
+                        columns[i] = new Column();
+                    }
+                    char base = Character.toUpperCase((char) bases[offset]);
+                    boolean reverse = r.getReadNegativeStrandFlag();
+                    if (base == reference[i]) {
+                        columns[i].bases.append(reverse ? ',' : '.');
+                    } else {
+                        columns[i].bases.append(reverse ? Character.toLowerCase(base) : base);
+                    }
+                    columns[i].qualities.append((char) (Math.min(quality, 93) + 33));
+                }
+            }
+        }
+        for (; next < positions.length; next++) {
+            lines += write(out, contig, positions[next], reference[next], columns[next]);
+        }
+        return lines;
+    }
+
+    private static int write(Writer out, String contig, int position, byte reference, Column column) throws IOException {
+        if (column == null) {
+            return 0;
+        }
+        out.write(contig + "\t" + position + "\t" + (char) reference + "\t" + column.bases.length()
+                + "\t" + column.bases + "\t" + column.qualities + "\n");
+        return 1;
+    }
+}
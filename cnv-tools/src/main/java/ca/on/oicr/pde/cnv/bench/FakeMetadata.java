@@ -0,0 +1,83 @@
+package ca.on.oicr.pde.cnv.bench;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process stand-in for the SeqWare metadata database: files get
+ * accessions when they are registered as inputs or provisioned out by a task,
+ * with the accessions of the files they were made from as parents, and every
+ * task run gets a workflow run accession. Written as a table at the end so
+ * the file provenance of a local run can be checked like the real one.
+ */
+final class FakeMetadata {
+
+    private static final class Record {
+
+        final int accession;
+        final String workflow;
+        final int workflowRun;
+        final String task;
+        final File file;
+        final long bytes;
+        final List<Integer> parents;
+
+        Record(int accession, String workflow, int workflowRun, String task, File file, List<Integer> parents) {
+            this.accession = accession;
+            this.workflow = workflow;
+            this.workflowRun = workflowRun;
+            this.task = task;
+            this.file = file;
+            this.bytes = LocalRunner.size(file);
+            this.parents = parents;
+        }
+    }
+
+    private final Map<File, Record> files = new LinkedHashMap<File, Record>();
+    private int nextAccession = 1;
+
+    int register(File file) {
+        return provision(null, 0, null, file, new ArrayList<Integer>());
+    }
+
+    int startWorkflowRun() {
+        return nextAccession++;
+    }
+
+    int provision(String workflow, int workflowRun, String task, File file, List<Integer> parents) {
+        Record record = new Record(nextAccession++, workflow, workflowRun, task, file.getAbsoluteFile(), parents);
+        files.put(record.file, record);
+        return record.accession;
+    }
+
+    /**
+     * @return accession of a registered or provisioned file, null if it is unknown
+     */
+    Integer accession(File file) {
+        Record record = files.get(file.getAbsoluteFile());
+        return record == null ? null : record.accession;
+    }
+
+    void write(File output) throws IOException {
+        try (BufferedWriter writer = TextFiles.openWriter(output)) {
+            writer.write("accession\tworkflow\tworkflow_run\ttask\tfile\tbytes\tparents");
+            writer.newLine();
+            for (Record record : files.values()) {
+                StringBuilder parents = new StringBuilder();
+                for (Integer parent : record.parents) {
+                    parents.append(parents.length() == 0 ? "" : ",").append(parent);
+                }
+                writer.write(record.accession + "\t" + (record.workflow == null ? "" : record.workflow) + "\t"
+                        + (record.workflowRun == 0 ? "" : record.workflowRun) + "\t" + (record.task == null ? "" : record.task) + "\t"
+                        + record.file + "\t" + record.bytes + "\t" + parents);
+                writer.newLine();
+            }
+        }
+    }
+}
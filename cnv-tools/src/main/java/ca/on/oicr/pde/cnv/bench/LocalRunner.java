@@ -0,0 +1,463 @@
+package ca.on.oicr.pde.cnv.bench;
+
+import ca.on.oicr.pde.cnv.Main;
+import ca.on.oicr.pde.cnv.hmmcopy.PairCounter;
+import ca.on.oicr.pde.cnv.io.BinFile;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Runs the Java tasks of the CNV workflows end to end on one machine, for
+ * catching performance regressions without a cluster. SeqWare is replaced by
+ * {@link FakeMetadata} and the scheduler by a loop that runs the tasks one at
+ * a time in this JVM, in dependency order, skipping the tasks whose inputs
+ * were not provisioned. Wall and CPU time, peak RSS and heap and the bytes
+ * read and written are measured per task with {@link ProcessProbe} and
+ * written to a report; given the report of an earlier run as --baseline,
+ * tasks that got slower or bigger by more than --tolerance fail the run.
+ *
+ * Tools outside cnv-tools (Varscan, HMMcopy's R correction, FREEC, BICseq)
+ * are not run; HMMcopy's correction is replaced by a plain normalised log2
+ * ratio so that segmentation has something to work on. Inputs are a small
+ * synthetic tumor/normal pair unless --data has tumor.bam, normal.bam,
+ * snps.txt and chrlen.txt.
+ */
+public class LocalRunner {
+
+    private static final Logger LOG = Logger.getLogger(LocalRunner.class.getName());
+
+    static final List<String> WORKFLOWS = Arrays.asList("varscan", "hmmcopy", "freec", "bicseq");
+    static final String[] METRICS = {"wall_ms", "cpu_ms", "peak_rss_kb", "peak_heap_kb", "read_bytes", "written_bytes", "output_bytes"};
+    /**
+     * Task statuses from best to worst
+     */
+    static final List<String> STATUSES = Arrays.asList("OK", "SKIPPED", "FAILED");
+
+    /**
+     * Metrics compared with a baseline and the smallest increase that counts,
+     * so that milliseconds and page-sized differences on tiny inputs don't fail a run
+     */
+    private static final Map<String, Long> FLOORS = new LinkedHashMap<String, Long>();
+
+    static {
+        FLOORS.put("wall_ms", 250L);
+        FLOORS.put("peak_rss_kb", 32768L);
+        FLOORS.put("read_bytes", 1L << 20);
+        FLOORS.put("written_bytes", 1L << 20);
+    }
+
+    private LocalRunner() {
+    }
+
+    /**
+     * One task of a workflow: a cnv-tools command with its arguments, the
+     * files it needs and the files it provisions out
+     */
+    static final class Task {
+
+        final String workflow;
+        final String name;
+        final Main.Command command;
+        final String[] args;
+        final List<File> inputs;
+        final List<File> outputs;
+
+        Task(String workflow, String name, Main.Command command, List<File> inputs, List<File> outputs, String... args) {
+            this.workflow = workflow;
+            this.name = name;
+            this.command = command;
+            this.args = args;
+            this.inputs = inputs;
+            this.outputs = outputs;
+        }
+
+        String key() {
+            return workflow + "\t" + name;
+        }
+    }
+
+    static Task task(String workflow, String command, List<File> inputs, List<File> outputs, String... args) {
+        return new Task(workflow, command, Main.command(command), inputs, outputs, args);
+    }
+
+    /**
+     * @return total size of a file or of the files in a directory
+     */
+    static long size(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        for (File child : children == null ? new File[0] : children) {
+            size += size(child);
+        }
+        return size;
+    }
+
+    /**
+     * Tasks of the selected workflows in dependency order
+     */
+    static List<Task> plan(List<String> workflows, File data, File work, int window, int threads) throws IOException {
+        String t = Integer.toString(threads);
+        String w = Integer.toString(window);
+        File tumor = new File(data, SyntheticGenerator.TUMOR);
+        File normal = new File(data, SyntheticGenerator.NORMAL);
+        List<Task> tasks = new ArrayList<Task>();
+
+        File tumorCov = new File(work, "coverage/tumor.cov");
+        File normalCov = new File(work, "coverage/normal.cov");
+        if (workflows.contains("varscan") || workflows.contains("bicseq")) {
+            for (File[] f : new File[][]{{tumor, tumorCov}, {normal, normalCov}}) {
+                tasks.add(new Task("coverage", "coverage-index-" + f[0].getName().replace(".bam", ""), Main.command("coverage-index"),
+                                   Arrays.asList(f[0]), Arrays.asList(f[1]), "--input", f[0].getPath(), "--output", f[1].getPath(), "--threads", t));
+            }
+        }
+        File varscanSegments = new File(work, "varscan/sample.copynumber.segments");
+        if (workflows.contains("varscan")) {
+            File copynumber = new File(work, "varscan/sample.copynumber");
+            File filtered = new File(work, "varscan/sample.copynumber.filtered");
+            tasks.add(task("varscan", "coverage-copynumber", Arrays.asList(tumorCov, normalCov), Arrays.asList(copynumber),
+                           "--tumor", tumorCov.getPath(), "--normal", normalCov.getPath(), "--output", copynumber.getPath()));
+            tasks.add(task("varscan", "copy-caller", Arrays.asList(copynumber), Arrays.asList(filtered),
+                           "--input", copynumber.getPath(), "--output-file", filtered.getPath()));
+            tasks.add(task("varscan", "segment-varscan", Arrays.asList(filtered), Arrays.asList(varscanSegments),
+                           "--input", filtered.getPath(), "--output", varscanSegments.getPath(), "--threads", t));
+        }
+        File hmmcopySegments = new File(work, "hmmcopy/sample.seg");
+        if (workflows.contains("hmmcopy")) {
+            File counts = new File(work, "hmmcopy/counts.bins");
+            final File copy = new File(work, "hmmcopy/copy.bins");
+            tasks.add(task("hmmcopy", "pair-counter", Arrays.asList(tumor, normal), Arrays.asList(counts),
+                           "--tumor", tumor.getPath(), "--normal", normal.getPath(), "--output", counts.getPath(), "--window", w, "--threads", t));
+            tasks.add(new Task("hmmcopy", "correct-readcount", new Main.Command() {
+                @Override
+                public void run(String[] args) throws IOException {
+                    correct(new File(args[0]), copy);
+                }
+            }, Arrays.asList(counts), Arrays.asList(copy), counts.getPath()));
+            tasks.add(task("hmmcopy", "hmm-segment", Arrays.asList(copy), Arrays.asList(hmmcopySegments),
+                           "--input", copy.getPath(), "--output", hmmcopySegments.getPath(), "--threads", t));
+        }
+        if (workflows.contains("freec")) {
+            File config = new File(work, "freec/config.txt");
+            config.getParentFile().mkdirs();
+            try (BufferedWriter writer = TextFiles.openWriter(config)) {
+                writer.write("[general]\nchrLenFile = " + new File(data, SyntheticGenerator.CHR_LEN).getAbsolutePath() + "\nwindow = " + window
+                        + "\n\n[BAF]\nSNPfile = " + new File(data, SyntheticGenerator.SNPS).getAbsolutePath() + "\n");
+            }
+            List<File> inputs = Arrays.asList(config, tumor, normal);
+            File tumorCounts = new File(work, "freec/tumor.cpn");
+            File normalCounts = new File(work, "freec/normal.cpn");
+            tasks.add(task("freec", "freec-counts", inputs, Arrays.asList(tumorCounts, normalCounts), "--config", config.getPath(),
+                           "--tumor", tumor.getPath(), "--normal", normal.getPath(), "--tumor-output", tumorCounts.getPath(),
+                           "--normal-output", normalCounts.getPath(), "--threads", t));
+            File tumorPileup = new File(work, "freec/tumor.pileup");
+            File normalPileup = new File(work, "freec/normal.pileup");
+            tasks.add(task("freec", "freec-baf", inputs, Arrays.asList(tumorPileup, normalPileup), "--config", config.getPath(),
+                           "--tumor", tumor.getPath(), "--normal", normal.getPath(), "--tumor-output", tumorPileup.getPath(),
+                           "--normal-output", normalPileup.getPath(), "--threads", t));
+        }
+        if (workflows.contains("bicseq")) {
+            File outdir = new File(work, "bicseq");
+            tasks.add(task("bicseq", "coverage-to-bicseq", Arrays.asList(tumorCov, normalCov), Arrays.asList(new File(outdir, "bicseq.config")),
+                           "--tumor", tumorCov.getPath(), "--normal", normalCov.getPath(), "--tumor-name", "tumor", "--normal-name", "normal",
+                           "--outdir", outdir.getPath(), "--config-file", "bicseq.config", "--threads", t));
+        }
+        if (workflows.contains("varscan") && workflows.contains("hmmcopy")) {
+            File consensus = new File(work, "consensus/sample.consensus.tsv");
+            tasks.add(task("consensus", "consensus", Arrays.asList(varscanSegments, hmmcopySegments), Arrays.asList(consensus),
+                           "--varscan", varscanSegments.getPath(), "--hmmcopy", hmmcopySegments.getPath(), "--output", consensus.getPath()));
+        }
+        for (Task task : tasks) {
+            for (File output : task.outputs) {
+                output.getAbsoluteFile().getParentFile().mkdirs();
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Stand-in for HMMcopy's correctReadcount: log2 of the library-size
+     * normalised tumor/normal ratio, median-centred, no GC or mappability
+     * correction. Bins without normal reads are missing.
+     */
+    static void correct(File counts, File output) throws IOException {
+        Map<String, float[]> copy = new LinkedHashMap<String, float[]>();
+        try (BinFile bins = BinFile.open(counts)) {
+            double tumorTotal = 0;
+            double normalTotal = 0;
+            for (String contig : bins.getContigs()) {
+                for (int v : bins.ints(PairCounter.TUMOR, contig)) {
+                    tumorTotal += v;
+                }
+                for (int v : bins.ints(PairCounter.NORMAL, contig)) {
+                    normalTotal += v;
+                }
+            }
+            List<Float> values = new ArrayList<Float>();
+            for (String contig : bins.getContigs()) {
+                int[] tumor = bins.ints(PairCounter.TUMOR, contig);
+                int[] normal = bins.ints(PairCounter.NORMAL, contig);
+                float[] ratio = new float[tumor.length];
+                for (int i = 0; i < ratio.length; i++) {
+                    ratio[i] = normal[i] == 0 ? Float.NaN
+                            : (float) (Math.log((tumor[i] + 0.5) / tumorTotal / (normal[i] / normalTotal)) / Math.log(2));
+                    if (!Float.isNaN(ratio[i])) {
+                        values.add(ratio[i]);
+                    }
+                }
+                copy.put(contig, ratio);
+            }
+            if (!values.isEmpty()) {
+                values.sort(null);
+                float median = values.get(values.size() / 2);
+                for (float[] ratio : copy.values()) {
+                    for (int i = 0; i < ratio.length; i++) {
+                        ratio[i] -= median;
+                    }
+                }
+            }
+            new BinFile.Builder(bins.getWindow()).floatTrack("copy", copy).write(output);
+        }
+    }
+
+    /**
+     * Runs the tasks one after the other. A task whose inputs were not all
+     * provisioned is skipped, a failed task doesn't stop the others.
+     *
+     * @return metrics of every task by {@link Task#key()}, null for tasks that did not succeed
+     */
+    static Map<String, long[]> run(List<Task> tasks, FakeMetadata metadata, Map<String, String> status) {
+        Map<String, long[]> results = new LinkedHashMap<String, long[]>();
+        Map<String, Integer> workflowRuns = new HashMap<String, Integer>();
+        for (Task task : tasks) {
+            List<Integer> parents = new ArrayList<Integer>();
+            for (File input : task.inputs) {
+                Integer accession = metadata.accession(input);
+                if (accession != null) {
+                    parents.add(accession);
+                }
+            }
+            results.put(task.key(), null);
+            if (parents.size() < task.inputs.size()) {
+                status.put(task.key(), "SKIPPED");
+                LOG.warning("Skipping " + task.workflow + " " + task.name + ", not all of its inputs were provisioned");
+                continue;
+            }
+            if (!workflowRuns.containsKey(task.workflow)) {
+                workflowRuns.put(task.workflow, metadata.startWorkflowRun());
+            }
+
+            ProcessProbe probe = ProcessProbe.start();
+            try {
+                task.command.run(task.args);
+            } catch (Exception e) {
+                status.put(task.key(), "FAILED");
+                LOG.log(Level.SEVERE, task.workflow + " " + task.name + " failed", e);
+                continue;
+            }
+            long[] metrics = {probe.wallMillis(), probe.cpuMillisSince(), probe.peakRssKb(), ProcessProbe.peakHeapKb(),
+                probe.readSince(), probe.writtenSince(), 0};
+            boolean provisioned = true;
+            for (File output : task.outputs) {
+                if (!output.exists()) {
+                    LOG.severe(task.workflow + " " + task.name + " did not write " + output);
+                    provisioned = false;
+                    continue;
+                }
+                metrics[6] += size(output);
+                metadata.provision(task.workflow, workflowRuns.get(task.workflow), task.name, output, parents);
+            }
+            status.put(task.key(), provisioned ? "OK" : "FAILED");
+            results.put(task.key(), provisioned ? metrics : null);
+            LOG.info(task.workflow + " " + task.name + ": " + metrics[0] + " ms, peak RSS " + metrics[2] + " kB"
+                    + (probe.isPeakReset() ? "" : " (whole process)"));
+        }
+        return results;
+    }
+
+    /**
+     * Keeps the worst status of every task over repeated runs, so a task that
+     * failed once is reported even if the metrics of another run are kept
+     */
+    static void mergeStatus(Map<String, String> worst, Map<String, String> run) {
+        for (Map.Entry<String, String> e : run.entrySet()) {
+            String previous = worst.get(e.getKey());
+            if (previous == null || STATUSES.indexOf(e.getValue()) > STATUSES.indexOf(previous)) {
+                worst.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    static void writeReport(Map<String, long[]> results, Map<String, String> status, File output) throws IOException {
+        try (BufferedWriter writer = TextFiles.openWriter(output)) {
+            writer.write("workflow\ttask\tstatus");
+            for (String metric : METRICS) {
+                writer.write("\t" + metric);
+            }
+            writer.newLine();
+            for (Map.Entry<String, long[]> e : results.entrySet()) {
+                writer.write(e.getKey() + "\t" + status.get(e.getKey()));
+                for (int i = 0; i < METRICS.length; i++) {
+                    writer.write("\t" + (e.getValue() == null ? "NA" : Long.toString(e.getValue()[i])));
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @return metrics of the successful tasks of a report, by workflow and task
+     */
+    static Map<String, Map<String, Long>> readReport(File report) throws IOException {
+        Map<String, Map<String, Long>> rows = new LinkedHashMap<String, Map<String, Long>>();
+        try (BufferedReader reader = TextFiles.openReader(report)) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException(report + " is empty");
+            }
+            String[] columns = line.split("\t");
+            while ((line = reader.readLine()) != null) {
+                String[] tmp = line.split("\t");
+                if (tmp.length != columns.length || !tmp[2].equals("OK")) {
+                    continue;
+                }
+                Map<String, Long> metrics = new HashMap<String, Long>();
+                for (int i = 3; i < columns.length; i++) {
+                    metrics.put(columns[i], Long.parseLong(tmp[i]));
+                }
+                rows.put(tmp[0] + "\t" + tmp[1], metrics);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return number of metrics that grew by more than the tolerance and their floor over the baseline
+     */
+    static int compare(Map<String, long[]> results, Map<String, Map<String, Long>> baseline, double tolerance) {
+        int regressions = 0;
+        for (Map.Entry<String, long[]> e : results.entrySet()) {
+            Map<String, Long> before = baseline.get(e.getKey());
+            if (e.getValue() == null || before == null) {
+                continue;
+            }
+            for (int i = 0; i < METRICS.length; i++) {
+                Long floor = FLOORS.get(METRICS[i]);
+                Long old = before.get(METRICS[i]);
+                long now = e.getValue()[i];
+                if (floor == null || old == null || old < 0 || now < 0) {
+                    continue;
+                }
+                if (now > old * (1 + tolerance) && now - old > floor) {
+                    regressions++;
+                    LOG.warning(e.getKey().replace('\t', ' ') + ": " + METRICS[i] + " " + now + " vs " + old + " in the baseline");
+                }
+            }
+        }
+        return regressions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> workSpec = parser.accepts("work-dir", "Required. Directory for task outputs, metadata and the report").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> dataSpec = parser.accepts("data", "Optional. Directory with tumor.bam, normal.bam, snps.txt and chrlen.txt, synthetic inputs are generated into it if missing")
+                .withRequiredArg().ofType(File.class);
+        OptionSpec<String> workflowsSpec = parser.accepts("workflows", "Optional. Comma-separated workflows to run").withRequiredArg().withValuesSeparatedBy(',')
+                .defaultsTo(WORKFLOWS.toArray(new String[0]));
+        OptionSpec<File> baselineSpec = parser.accepts("baseline", "Optional. Report of an earlier run to compare with").withRequiredArg().ofType(File.class);
+        OptionSpec<Double> toleranceSpec = parser.accepts("tolerance", "Optional. Relative increase over the baseline that fails a run").withRequiredArg().ofType(Double.class).defaultsTo(0.25);
+        OptionSpec<Integer> repeatSpec = parser.accepts("repeat", "Optional. Number of runs, the fastest run of every task is reported with the worst status of its runs").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec<Integer> windowSpec = parser.accepts("window", "Optional. Window size of HMMcopy and FREEC").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Threads of every task").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<Integer> contigsSpec = parser.accepts("contigs", "Optional. Contigs of synthetic inputs").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+        OptionSpec<Integer> lengthSpec = parser.accepts("length", "Optional. Contig length of synthetic inputs").withRequiredArg().ofType(Integer.class).defaultsTo(1000000);
+        OptionSpec<Double> coverageSpec = parser.accepts("coverage", "Optional. Normal coverage of synthetic inputs").withRequiredArg().ofType(Double.class).defaultsTo(30.0);
+        OptionSpec<Long> seedSpec = parser.accepts("seed", "Optional. Seed of synthetic inputs").withRequiredArg().ofType(Long.class).defaultsTo(1L);
+        OptionSet options = parser.parse(args);
+
+        List<String> workflows = options.valuesOf(workflowsSpec);
+        for (String workflow : workflows) {
+            if (!WORKFLOWS.contains(workflow)) {
+                throw new IllegalArgumentException("Unknown workflow " + workflow + ", expected one of " + WORKFLOWS);
+            }
+        }
+        File work = options.valueOf(workSpec);
+        File data = options.has(dataSpec) ? options.valueOf(dataSpec) : new File(work, "data");
+        if (!new File(data, SyntheticGenerator.TUMOR).exists()) {
+            data.mkdirs();
+            long start = System.currentTimeMillis();
+            int contigs = options.valueOf(contigsSpec);
+            int length = options.valueOf(lengthSpec);
+            new SyntheticGenerator(contigs, length, options.valueOf(coverageSpec), 100, 1.0, options.valueOf(seedSpec),
+                                   SyntheticGenerator.defaultEvents(contigs, length), 5)
+                    .write(data, options.valueOf(windowSpec), false, false, options.valueOf(threadsSpec));
+            LOG.info("Wrote synthetic inputs to " + data + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        List<Task> tasks = plan(workflows, data, work, options.valueOf(windowSpec), options.valueOf(threadsSpec));
+        Map<String, long[]> best = null;
+        Map<String, String> status = new LinkedHashMap<String, String>();
+        FakeMetadata metadata = null;
+        for (int r = 0; r < Math.max(1, options.valueOf(repeatSpec)); r++) {
+            metadata = new FakeMetadata();
+            for (String input : new String[]{SyntheticGenerator.TUMOR, SyntheticGenerator.NORMAL, SyntheticGenerator.SNPS, SyntheticGenerator.CHR_LEN}) {
+                metadata.register(new File(data, input));
+            }
+            File config = new File(work, "freec/config.txt");
+            if (config.exists()) {
+                metadata.register(config);
+            }
+            Map<String, String> runStatus = new LinkedHashMap<String, String>();
+            Map<String, long[]> results = run(tasks, metadata, runStatus);
+            mergeStatus(status, runStatus);
+            if (best == null) {
+                best = results;
+                continue;
+            }
+            for (Map.Entry<String, long[]> e : results.entrySet()) {
+                long[] previous = best.get(e.getKey());
+                if (e.getValue() != null && (previous == null || e.getValue()[0] < previous[0])) {
+                    best.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        metadata.write(new File(work, "metadata.tsv"));
+        File report = new File(work, "report.tsv");
+        writeReport(best, status, report);
+
+        int failed = 0;
+        for (String s : status.values()) {
+            if (!s.equals("OK")) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new IOException(failed + " of " + tasks.size() + " tasks did not succeed, see " + report);
+        }
+        if (options.has(baselineSpec)) {
+            int regressions = compare(best, readReport(options.valueOf(baselineSpec)), options.valueOf(toleranceSpec));
+            if (regressions > 0) {
+                throw new IllegalStateException(regressions + " metrics regressed against " + options.valueOf(baselineSpec));
+            }
+            LOG.info("No regressions against " + options.valueOf(baselineSpec));
+        }
+        LOG.info("Ran " + tasks.size() + " tasks, report in " + report);
+    }
+}
@@ -0,0 +1,138 @@
+package ca.on.oicr.pde.cnv.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Resource use of this JVM between two points, from /proc/self on Linux:
+ * CPU time (stat), peak resident set size (status VmHWM, reset with
+ * clear_refs) and bytes read and written through system calls (io rchar and
+ * wchar, memory-mapped files are not counted). Peak heap comes from the memory
+ * pools. Values that can't be read are -1.
+ */
+final class ProcessProbe {
+
+    private static final File PROC = new File("/proc/self");
+
+    private final long started;
+    private final long cpu;
+    private final long read;
+    private final long written;
+    private final boolean peakReset;
+
+    private ProcessProbe() {
+        this.peakReset = resetPeaks();
+        this.cpu = cpuMillis();
+        this.read = io("rchar");
+        this.written = io("wchar");
+        this.started = System.nanoTime();
+    }
+
+    /**
+     * Collect garbage, reset the peaks and start measuring
+     */
+    static ProcessProbe start() {
+        System.gc();
+        return new ProcessProbe();
+    }
+
+    long wallMillis() {
+        return (System.nanoTime() - started) / 1000000L;
+    }
+
+    long cpuMillisSince() {
+        long now = cpuMillis();
+        return now < 0 || cpu < 0 ? -1 : now - cpu;
+    }
+
+    long readSince() {
+        long now = io("rchar");
+        return now < 0 || read < 0 ? -1 : now - read;
+    }
+
+    long writtenSince() {
+        long now = io("wchar");
+        return now < 0 || written < 0 ? -1 : now - written;
+    }
+
+    /**
+     * @return peak RSS since start in kB, the peak of the whole process if it couldn't be reset
+     */
+    long peakRssKb() {
+        return status("VmHWM:");
+    }
+
+    boolean isPeakReset() {
+        return peakReset;
+    }
+
+    /**
+     * @return sum of the peak usage of the heap pools since start, kB
+     */
+    static long peakHeapKb() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak / 1024;
+    }
+
+    private static boolean resetPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        // 5 resets VmHWM to the current RSS
+        try (Writer writer = new FileWriter(new File(PROC, "clear_refs"))) {
+            writer.write("5");
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * @return user and system CPU time of the process, ms
+     */
+    private static long cpuMillis() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(PROC, "stat")))) {
+            String line = reader.readLine();
+            // fields after the command name, which is in parentheses and may have spaces
+            String[] tmp = line.substring(line.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(tmp[11]) + Long.parseLong(tmp[12]);
+            return ticks * 10;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static long io(String key) {
+        return value(new File(PROC, "io"), key + ":", 1);
+    }
+
+    private static long status(String key) {
+        return value(new File(PROC, "status"), key, 1);
+    }
+
+    private static long value(File file, String key, long scale) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(key)) {
+                    return Long.parseLong(line.substring(key.length()).trim().split("\\s+")[0]) * scale;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,608 @@
+package ca.on.oicr.pde.cnv.bench;
+
+import ca.on.oicr.pde.cnv.hmmcopy.Wig;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.TextCigarCodec;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Synthetic tumor/normal pair for scale tests of the CNV workflows: contigs
+ * chr1..chrN of random sequence (GC content varying in 100 kb blocks),
+ * single-end reads at even depth in the normal and depth following the
+ * planted copy-number events in the tumor, heterozygous SNPs every 1 kb whose
+ * allele fractions follow the events too (a gain duplicates the reference
+ * allele, a one-copy loss keeps the alternate one). Tumor purity dilutes the
+ * events with normal cells.
+ *
+ * Writes tumor.bam and normal.bam with their .bai, snps.txt (contig, position,
+ * alleles), chrlen.txt, events.bed (the truth set: contig, start, end, copy
+ * number), optionally the normal-tumor mpileup Varscan reads
+ * (normal_tumor.pileup.gz, bgzip) and HMMcopy .wig files (read counts of both
+ * samples, GC content and a mappability of 1).
+ *
+ * Contigs are generated on --threads threads: each contig writes its own
+ * BGZF parts, which are concatenated behind the header in contig order, so
+ * the files are the same whatever the number of threads. The same seed gives
+ * the same files.
+ */
+public class SyntheticGenerator {
+
+    private static final Logger LOG = Logger.getLogger(SyntheticGenerator.class.getName());
+
+    public static final String TUMOR = "tumor.bam";
+    public static final String NORMAL = "normal.bam";
+    public static final String SNPS = "snps.txt";
+    public static final String CHR_LEN = "chrlen.txt";
+    public static final String EVENTS = "events.bed";
+    public static final String PILEUP = "normal_tumor.pileup.gz";
+    public static final String TUMOR_WIG = "tumor.wig";
+    public static final String NORMAL_WIG = "normal.wig";
+    public static final String GC_WIG = "gc.wig";
+    public static final String MAP_WIG = "map.wig";
+
+    private static final byte[] AT = {'A', 'T'};
+    private static final byte[] GC = {'G', 'C'};
+    private static final int SNP_SPACING = 1000;
+    private static final int GC_BLOCK = 100000;
+    private static final int NORMAL_SAMPLE = 0;
+    private static final int TUMOR_SAMPLE = 1;
+
+    /**
+     * Copy-number event, 0-based half-open
+     */
+    static final class Event {
+
+        final String contig;
+        final long start;
+        final long end;
+        final int copies;
+
+        Event(String contig, long start, long end, int copies) {
+            this.contig = contig;
+            this.start = start;
+            this.end = end;
+            this.copies = copies;
+        }
+
+        /**
+         * @param spec chr:start-end:copies, 1-based inclusive
+         */
+        static Event parse(String spec) {
+            String[] tmp = spec.split(":");
+            int dash = tmp.length == 3 ? tmp[1].indexOf('-') : -1;
+            if (dash < 0) {
+                throw new IllegalArgumentException("Event " + spec + " is not chr:start-end:copies");
+            }
+            return new Event(tmp[0], Long.parseLong(tmp[1].substring(0, dash).replace(",", "")) - 1,
+                             Long.parseLong(tmp[1].substring(dash + 1).replace(",", "")), Integer.parseInt(tmp[2]));
+        }
+    }
+
+    private final int contigs;
+    private final int length;
+    private final double depth;
+    private final int readLength;
+    private final double purity;
+    private final long seed;
+    private final List<Event> events;
+    private final int level;
+
+    /**
+     * @param contigs    number of contigs
+     * @param length     length of every contig
+     * @param depth      average depth of the normal
+     * @param readLength read length
+     * @param purity     fraction of tumor cells in the tumor
+     * @param seed       seed of everything random
+     * @param events     planted events, they may not overlap
+     * @param level      BGZF compression level
+     */
+    SyntheticGenerator(int contigs, int length, double depth, int readLength, double purity, long seed, List<Event> events, int level) {
+        this.contigs = contigs;
+        this.length = length;
+        this.depth = depth;
+        this.readLength = readLength;
+        this.purity = purity;
+        this.seed = seed;
+        this.level = level;
+        this.events = new ArrayList<Event>(events);
+        Collections.sort(this.events, new Comparator<Event>() {
+            @Override
+            public int compare(Event a, Event b) {
+                return a.contig.equals(b.contig) ? Long.compare(a.start, b.start) : a.contig.compareTo(b.contig);
+            }
+        });
+        for (int i = 1; i < this.events.size(); i++) {
+            Event a = this.events.get(i - 1);
+            Event b = this.events.get(i);
+            if (a.contig.equals(b.contig) && b.start < a.end) {
+                throw new IllegalArgumentException("Events overlap on " + a.contig + " at " + (b.start + 1));
+            }
+        }
+    }
+
+    /**
+     * A gain of the second half of chr1 and a one-copy loss of the middle third of chr2
+     */
+    static List<Event> defaultEvents(int contigs, int length) {
+        List<Event> events = new ArrayList<Event>();
+        events.add(new Event(contig(0), length / 2, length, 3));
+        if (contigs > 1) {
+            events.add(new Event(contig(1), length / 3, 2 * length / 3, 1));
+        }
+        return events;
+    }
+
+    /**
+     * @param planted events already planted, random ones do not overlap them
+     * @return up to n events of 1-10% of a contig with 0, 1, 3 or 4 copies on random contigs, overlapping ones are dropped
+     */
+    static List<Event> randomEvents(int n, int contigs, int length, long seed, List<Event> planted) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] copies = {0, 1, 3, 4};
+        List<Event> taken = new ArrayList<Event>(planted);
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < n; i++) {
+            String contig = contig(random.nextInt(contigs));
+            long size = Math.max(1, (long) (length * (0.01 + 0.09 * random.nextDouble())));
+            long start = (long) (random.nextDouble() * (length - size));
+            boolean free = true;
+            for (Event e : taken) {
+                free &= !e.contig.equals(contig) || start >= e.end || start + size <= e.start;
+            }
+            if (free) {
+                Event event = new Event(contig, start, start + size, copies[random.nextInt(copies.length)]);
+                events.add(event);
+                taken.add(event);
+            }
+        }
+        return events;
+    }
+
+    static String contig(int c) {
+        return "chr" + (c + 1);
+    }
+
+    private static int snpPosition(int site) {
+        return site * SNP_SPACING + SNP_SPACING / 2;
+    }
+
+    /**
+     * @return index of the first SNP at or after a 0-based position
+     */
+    private static int firstSnp(int position) {
+        return Math.max(0, (position - SNP_SPACING / 2 + SNP_SPACING - 1) / SNP_SPACING);
+    }
+
+    /**
+     * What a contig leaves behind: its BGZF parts and per-window counts
+     */
+    private static final class ContigResult {
+
+        final File[] bamParts = new File[2];
+        File pileupPart;
+        final int[][] counts = new int[2][];
+        float[] gc;
+        long[] reads = new long[2];
+    }
+
+    /**
+     * Generates one contig of both samples in one pass over the positions
+     */
+    private ContigResult generate(int c, SAMFileHeader header, File directory, int window, boolean pileup) throws IOException {
+        String name = contig(c);
+        SplittableRandom random = new SplittableRandom(seed * 1000003L + c);
+        byte[] sequence = sequence(random);
+        byte[] alternates = alternates(sequence, random);
+        int bins = (length + window - 1) / window;
+        ContigResult result = new ContigResult();
+        result.gc = new float[bins];
+        int[] gcBases = new int[bins];
+        for (int i = 0; i < length; i++) {
+            if (sequence[i] == 'G' || sequence[i] == 'C') {
+                gcBases[i / window]++;
+            }
+        }
+        for (int b = 0; b < bins; b++) {
+            result.gc[b] = (float) gcBases[b] / Math.min(window, length - b * window);
+        }
+
+        // Copies of the tumor cells in event order along the contig
+        List<Event> planted = new ArrayList<Event>();
+        for (Event e : events) {
+            if (e.contig.equals(name)) {
+                planted.add(e);
+            }
+        }
+        int nextEvent = 0;
+
+        SplittableRandom[] samples = {new SplittableRandom(seed * 1000003L + c + 500009L), new SplittableRandom(seed * 1000003L + c + 700001L)};
+        BAMRecordCodec[] codecs = new BAMRecordCodec[2];
+        BlockCompressedOutputStream[] outs = new BlockCompressedOutputStream[2];
+        int[][] starts = new int[2][readLength];
+        int[][] alts = new int[2][readLength];
+        int[] covering = new int[2];
+        Cigar cigar = TextCigarCodec.decode(readLength + "M");
+        byte[] qualities = new byte[readLength];
+        Arrays.fill(qualities, (byte) 30);
+        char[] line = new char[0];
+        Writer pileupWriter = null;
+        try {
+            for (int s = 0; s < 2; s++) {
+                result.bamParts[s] = new File(directory, (s == TUMOR_SAMPLE ? "tumor" : "normal") + "." + name + ".part");
+                outs[s] = new BlockCompressedOutputStream(result.bamParts[s], level);
+                codecs[s] = new BAMRecordCodec(header);
+                codecs[s].setOutputStream(outs[s], result.bamParts[s].getName());
+                result.counts[s] = new int[bins];
+            }
+            if (pileup) {
+                result.pileupPart = new File(directory, "pileup." + name + ".part");
+                pileupWriter = new BufferedWriter(new OutputStreamWriter(new BlockCompressedOutputStream(result.pileupPart, level), StandardCharsets.US_ASCII), 1 << 16);
+            }
+            for (int pos = 0; pos < length; pos++) {
+                while (nextEvent < planted.size() && planted.get(nextEvent).end <= pos) {
+                    nextEvent++;
+                }
+                int copies = nextEvent < planted.size() && planted.get(nextEvent).start <= pos ? planted.get(nextEvent).copies : 2;
+                // tumor cells and the normal cells mixed into the tumor
+                double tumorCopies = purity * copies + (1 - purity) * 2;
+                double tumorBaf = tumorCopies == 0 ? 0.5 : (purity * Math.min(1, copies) + (1 - purity)) / tumorCopies;
+                int slot = pos % readLength;
+                for (int s = 0; s < 2; s++) {
+                    int n = 0;
+                    if (pos + readLength <= length) {
+                        double rate = depth / readLength * (s == TUMOR_SAMPLE ? tumorCopies / 2 : 1.0);
+                        n = (int) rate;
+                        if (samples[s].nextDouble() < rate - n) {
+                            n++;
+                        }
+                    }
+                    covering[s] += n - starts[s][slot];
+                    starts[s][slot] = n;
+                    for (int r = 0; r < n; r++) {
+                        byte[] bases = Arrays.copyOfRange(sequence, pos, pos + readLength);
+                        for (int snp = firstSnp(pos); snp < alternates.length && snpPosition(snp) < pos + readLength; snp++) {
+                            double baf = s == TUMOR_SAMPLE ? tumorBaf : 0.5;
+                            if (samples[s].nextDouble() < baf) {
+                                bases[snpPosition(snp) - pos] = alternates[snp];
+                                alts[s][snpPosition(snp) % readLength]++;
+                            }
+                        }
+                        SAMRecord record = new SAMRecord(header);
+                        record.setReadName((s == TUMOR_SAMPLE ? "t" : "n") + c + "." + result.reads[s]++);
+                        record.setReferenceIndex(c);
+                        record.setAlignmentStart(pos + 1);
+                        record.setCigar(cigar);
+                        record.setReadNegativeStrandFlag(samples[s].nextBoolean());
+                        record.setReadBases(bases);
+                        record.setBaseQualities(qualities);
+                        record.setMappingQuality(60);
+                        codecs[s].encode(record);
+                    }
+                    result.counts[s][pos / window] += n;
+                }
+                if (pileupWriter != null && covering[NORMAL_SAMPLE] + covering[TUMOR_SAMPLE] > 0) {
+                    StringBuilder text = new StringBuilder(64 + 2 * (covering[0] + covering[1]));
+                    text.append(name).append('\t').append(pos + 1).append('\t').append((char) sequence[pos]);
+                    for (int s = 0; s < 2; s++) {
+                        int alt = alts[s][slot];
+                        char altBase = alt > 0 ? (char) alternates[pos / SNP_SPACING] : '.';
+                        text.append('\t').append(covering[s]).append('\t');
+                        if (covering[s] == 0) {
+                            text.append("*\t*");
+                            continue;
+                        }
+                        for (int i = 0; i < covering[s]; i++) {
+                            text.append(i < alt ? altBase : '.');
+                        }
+                        text.append('\t');
+                        for (int i = 0; i < covering[s]; i++) {
+                            text.append('?');
+                        }
+                    }
+                    text.append('\n');
+                    pileupWriter.write(text.toString());
+                }
+                alts[NORMAL_SAMPLE][slot] = 0;
+                alts[TUMOR_SAMPLE][slot] = 0;
+            }
+        } finally {
+            for (BlockCompressedOutputStream out : outs) {
+                if (out != null) {
+                    out.close(false);
+                }
+            }
+            if (pileupWriter != null) {
+                pileupWriter.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Appends BGZF parts to a file, dropping the end-of-file block of each
+     */
+    private static void append(File part, OutputStream out) throws IOException {
+        long size = part.length();
+        byte[] eof = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+        try (FileInputStream in = new FileInputStream(part)) {
+            FileChannel channel = in.getChannel();
+            if (size >= eof.length) {
+                byte[] tail = new byte[eof.length];
+                channel.position(size - eof.length);
+                in.read(tail);
+                if (Arrays.equals(tail, eof)) {
+                    size -= eof.length;
+                }
+                channel.position(0);
+            }
+            byte[] buffer = new byte[1 << 20];
+            long left = size;
+            while (left > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (n < 0) {
+                    throw new IOException(part + " ended early");
+                }
+                out.write(buffer, 0, n);
+                left -= n;
+            }
+        }
+        if (!part.delete()) {
+            LOG.warning("Could not delete " + part);
+        }
+    }
+
+    private static void concatenate(List<File> parts, File output) throws IOException {
+        try (OutputStream out = new FileOutputStream(output)) {
+            for (File part : parts) {
+                append(part, out);
+            }
+            out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+        }
+    }
+
+    private static void index(File bam) throws IOException {
+        try (SamReader reader = SamReaderFactory.makeDefault().enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).open(bam)) {
+            BAMIndexer.createIndex(reader, new File(bam.getPath().replaceAll("\\.bam$", "") + ".bai"));
+        }
+    }
+
+    /**
+     * @param directory output directory
+     * @param window    window of the .wig files
+     * @param pileup    write the normal-tumor mpileup
+     * @param wigs      write .wig files
+     * @param threads   contigs generated in parallel
+     */
+    void write(final File directory, final int window, final boolean pileup, boolean wigs, int threads) throws IOException {
+        final SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        for (int c = 0; c < contigs; c++) {
+            header.addSequence(new SAMSequenceRecord(contig(c), length));
+        }
+        List<ContigResult> results = new ArrayList<ContigResult>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<ContigResult>> futures = new ArrayList<Future<ContigResult>>();
+            for (int c = 0; c < contigs; c++) {
+                final int contig = c;
+                futures.add(pool.submit(new Callable<ContigResult>() {
+                    @Override
+                    public ContigResult call() throws IOException {
+                        return generate(contig, header, directory, window, pileup);
+                    }
+                }));
+            }
+            for (int c = 0; c < futures.size(); c++) {
+                try {
+                    results.add(futures.get(c).get());
+                } catch (ExecutionException ee) {
+                    throw new IOException("Generating " + contig(c) + " failed", ee.getCause());
+                }
+            }
+
+            List<Future<Void>> indexing = new ArrayList<Future<Void>>();
+            for (int s = 0; s < 2; s++) {
+                final File bam = new File(directory, s == TUMOR_SAMPLE ? TUMOR : NORMAL);
+                File headerPart = new File(directory, bam.getName() + ".header.part");
+                // header only
+                new SAMFileWriterFactory().makeBAMWriter(header, true, headerPart).close();
+                List<File> parts = new ArrayList<File>();
+                parts.add(headerPart);
+                for (ContigResult r : results) {
+                    parts.add(r.bamParts[s]);
+                }
+                concatenate(parts, bam);
+                indexing.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        index(bam);
+                        return null;
+                    }
+                }));
+            }
+            if (pileup) {
+                List<File> parts = new ArrayList<File>();
+                for (ContigResult r : results) {
+                    parts.add(r.pileupPart);
+                }
+                concatenate(parts, new File(directory, PILEUP));
+            }
+            for (Future<Void> f : indexing) {
+                try {
+                    f.get();
+                } catch (ExecutionException ee) {
+                    throw new IOException("Indexing failed", ee.getCause());
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating data", ie);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        try (BufferedWriter writer = TextFiles.openWriter(new File(directory, SNPS))) {
+            for (int c = 0; c < contigs; c++) {
+                // same draws as in generate, only up to the alternate alleles
+                SplittableRandom random = new SplittableRandom(seed * 1000003L + c);
+                byte[] sequence = sequence(random);
+                byte[] alternates = alternates(sequence, random);
+                for (int s = 0; s < alternates.length; s++) {
+                    writer.write(contig(c) + "\t" + (snpPosition(s) + 1) + "\t" + (char) sequence[snpPosition(s)] + "/" + (char) alternates[s]);
+                    writer.newLine();
+                }
+            }
+        }
+        try (BufferedWriter writer = TextFiles.openWriter(new File(directory, CHR_LEN))) {
+            for (int c = 0; c < contigs; c++) {
+                writer.write(contig(c) + "\t" + length);
+                writer.newLine();
+            }
+        }
+        try (BufferedWriter writer = TextFiles.openWriter(new File(directory, EVENTS))) {
+            for (Event e : events) {
+                writer.write(e.contig + "\t" + e.start + "\t" + e.end + "\t" + e.copies);
+                writer.newLine();
+            }
+        }
+        if (wigs) {
+            for (int s = 0; s < 2; s++) {
+                Map<String, int[]> counts = new LinkedHashMap<String, int[]>();
+                for (int c = 0; c < contigs; c++) {
+                    counts.put(contig(c), results.get(c).counts[s]);
+                }
+                Wig.write(counts, window, new File(directory, s == TUMOR_SAMPLE ? TUMOR_WIG : NORMAL_WIG));
+            }
+            try (BufferedWriter gc = TextFiles.openWriter(new File(directory, GC_WIG));
+                 BufferedWriter map = TextFiles.openWriter(new File(directory, MAP_WIG))) {
+                for (int c = 0; c < contigs; c++) {
+                    String step = "fixedStep chrom=" + contig(c) + " start=1 step=" + window + " span=" + window + "\n";
+                    gc.write(step);
+                    map.write(step);
+                    for (float v : results.get(c).gc) {
+                        gc.write(String.format(Locale.ROOT, "%.6f\n", v));
+                        map.write("1.000000\n");
+                    }
+                }
+            }
+        }
+        long reads = 0;
+        for (ContigResult r : results) {
+            reads += r.reads[0] + r.reads[1];
+        }
+        LOG.info("Wrote " + reads + " reads on " + contigs + " contigs of " + length + " bases to " + directory);
+    }
+
+    /**
+     * Reference sequence of a contig, the first draws of its random generator
+     */
+    private byte[] sequence(SplittableRandom random) {
+        byte[] sequence = new byte[length];
+        for (int block = 0; block * GC_BLOCK < length; block++) {
+            double gc = 0.35 + 0.25 * random.nextDouble();
+            for (int i = block * GC_BLOCK; i < Math.min(length, (block + 1) * GC_BLOCK); i++) {
+                sequence[i] = random.nextDouble() < gc ? GC[random.nextInt(2)] : AT[random.nextInt(2)];
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Alternate allele of every SNP, the draws following the sequence
+     */
+    private byte[] alternates(byte[] sequence, SplittableRandom random) {
+        byte[] alternates = new byte[length / SNP_SPACING];
+        for (int s = 0; s < alternates.length; s++) {
+            byte ref = sequence[snpPosition(s)];
+            byte alt;
+            do {
+                alt = (random.nextInt(2) == 0 ? AT : GC)[random.nextInt(2)];
+            } while (alt == ref);
+            alternates[s] = alt;
+        }
+        return alternates;
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Output directory").withRequiredArg().ofType(File.class).required();
+        OptionSpec<Integer> contigsSpec = parser.accepts("contigs", "Optional. Number of contigs").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+        OptionSpec<Integer> lengthSpec = parser.accepts("length", "Optional. Length of every contig").withRequiredArg().ofType(Integer.class).defaultsTo(1000000);
+        OptionSpec<Double> depthSpec = parser.accepts("depth", "Optional. Average depth of the normal").withRequiredArg().ofType(Double.class).defaultsTo(30.0);
+        OptionSpec<Integer> readLengthSpec = parser.accepts("read-length", "Optional. Read length").withRequiredArg().ofType(Integer.class).defaultsTo(100);
+        OptionSpec<Double> puritySpec = parser.accepts("purity", "Optional. Fraction of tumor cells in the tumor").withRequiredArg().ofType(Double.class).defaultsTo(1.0);
+        OptionSpec<String> eventSpec = parser.accepts("event", "Optional. Planted event chr:start-end:copies, repeatable, a gain on chr1 and a loss on chr2 by default")
+                .withRequiredArg();
+        OptionSpec<Integer> randomSpec = parser.accepts("random-events", "Optional. Number of random events planted in place of the default ones, next to the --event ones")
+                .withRequiredArg().ofType(Integer.class);
+        OptionSpec<Long> seedSpec = parser.accepts("seed", "Optional. Seed").withRequiredArg().ofType(Long.class).defaultsTo(1L);
+        OptionSpec<Integer> windowSpec = parser.accepts("window", "Optional. Window of the .wig files").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+        parser.accepts("pileup", "Optional. Also write the normal-tumor mpileup, bgzip");
+        parser.accepts("wig", "Optional. Also write read count, GC and mappability .wig files");
+        OptionSpec<Integer> levelSpec = parser.accepts("compression", "Optional. BGZF compression level").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of contigs generated in parallel").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        int contigs = options.valueOf(contigsSpec);
+        int length = options.valueOf(lengthSpec);
+        if (options.valueOf(readLengthSpec) > length) {
+            throw new IllegalArgumentException("Reads are longer than the contigs");
+        }
+        List<Event> events = new ArrayList<Event>();
+        for (String spec : options.valuesOf(eventSpec)) {
+            events.add(Event.parse(spec));
+        }
+        if (options.has(randomSpec)) {
+            events.addAll(randomEvents(options.valueOf(randomSpec), contigs, length, options.valueOf(seedSpec), events));
+        } else if (events.isEmpty()) {
+            events = defaultEvents(contigs, length);
+        }
+        File output = options.valueOf(outputSpec);
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Can't create " + output);
+        }
+        new SyntheticGenerator(contigs, length, options.valueOf(depthSpec), options.valueOf(readLengthSpec), options.valueOf(puritySpec),
+                               options.valueOf(seedSpec), events, options.valueOf(levelSpec))
+                .write(output, options.valueOf(windowSpec), options.has("pileup"), options.has("wig"), options.valueOf(threadsSpec));
+    }
+}
@@ -0,0 +1,306 @@
+package ca.on.oicr.pde.cnv.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Resource use of a WDL task: started in the background of the task command
+ * with the pid of the task shell, samples the process tree under it from /proc
+ * every --interval seconds until the shell exits or the monitor is terminated
+ * (the task's EXIT trap), then writes a flat JSON file:
+ *
+ * <pre>
+ * task, start, wall_seconds, cpu_seconds, peak_rss_kb (sum over the tree),
+ * peak_process_rss_kb and peak_java_rss_kb (VmHWM of the largest process and
+ * of the largest java), read_bytes/write_bytes (storage), rchar/wchar (system
+ * calls), max_processes, max_threads, samples, interval_seconds and the
+ * configured job_memory_gb, java_memory_gb and timeout_hours
+ * </pre>
+ *
+ * CPU time and I/O of processes that exit are counted through their parent
+ * (cutime/cstime and the I/O of reaped children), so they are complete as long
+ * as the tree reaps its children. RSS is sampled, the peak of the sum can miss
+ * short spikes, VmHWM of single processes does not. The monitor leaves itself
+ * out of the tree. Values that can't be read are -1, configured values that
+ * aren't given are null. {@link TaskResources} summarises the files.
+ */
+public class TaskMonitor {
+
+    private static final Logger LOG = Logger.getLogger(TaskMonitor.class.getName());
+
+    private static final File PROC = new File("/proc");
+
+    private final int root;
+    private final int self;
+    private final long started = System.nanoTime();
+    private final Instant start = Instant.now();
+
+    private long cpuTicks = -1;
+    private long peakRss = -1;
+    private long peakProcessRss = -1;
+    private long peakJavaRss = -1;
+    private final long[] io = {-1, -1, -1, -1};
+    private int maxProcesses;
+    private int maxThreads;
+    private int samples;
+    private boolean written;
+
+    private static final String[] IO_KEYS = {"read_bytes:", "write_bytes:", "rchar:", "wchar:"};
+
+    TaskMonitor(int root) {
+        this.root = root;
+        this.self = self();
+    }
+
+    /**
+     * @return pid of this JVM, -1 if unknown
+     */
+    private static int self() {
+        String[] stat = stat(new File(PROC, "self"));
+        return stat == null ? -1 : Integer.parseInt(stat[0]);
+    }
+
+    /**
+     * @return parent of a process, -1 if unknown
+     */
+    private static int parent(int pid) {
+        String[] stat = stat(new File(PROC, Integer.toString(pid)));
+        return stat == null ? -1 : Integer.parseInt(stat[3]);
+    }
+
+    /**
+     * @return pid, command and the fields after the command of /proc/pid/stat, null if gone
+     */
+    private static String[] stat(File process) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(process, "stat")))) {
+            String line = reader.readLine();
+            int open = line.indexOf('(');
+            int close = line.lastIndexOf(')');
+            String[] fields = line.substring(close + 2).split(" ");
+            String[] stat = new String[fields.length + 2];
+            stat[0] = line.substring(0, open).trim();
+            stat[1] = line.substring(open + 1, close);
+            System.arraycopy(fields, 0, stat, 2, fields.length);
+            return stat;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    boolean isRunning() {
+        String[] stat = stat(new File(PROC, Integer.toString(root)));
+        return stat != null && !stat[2].equals("Z");
+    }
+
+    /**
+     * Adds a sample of the tree under the root
+     */
+    synchronized void sample() {
+        Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+        Map<Integer, String[]> stats = new HashMap<Integer, String[]>();
+        String[] names = PROC.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.isEmpty() || !Character.isDigit(name.charAt(0))) {
+                continue;
+            }
+            String[] stat = stat(new File(PROC, name));
+            if (stat == null) {
+                continue;
+            }
+            int pid = Integer.parseInt(stat[0]);
+            stats.put(pid, stat);
+            Integer ppid = Integer.valueOf(stat[3]);
+            List<Integer> list = children.get(ppid);
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                children.put(ppid, list);
+            }
+            list.add(pid);
+        }
+        if (!stats.containsKey(root)) {
+            return;
+        }
+        long ticks = 0;
+        long rss = 0;
+        long[] bytes = new long[IO_KEYS.length];
+        int processes = 0;
+        int threads = 0;
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            int pid = queue.poll();
+            if (pid == self) {
+                continue;
+            }
+            String[] stat = stats.get(pid);
+            processes++;
+            // fields 14-17: utime, stime, cutime, cstime, 20: num_threads
+            for (int i = 13; i <= 16; i++) {
+                ticks += Long.parseLong(stat[i]);
+            }
+            threads += Integer.parseInt(stat[19]);
+            File process = new File(PROC, Integer.toString(pid));
+            Map<String, Long> status = values(new File(process, "status"), "VmRSS:", "VmHWM:");
+            rss += get(status, "VmRSS:");
+            long hwm = get(status, "VmHWM:");
+            peakProcessRss = Math.max(peakProcessRss, hwm);
+            if (stat[1].equals("java")) {
+                peakJavaRss = Math.max(peakJavaRss, hwm);
+            }
+            Map<String, Long> counters = values(new File(process, "io"), IO_KEYS);
+            for (int i = 0; i < IO_KEYS.length; i++) {
+                bytes[i] = counters.containsKey(IO_KEYS[i]) && bytes[i] >= 0 ? bytes[i] + counters.get(IO_KEYS[i]) : -1;
+            }
+            List<Integer> list = children.get(pid);
+            if (list != null) {
+                queue.addAll(list);
+            }
+        }
+        samples++;
+        // totals only grow while the tree reaps its children, the largest sample is the most complete
+        cpuTicks = Math.max(cpuTicks, ticks);
+        peakRss = Math.max(peakRss, rss);
+        for (int i = 0; i < io.length; i++) {
+            io[i] = Math.max(io[i], bytes[i]);
+        }
+        maxProcesses = Math.max(maxProcesses, processes);
+        maxThreads = Math.max(maxThreads, threads);
+    }
+
+    private static long get(Map<String, Long> values, String key) {
+        Long value = values.get(key);
+        return value == null ? 0 : value;
+    }
+
+    private static Map<String, Long> values(File file, String... keys) {
+        Map<String, Long> values = new HashMap<String, Long>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                for (String key : keys) {
+                    if (line.startsWith(key)) {
+                        values.put(key, Long.parseLong(line.substring(key.length()).trim().split("\\s+")[0]));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // gone or not readable, left out
+        }
+        return values;
+    }
+
+    /**
+     * Writes the metrics once, through a temporary file so a terminated task never leaves half a file
+     */
+    synchronized void write(File output, String task, double interval, Integer jobMemory, Integer javaMemory, Integer timeout) throws IOException {
+        if (written) {
+            return;
+        }
+        written = true;
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("task", task);
+        metrics.put("start", start.toString());
+        metrics.put("wall_seconds", (System.nanoTime() - started) / 1e9);
+        // clock ticks are 1/100 s on Linux
+        metrics.put("cpu_seconds", cpuTicks < 0 ? -1 : cpuTicks / 100.0);
+        metrics.put("peak_rss_kb", peakRss);
+        metrics.put("peak_process_rss_kb", peakProcessRss);
+        metrics.put("peak_java_rss_kb", peakJavaRss);
+        metrics.put("read_bytes", io[0]);
+        metrics.put("write_bytes", io[1]);
+        metrics.put("rchar", io[2]);
+        metrics.put("wchar", io[3]);
+        metrics.put("max_processes", maxProcesses);
+        metrics.put("max_threads", maxThreads);
+        metrics.put("samples", samples);
+        metrics.put("interval_seconds", interval);
+        metrics.put("job_memory_gb", jobMemory);
+        metrics.put("java_memory_gb", javaMemory);
+        metrics.put("timeout_hours", timeout);
+
+        File tmp = new File(output.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            int i = 0;
+            for (Map.Entry<String, Object> e : metrics.entrySet()) {
+                Object value = e.getValue();
+                String text = value == null ? "null"
+                        : value instanceof String ? "\"" + ((String) value).replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+                        : value instanceof Double ? String.format(Locale.ROOT, "%.3f", (Double) value) : value.toString();
+                writer.write("  \"" + e.getKey() + "\": " + text + (++i < metrics.size() ? ",\n" : "\n"));
+            }
+            writer.write("}\n");
+        }
+        Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. JSON metrics file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> taskSpec = parser.accepts("task", "Required. Task name").withRequiredArg().required();
+        OptionSpec<Integer> pidSpec = parser.accepts("pid", "Optional. Root of the process tree, the parent of the monitor by default")
+                .withRequiredArg().ofType(Integer.class);
+        OptionSpec<Double> intervalSpec = parser.accepts("interval", "Optional. Seconds between samples").withRequiredArg().ofType(Double.class).defaultsTo(10.0);
+        OptionSpec<Integer> jobMemorySpec = parser.accepts("job-memory", "Optional. Configured task memory, GB, recorded").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Integer> javaMemorySpec = parser.accepts("java-memory", "Optional. Configured java heap, GB, recorded").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Integer> timeoutSpec = parser.accepts("timeout", "Optional. Configured timeout, hours, recorded").withRequiredArg().ofType(Integer.class);
+        OptionSet options = parser.parse(args);
+
+        int pid = options.has(pidSpec) ? options.valueOf(pidSpec) : parent(self());
+        if (pid <= 0) {
+            throw new IllegalArgumentException("No process to monitor, /proc is not readable");
+        }
+        final TaskMonitor monitor = new TaskMonitor(pid);
+        final File output = options.valueOf(outputSpec);
+        final String task = options.valueOf(taskSpec);
+        final double interval = options.valueOf(intervalSpec);
+        final Integer jobMemory = options.valueOf(jobMemorySpec);
+        final Integer javaMemory = options.valueOf(javaMemorySpec);
+        final Integer timeout = options.valueOf(timeoutSpec);
+        // the task's EXIT trap terminates the monitor, the hook takes a last sample and writes the file
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                monitor.sample();
+                try {
+                    monitor.write(output, task, interval, jobMemory, javaMemory, timeout);
+                } catch (IOException ioe) {
+                    LOG.severe("Could not write " + output + ": " + ioe.getMessage());
+                }
+            }
+        });
+        long sleep = Math.max(100, (long) (interval * 1000));
+        while (monitor.isRunning()) {
+            monitor.sample();
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        monitor.write(output, task, interval, jobMemory, javaMemory, timeout);
+    }
+}
@@ -0,0 +1,276 @@
+package ca.on.oicr.pde.cnv.bench;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Summarises the {@link TaskMonitor} metrics of many runs into recommended
+ * resource settings per task. Arguments are metrics files or directories
+ * searched for them (a Cromwell executions directory for instance).
+ *
+ * Memory is sized on the largest run, not a percentile, since a run above the
+ * limit is killed: jobMemory is the peak RSS of the tree, javaMemory the peak
+ * RSS of the java process (only for tasks running java), both with
+ * --headroom. A java that used nearly all of its configured heap may have been
+ * held back by it, its configured value is then kept as the least
+ * recommendation. The timeout is --timeout-factor times the longest run.
+ * Runs of different sizes should be summarised separately.
+ *
+ * <pre>
+ * task  runs  job_memory  java_memory  timeout  rss_p50_kb  rss_p95_kb  rss_max_kb  java_rss_max_kb
+ * wall_p50_s  wall_max_s  cpu_per_wall  read_bytes_max  write_bytes_max
+ * recommended_job_memory  recommended_java_memory  recommended_timeout
+ * </pre>
+ * Configured values are the largest seen, NA where none was recorded.
+ */
+public class TaskResources {
+
+    private static final Logger LOG = Logger.getLogger(TaskResources.class.getName());
+
+    private static final long GB_KB = 1024L * 1024L;
+    private static final String NA = "NA";
+
+    private TaskResources() {
+    }
+
+    /**
+     * Reads the flat JSON object written by {@link TaskMonitor}, values are
+     * strings, numbers or null
+     */
+    static Map<String, String> parse(File file) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        if (!text.startsWith("{") || !text.endsWith("}")) {
+            throw new IOException(file + " is not a JSON object");
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        int i = 1;
+        int end = text.length() - 1;
+        while (true) {
+            i = skip(text, i, end);
+            if (i >= end) {
+                return values;
+            }
+            int[] key = string(text, i, file);
+            i = skip(text, key[1], end);
+            if (text.charAt(i) != ':') {
+                throw new IOException(file + " has no value after a key at " + i);
+            }
+            i = skip(text, i + 1, end);
+            String value;
+            if (text.charAt(i) == '"') {
+                int[] v = string(text, i, file);
+                value = unescape(text.substring(v[0], v[1] - 1));
+                i = v[1];
+            } else {
+                int j = i;
+                while (j < end && text.charAt(j) != ',' && !Character.isWhitespace(text.charAt(j))) {
+                    j++;
+                }
+                value = text.substring(i, j);
+                if (value.equals("null")) {
+                    value = null;
+                }
+                i = j;
+            }
+            values.put(unescape(text.substring(key[0], key[1] - 1)), value);
+            i = skip(text, i, end);
+            if (i < end && text.charAt(i) == ',') {
+                i++;
+            }
+        }
+    }
+
+    private static int skip(String text, int i, int end) {
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return start of the content and position after the closing quote of the string at i
+     */
+    private static int[] string(String text, int i, File file) throws IOException {
+        if (text.charAt(i) != '"') {
+            throw new IOException(file + " has no string at " + i);
+        }
+        int j = i + 1;
+        while (j < text.length() && text.charAt(j) != '"') {
+            j += text.charAt(j) == '\\' ? 2 : 1;
+        }
+        if (j >= text.length()) {
+            throw new IOException(file + " has an unterminated string at " + i);
+        }
+        return new int[]{i + 1, j + 1};
+    }
+
+    private static String unescape(String s) {
+        return s.replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+
+    /**
+     * Metrics of all runs of one task
+     */
+    private static final class Runs {
+
+        final List<double[]> runs = new ArrayList<double[]>();
+        double jobMemory = -1;
+        double javaMemory = -1;
+        double timeout = -1;
+    }
+
+    private static final String[] METRICS = {"peak_rss_kb", "peak_java_rss_kb", "wall_seconds", "cpu_seconds", "read_bytes", "write_bytes"};
+    private static final int RSS = 0;
+    private static final int JAVA_RSS = 1;
+    private static final int WALL = 2;
+    private static final int CPU = 3;
+    private static final int READ = 4;
+    private static final int WRITE = 5;
+
+    private static double number(Map<String, String> values, String key) {
+        String value = values.get(key);
+        try {
+            return value == null ? -1 : Double.parseDouble(value);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    private static void collect(File file, String name, List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    collect(child, name, files);
+                }
+            }
+        } else if (file.getName().equals(name)) {
+            files.add(file);
+        }
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static double[] column(List<double[]> runs, int metric) {
+        double[] values = new double[runs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = runs.get(i)[metric];
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static String configured(double value) {
+        return value < 0 ? NA : Long.toString((long) value);
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Summary and recommendations per task, .tsv").withRequiredArg().ofType(File.class)
+                .required();
+        OptionSpec<String> nameSpec = parser.accepts("name", "Optional. Name of the metrics files searched for in directories").withRequiredArg()
+                .defaultsTo("task-metrics.json");
+        OptionSpec<Double> headroomSpec = parser.accepts("headroom", "Optional. Memory added to the peaks, fraction").withRequiredArg().ofType(Double.class)
+                .defaultsTo(0.25);
+        OptionSpec<Double> timeoutFactorSpec = parser.accepts("timeout-factor", "Optional. Timeout as a multiple of the longest run").withRequiredArg()
+                .ofType(Double.class).defaultsTo(3.0);
+        OptionSpec<File> inputSpec = parser.nonOptions("metrics files or directories").ofType(File.class);
+        OptionSet options = parser.parse(args);
+
+        List<File> files = new ArrayList<File>();
+        for (File input : options.valuesOf(inputSpec)) {
+            if (input.isDirectory()) {
+                collect(input, options.valueOf(nameSpec), files);
+            } else {
+                files.add(input);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No metrics files");
+        }
+        Map<String, Runs> tasks = new TreeMap<String, Runs>();
+        for (File file : files) {
+            Map<String, String> values = parse(file);
+            String task = values.get("task");
+            if (task == null || number(values, "samples") <= 0) {
+                LOG.warning("Skipping " + file + ", no task or no samples");
+                continue;
+            }
+            Runs runs = tasks.get(task);
+            if (runs == null) {
+                runs = new Runs();
+                tasks.put(task, runs);
+            }
+            double[] run = new double[METRICS.length];
+            for (int i = 0; i < METRICS.length; i++) {
+                run[i] = number(values, METRICS[i]);
+            }
+            runs.runs.add(run);
+            runs.jobMemory = Math.max(runs.jobMemory, number(values, "job_memory_gb"));
+            runs.javaMemory = Math.max(runs.javaMemory, number(values, "java_memory_gb"));
+            runs.timeout = Math.max(runs.timeout, number(values, "timeout_hours"));
+        }
+
+        double headroom = 1 + options.valueOf(headroomSpec);
+        try (BufferedWriter writer = TextFiles.openWriter(options.valueOf(outputSpec))) {
+            writer.write("task\truns\tjob_memory\tjava_memory\ttimeout\trss_p50_kb\trss_p95_kb\trss_max_kb\tjava_rss_max_kb\twall_p50_s\twall_max_s"
+                    + "\tcpu_per_wall\tread_bytes_max\twrite_bytes_max\trecommended_job_memory\trecommended_java_memory\trecommended_timeout\n");
+            for (Map.Entry<String, Runs> e : tasks.entrySet()) {
+                Runs runs = e.getValue();
+                double[] rss = column(runs.runs, RSS);
+                double[] java = column(runs.runs, JAVA_RSS);
+                double[] wall = column(runs.runs, WALL);
+                double javaMax = java[java.length - 1];
+                double cpuTotal = 0;
+                double wallTotal = 0;
+                for (int i = 0; i < runs.runs.size(); i++) {
+                    if (runs.runs.get(i)[CPU] >= 0 && runs.runs.get(i)[WALL] > 0) {
+                        cpuTotal += runs.runs.get(i)[CPU];
+                        wallTotal += runs.runs.get(i)[WALL];
+                    }
+                }
+
+                String javaMemory = NA;
+                long javaGb = 0;
+                if (javaMax > 0) {
+                    javaGb = Math.max(1, (long) Math.ceil(javaMax * headroom / GB_KB));
+                    if (runs.javaMemory > 0 && javaMax >= 0.9 * runs.javaMemory * GB_KB) {
+                        javaGb = Math.max(javaGb, (long) runs.javaMemory);
+                    }
+                    javaMemory = Long.toString(javaGb);
+                }
+                long jobGb = Math.max(1, (long) Math.ceil(rss[rss.length - 1] * headroom / GB_KB));
+                // the heap can grow to -Xmx whatever was seen, the rest of the tree comes on top
+                jobGb = Math.max(jobGb, javaGb + 1);
+                long timeout = Math.max(1, (long) Math.ceil(wall[wall.length - 1] * options.valueOf(timeoutFactorSpec) / 3600));
+
+                writer.write(e.getKey() + "\t" + runs.runs.size() + "\t" + configured(runs.jobMemory) + "\t" + configured(runs.javaMemory) + "\t"
+                        + configured(runs.timeout) + "\t" + (long) percentile(rss, 0.5) + "\t" + (long) percentile(rss, 0.95) + "\t"
+                        + (long) rss[rss.length - 1] + "\t" + (javaMax < 0 ? NA : Long.toString((long) javaMax)) + "\t"
+                        + String.format(Locale.ROOT, "%.1f\t%.1f\t%s", percentile(wall, 0.5), wall[wall.length - 1],
+                                        wallTotal == 0 ? NA : String.format(Locale.ROOT, "%.2f", cpuTotal / wallTotal))
+                        + "\t" + (long) column(runs.runs, READ)[runs.runs.size() - 1] + "\t" + (long) column(runs.runs, WRITE)[runs.runs.size() - 1]
+                        + "\t" + jobGb + "\t" + javaMemory + "\t" + timeout + "\n");
+            }
+        }
+        LOG.info("Summarised " + files.size() + " metrics files of " + tasks.size() + " tasks");
+    }
+}
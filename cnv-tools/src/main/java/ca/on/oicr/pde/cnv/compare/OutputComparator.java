@@ -0,0 +1,343 @@
+package ca.on.oicr.pde.cnv.compare;
+
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.SegmentReader;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Content-aware comparison of CNV workflow outputs for regression tests.
+ * --expected and --actual are two caller outputs, two output directories
+ * (files matched by name, pairs compared on --threads threads) or two
+ * profiles written by --profile. Segment files are compared with
+ * {@link SegmentComparison}, variant files with {@link VariantComparison},
+ * both streaming the sorted files side by side in constant memory.
+ *
+ * Every check is a line of file, metric, expected, actual, score, limit and
+ * pass. Counts (segments, gains, losses, covered bases, variants) pass if the
+ * actual count is within --max-count-delta of the expected one, overlap,
+ * concordance and correlation if they reach their minimum. The command fails
+ * if any check does.
+ *
+ * File types come from the names: .bicseg (bicseq), .copynumber* (varscan),
+ * .seg and .tsv (hmmcopy), _CNVs (freec), _ratio.txt (freec-ratio), .vcf,
+ * .vcf.gz, .snp and .indel (variants). Other files are ignored.
+ */
+public class OutputComparator {
+
+    private static final Logger LOG = Logger.getLogger(OutputComparator.class.getName());
+
+    static final String VARIANTS = "variants";
+
+    private final ContigOrder order;
+    private final double gain;
+    private final double loss;
+    private final double ploidy;
+    private final double minOverlap;
+    private final double minConcordance;
+    private final double minCorrelation;
+    private final double maxCountDelta;
+
+    OutputComparator(ContigOrder order, double gain, double loss, double ploidy, double minOverlap, double minConcordance,
+                     double minCorrelation, double maxCountDelta) {
+        this.order = order;
+        this.gain = gain;
+        this.loss = loss;
+        this.ploidy = ploidy;
+        this.minOverlap = minOverlap;
+        this.minConcordance = minConcordance;
+        this.minCorrelation = minCorrelation;
+        this.maxCountDelta = maxCountDelta;
+    }
+
+    /**
+     * Checks of one file
+     */
+    final class Checks {
+
+        final String file;
+        final List<String> lines = new ArrayList<String>();
+        int failed;
+
+        Checks(String file) {
+            this.file = file;
+        }
+
+        void count(String metric, double expected, double actual) {
+            double delta = Math.abs(actual - expected) / Math.max(Math.abs(expected), 1.0);
+            add(metric, format(expected), format(actual), delta, maxCountDelta, delta <= maxCountDelta);
+        }
+
+        void score(String metric, double score, double min) {
+            add(metric, "NA", "NA", score, min, !Double.isNaN(score) && (Double.isNaN(min) || score >= min));
+        }
+
+        void add(String metric, String expected, String actual, double score, double limit, boolean pass) {
+            lines.add(file + "\t" + metric + "\t" + expected + "\t" + actual + "\t" + format(score) + "\t" + format(limit) + "\t" + pass);
+            if (!pass) {
+                failed++;
+            }
+        }
+
+        private String format(double v) {
+            return Double.isNaN(v) ? "NA" : v == Math.rint(v) && Math.abs(v) < 1e15 ? Long.toString((long) v)
+                    : String.format(Locale.ROOT, "%.4f", v);
+        }
+    }
+
+    /**
+     * @return format name of a caller output, {@link #VARIANTS} for variant files, null for other files
+     */
+    static String kindOf(String name) {
+        if (name.endsWith(".bicseg")) {
+            return "bicseq";
+        }
+        if (name.contains(".copynumber")) {
+            return "varscan";
+        }
+        if (name.endsWith(".seg") || name.endsWith(".tsv")) {
+            return "hmmcopy";
+        }
+        if (name.endsWith("_CNVs")) {
+            return "freec";
+        }
+        if (name.endsWith("_ratio.txt")) {
+            return "freec-ratio";
+        }
+        if (name.endsWith(".vcf") || name.endsWith(".vcf.gz") || name.endsWith(".snp") || name.endsWith(".indel")) {
+            return VARIANTS;
+        }
+        return null;
+    }
+
+    /**
+     * @return caller outputs of a directory by name, sorted
+     */
+    static TreeMap<String, String> outputs(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Can't list " + directory);
+        }
+        TreeMap<String, String> outputs = new TreeMap<String, String>();
+        for (File f : files) {
+            String kind = f.isFile() ? kindOf(f.getName()) : null;
+            if (kind != null) {
+                outputs.put(f.getName(), kind);
+            }
+        }
+        return outputs;
+    }
+
+    void segments(Checks checks, SegmentComparison c, String unit) {
+        checks.count(unit, c.getSegments(SegmentComparison.EXPECTED), c.getSegments(SegmentComparison.ACTUAL));
+        checks.count("gains", c.getGains(SegmentComparison.EXPECTED), c.getGains(SegmentComparison.ACTUAL));
+        checks.count("losses", c.getLosses(SegmentComparison.EXPECTED), c.getLosses(SegmentComparison.ACTUAL));
+        checks.count("bases", c.getBases(SegmentComparison.EXPECTED), c.getBases(SegmentComparison.ACTUAL));
+        checks.score("overlap", c.getOverlap(), minOverlap);
+        checks.score("concordance", c.getConcordance(), minConcordance);
+        checks.score("call_concordance", c.getCallConcordance(), Double.NaN);
+        checks.score("correlation", c.getCorrelation(), minCorrelation);
+    }
+
+    /**
+     * Compares two caller outputs of the same kind
+     */
+    Checks compareFiles(String name, File expected, File actual, String kind) throws IOException {
+        Checks checks = new Checks(name);
+        if (kind.equals(VARIANTS)) {
+            VariantComparison c = new VariantComparison(order).run(expected, actual);
+            checks.count("variants", c.getVariants(SegmentComparison.EXPECTED), c.getVariants(SegmentComparison.ACTUAL));
+            checks.score("concordance", c.getConcordance(), minConcordance);
+            return checks;
+        }
+        SegmentReader.Format format = SegmentReader.Format.forName(kind);
+        try (SegmentReader e = new SegmentReader(expected, format, ploidy);
+             SegmentReader a = new SegmentReader(actual, format, ploidy)) {
+            segments(checks, new SegmentComparison(order, gain, loss).run(e, a), "segments");
+        }
+        return checks;
+    }
+
+    /**
+     * Compares the files of two directories, in parallel
+     */
+    List<Checks> compareDirectories(final File expected, final File actual, int threads) throws IOException {
+        final TreeMap<String, String> e = outputs(expected);
+        TreeMap<String, String> a = outputs(actual);
+        TreeSet<String> names = new TreeSet<String>(e.keySet());
+        names.addAll(a.keySet());
+        List<Checks> results = new ArrayList<Checks>();
+        List<Future<Checks>> futures = new ArrayList<Future<Checks>>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            for (final String name : names) {
+                if (!e.containsKey(name) || !a.containsKey(name)) {
+                    Checks missing = new Checks(name);
+                    missing.add("present", e.containsKey(name) ? "1" : "0", a.containsKey(name) ? "1" : "0", Double.NaN, Double.NaN, false);
+                    results.add(missing);
+                    continue;
+                }
+                futures.add(pool.submit(new Callable<Checks>() {
+                    @Override
+                    public Checks call() throws IOException {
+                        return compareFiles(name, new File(expected, name), new File(actual, name), e.get(name));
+                    }
+                }));
+            }
+            for (Future<Checks> f : futures) {
+                try {
+                    results.add(f.get());
+                } catch (ExecutionException ee) {
+                    throw new IOException("Comparing outputs failed", ee.getCause());
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while comparing outputs", ie);
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Compares two profiles file by file
+     */
+    List<Checks> compareProfiles(File expected, File actual) throws IOException {
+        List<Checks> results = new ArrayList<Checks>();
+        try (Profile.Reader e = new Profile.Reader(expected);
+             Profile.Reader a = new Profile.Reader(actual)) {
+            String fe = e.nextFile();
+            String fa = a.nextFile();
+            while (fe != null || fa != null) {
+                int c = fe == null ? 1 : fa == null ? -1 : fe.compareTo(fa);
+                if (c != 0) {
+                    Checks missing = new Checks(c < 0 ? fe : fa);
+                    missing.add("present", c < 0 ? "1" : "0", c < 0 ? "0" : "1", Double.NaN, Double.NaN, false);
+                    results.add(missing);
+                } else {
+                    Checks checks = new Checks(fe);
+                    SegmentComparison comparison = new SegmentComparison(order, gain, loss).run(e, a);
+                    if (Profile.VARIANTS.equals(e.getKind())) {
+                        checks.count("variants", comparison.getSum(SegmentComparison.EXPECTED), comparison.getSum(SegmentComparison.ACTUAL));
+                        checks.score("correlation", comparison.getCorrelation(), minCorrelation);
+                    } else {
+                        segments(checks, comparison, "windows");
+                    }
+                    results.add(checks);
+                }
+                fe = c <= 0 ? e.nextFile() : fe;
+                fa = c >= 0 ? a.nextFile() : fa;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Writes the profile of the caller outputs of a directory
+     */
+    void profile(File directory, long window, Writer writer) throws IOException {
+        Profile.writeHeader(writer, window);
+        for (Map.Entry<String, String> output : outputs(directory).entrySet()) {
+            File file = new File(directory, output.getKey());
+            if (output.getValue().equals(VARIANTS)) {
+                try (VariantComparison.VariantReader reader = new VariantComparison.VariantReader(file)) {
+                    Profile.writeVariants(output.getKey(), reader, window, writer);
+                }
+            } else {
+                try (SegmentReader reader = new SegmentReader(file, SegmentReader.Format.forName(output.getValue()), ploidy)) {
+                    Profile.writeSegments(output.getKey(), reader, window, gain, loss, writer);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> expectedSpec = parser.accepts("expected", "Optional. Expected output file, directory or profile").withRequiredArg().ofType(File.class);
+        OptionSpec<File> actualSpec = parser.accepts("actual", "Optional. Actual output file, directory or profile, required with --expected").withRequiredArg().ofType(File.class);
+        OptionSpec<File> profileSpec = parser.accepts("profile", "Optional. Write the profile of the outputs of this directory instead of comparing").withRequiredArg().ofType(File.class);
+        OptionSpec<String> formatSpec = parser.accepts("format", "Optional. Kind of two files: bicseq, varscan, hmmcopy, freec, freec-ratio or variants, from the names by default")
+                .withRequiredArg();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Optional. Checks or profile, standard output by default").withRequiredArg().ofType(File.class);
+        OptionSpec<File> dictSpec = parser.accepts("dict", "Optional. Sequence dictionary (.dict or .fai) with the contig order of the files").withRequiredArg().ofType(File.class);
+        OptionSpec<Double> gainSpec = parser.accepts("gain", "Optional. log2 ratio from which a segment without a call is a gain").withRequiredArg().ofType(Double.class).defaultsTo(0.2);
+        OptionSpec<Double> lossSpec = parser.accepts("loss", "Optional. log2 ratio up to which a segment without a call is a loss").withRequiredArg().ofType(Double.class).defaultsTo(-0.2);
+        OptionSpec<Double> ploidySpec = parser.accepts("ploidy", "Optional. Ploidy of FREEC copy numbers and ratios").withRequiredArg().ofType(Double.class).defaultsTo(2.0);
+        OptionSpec<Long> windowSpec = parser.accepts("window", "Optional. Window size of a profile").withRequiredArg().ofType(Long.class).defaultsTo(100000L);
+        OptionSpec<Double> overlapSpec = parser.accepts("min-overlap", "Optional. Minimum fraction of bases covered by both outputs").withRequiredArg().ofType(Double.class).defaultsTo(0.95);
+        OptionSpec<Double> concordanceSpec = parser.accepts("min-concordance", "Optional. Minimum fraction of bases with the same call, of shared variants")
+                .withRequiredArg().ofType(Double.class).defaultsTo(0.95);
+        OptionSpec<Double> correlationSpec = parser.accepts("min-correlation", "Optional. Minimum correlation of log2 ratios").withRequiredArg().ofType(Double.class).defaultsTo(0.9);
+        OptionSpec<Double> deltaSpec = parser.accepts("max-count-delta", "Optional. Maximum relative difference of counts").withRequiredArg().ofType(Double.class).defaultsTo(0.05);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of file pairs compared in parallel").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        if (options.has(profileSpec) == options.has(expectedSpec) || options.has(expectedSpec) != options.has(actualSpec)) {
+            throw new IllegalArgumentException("Either --profile or --expected and --actual are required");
+        }
+        OutputComparator comparator = new OutputComparator(
+                options.has(dictSpec) ? ContigOrder.fromFile(options.valueOf(dictSpec)) : ContigOrder.natural(),
+                options.valueOf(gainSpec), options.valueOf(lossSpec), options.valueOf(ploidySpec), options.valueOf(overlapSpec),
+                options.valueOf(concordanceSpec), options.valueOf(correlationSpec), options.valueOf(deltaSpec));
+        try (Writer writer = options.has(outputSpec) ? TextFiles.openWriter(options.valueOf(outputSpec))
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            if (options.has(profileSpec)) {
+                comparator.profile(options.valueOf(profileSpec), options.valueOf(windowSpec), writer);
+                return;
+            }
+            File expected = options.valueOf(expectedSpec);
+            File actual = options.valueOf(actualSpec);
+            List<Checks> results;
+            if (expected.isDirectory() && actual.isDirectory()) {
+                results = comparator.compareDirectories(expected, actual, options.valueOf(threadsSpec));
+            } else if (Profile.isProfile(expected) && Profile.isProfile(actual)) {
+                results = comparator.compareProfiles(expected, actual);
+            } else {
+                String kind = options.has(formatSpec) ? options.valueOf(formatSpec) : kindOf(expected.getName());
+                if (kind == null) {
+                    throw new IllegalArgumentException("Can't tell the kind of " + expected + " from its name, --format is required");
+                }
+                results = new ArrayList<Checks>();
+                results.add(comparator.compareFiles(expected.getName(), expected, actual, kind));
+            }
+
+            writer.write("file\tmetric\texpected\tactual\tscore\tlimit\tpass\n");
+            int failed = 0;
+            int checks = 0;
+            for (Checks c : results) {
+                for (String line : c.lines) {
+                    writer.write(line + "\n");
+                }
+                failed += c.failed;
+                checks += c.lines.size();
+            }
+            writer.flush();
+            if (failed > 0) {
+                throw new IllegalStateException(failed + " of " + checks + " checks failed");
+            }
+            LOG.info("All " + checks + " checks of " + results.size() + " files passed");
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ca.on.oicr.pde.cnv.compare;
+
+import ca.on.oicr.pde.cnv.consensus.ConsensusCaller;
+import ca.on.oicr.pde.cnv.io.Segment;
+import ca.on.oicr.pde.cnv.io.SegmentReader;
+import ca.on.oicr.pde.cnv.io.SegmentSource;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Compact summary of the outputs of a workflow run that can stand in for the
+ * outputs in a regression test: every segment file binned into fixed windows
+ * (base-weighted mean log2 ratio and the state covering most bases) and every
+ * variant file as the number of variants per window. Written by the metrics
+ * calculation of the workflow tests, compared window by window later.
+ *
+ * <pre>
+ * #cnv-profile
+ * file  kind  chrom  start  end  value  call
+ * </pre>
+ * kind is segments or variants, start is 1-based, files sorted by name and
+ * windows in the order of their file.
+ */
+final class Profile {
+
+    static final String MAGIC = "#cnv-profile";
+    static final String SEGMENTS = "segments";
+    static final String VARIANTS = "variants";
+
+    private Profile() {
+    }
+
+    static boolean isProfile(File file) throws IOException {
+        if (file.isDirectory()) {
+            return false;
+        }
+        try (BufferedReader reader = TextFiles.openReader(file)) {
+            String line = reader.readLine();
+            return line != null && line.startsWith(MAGIC);
+        }
+    }
+
+    /**
+     * Windows of one file, kept open until a window past the current one gets a value
+     */
+    static final class Binner {
+
+        private final String name;
+        private final String kind;
+        private final long window;
+        private final double gain;
+        private final double loss;
+        private final Writer writer;
+        private String contig;
+        private long bin = -1;
+        private long covered;
+        private double sum;
+        private final long[] states = new long[3];
+
+        Binner(String name, String kind, long window, double gain, double loss, Writer writer) {
+            this.name = name;
+            this.kind = kind;
+            this.window = window;
+            this.gain = gain;
+            this.loss = loss;
+            this.writer = writer;
+        }
+
+        /**
+         * Segment of a segment file, parts in windows already written are dropped
+         */
+        void add(Segment s) throws IOException {
+            int state = ConsensusCaller.state(s, gain, loss) + 1;
+            for (long b = s.getStart() / window; b * window < s.getEnd(); b++) {
+                if (!move(s.getContig(), b)) {
+                    continue;
+                }
+                long bases = Math.min(s.getEnd(), (b + 1) * window) - Math.max(s.getStart(), b * window);
+                covered += bases;
+                sum += s.getValue() * bases;
+                states[state] += bases;
+            }
+        }
+
+        /**
+         * Variant at a 1-based position
+         */
+        void add(String contig, long position) throws IOException {
+            if (move(contig, (position - 1) / window)) {
+                covered++;
+                sum++;
+            }
+        }
+
+        /**
+         * @return false if the window was already written
+         */
+        private boolean move(String c, long b) throws IOException {
+            if (c.equals(contig) && b == bin) {
+                return true;
+            }
+            if (c.equals(contig) && b < bin) {
+                return false;
+            }
+            flush();
+            contig = c;
+            bin = b;
+            return true;
+        }
+
+        void flush() throws IOException {
+            if (contig == null || covered == 0) {
+                return;
+            }
+            String call = "NA";
+            if (kind.equals(SEGMENTS)) {
+                int best = ConsensusCaller.NEUTRAL + 1;
+                for (int i = 0; i < states.length; i++) {
+                    if (states[i] > states[best]) {
+                        best = i;
+                    }
+                }
+                call = best == ConsensusCaller.GAIN + 1 ? "gain" : best == ConsensusCaller.LOSS + 1 ? "loss" : "neutral";
+            }
+            double value = kind.equals(SEGMENTS) ? sum / covered : sum;
+            writer.write(name + "\t" + kind + "\t" + contig + "\t" + (bin * window + 1) + "\t" + ((bin + 1) * window) + "\t"
+                    + String.format(Locale.ROOT, kind.equals(SEGMENTS) ? "%.4f" : "%.0f", value) + "\t" + call + "\n");
+            covered = 0;
+            sum = 0;
+            states[0] = states[1] = states[2] = 0;
+        }
+    }
+
+    static void writeHeader(Writer writer, long window) throws IOException {
+        writer.write(MAGIC + "\twindow=" + window + "\nfile\tkind\tchrom\tstart\tend\tvalue\tcall\n");
+    }
+
+    static void writeSegments(String name, SegmentReader reader, long window, double gain, double loss, Writer writer) throws IOException {
+        Binner binner = new Binner(name, SEGMENTS, window, gain, loss, writer);
+        Segment s;
+        while ((s = reader.next()) != null) {
+            binner.add(s);
+        }
+        binner.flush();
+    }
+
+    static void writeVariants(String name, VariantComparison.VariantReader reader, long window, Writer writer) throws IOException {
+        Binner binner = new Binner(name, VARIANTS, window, 0, 0, writer);
+        while (reader.next()) {
+            binner.add(reader.getContig(), reader.getPosition());
+        }
+        binner.flush();
+    }
+
+    /**
+     * Reads a profile one file at a time, the windows of the current file are
+     * its segments: the mean log2 ratio and state of segment files, the number
+     * of variants of variant files
+     */
+    static final class Reader implements SegmentSource {
+
+        private final File file;
+        private final BufferedReader reader;
+        private String[] pending;
+        private String current;
+        private String kind;
+
+        Reader(File file) throws IOException {
+            this.file = file;
+            this.reader = TextFiles.openReader(file);
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(MAGIC)) {
+                reader.close();
+                throw new IOException(file + " is not a profile");
+            }
+            pending = read();
+            if (pending != null && pending[0].equals("file")) {
+                pending = read();
+            }
+        }
+
+        private String[] read() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    String[] tmp = line.split("\t");
+                    if (tmp.length < 7) {
+                        throw new IOException(file + " has a line with less than 7 columns: " + line);
+                    }
+                    return tmp;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Skips the rest of the current file
+         *
+         * @return name of the next file, null at the end
+         */
+        String nextFile() throws IOException {
+            while (pending != null && pending[0].equals(current)) {
+                pending = read();
+            }
+            current = pending == null ? null : pending[0];
+            kind = pending == null ? null : pending[1];
+            return current;
+        }
+
+        /**
+         * @return name of the current file, null before the first and after the last one
+         */
+        String getFile() {
+            return current;
+        }
+
+        String getKind() {
+            return kind;
+        }
+
+        @Override
+        public Segment next() throws IOException {
+            if (pending == null || !pending[0].equals(current)) {
+                return null;
+            }
+            String[] tmp = pending;
+            pending = read();
+            try {
+                return new Segment(tmp[2], Long.parseLong(tmp[3]) - 1, Long.parseLong(tmp[4]), Double.parseDouble(tmp[5]),
+                                   tmp[6].equals("NA") ? null : tmp[6]);
+            } catch (NumberFormatException nfe) {
+                throw new IOException(file + " has an invalid window of " + current + ": " + String.join("\t", tmp));
+            }
+        }
+
+        @Override
+        public String getName() {
+            return file + " (" + current + ")";
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package ca.on.oicr.pde.cnv.compare;
+
+import ca.on.oicr.pde.cnv.consensus.ConsensusCaller;
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.Segment;
+import ca.on.oicr.pde.cnv.io.SegmentSource;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compares the segments of an expected and an actual caller output in one
+ * sweep over both sorted files, like {@link ConsensusCaller} with two callers:
+ * between two breakpoints each side has at most one segment, so every piece
+ * is covered by both, one or neither and the calls either agree or not.
+ *
+ * Collected, all weighted by bases: overlap (covered by both / covered by
+ * either), concordance (same gain, loss or neutral state / covered by either),
+ * call concordance (same gain or loss / gain or loss on either side) and the
+ * Pearson correlation of the log2 ratios where both have a segment, plus the
+ * number of segments, gains and losses and the sum of the values on each
+ * side. Only the current segment of each side is kept, memory is constant.
+ */
+public class SegmentComparison {
+
+    public static final int EXPECTED = 0;
+    public static final int ACTUAL   = 1;
+
+    private final ContigOrder order;
+    private final double gain;
+    private final double loss;
+
+    private final Segment[] heads = new Segment[2];
+    private final SegmentSource[] sources = new SegmentSource[2];
+    private final Set<String> finished = new HashSet<String>();
+
+    private final long[] segments = new long[2];
+    private final long[][] calls = new long[2][3];
+    private final long[] bases = new long[2];
+    private final double[] sums = new double[2];
+    private long union;
+    private long shared;
+    private long agree;
+    private long called;
+    private long calledAgree;
+
+    // weighted covariance, updated incrementally (West 1979)
+    private double weight;
+    private double meanX;
+    private double meanY;
+    private double cXX;
+    private double cYY;
+    private double cXY;
+
+    /**
+     * @param order contig order of both files
+     * @param gain  log2 ratio from which a segment without a call is a gain
+     * @param loss  log2 ratio up to which a segment without a call is a loss
+     */
+    public SegmentComparison(ContigOrder order, double gain, double loss) {
+        this.order = order;
+        this.gain = gain;
+        this.loss = loss;
+    }
+
+    /**
+     * Streams both sources to the end, they are not closed
+     */
+    public SegmentComparison run(SegmentSource expected, SegmentSource actual) throws IOException {
+        sources[EXPECTED] = expected;
+        sources[ACTUAL] = actual;
+        heads[EXPECTED] = advance(EXPECTED);
+        heads[ACTUAL] = advance(ACTUAL);
+        while (heads[EXPECTED] != null || heads[ACTUAL] != null) {
+            String contig = heads[EXPECTED] == null ? heads[ACTUAL].getContig()
+                    : heads[ACTUAL] == null || order.compare(heads[EXPECTED].getContig(), heads[ACTUAL].getContig()) <= 0
+                    ? heads[EXPECTED].getContig() : heads[ACTUAL].getContig();
+            sweep(contig);
+            finished.add(contig);
+        }
+        return this;
+    }
+
+    private void sweep(String contig) throws IOException {
+        long pos = Long.MAX_VALUE;
+        for (Segment h : heads) {
+            if (on(h, contig)) {
+                pos = Math.min(pos, h.getStart());
+            }
+        }
+        while (true) {
+            long next = Long.MAX_VALUE;
+            for (Segment h : heads) {
+                if (on(h, contig)) {
+                    next = Math.min(next, h.getStart() > pos ? h.getStart() : h.getEnd());
+                }
+            }
+            if (next == Long.MAX_VALUE) {
+                return;
+            }
+            add(contig, pos, next);
+            pos = next;
+            for (int i = 0; i < heads.length; i++) {
+                while (on(heads[i], contig) && heads[i].getEnd() <= pos) {
+                    heads[i] = advance(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Piece between two breakpoints
+     */
+    private void add(String contig, long start, long end) {
+        long length = end - start;
+        if (length <= 0) {
+            return;
+        }
+        Segment e = on(heads[EXPECTED], contig) && heads[EXPECTED].getStart() <= start ? heads[EXPECTED] : null;
+        Segment a = on(heads[ACTUAL], contig) && heads[ACTUAL].getStart() <= start ? heads[ACTUAL] : null;
+        if (e == null && a == null) {
+            return;
+        }
+        union += length;
+        int se = e == null ? ConsensusCaller.NEUTRAL : state(e);
+        int sa = a == null ? ConsensusCaller.NEUTRAL : state(a);
+        if (se != ConsensusCaller.NEUTRAL || sa != ConsensusCaller.NEUTRAL) {
+            called += length;
+        }
+        if (e != null) {
+            bases[EXPECTED] += length;
+        }
+        if (a != null) {
+            bases[ACTUAL] += length;
+        }
+        if (e == null || a == null) {
+            return;
+        }
+        shared += length;
+        if (se == sa) {
+            agree += length;
+            if (se != ConsensusCaller.NEUTRAL) {
+                calledAgree += length;
+            }
+        }
+        double x = e.getValue();
+        double y = a.getValue();
+        weight += length;
+        double dx = x - meanX;
+        double dy = y - meanY;
+        meanX += dx * length / weight;
+        meanY += dy * length / weight;
+        cXX += length * dx * (x - meanX);
+        cYY += length * dy * (y - meanY);
+        cXY += length * dx * (y - meanY);
+    }
+
+    private int state(Segment s) {
+        return ConsensusCaller.state(s, gain, loss);
+    }
+
+    private static boolean on(Segment s, String contig) {
+        return s != null && s.getContig().equals(contig);
+    }
+
+    private Segment advance(int side) throws IOException {
+        Segment s = sources[side].next();
+        if (s == null) {
+            return null;
+        }
+        if (finished.contains(s.getContig())) {
+            throw new IOException(sources[side].getName() + " is not sorted in the contig order, " + s.getContig()
+                    + " comes after contigs following it");
+        }
+        segments[side]++;
+        calls[side][state(s) + 1]++;
+        sums[side] += s.getValue();
+        return s;
+    }
+
+    public long getSegments(int side) {
+        return segments[side];
+    }
+
+    public long getGains(int side) {
+        return calls[side][ConsensusCaller.GAIN + 1];
+    }
+
+    public long getLosses(int side) {
+        return calls[side][ConsensusCaller.LOSS + 1];
+    }
+
+    public long getBases(int side) {
+        return bases[side];
+    }
+
+    /**
+     * @return sum of the values of all segments of a side
+     */
+    public double getSum(int side) {
+        return sums[side];
+    }
+
+    /**
+     * @return bases covered by both / bases covered by either, 1 if neither has any
+     */
+    public double getOverlap() {
+        return union == 0 ? 1.0 : (double) shared / union;
+    }
+
+    /**
+     * @return bases in the same state on both sides / bases covered by either, 1 if neither has any
+     */
+    public double getConcordance() {
+        return union == 0 ? 1.0 : (double) agree / union;
+    }
+
+    /**
+     * @return bases with the same gain or loss on both sides / bases with a gain or loss on either, 1 if there are none
+     */
+    public double getCallConcordance() {
+        return called == 0 ? 1.0 : (double) calledAgree / called;
+    }
+
+    /**
+     * @return base-weighted correlation of the log2 ratios where both sides have a segment,
+     *         1 if both are the same constant, NaN if there is nothing to correlate
+     */
+    public double getCorrelation() {
+        if (weight == 0) {
+            return union == 0 ? 1.0 : Double.NaN;
+        }
+        if (cXX <= 0 || cYY <= 0) {
+            return cXX <= 0 && cYY <= 0 && Math.abs(meanX - meanY) < 1e-9 ? 1.0 : Double.NaN;
+        }
+        return cXY / Math.sqrt(cXX * cYY);
+    }
+}
@@ -0,0 +1,165 @@
+package ca.on.oicr.pde.cnv.compare;
+
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compares the variants of an expected and an actual .vcf or Varscan native
+ * (.snp, .indel) file with a merge join of both sorted files. Variants are
+ * the same if contig, position, reference and alternate alleles are. Only
+ * the variants at the current position are held, memory is constant.
+ */
+public class VariantComparison {
+
+    private final ContigOrder order;
+    private final long[] variants = new long[2];
+    private long shared;
+
+    public VariantComparison(ContigOrder order) {
+        this.order = order;
+    }
+
+    /**
+     * Reads one variant file, vcf or Varscan native with a header
+     */
+    static final class VariantReader implements Closeable {
+
+        private final File file;
+        private final boolean vcf;
+        private final BufferedReader reader;
+        private final Set<String> finished = new HashSet<String>();
+        private String contig;
+        private long position = -1;
+        private String alleles;
+        private int lineNumber;
+
+        VariantReader(File file) throws IOException {
+            this.file = file;
+            this.vcf = file.getName().endsWith(".vcf") || file.getName().endsWith(".vcf.gz");
+            this.reader = TextFiles.openReader(file);
+        }
+
+        /**
+         * @return false at the end of the file
+         */
+        boolean next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("chrom\t") || line.startsWith("Chrom\t")) {
+                    continue;
+                }
+                String[] tmp = line.split("\t", 6);
+                if (tmp.length < (vcf ? 5 : 4)) {
+                    throw new IOException("Line " + lineNumber + " of " + file + " is not a variant: " + line);
+                }
+                long p;
+                try {
+                    p = Long.parseLong(tmp[1]);
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("Line " + lineNumber + " of " + file + " has no valid position: " + line);
+                }
+                if (!tmp[0].equals(contig)) {
+                    if (contig != null) {
+                        finished.add(contig);
+                    }
+                    if (finished.contains(tmp[0])) {
+                        throw new IOException(file + " is not sorted, " + tmp[0] + " comes back at line " + lineNumber);
+                    }
+                    contig = tmp[0];
+                } else if (p < position) {
+                    throw new IOException(file + " is not sorted by position at line " + lineNumber);
+                }
+                position = p;
+                alleles = vcf ? tmp[3] + ">" + tmp[4] : tmp[2] + ">" + tmp[3];
+                return true;
+            }
+            contig = null;
+            return false;
+        }
+
+        String getContig() {
+            return contig;
+        }
+
+        /**
+         * @return 1-based position of the current variant
+         */
+        long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    public VariantComparison run(File expected, File actual) throws IOException {
+        try (VariantReader e = new VariantReader(expected);
+             VariantReader a = new VariantReader(actual)) {
+            boolean moreE = e.next();
+            boolean moreA = a.next();
+            Set<String> here = new HashSet<String>();
+            while (moreE || moreA) {
+                int c = !moreE ? 1 : !moreA ? -1 : compare(e, a);
+                if (c < 0) {
+                    variants[SegmentComparison.EXPECTED]++;
+                    moreE = e.next();
+                } else if (c > 0) {
+                    variants[SegmentComparison.ACTUAL]++;
+                    moreA = a.next();
+                } else {
+                    // all variants at this position, alleles can come in any order
+                    String contig = e.contig;
+                    long position = e.position;
+                    here.clear();
+                    while (moreE && e.position == position && e.contig.equals(contig)) {
+                        if (here.add(e.alleles)) {
+                            variants[SegmentComparison.EXPECTED]++;
+                        }
+                        moreE = e.next();
+                    }
+                    Set<String> seen = new HashSet<String>();
+                    while (moreA && a.position == position && a.contig.equals(contig)) {
+                        if (seen.add(a.alleles)) {
+                            variants[SegmentComparison.ACTUAL]++;
+                            if (here.contains(a.alleles)) {
+                                shared++;
+                            }
+                        }
+                        moreA = a.next();
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    private int compare(VariantReader e, VariantReader a) {
+        int c = e.contig.equals(a.contig) ? 0 : order.compare(e.contig, a.contig);
+        return c != 0 ? c : Long.compare(e.position, a.position);
+    }
+
+    public long getVariants(int side) {
+        return variants[side];
+    }
+
+    public long getShared() {
+        return shared;
+    }
+
+    /**
+     * @return shared variants / variants on either side, 1 if there are none
+     */
+    public double getConcordance() {
+        long union = variants[0] + variants[1] - shared;
+        return union == 0 ? 1.0 : (double) shared / union;
+    }
+}
@@ -0,0 +1,342 @@
+package ca.on.oicr.pde.cnv.consensus;
+
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.Segment;
+import ca.on.oicr.pde.cnv.io.SegmentReader;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Consensus of the segments of several callers (BICseq, Varscan, HMMcopy,
+ * FREEC). The sorted segment files are streamed through a sweep-line: every
+ * start and end of a segment is a breakpoint, and between two breakpoints
+ * each caller has at most one segment, so a caller votes gain, loss or neutral
+ * there. A position is a gain (loss) if at least --min-support callers say so
+ * and more of them than say loss (gain), neutral otherwise. Neighbouring
+ * pieces with the same call and the same supporting callers are one
+ * consensus segment.
+ *
+ * Only the current segment of every caller and the open consensus segment are
+ * kept, so time is linear in the number of segments and memory constant.
+ * Files have to be sorted by position, contigs in the order of --dict or in
+ * natural order.
+ *
+ * A caller's own call (region_call, FREEC status) is used when its file has
+ * one, the log2 ratio against --gain and --loss otherwise.
+ */
+public class ConsensusCaller implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ConsensusCaller.class.getName());
+
+    public static final int LOSS    = -1;
+    public static final int NEUTRAL = 0;
+    public static final int GAIN    = 1;
+
+    private final List<SegmentReader> readers;
+    private final List<String> names;
+    private final ContigOrder order;
+    private final double gain;
+    private final double loss;
+    private final int minSupport;
+    private final boolean callsOnly;
+    private final BufferedWriter writer;
+
+    private final Segment[] heads;
+    private final List<Set<String>> finished = new ArrayList<Set<String>>();
+
+    // open consensus segment
+    private String openContig;
+    private long openStart;
+    private long openEnd;
+    private int openCall;
+    private int openSupport;
+    private int openCovered;
+    private final double[] sums;
+    private final long[] lengths;
+    private long written;
+
+    /**
+     * @param readers    one reader per caller
+     * @param names      caller names, in the order of the readers
+     * @param order      contig order of the files
+     * @param gain       log2 ratio from which a segment without a call is a gain
+     * @param loss       log2 ratio up to which a segment without a call is a loss
+     * @param minSupport callers needed for a gain or loss
+     * @param callsOnly  only write gains and losses
+     * @param writer     output
+     */
+    public ConsensusCaller(List<SegmentReader> readers, List<String> names, ContigOrder order, double gain, double loss,
+                           int minSupport, boolean callsOnly, BufferedWriter writer) {
+        if (readers.size() > 31) {
+            throw new IllegalArgumentException("At most 31 callers are supported");
+        }
+        this.readers = readers;
+        this.names = names;
+        this.order = order;
+        this.gain = gain;
+        this.loss = loss;
+        this.minSupport = minSupport;
+        this.callsOnly = callsOnly;
+        this.writer = writer;
+        this.heads = new Segment[readers.size()];
+        this.sums = new double[readers.size()];
+        this.lengths = new long[readers.size()];
+        for (int i = 0; i < readers.size(); i++) {
+            finished.add(new HashSet<String>());
+        }
+    }
+
+    /**
+     * @return state of a segment, the call of its caller or from the log2 ratio
+     */
+    int state(Segment s) {
+        return state(s, gain, loss);
+    }
+
+    /**
+     * @param gain log2 ratio from which a segment without a call is a gain
+     * @param loss log2 ratio up to which a segment without a call is a loss
+     * @return state of a segment, its own call or from the log2 ratio
+     */
+    public static int state(Segment s, double gain, double loss) {
+        if (s.getCall() != null) {
+            String call = s.getCall().toLowerCase(Locale.ROOT);
+            if (call.equals("gain") || call.equals("amp")) {
+                return GAIN;
+            }
+            if (call.equals("loss") || call.equals("del")) {
+                return LOSS;
+            }
+            return NEUTRAL;
+        }
+        if (s.getValue() >= gain) {
+            return GAIN;
+        }
+        return s.getValue() <= loss ? LOSS : NEUTRAL;
+    }
+
+    /**
+     * @return number of consensus segments written
+     */
+    public long run() throws IOException {
+        StringBuilder header = new StringBuilder("chrom\tstart\tend\tcall\tsupport\tcovered\tconfidence\tcallers");
+        for (String name : names) {
+            header.append('\t').append(name).append("_log2");
+        }
+        writer.write(header.toString());
+        writer.newLine();
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = advance(i);
+        }
+        while (true) {
+            String contig = null;
+            for (Segment h : heads) {
+                if (h != null && (contig == null || order.compare(h.getContig(), contig) < 0)) {
+                    contig = h.getContig();
+                }
+            }
+            if (contig == null) {
+                break;
+            }
+            sweep(contig);
+        }
+        return written;
+    }
+
+    private void sweep(String contig) throws IOException {
+        long pos = Long.MAX_VALUE;
+        for (Segment h : heads) {
+            if (h != null && h.getContig().equals(contig)) {
+                pos = Math.min(pos, h.getStart());
+            }
+        }
+        while (true) {
+            // next breakpoint: the closest start ahead or end of an active segment
+            long next = Long.MAX_VALUE;
+            for (Segment h : heads) {
+                if (h != null && h.getContig().equals(contig)) {
+                    next = Math.min(next, h.getStart() > pos ? h.getStart() : h.getEnd());
+                }
+            }
+            if (next == Long.MAX_VALUE) {
+                break;
+            }
+            add(contig, pos, next);
+            pos = next;
+            for (int i = 0; i < heads.length; i++) {
+                while (heads[i] != null && heads[i].getContig().equals(contig) && heads[i].getEnd() <= pos) {
+                    heads[i] = advance(i);
+                }
+            }
+        }
+        flush();
+        for (Set<String> f : finished) {
+            f.add(contig);
+        }
+    }
+
+    /**
+     * Piece between two breakpoints, the active segments of the callers don't change in it
+     */
+    private void add(String contig, long start, long end) throws IOException {
+        if (end <= start) {
+            return;
+        }
+        int[] votes = new int[3];
+        int[] masks = new int[3];
+        int covered = 0;
+        for (int i = 0; i < heads.length; i++) {
+            Segment h = heads[i];
+            if (h != null && h.getContig().equals(contig) && h.getStart() <= start) {
+                int s = state(h) + 1;
+                votes[s]++;
+                masks[s] |= 1 << i;
+                covered++;
+            }
+        }
+        int call = NEUTRAL;
+        if (votes[GAIN + 1] >= minSupport && votes[GAIN + 1] > votes[LOSS + 1]) {
+            call = GAIN;
+        } else if (votes[LOSS + 1] >= minSupport && votes[LOSS + 1] > votes[GAIN + 1]) {
+            call = LOSS;
+        }
+        if (covered == 0 || (callsOnly && call == NEUTRAL)) {
+            flush();
+            return;
+        }
+        int support = masks[call + 1];
+        if (openContig == null || !openContig.equals(contig) || openEnd != start || openCall != call
+                || openSupport != support || openCovered != covered) {
+            flush();
+            openContig = contig;
+            openStart = start;
+            openCall = call;
+            openSupport = support;
+            openCovered = covered;
+        }
+        openEnd = end;
+        for (int i = 0; i < heads.length; i++) {
+            Segment h = heads[i];
+            if (h != null && h.getContig().equals(contig) && h.getStart() <= start) {
+                sums[i] += h.getValue() * (end - start);
+                lengths[i] += end - start;
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (openContig == null) {
+            return;
+        }
+        int support = Integer.bitCount(openSupport);
+        StringBuilder callers = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            if ((openSupport & (1 << i)) != 0) {
+                callers.append(callers.length() == 0 ? "" : ",").append(names.get(i));
+            }
+        }
+        StringBuilder line = new StringBuilder();
+        line.append(openContig).append('\t').append(openStart + 1).append('\t').append(openEnd).append('\t')
+            .append(openCall == GAIN ? "gain" : openCall == LOSS ? "loss" : "neutral").append('\t')
+            .append(support).append('\t').append(openCovered).append('\t')
+            .append(String.format(Locale.ROOT, "%.3f", (double) support / names.size())).append('\t')
+            .append(callers.length() == 0 ? "-" : callers.toString());
+        for (int i = 0; i < names.size(); i++) {
+            line.append('\t').append(lengths[i] == 0 ? "NA" : String.format(Locale.ROOT, "%.4f", sums[i] / lengths[i]));
+            sums[i] = 0.0;
+            lengths[i] = 0;
+        }
+        writer.write(line.toString());
+        writer.newLine();
+        written++;
+        openContig = null;
+    }
+
+    /**
+     * @return next segment of a caller, contigs may not come back once passed
+     */
+    private Segment advance(int i) throws IOException {
+        Segment s = readers.get(i).next();
+        if (s != null && finished.get(i).contains(s.getContig())) {
+            throw new IOException(readers.get(i).getFile() + " is not sorted in the contig order, " + s.getContig()
+                    + " comes after contigs following it");
+        }
+        return s;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (SegmentReader r : readers) {
+            try {
+                r.close();
+            } catch (IOException ioe) {
+                failure = ioe;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> bicseqSpec = parser.accepts("bicseq", "Optional. BICseq .bicseg").withRequiredArg().ofType(File.class);
+        OptionSpec<File> varscanSpec = parser.accepts("varscan", "Optional. Varscan .copynumber.filtered or its segmentation").withRequiredArg().ofType(File.class);
+        OptionSpec<File> hmmcopySpec = parser.accepts("hmmcopy", "Optional. HMMcopy .seg or segments table").withRequiredArg().ofType(File.class);
+        OptionSpec<File> freecSpec = parser.accepts("freec", "Optional. FREEC _CNVs").withRequiredArg().ofType(File.class);
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Consensus segments").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> dictSpec = parser.accepts("dict", "Optional. Sequence dictionary (.dict or .fai) with the contig order of the inputs").withRequiredArg().ofType(File.class);
+        OptionSpec<Double> gainSpec = parser.accepts("gain", "Optional. log2 ratio from which a segment without a call is a gain").withRequiredArg().ofType(Double.class).defaultsTo(0.2);
+        OptionSpec<Double> lossSpec = parser.accepts("loss", "Optional. log2 ratio up to which a segment without a call is a loss").withRequiredArg().ofType(Double.class).defaultsTo(-0.2);
+        OptionSpec<Integer> minSupportSpec = parser.accepts("min-support", "Optional. Number of callers needed for a gain or loss").withRequiredArg().ofType(Integer.class).defaultsTo(2);
+        OptionSpec<Double> ploidySpec = parser.accepts("ploidy", "Optional. Ploidy of the FREEC copy numbers").withRequiredArg().ofType(Double.class).defaultsTo(2.0);
+        parser.accepts("calls-only", "Optional. Write gains and losses only");
+        OptionSet options = parser.parse(args);
+
+        List<SegmentReader> readers = new ArrayList<SegmentReader>();
+        List<String> names = new ArrayList<String>();
+        OptionSpec<?>[] specs = {bicseqSpec, varscanSpec, hmmcopySpec, freecSpec};
+        SegmentReader.Format[] formats = {SegmentReader.Format.BICSEQ, SegmentReader.Format.VARSCAN,
+                                          SegmentReader.Format.HMMCOPY, SegmentReader.Format.FREEC};
+        try {
+            for (int i = 0; i < specs.length; i++) {
+                if (options.has(specs[i])) {
+                    readers.add(new SegmentReader((File) options.valueOf(specs[i]), formats[i], options.valueOf(ploidySpec)));
+                    names.add(formats[i].name().toLowerCase(Locale.ROOT));
+                }
+            }
+        } catch (IOException ioe) {
+            for (SegmentReader r : readers) {
+                r.close();
+            }
+            throw ioe;
+        }
+        if (readers.isEmpty()) {
+            throw new IllegalArgumentException("At least one of --bicseq, --varscan, --hmmcopy or --freec is required");
+        }
+        if (readers.size() < options.valueOf(minSupportSpec)) {
+            LOG.warning("Only " + readers.size() + " callers for --min-support " + options.valueOf(minSupportSpec) + ", there will be no gains or losses");
+        }
+        ContigOrder order = options.has(dictSpec) ? ContigOrder.fromFile(options.valueOf(dictSpec)) : ContigOrder.natural();
+        long segments;
+        try (BufferedWriter writer = TextFiles.openWriter(options.valueOf(outputSpec));
+             ConsensusCaller consensus = new ConsensusCaller(readers, names, order, options.valueOf(gainSpec), options.valueOf(lossSpec),
+                                                             options.valueOf(minSupportSpec), options.has("calls-only"), writer)) {
+            segments = consensus.run();
+        }
+        LOG.info("Wrote " + segments + " consensus segments from " + names + " to " + options.valueOf(outputSpec));
+    }
+}
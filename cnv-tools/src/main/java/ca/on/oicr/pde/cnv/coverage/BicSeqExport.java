@@ -0,0 +1,119 @@
+package ca.on.oicr.pde.cnv.coverage;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Writes the BICseq input of a tumor/normal pair from their coverage indexes
+ * instead of running the getUnique samtools over both .bam files, the same
+ * files configureBICseq.pl makes: one .seq file (read positions, one per
+ * line) per sample and chromosome named [name]_[chromosome].seq in --outdir,
+ * and a configuration listing them for every chromosome of the normal.
+ *
+ * Unique reads are taken to be the ones with mapping quality of at least
+ * --quality, BWA gives repeats quality 0. Chromosomes are written in parallel.
+ */
+public class BicSeqExport {
+
+    private static final Logger LOG = Logger.getLogger(BicSeqExport.class.getName());
+
+    private BicSeqExport() {
+    }
+
+    /**
+     * @return number of positions written
+     */
+    static long writeSeq(CoverageIndex index, String contig, int minQuality, File output) throws IOException {
+        long written = 0;
+        IntBuffer starts = index.starts(contig);
+        ByteBuffer qualities = index.qualities(contig);
+        try (BufferedWriter writer = TextFiles.openWriter(output)) {
+            for (int i = 0; i < starts.limit(); i++) {
+                if ((qualities.get(i) & 0xff) >= minQuality) {
+                    writer.write(Integer.toString(starts.get(i)));
+                    writer.newLine();
+                    written++;
+                }
+            }
+        }
+        return written;
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> tumorSpec = parser.accepts("tumor", "Required. Coverage index (.cov) of the tumor").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> normalSpec = parser.accepts("normal", "Required. Coverage index (.cov) of the normal").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> tumorNameSpec = parser.accepts("tumor-name", "Required. Name of the tumor .seq files, basename of the .bam").withRequiredArg().required();
+        OptionSpec<String> normalNameSpec = parser.accepts("normal-name", "Required. Name of the normal .seq files, basename of the .bam").withRequiredArg().required();
+        OptionSpec<File> outdirSpec = parser.accepts("outdir", "Required. Directory for the .seq files and the configuration").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> configSpec = parser.accepts("config-file", "Required. Name of the BICseq configuration file").withRequiredArg().required();
+        OptionSpec<Integer> qualitySpec = parser.accepts("quality", "Optional. Minimum mapping quality of a unique read").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of chromosomes written in parallel").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        final File outdir = options.valueOf(outdirSpec);
+        if (!outdir.isDirectory() && !outdir.mkdirs()) {
+            throw new IOException("Could not create " + outdir);
+        }
+        final int quality = options.valueOf(qualitySpec);
+        String tumorName = options.valueOf(tumorNameSpec);
+        String normalName = options.valueOf(normalNameSpec);
+        try (CoverageIndex tumor = CoverageIndex.open(options.valueOf(tumorSpec));
+             CoverageIndex normal = CoverageIndex.open(options.valueOf(normalSpec))) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, options.valueOf(threadsSpec)));
+            try {
+                List<Future<Long>> futures = new ArrayList<Future<Long>>();
+                for (final CoverageIndex index : new CoverageIndex[]{normal, tumor}) {
+                    final String name = index == tumor ? tumorName : normalName;
+                    for (final String contig : index.getContigs()) {
+                        futures.add(pool.submit(new Callable<Long>() {
+                            @Override
+                            public Long call() throws IOException {
+                                return writeSeq(index, contig, quality, new File(outdir, name + "_" + contig + ".seq"));
+                            }
+                        }));
+                    }
+                }
+                long positions = 0;
+                for (Future<Long> f : futures) {
+                    positions += f.get();
+                }
+                LOG.info("Wrote " + positions + " read positions to " + outdir);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing .seq files", ie);
+            } catch (ExecutionException ee) {
+                throw new IOException("Writing .seq files failed", ee.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+
+            // Same columns and paths as configureBICseq.pl
+            String prefix = outdir.getPath().endsWith("/") ? outdir.getPath() : outdir.getPath() + "/";
+            try (BufferedWriter writer = TextFiles.openWriter(new File(outdir, options.valueOf(configSpec)))) {
+                writer.write("chrom\ttumor\tnormal");
+                writer.newLine();
+                for (String contig : normal.getContigs()) {
+                    writer.write(contig + "\t" + prefix + tumorName + "_" + contig + ".seq\t" + prefix + normalName + "_" + contig + ".seq");
+                    writer.newLine();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ca.on.oicr.pde.cnv.coverage;
+
+import ca.on.oicr.pde.cnv.io.Bed;
+import ca.on.oicr.pde.cnv.io.Interval;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * VarScan copynumber from the coverage indexes of the tumor and the normal
+ * instead of an mpileup of both .bam files. Regions are the bins of
+ * --region-size bases (VarScan splits regions at 100 positions by default),
+ * depths are the mean depth over the covered positions of a bin and
+ * num_positions the smaller of the two covered counts. With --bed only bins
+ * overlapping the targets are written, as a targeted pileup only covers them;
+ * their depths are still those of the whole bin.
+ *
+ * Output columns follow VarScan copynumber: chrom, chr_start, chr_stop,
+ * num_positions, normal_depth, tumor_depth, log2_ratio, gc_content. The index
+ * has no reference bases, gc_content is NA.
+ */
+public class CoverageCopyNumber {
+
+    private static final Logger LOG = Logger.getLogger(CoverageCopyNumber.class.getName());
+
+    public static final String HEADER = "chrom\tchr_start\tchr_stop\tnum_positions\tnormal_depth\ttumor_depth\tlog2_ratio\tgc_content";
+
+    private CoverageCopyNumber() {
+    }
+
+    /**
+     * Bins of regionSize bases summed from the finest level that fits
+     */
+    static final class Depth {
+
+        final long[] bases;
+        final int[] covered;
+
+        Depth(CoverageIndex index, String contig, int regionSize) throws IOException {
+            int level = index.getLevel(regionSize);
+            if (level < 0) {
+                throw new IllegalArgumentException("Region size " + regionSize + " is not a multiple of the resolution "
+                        + index.getResolution() + " of the coverage index");
+            }
+            int merge = regionSize / index.getBinSize(level);
+            LongBuffer levelBases = index.bases(level, contig);
+            IntBuffer levelCovered = index.covered(level, contig);
+            bases = new long[CoverageIndex.binCount(index.getLength(contig), regionSize)];
+            covered = new int[bases.length];
+            for (int b = 0; b < levelBases.limit(); b++) {
+                bases[b / merge] += levelBases.get(b);
+                covered[b / merge] += levelCovered.get(b);
+            }
+        }
+    }
+
+    /**
+     * @param targets intervals of one contig
+     * @param bins    number of bins of the contig
+     * @return whether each bin overlaps a target
+     */
+    static boolean[] targetBins(List<Interval> targets, int bins, int regionSize) {
+        boolean[] onTarget = new boolean[bins];
+        for (Interval target : targets) {
+            if (target.length() == 0) {
+                continue;
+            }
+            long last = Math.min(bins - 1, (target.getEnd() - 1) / regionSize);
+            for (long b = target.getStart() / regionSize; b <= last; b++) {
+                onTarget[(int) b] = true;
+            }
+        }
+        return onTarget;
+    }
+
+    /**
+     * @param targets intervals by contig, null for the whole genome
+     * @return number of regions written
+     */
+    static long write(CoverageIndex tumor, CoverageIndex normal, List<String> contigs, Map<String, List<Interval>> targets,
+                      int regionSize, int minCoverage, double dataRatio, BufferedWriter writer) throws IOException {
+        writer.write(HEADER);
+        writer.newLine();
+        long regions = 0;
+        for (String contig : tumor.getContigs()) {
+            if (!normal.hasContig(contig) || (!contigs.isEmpty() && !contigs.contains(contig))
+                    || (targets != null && !targets.containsKey(contig))) {
+                continue;
+            }
+            int length = Math.min(tumor.getLength(contig), normal.getLength(contig));
+            Depth t = new Depth(tumor, contig, regionSize);
+            Depth n = new Depth(normal, contig, regionSize);
+            int bins = Math.min(t.bases.length, n.bases.length);
+            boolean[] onTarget = targets == null ? null : targetBins(targets.get(contig), bins, regionSize);
+            for (int b = 0; b < bins; b++) {
+                if (t.covered[b] == 0 || n.covered[b] == 0 || (onTarget != null && !onTarget[b])) {
+                    continue;
+                }
+                double tumorDepth = (double) t.bases[b] / t.covered[b];
+                double normalDepth = (double) n.bases[b] / n.covered[b];
+                if (tumorDepth < minCoverage || normalDepth < minCoverage) {
+                    continue;
+                }
+                double ratio = Math.log(tumorDepth / normalDepth * dataRatio) / Math.log(2);
+                writer.write(contig + "\t" + ((long) b * regionSize + 1) + "\t" + Math.min(length, (long) (b + 1) * regionSize) + "\t"
+                        + Math.min(t.covered[b], n.covered[b]) + "\t" + String.format(Locale.ROOT, "%.1f\t%.1f\t%.3f", normalDepth, tumorDepth, ratio)
+                        + "\tNA");
+                writer.newLine();
+                regions++;
+            }
+        }
+        return regions;
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> tumorSpec = parser.accepts("tumor", "Required. Coverage index (.cov) of the tumor").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> normalSpec = parser.accepts("normal", "Required. Coverage index (.cov) of the normal").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Output .copynumber file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<Integer> regionSizeSpec = parser.accepts("region-size", "Optional. Region size in bases, a multiple of the index resolution")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(100);
+        OptionSpec<Integer> minCoverageSpec = parser.accepts("min-coverage", "Optional. Minimum mean depth in both samples").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Double> dataRatioSpec = parser.accepts("data-ratio", "Optional. Normal/tumor input data ratio for copynumber adjustment")
+                .withRequiredArg().ofType(Double.class).defaultsTo(1.0);
+        OptionSpec<String> chromosomesSpec = parser.accepts("chromosomes", "Optional. Comma-separated list of chromosomes, all by default").withRequiredArg();
+        OptionSpec<File> bedSpec = parser.accepts("bed", "Optional. Targets (.bed) of a targeted run, only regions overlapping them are written")
+                .withRequiredArg().ofType(File.class);
+        OptionSet options = parser.parse(args);
+
+        List<String> chromosomes = options.has(chromosomesSpec) ? Arrays.asList(options.valueOf(chromosomesSpec).split(",")) : Arrays.<String>asList();
+        Map<String, List<Interval>> targets = null;
+        if (options.has(bedSpec)) {
+            targets = new HashMap<String, List<Interval>>();
+            for (Interval target : Bed.read(options.valueOf(bedSpec))) {
+                List<Interval> contigTargets = targets.get(target.getContig());
+                if (contigTargets == null) {
+                    contigTargets = new ArrayList<Interval>();
+                    targets.put(target.getContig(), contigTargets);
+                }
+                contigTargets.add(target);
+            }
+        }
+        long regions;
+        try (CoverageIndex tumor = CoverageIndex.open(options.valueOf(tumorSpec));
+             CoverageIndex normal = CoverageIndex.open(options.valueOf(normalSpec));
+             BufferedWriter writer = TextFiles.openWriter(options.valueOf(outputSpec))) {
+            regions = write(tumor, normal, chromosomes, targets, options.valueOf(regionSizeSpec), options.valueOf(minCoverageSpec),
+                    options.valueOf(dataRatioSpec), writer);
+        }
+        LOG.info("Wrote " + regions + " regions to " + options.valueOf(outputSpec));
+    }
+}
@@ -0,0 +1,303 @@
+package ca.on.oicr.pde.cnv.coverage;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coverage and read-start index of one .bam file, written once by
+ * {@link CoverageIndexer} and read by every CNV workflow instead of the .bam.
+ * Everything is stored in columns of fixed-size values, so a contig can be
+ * memory-mapped and used without any parsing.
+ *
+ * Read starts are exact: the leftmost aligned base of every mapped primary
+ * alignment, sorted, with its mapping quality and flags, so counts for any
+ * window and quality threshold can be made from them. Depth is kept at
+ * several resolutions: level 0 has bins of resolution bases, every next
+ * level bins factor times larger. Only reads passing the index quality
+ * threshold and not flagged as duplicate or QC failure count towards depth,
+ * like samtools mpileup does.
+ *
+ * Layout, little-endian:
+ * <pre>
+ * "CNVCOV01"                     magic, 8 bytes
+ * int32 resolution, int32 factor, int32 levels, int32 contigs, int32 quality, int32 reserved
+ * contigs x (int32 nameLength, name, int32 length, int32 reads, int64 offset)
+ * contig blocks, each starting at its offset (multiple of 64):
+ *   reads x int32 start, reads x int8 mapping quality, reads x int8 flags, zero padding to 8
+ *   levels x (bins x int64 aligned bases, bins x int32 covered positions, zero padding to 8)
+ * </pre>
+ * Bin i of a level with bins of size w covers bases i * w + 1 to (i + 1) * w.
+ * A contig block is mapped in pieces under 2 GB, so a contig can have up to
+ * 2^29 reads.
+ */
+public final class CoverageIndex implements Closeable {
+
+    public static final String EXTENSION = ".cov";
+    static final byte[] MAGIC = "CNVCOV01".getBytes(StandardCharsets.US_ASCII);
+    static final int ALIGN = 64;
+
+    /**
+     * Flags of a read start
+     */
+    public static final byte REVERSE = 1;
+    public static final byte DUPLICATE = 2;
+    public static final byte QC_FAIL = 4;
+
+    private final File file;
+    private final RandomAccessFile input;
+    private final int resolution;
+    private final int factor;
+    private final int levels;
+    private final int quality;
+    private final List<String> contigs = new ArrayList<String>();
+    private final Map<String, long[]> contigInfo = new HashMap<String, long[]>();
+
+    private CoverageIndex(File file) throws IOException {
+        this.file = file;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a coverage index");
+            }
+            this.resolution = readInt(in);
+            this.factor = readInt(in);
+            this.levels = readInt(in);
+            int contigCount = readInt(in);
+            this.quality = readInt(in);
+            readInt(in);
+            for (int i = 0; i < contigCount; i++) {
+                byte[] name = new byte[readInt(in)];
+                in.readFully(name);
+                int length = readInt(in);
+                int reads = readInt(in);
+                long offset = Long.reverseBytes(in.readLong());
+                contigs.add(new String(name, StandardCharsets.UTF_8));
+                contigInfo.put(contigs.get(i), new long[]{length, reads, offset});
+            }
+        }
+        this.input = new RandomAccessFile(file, "r");
+    }
+
+    /**
+     * @param file .cov file
+     * @return open index, contigs are mapped on request
+     * @throws IOException if the file is not a coverage index
+     */
+    public static CoverageIndex open(File file) throws IOException {
+        return new CoverageIndex(file);
+    }
+
+    public static boolean isCoverageIndex(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * @return bin size of level 0
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return bin size of a level
+     */
+    public int getBinSize(int level) {
+        checkLevel(level);
+        int size = resolution;
+        for (int i = 0; i < level; i++) {
+            size *= factor;
+        }
+        return size;
+    }
+
+    /**
+     * @return finest level whose bin size divides binSize, -1 if there is none
+     */
+    public int getLevel(int binSize) {
+        for (int level = levels - 1; level >= 0; level--) {
+            if (binSize % getBinSize(level) == 0) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return minimum mapping quality of the reads counted in depth
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    public List<String> getContigs() {
+        return Collections.unmodifiableList(contigs);
+    }
+
+    public boolean hasContig(String contig) {
+        return contigInfo.containsKey(contig);
+    }
+
+    public int getLength(String contig) {
+        return (int) contig(contig)[0];
+    }
+
+    public int getReadCount(String contig) {
+        return (int) contig(contig)[1];
+    }
+
+    public int getBinCount(int level, String contig) {
+        return binCount(getLength(contig), getBinSize(level));
+    }
+
+    /**
+     * @return sorted 1-based start positions of the reads of a contig, memory-mapped
+     */
+    public IntBuffer starts(String contig) throws IOException {
+        return map(contig(contig)[2], 4L * getReadCount(contig)).asIntBuffer();
+    }
+
+    /**
+     * @return mapping qualities, unsigned, in the order of the starts
+     */
+    public ByteBuffer qualities(String contig) throws IOException {
+        long[] info = contig(contig);
+        return map(info[2] + 4L * info[1], info[1]);
+    }
+
+    /**
+     * @return flags (REVERSE, DUPLICATE, QC_FAIL) in the order of the starts
+     */
+    public ByteBuffer flags(String contig) throws IOException {
+        long[] info = contig(contig);
+        return map(info[2] + 5L * info[1], info[1]);
+    }
+
+    /**
+     * @return aligned bases per bin of a level, memory-mapped
+     */
+    public LongBuffer bases(int level, String contig) throws IOException {
+        return map(levelOffset(level, contig), 8L * getBinCount(level, contig)).asLongBuffer();
+    }
+
+    /**
+     * @return positions with depth of at least 1 per bin of a level, memory-mapped
+     */
+    public IntBuffer covered(int level, String contig) throws IOException {
+        return map(levelOffset(level, contig) + 8L * getBinCount(level, contig), 4L * getBinCount(level, contig)).asIntBuffer();
+    }
+
+    /**
+     * Read starts in windows, same rules as {@link ca.on.oicr.pde.cnv.bam.BinCounter}
+     *
+     * @param window     window size in bases
+     * @param minQuality minimum mapping quality
+     * @param selected   contigs to count, null or empty for all contigs
+     * @return counts per contig, in index order
+     * @throws IOException
+     */
+    public Map<String, int[]> countStarts(int window, int minQuality, Collection<String> selected) throws IOException {
+        Map<String, int[]> counts = new LinkedHashMap<String, int[]>();
+        for (String contig : contigs) {
+            if (selected != null && !selected.isEmpty() && !selected.contains(contig)) {
+                continue;
+            }
+            int[] bins = new int[binCount(getLength(contig), window)];
+            IntBuffer starts = starts(contig);
+            ByteBuffer qualities = qualities(contig);
+            for (int i = 0; i < starts.limit(); i++) {
+                if ((qualities.get(i) & 0xff) >= minQuality) {
+                    int bin = (starts.get(i) - 1) / window;
+                    if (bin < bins.length) {
+                        bins[bin]++;
+                    }
+                }
+            }
+            counts.put(contig, bins);
+        }
+        return counts;
+    }
+
+    static int binCount(int length, int binSize) {
+        return (int) ((length + (long) binSize - 1) / binSize);
+    }
+
+    /**
+     * @return size of the read columns of a contig block, padded
+     */
+    static long readsSize(long reads) {
+        return pad(6L * reads, 8);
+    }
+
+    /**
+     * @return size of one level of a contig block, padded
+     */
+    static long levelSize(int bins) {
+        return pad(12L * bins, 8);
+    }
+
+    static long pad(long size, int align) {
+        return (size + align - 1) / align * align;
+    }
+
+    private long levelOffset(int level, String contig) {
+        long[] info = contig(contig);
+        long offset = info[2] + readsSize(info[1]);
+        for (int i = 0; i < level; i++) {
+            offset += levelSize(getBinCount(i, contig));
+        }
+        return offset;
+    }
+
+    private ByteBuffer map(long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Column of " + size + " bytes in " + file + " is too large to map");
+        }
+        return input.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void checkLevel(int level) {
+        if (level < 0 || level >= levels) {
+            throw new IllegalArgumentException("No level " + level + " in " + file + ", it has " + levels);
+        }
+    }
+
+    private long[] contig(String contig) {
+        long[] info = contigInfo.get(contig);
+        if (info == null) {
+            throw new IllegalArgumentException("No contig " + contig + " in " + file);
+        }
+        return info;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+}
@@ -0,0 +1,433 @@
+package ca.on.oicr.pde.cnv.coverage;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Reads a .bam once and writes its {@link CoverageIndex}. With a BAM index
+ * contigs are done in parallel, each thread querying its own reader, without
+ * one the file is read sequentially. Read starts of a contig go to temporary
+ * files next to the output as they come, depth is accumulated in a circular
+ * difference array as long as the longest read, so memory only depends on
+ * the number of bins.
+ */
+public class CoverageIndexer {
+
+    private static final Logger LOG = Logger.getLogger(CoverageIndexer.class.getName());
+
+    private final int resolution;
+    private final int factor;
+    private final int levels;
+    private final int quality;
+    private final int threads;
+
+    /**
+     * @param resolution bin size of level 0
+     * @param factor     ratio of the bin sizes of neighbouring levels
+     * @param levels     number of levels
+     * @param quality    minimum mapping quality of reads counted in depth
+     * @param threads    number of contigs indexed at the same time
+     */
+    public CoverageIndexer(int resolution, int factor, int levels, int quality, int threads) {
+        if (resolution <= 0 || factor < 2 || levels <= 0) {
+            throw new IllegalArgumentException("Resolution and levels should be positive and factor at least 2");
+        }
+        this.resolution = resolution;
+        this.factor = factor;
+        this.levels = levels;
+        this.quality = quality;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Index of one contig, read columns are in temporary files until the
+     * whole index is assembled
+     */
+    private final class Contig {
+
+        final String name;
+        final int length;
+        final File[] columns;
+        long[] bases;
+        int[] covered;
+        int reads;
+
+        private OutputStream starts;
+        private OutputStream qualities;
+        private OutputStream flags;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private int last;
+        // Depth changes at position p are kept in diff[p & mask], positions before next are done
+        private int[] diff = new int[1 << 12];
+        private int next = 1;
+        private int depth;
+
+        Contig(String name, int length, File output, int id) {
+            this.name = name;
+            this.length = length;
+            this.columns = new File[]{new File(output.getPath() + "." + id + ".starts.tmp"),
+                                      new File(output.getPath() + "." + id + ".qualities.tmp"),
+                                      new File(output.getPath() + "." + id + ".flags.tmp")};
+            this.bases = new long[CoverageIndex.binCount(length, resolution)];
+            this.covered = new int[bases.length];
+        }
+
+        void open() throws IOException {
+            starts = new BufferedOutputStream(new FileOutputStream(columns[0]), 1 << 16);
+            qualities = new BufferedOutputStream(new FileOutputStream(columns[1]), 1 << 16);
+            flags = new BufferedOutputStream(new FileOutputStream(columns[2]), 1 << 16);
+        }
+
+        void add(SAMRecord r) throws IOException {
+            if (r.getReadUnmappedFlag() || r.isSecondaryOrSupplementary()) {
+                return;
+            }
+            int start = r.getAlignmentStart();
+            // queryOverlapping also returns reads which start before the contig, there are none on a contig start
+            if (start < 1 || start > length) {
+                return;
+            }
+            if (start < last) {
+                throw new IllegalStateException("Reads are not sorted by coordinate at " + name + ":" + start);
+            }
+            last = start;
+            if (reads == Integer.MAX_VALUE / 4) {
+                throw new IllegalStateException("Too many reads on " + name + " for a coverage index");
+            }
+            reads++;
+            if (buffer.remaining() < 4) {
+                starts.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putInt(start);
+            qualities.write(Math.min(255, r.getMappingQuality()));
+            flags.write((r.getReadNegativeStrandFlag() ? CoverageIndex.REVERSE : 0)
+                      | (r.getDuplicateReadFlag() ? CoverageIndex.DUPLICATE : 0)
+                      | (r.getReadFailsVendorQualityCheckFlag() ? CoverageIndex.QC_FAIL : 0));
+
+            flush(start);
+            if (r.getMappingQuality() >= quality && !r.getDuplicateReadFlag() && !r.getReadFailsVendorQualityCheckFlag()) {
+                for (AlignmentBlock block : r.getAlignmentBlocks()) {
+                    addDepth(block.getReferenceStart(), Math.min(length, block.getReferenceStart() + block.getLength() - 1));
+                }
+            }
+        }
+
+        private void addDepth(int start, int end) {
+            if (end + 1 - next >= diff.length) {
+                grow(end + 2 - next);
+            }
+            int mask = diff.length - 1;
+            diff[start & mask]++;
+            if (end < length) {
+                diff[(end + 1) & mask]--;
+            }
+        }
+
+        private void grow(int needed) {
+            int capacity = diff.length;
+            while (capacity < needed) {
+                capacity *= 2;
+            }
+            int[] grown = new int[capacity];
+            for (int p = next; p < next + diff.length; p++) {
+                grown[p & (capacity - 1)] = diff[p & (diff.length - 1)];
+            }
+            diff = grown;
+        }
+
+        /**
+         * Add depth of all positions before end to the bins
+         */
+        private void flush(int end) {
+            int mask = diff.length - 1;
+            for (int stop = Math.min(end, length + 1); next < stop; next++) {
+                depth += diff[next & mask];
+                diff[next & mask] = 0;
+                if (depth > 0) {
+                    int bin = (next - 1) / resolution;
+                    bases[bin] += depth;
+                    covered[bin]++;
+                }
+            }
+        }
+
+        void close() throws IOException {
+            flush(length + 1);
+            diff = null;
+            if (starts != null) {
+                starts.write(buffer.array(), 0, buffer.position());
+                starts.close();
+                qualities.close();
+                flags.close();
+            }
+        }
+
+        void delete() throws IOException {
+            for (File column : columns) {
+                Files.deleteIfExists(column.toPath());
+            }
+        }
+    }
+
+    /**
+     * @param bam     input .bam
+     * @param index   .bai for the input, null to look next to the bam
+     * @param contigs contigs to index, null or empty for all contigs in the header
+     * @param output  .cov file
+     * @return number of read starts written
+     * @throws IOException
+     */
+    public long index(final File bam, final File index, List<String> contigs, File output) throws IOException {
+        final List<Contig> selected = new ArrayList<Contig>();
+        final boolean indexed;
+        try (SamReader reader = open(bam, index)) {
+            indexed = reader.hasIndex();
+            for (SAMSequenceRecord sequence : reader.getFileHeader().getSequenceDictionary().getSequences()) {
+                if (contigs == null || contigs.isEmpty() || contigs.contains(sequence.getSequenceName())) {
+                    selected.add(new Contig(sequence.getSequenceName(), sequence.getSequenceLength(), output, selected.size()));
+                }
+            }
+        }
+        try {
+            if (!indexed || threads == 1) {
+                indexSequentially(bam, index, selected);
+            } else {
+                indexInParallel(bam, index, selected);
+            }
+            return write(selected, output);
+        } finally {
+            for (Contig c : selected) {
+                c.delete();
+            }
+        }
+    }
+
+    private void indexInParallel(final File bam, final File index, List<Contig> selected) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final Contig contig : selected) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        contig.open();
+                        try (SamReader reader = open(bam, index);
+                             SAMRecordIterator it = reader.queryOverlapping(contig.name, 0, 0)) {
+                            while (it.hasNext()) {
+                                contig.add(it.next());
+                            }
+                        } finally {
+                            contig.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing " + bam, ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Indexing of " + bam + " failed", ee.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void indexSequentially(File bam, File index, List<Contig> selected) throws IOException {
+        Map<String, Contig> byName = new LinkedHashMap<String, Contig>();
+        for (Contig c : selected) {
+            byName.put(c.name, c);
+        }
+        try (SamReader reader = open(bam, index);
+             SAMRecordIterator it = reader.iterator()) {
+            Contig current = null;
+            while (it.hasNext()) {
+                SAMRecord r = it.next();
+                if (r.getReadUnmappedFlag()) {
+                    continue;
+                }
+                if (current == null || !r.getReferenceName().equals(current.name)) {
+                    if (current != null) {
+                        current.close();
+                    }
+                    current = byName.get(r.getReferenceName());
+                    if (current != null) {
+                        current.open();
+                    }
+                }
+                if (current != null) {
+                    current.add(r);
+                }
+            }
+            if (current != null) {
+                current.close();
+            }
+        }
+        // Contigs without reads still need their (empty) columns
+        for (Contig c : selected) {
+            if (!c.columns[0].exists()) {
+                c.open();
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Assemble the index from the contigs, coarser levels are sums of level 0
+     */
+    private long write(List<Contig> selected, File output) throws IOException {
+        List<byte[]> names = new ArrayList<byte[]>();
+        int headerSize = CoverageIndex.MAGIC.length + 24;
+        for (Contig c : selected) {
+            names.add(c.name.getBytes(StandardCharsets.UTF_8));
+            headerSize += 20 + names.get(names.size() - 1).length;
+        }
+        List<long[][]> allBases = new ArrayList<long[][]>();
+        List<int[][]> allCovered = new ArrayList<int[][]>();
+        long[] offsets = new long[selected.size()];
+        long offset = CoverageIndex.pad(headerSize, CoverageIndex.ALIGN);
+        for (int i = 0; i < selected.size(); i++) {
+            Contig c = selected.get(i);
+            long[][] bases = new long[levels][];
+            int[][] covered = new int[levels][];
+            bases[0] = c.bases;
+            covered[0] = c.covered;
+            for (int level = 1; level < levels; level++) {
+                bases[level] = new long[CoverageIndex.binCount(bases[level - 1].length, factor)];
+                covered[level] = new int[bases[level].length];
+                for (int b = 0; b < bases[level - 1].length; b++) {
+                    bases[level][b / factor] += bases[level - 1][b];
+                    covered[level][b / factor] += covered[level - 1][b];
+                }
+            }
+            allBases.add(bases);
+            allCovered.add(covered);
+            offsets[i] = offset;
+            offset += CoverageIndex.readsSize(c.reads);
+            for (int level = 0; level < levels; level++) {
+                offset += CoverageIndex.levelSize(bases[level].length);
+            }
+            offset = CoverageIndex.pad(offset, CoverageIndex.ALIGN);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate((int) CoverageIndex.pad(headerSize, CoverageIndex.ALIGN)).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(CoverageIndex.MAGIC).putInt(resolution).putInt(factor).putInt(levels).putInt(selected.size()).putInt(quality).putInt(0);
+        for (int i = 0; i < selected.size(); i++) {
+            header.putInt(names.get(i).length).put(names.get(i)).putInt(selected.get(i).length).putInt(selected.get(i).reads).putLong(offsets[i]);
+        }
+
+        long reads = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+            out.write(header.array());
+            long written = header.capacity();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < selected.size(); i++) {
+                Contig c = selected.get(i);
+                written += padTo(out, offsets[i] - written);
+                for (File column : c.columns) {
+                    written += Files.copy(column.toPath(), out);
+                }
+                written += padTo(out, CoverageIndex.readsSize(c.reads) - 6L * c.reads);
+                for (int level = 0; level < levels; level++) {
+                    long[] bases = allBases.get(i)[level];
+                    int[] covered = allCovered.get(i)[level];
+                    for (long v : bases) {
+                        if (buffer.remaining() < 8) {
+                            out.write(buffer.array(), 0, buffer.position());
+                            buffer.clear();
+                        }
+                        buffer.putLong(v);
+                    }
+                    for (int v : covered) {
+                        if (buffer.remaining() < 4) {
+                            out.write(buffer.array(), 0, buffer.position());
+                            buffer.clear();
+                        }
+                        buffer.putInt(v);
+                    }
+                    out.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                    written += 12L * bases.length;
+                    written += padTo(out, CoverageIndex.levelSize(bases.length) - 12L * bases.length);
+                }
+                reads += c.reads;
+            }
+        }
+        return reads;
+    }
+
+    private static long padTo(OutputStream out, long zeros) throws IOException {
+        for (long i = 0; i < zeros; i++) {
+            out.write(0);
+        }
+        return zeros;
+    }
+
+    private static SamReader open(File bam, File index) {
+        SamInputResource resource = SamInputResource.of(bam);
+        if (index != null) {
+            resource = resource.index(index);
+        }
+        return SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).setUseAsyncIo(true).open(resource);
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> bamSpec = parser.accepts("input", "Required. Input .bam file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> indexSpec = parser.accepts("index", "Optional. .bai file, looked up next to the .bam if not set").withRequiredArg().ofType(File.class);
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Output .cov file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<Integer> resolutionSpec = parser.accepts("resolution", "Optional. Bin size of the finest depth level").withRequiredArg().ofType(Integer.class).defaultsTo(100);
+        OptionSpec<Integer> factorSpec = parser.accepts("factor", "Optional. Ratio of the bin sizes of neighbouring levels").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Integer> levelsSpec = parser.accepts("levels", "Optional. Number of depth levels").withRequiredArg().ofType(Integer.class).defaultsTo(4);
+        OptionSpec<Integer> qualitySpec = parser.accepts("quality", "Optional. Minimum mapping quality of reads counted in depth, read starts are kept with their quality")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec<String> chromosomesSpec = parser.accepts("chromosomes", "Optional. Comma-separated list of chromosomes, all by default").withRequiredArg();
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of contigs indexed in parallel").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        File output = options.valueOf(outputSpec);
+        if (!CoverageIndex.isCoverageIndex(output)) {
+            throw new IllegalArgumentException("Output should be named *" + CoverageIndex.EXTENSION);
+        }
+        List<String> chromosomes = options.has(chromosomesSpec) ? Arrays.asList(options.valueOf(chromosomesSpec).split(",")) : Collections.<String>emptyList();
+        CoverageIndexer indexer = new CoverageIndexer(options.valueOf(resolutionSpec), options.valueOf(factorSpec), options.valueOf(levelsSpec),
+                options.valueOf(qualitySpec), options.valueOf(threadsSpec));
+        long reads = indexer.index(options.valueOf(bamSpec), options.valueOf(indexSpec), chromosomes, output);
+        LOG.info("Indexed " + reads + " reads of " + options.valueOf(bamSpec) + " into " + output);
+    }
+}
@@ -0,0 +1,141 @@
+package ca.on.oicr.pde.cnv.freec;
+
+import ca.on.oicr.pde.cnv.bam.SitePileup;
+import ca.on.oicr.pde.cnv.io.SnpSites;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Mini pileups for FREEC BAF analysis: pileup of the tumor and the normal
+ * .bam at the known SNP sites of the FREEC configuration (SNPfile) only, read
+ * through the .bam index. FREEC then takes them as miniPileup and does not
+ * run samtools mpileup itself.
+ *
+ * Sites are loaded for the chromosomes of chrLenFile. Every (file, contig)
+ * pair is a task, so tumor and normal and their contigs are done in parallel;
+ * contigs are written to temporary files next to the output and joined in
+ * the order of chrLenFile.
+ */
+public class FreecBaf {
+
+    private static final Logger LOG = Logger.getLogger(FreecBaf.class.getName());
+
+    private FreecBaf() {
+    }
+
+    static SamReader open(File bam, File index) {
+        SamInputResource resource = SamInputResource.of(bam);
+        if (index != null) {
+            resource = resource.index(index);
+        }
+        return SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).setUseAsyncIo(true).open(resource);
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> configSpec = parser.accepts("config", "Required. FREEC configuration file with SNPfile").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> tumorSpec = parser.accepts("tumor", "Required. Tumor .bam file, indexed").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> tumorIndexSpec = parser.accepts("tumor-index", "Optional. .bai file of the tumor, looked up next to the .bam if not set")
+                .withRequiredArg().ofType(File.class);
+        OptionSpec<File> tumorOutputSpec = parser.accepts("tumor-output", "Required. Tumor mini pileup").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> normalSpec = parser.accepts("normal", "Optional. Normal .bam file, indexed").withRequiredArg().ofType(File.class);
+        OptionSpec<File> normalIndexSpec = parser.accepts("normal-index", "Optional. .bai file of the normal, looked up next to the .bam if not set")
+                .withRequiredArg().ofType(File.class);
+        OptionSpec<File> normalOutputSpec = parser.accepts("normal-output", "Optional. Normal mini pileup, required with --normal")
+                .requiredIf(normalSpec).withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> qualitySpec = parser.accepts("quality", "Optional. Minimum mapping quality").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec<Integer> baseQualitySpec = parser.accepts("base-quality", "Optional. Minimum base quality").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of contigs processed in parallel")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        Map<String, String> settings = FreecConfig.read(options.valueOf(configSpec));
+        if (!settings.containsKey("SNPfile")) {
+            throw new IllegalArgumentException("No SNPfile in " + options.valueOf(configSpec));
+        }
+        List<String> chromosomes = settings.containsKey("chrLenFile")
+                ? FreecConfig.chromosomes(new File(settings.get("chrLenFile"))) : new ArrayList<String>();
+        final SnpSites sites = SnpSites.read(new File(settings.get("SNPfile")), chromosomes);
+        final List<String> contigs = chromosomes.isEmpty() ? new ArrayList<String>(sites.getContigs()) : chromosomes;
+        LOG.info("Loaded " + sites.size() + " sites on " + sites.getContigs().size() + " contigs");
+
+        List<File> bams = new ArrayList<File>();
+        List<File> indexes = new ArrayList<File>();
+        List<File> outputs = new ArrayList<File>();
+        bams.add(options.valueOf(tumorSpec));
+        indexes.add(options.valueOf(tumorIndexSpec));
+        outputs.add(options.valueOf(tumorOutputSpec));
+        if (options.has(normalSpec)) {
+            bams.add(options.valueOf(normalSpec));
+            indexes.add(options.valueOf(normalIndexSpec));
+            outputs.add(options.valueOf(normalOutputSpec));
+        }
+        final SitePileup pileup = new SitePileup(options.valueOf(qualitySpec), options.valueOf(baseQualitySpec));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, options.valueOf(threadsSpec)));
+        List<List<File>> parts = new ArrayList<List<File>>();
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int b = 0; b < bams.size(); b++) {
+                final File bam = bams.get(b);
+                final File index = indexes.get(b);
+                List<File> files = new ArrayList<File>();
+                for (final String contig : contigs) {
+                    final File part = new File(outputs.get(b).getPath() + "." + files.size() + ".tmp");
+                    files.add(part);
+                    futures.add(pool.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws IOException {
+                            try (SamReader reader = open(bam, index);
+                                 BufferedWriter writer = TextFiles.openWriter(part)) {
+                                return pileup.pileup(reader, contig, sites.getPositions(contig), sites.getBases(contig), writer);
+                            }
+                        }
+                    }));
+                }
+                parts.add(files);
+            }
+            long lines = 0;
+            for (Future<Long> f : futures) {
+                lines += f.get();
+            }
+            LOG.info("Wrote " + lines + " pileup lines");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during pileup", ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Pileup failed", ee.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int b = 0; b < bams.size(); b++) {
+            try (OutputStream out = Files.newOutputStream(outputs.get(b).toPath())) {
+                for (File part : parts.get(b)) {
+                    Files.copy(part.toPath(), out);
+                    Files.delete(part.toPath());
+                }
+            }
+        }
+    }
+}
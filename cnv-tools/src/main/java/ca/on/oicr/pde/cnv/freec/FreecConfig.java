@@ -0,0 +1,68 @@
+package ca.on.oicr.pde.cnv.freec;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reading of FREEC configuration files and the files they point to
+ */
+final class FreecConfig {
+
+    private FreecConfig() {
+    }
+
+    /**
+     * Settings of a FREEC configuration file, "name = value" lines. Section
+     * headers are ignored, a name found in several sections keeps the last value.
+     */
+    static Map<String, String> read(File config) throws IOException {
+        Map<String, String> settings = new HashMap<String, String>();
+        try (BufferedReader reader = TextFiles.openReader(config)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int eq = line.indexOf('=');
+                if (eq > 0 && !line.trim().startsWith("#")) {
+                    settings.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+                }
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Chromosome names from a chrLenFile: either a .fai or name and length
+     * per line, or FREEC's own format of number, name and length
+     */
+    static List<String> chromosomes(File chrLenFile) throws IOException {
+        List<String> names = new ArrayList<String>();
+        try (BufferedReader reader = TextFiles.openReader(chrLenFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tmp = line.split("\t");
+                if (line.isEmpty() || tmp.length < 2) {
+                    continue;
+                }
+                names.add(tmp.length > 2 && !isNumber(tmp[1]) ? tmp[1] : tmp[0]);
+            }
+        }
+        return names;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,134 @@
+package ca.on.oicr.pde.cnv.freec;
+
+import ca.on.oicr.pde.cnv.bam.BinCounter;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Counts read starts of the tumor and the normal .bam for FREEC, so FREEC
+ * gets raw counts (mateCopyNumberFile) and does not run samtools view and
+ * parse SAM text itself. Both files are read at the same time, contigs in
+ * parallel and with BGZF decompression on separate threads.
+ *
+ * Window size (step if set, window otherwise) and chromosomes (chrLenFile)
+ * come from the FREEC configuration. Counts are written like FREEC .cpn files:
+ * chromosome, 0-based start of the window and number of reads.
+ */
+public class FreecCounts {
+
+    private static final Logger LOG = Logger.getLogger(FreecCounts.class.getName());
+
+    private FreecCounts() {
+    }
+
+    /**
+     * Size of the windows FREEC counts reads in
+     */
+    static int countWindow(Map<String, String> settings) {
+        for (String name : new String[]{"step", "window"}) {
+            String value = settings.get(name);
+            if (value != null && Integer.parseInt(value) > 0) {
+                return Integer.parseInt(value);
+            }
+        }
+        throw new IllegalArgumentException("No step or window in the FREEC configuration, counts are for whole genome data only");
+    }
+
+    static long write(Map<String, int[]> counts, int window, File output) throws IOException {
+        long reads = 0;
+        try (BufferedWriter writer = TextFiles.openWriter(output)) {
+            for (Map.Entry<String, int[]> e : counts.entrySet()) {
+                int[] bins = e.getValue();
+                for (int i = 0; i < bins.length; i++) {
+                    writer.write(e.getKey() + "\t" + ((long) i * window) + "\t" + bins[i]);
+                    writer.newLine();
+                    reads += bins[i];
+                }
+            }
+        }
+        return reads;
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> configSpec = parser.accepts("config", "Required. FREEC configuration file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> tumorSpec = parser.accepts("tumor", "Required. Tumor .bam file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> tumorIndexSpec = parser.accepts("tumor-index", "Optional. .bai file of the tumor, looked up next to the .bam if not set")
+                .withRequiredArg().ofType(File.class);
+        OptionSpec<File> tumorOutputSpec = parser.accepts("tumor-output", "Required. Tumor counts").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> normalSpec = parser.accepts("normal", "Optional. Normal .bam file").withRequiredArg().ofType(File.class);
+        OptionSpec<File> normalIndexSpec = parser.accepts("normal-index", "Optional. .bai file of the normal, looked up next to the .bam if not set")
+                .withRequiredArg().ofType(File.class);
+        OptionSpec<File> normalOutputSpec = parser.accepts("normal-output", "Optional. Normal counts, required with --normal")
+                .requiredIf(normalSpec).withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> qualitySpec = parser.accepts("quality", "Optional. Minimum mapping quality").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of contigs counted in parallel, split between the two files")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        Map<String, String> settings = FreecConfig.read(options.valueOf(configSpec));
+        final int window = countWindow(settings);
+        final List<String> chromosomes = settings.containsKey("chrLenFile")
+                ? FreecConfig.chromosomes(new File(settings.get("chrLenFile"))) : new ArrayList<String>();
+
+        List<File> bams = new ArrayList<File>();
+        List<File> indexes = new ArrayList<File>();
+        List<File> outputs = new ArrayList<File>();
+        bams.add(options.valueOf(tumorSpec));
+        indexes.add(options.valueOf(tumorIndexSpec));
+        outputs.add(options.valueOf(tumorOutputSpec));
+        if (options.has(normalSpec)) {
+            bams.add(options.valueOf(normalSpec));
+            indexes.add(options.valueOf(normalIndexSpec));
+            outputs.add(options.valueOf(normalOutputSpec));
+        }
+        final int threads = Math.max(1, options.valueOf(threadsSpec) / bams.size());
+        final int quality = options.valueOf(qualitySpec);
+
+        ExecutorService pool = Executors.newFixedThreadPool(bams.size());
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int i = 0; i < bams.size(); i++) {
+                final File bam = bams.get(i);
+                final File index = indexes.get(i);
+                final File output = outputs.get(i);
+                futures.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        BinCounter counter = new BinCounter(window, quality, threads);
+                        counter.setAsyncDecoding(true);
+                        Map<String, int[]> counts = counter.count(bam, index, chromosomes);
+                        if (counts.isEmpty()) {
+                            throw new IOException("None of the chromosomes of chrLenFile are in " + bam);
+                        }
+                        return write(counts, window, output);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                LOG.info("Counted " + futures.get(i).get() + " reads of " + bams.get(i) + " in windows of " + window);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting", ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Counting failed", ee.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
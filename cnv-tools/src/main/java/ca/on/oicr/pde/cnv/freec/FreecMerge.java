@@ -0,0 +1,180 @@
+package ca.on.oicr.pde.cnv.freec;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Gathers the outputs of FREEC runs on disjoint chromosome groups into the
+ * files a whole-genome run would produce. Inputs are taken in the order given,
+ * which should be the order of the groups along the genome:
+ *
+ * table    - _ratio.txt (with --header), _CNVs and .cpn files: rows are
+ *            concatenated, a chromosome found in more than one input is an error
+ * info     - _info.txt: keys in the order of the first input, a value that
+ *            differs between groups (e.g. purity) is listed for every group,
+ *            comma-separated
+ * bedgraph - _ratio.BedGraph: rows of every track line are gathered under one
+ *            track line, inputs are read once per track so memory stays flat
+ */
+public class FreecMerge {
+
+    private static final Logger LOG = Logger.getLogger(FreecMerge.class.getName());
+
+    private FreecMerge() {
+    }
+
+    /**
+     * @return number of rows written
+     */
+    static long mergeTables(List<File> inputs, boolean header, BufferedWriter writer) throws IOException {
+        Set<String> done = new HashSet<String>();
+        long rows = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            Set<String> seen = new HashSet<String>();
+            try (BufferedReader reader = TextFiles.openReader(inputs.get(i))) {
+                String line = header ? reader.readLine() : null;
+                if (line != null && i == 0) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    String chromosome = TextFiles.field(line, 0);
+                    if (seen.add(chromosome) && done.contains(chromosome)) {
+                        throw new IllegalStateException("Chromosome " + chromosome + " is in more than one group, found again in " + inputs.get(i));
+                    }
+                    writer.write(line);
+                    writer.newLine();
+                    rows++;
+                }
+            }
+            done.addAll(seen);
+        }
+        return rows;
+    }
+
+    /**
+     * @return number of keys written
+     */
+    static int mergeInfo(List<File> inputs, BufferedWriter writer) throws IOException {
+        Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+        for (File input : inputs) {
+            try (BufferedReader reader = TextFiles.openReader(input)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    int tab = line.indexOf('\t');
+                    String key = tab < 0 ? line : line.substring(0, tab);
+                    List<String> list = values.get(key);
+                    if (list == null) {
+                        list = new ArrayList<String>();
+                        values.put(key, list);
+                    }
+                    list.add(tab < 0 ? "" : line.substring(tab + 1));
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> e : values.entrySet()) {
+            Set<String> distinct = new HashSet<String>(e.getValue());
+            writer.write(e.getKey() + "\t" + (distinct.size() == 1 ? e.getValue().get(0) : String.join(",", e.getValue())));
+            writer.newLine();
+        }
+        return values.size();
+    }
+
+    /**
+     * @return number of rows written
+     */
+    static long mergeBedGraphs(List<File> inputs, BufferedWriter writer) throws IOException {
+        // Track lines are the same in every group apart from the order of appearance
+        List<String> tracks = new ArrayList<String>();
+        for (File input : inputs) {
+            try (BufferedReader reader = TextFiles.openReader(input)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (isTrack(line) && !tracks.contains(line)) {
+                        tracks.add(line);
+                    }
+                }
+            }
+        }
+        Map<String, Integer> index = new HashMap<String, Integer>();
+        for (int t = 0; t < tracks.size(); t++) {
+            index.put(tracks.get(t), t);
+        }
+        long rows = 0;
+        // Rows before the first track line, if any, belong to no track (-1)
+        for (int t = tracks.isEmpty() ? -1 : 0; t < tracks.size(); t++) {
+            if (t >= 0) {
+                writer.write(tracks.get(t));
+                writer.newLine();
+            }
+            for (File input : inputs) {
+                try (BufferedReader reader = TextFiles.openReader(input)) {
+                    int current = -1;
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (isTrack(line)) {
+                            current = index.get(line);
+                        } else if (current == t && !line.isEmpty()) {
+                            writer.write(line);
+                            writer.newLine();
+                            rows++;
+                        }
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static boolean isTrack(String line) {
+        return line.startsWith("track") || line.startsWith("browser");
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> typeSpec = parser.accepts("type", "Required. One of table, info, bedgraph").withRequiredArg().required();
+        parser.accepts("header", "Optional. Inputs of type table start with a header line (_ratio.txt)");
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Merged output file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> inputSpec = parser.nonOptions("outputs of the chromosome groups, in genome order").ofType(File.class);
+        OptionSet options = parser.parse(args);
+
+        List<File> inputs = options.valuesOf(inputSpec);
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input files");
+        }
+        String type = options.valueOf(typeSpec);
+        long count;
+        try (BufferedWriter writer = TextFiles.openWriter(options.valueOf(outputSpec))) {
+            if (type.equals("table")) {
+                count = mergeTables(inputs, options.has("header"), writer);
+            } else if (type.equals("info")) {
+                count = mergeInfo(inputs, writer);
+            } else if (type.equals("bedgraph")) {
+                count = mergeBedGraphs(inputs, writer);
+            } else {
+                throw new IllegalArgumentException("Unknown type " + type + ", expected table, info or bedgraph");
+            }
+        }
+        LOG.info("Merged " + count + " lines from " + inputs.size() + " files into " + options.valueOf(outputSpec));
+    }
+}
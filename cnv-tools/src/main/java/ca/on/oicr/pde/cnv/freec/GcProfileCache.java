@@ -0,0 +1,99 @@
+package ca.on.oicr.pde.cnv.freec;
+
+import ca.on.oicr.pde.cnv.io.DiskCache;
+import ca.on.oicr.pde.cnv.util.Checksums;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Cache of FREEC GC-content profiles (_GC_profile.cpn), which only depend on
+ * the reference and the windows, so FREEC can be given one through the
+ * GCcontentProfile option instead of computing it from the .fa files again.
+ * The key is built from the [general] and [target] settings of the FREEC
+ * configuration the profile depends on.
+ *
+ * java -jar cnv-tools.jar gc-profile-cache lookup|store [options]
+ *
+ * lookup prints true and copies the profile to --output on a hit, prints
+ * false otherwise. The key is written to --key-file in both cases. store adds
+ * a profile under that key and evicts least recently used profiles when the
+ * cache is over --max-size.
+ */
+public class GcProfileCache {
+
+    private static final Logger LOG = Logger.getLogger(GcProfileCache.class.getName());
+
+    /**
+     * Bumped when the way profiles are made changes, so old entries are not used
+     */
+    private static final String VERSION = "1";
+
+    /**
+     * Settings the profile depends on, files are represented by their checksum
+     */
+    private static final List<String> VALUES = Arrays.asList("chrFiles", "window", "step", "telocentromeric", "minMappabilityPerWindow");
+    private static final List<String> FILES = Arrays.asList("chrLenFile", "captureRegions", "gemMappabilityFile");
+
+    private GcProfileCache() {
+    }
+
+    /**
+     * @param config FREEC configuration
+     * @return cache key
+     * @throws IOException
+     */
+    public static String key(File config) throws IOException {
+        Map<String, String> settings = FreecConfig.read(config);
+        List<String> parts = new ArrayList<String>(Arrays.asList("freec-gc-profile", VERSION));
+        for (String name : VALUES) {
+            String value = settings.get(name);
+            parts.add(name + "=" + (value == null ? "" : value));
+        }
+        for (String name : FILES) {
+            String value = settings.get(name);
+            parts.add(name + "=" + (value == null || value.isEmpty() ? "" : Checksums.md5(new File(value))));
+        }
+        return Checksums.key(parts.toArray(new String[parts.size()])) + ".cpn";
+    }
+
+    public static void main(String[] args) throws IOException {
+        String action = args.length == 0 ? "" : args[0];
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> dirSpec = parser.accepts("dir", "Required. Cache directory").withRequiredArg().ofType(File.class).required();
+        OptionSet options;
+        if (action.equals("lookup")) {
+            OptionSpec<File> configSpec = parser.accepts("config", "Required. FREEC configuration file").withRequiredArg().ofType(File.class).required();
+            OptionSpec<File> outputSpec = parser.accepts("output", "Required. Where to copy the cached profile").withRequiredArg().ofType(File.class).required();
+            OptionSpec<File> keySpec = parser.accepts("key-file", "Required. File to write the key to").withRequiredArg().ofType(File.class).required();
+            options = parser.parse(Arrays.copyOfRange(args, 1, args.length));
+
+            String key = key(options.valueOf(configSpec));
+            Files.write(options.valueOf(keySpec).toPath(), key.getBytes(StandardCharsets.UTF_8));
+            DiskCache cache = new DiskCache(options.valueOf(dirSpec), Long.MAX_VALUE);
+            boolean hit = cache.get(key, options.valueOf(outputSpec));
+            LOG.info((hit ? "Cache hit " : "Cache miss ") + key + " for " + options.valueOf(configSpec));
+            System.out.println(hit);
+        } else if (action.equals("store")) {
+            OptionSpec<String> keySpec = parser.accepts("key", "Required. Key from lookup").withRequiredArg().required();
+            OptionSpec<File> inputSpec = parser.accepts("input", "Required. GC profile (_GC_profile.cpn) written by FREEC").withRequiredArg().ofType(File.class).required();
+            OptionSpec<Double> sizeSpec = parser.accepts("max-size", "Optional. Size limit of the cache in GB").withRequiredArg().ofType(Double.class).defaultsTo(10.0);
+            options = parser.parse(Arrays.copyOfRange(args, 1, args.length));
+
+            DiskCache cache = new DiskCache(options.valueOf(dirSpec), (long) (options.valueOf(sizeSpec) * (1L << 30)));
+            cache.put(options.valueOf(keySpec).trim(), options.valueOf(inputSpec));
+            LOG.info("Stored " + options.valueOf(keySpec).trim() + " in " + options.valueOf(dirSpec));
+        } else {
+            throw new IllegalArgumentException("Usage: gc-profile-cache lookup|store [options]");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package ca.on.oicr.pde.cnv.hmmcopy;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import ca.on.oicr.pde.cnv.plot.Chart;
+import ca.on.oicr.pde.cnv.util.DoubleList;
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Renders the HMMcopy QC images from the downsampled plot data written by
+ * run_HMMcopy.r, so images are only made when somebody asks for them:
+ *
+ * prefix.bias_plot.png - reads vs GC and GC-corrected reads vs mappability
+ * prefix.s_plot.png    - copy of all canonical chromosomes coloured by state,
+ *                        with segment medians
+ */
+public class HmmCopyPlots {
+
+    private static final Logger LOG = Logger.getLogger(HmmCopyPlots.class.getName());
+
+    /**
+     * HMMcopy stateCols()
+     */
+    static final Color[] STATE_COLORS = {
+        new Color(0x74C476), new Color(0x238B45), new Color(0x00008B), new Color(0xA50F15), new Color(0xDE2D26), new Color(0xFB6A4A)
+    };
+    static final String[] STATE_NAMES = {"HOMD", "HETD", "NEUT", "GAIN", "AMPL", "HLAMP"};
+
+    private HmmCopyPlots() {
+    }
+
+    /**
+     * Columns of a tab-separated file with a header, "NA" is NaN. Columns
+     * other than the named ones are ignored; the first column is kept as text.
+     */
+    static final class Table {
+        final List<String> keys = new ArrayList<String>();
+        final Map<String, DoubleList> columns = new HashMap<String, DoubleList>();
+
+        static Table read(File file, String... names) throws IOException {
+            Table table = new Table();
+            try (BufferedReader reader = TextFiles.openReader(file)) {
+                String line = reader.readLine();
+                if (line == null) {
+                    return table;
+                }
+                List<String> header = Arrays.asList(line.split("\t"));
+                int[] index = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    index[i] = header.indexOf(names[i]);
+                    if (index[i] < 0) {
+                        throw new IOException("No column " + names[i] + " in " + file);
+                    }
+                    table.columns.put(names[i], new DoubleList());
+                }
+                int keyColumn = header.indexOf("chr");
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    String[] tmp = line.split("\t");
+                    // write.table with row names has one more field than the header
+                    int shift = tmp.length - header.size();
+                    for (int i = 0; i < names.length; i++) {
+                        String v = tmp[index[i] + shift];
+                        table.columns.get(names[i]).add(v.equals("NA") ? Double.NaN : Double.parseDouble(v));
+                    }
+                    if (keyColumn >= 0) {
+                        table.keys.add(tmp[keyColumn + shift]);
+                    }
+                }
+            }
+            return table;
+        }
+
+        double get(String column, int row) {
+            return columns.get(column).get(row);
+        }
+
+        int size() {
+            return columns.isEmpty() ? 0 : columns.values().iterator().next().size();
+        }
+    }
+
+    /**
+     * Same selection as run_HMMcopy.r: no unplaced contigs and no mitochondria
+     */
+    static boolean plotted(String chromosome) {
+        return !chromosome.contains("_") && !chromosome.contains("M");
+    }
+
+    static void segmentationPlot(Table copy, Table segments, File output) throws IOException {
+        Map<String, Double> offsets = new LinkedHashMap<String, Double>();
+        Map<String, Double> ends = new HashMap<String, Double>();
+        for (int i = 0; i < copy.size(); i++) {
+            String chr = copy.keys.get(i);
+            if (plotted(chr)) {
+                Double end = ends.get(chr);
+                ends.put(chr, Math.max(end == null ? 0 : end, copy.get("end", i)));
+                if (!offsets.containsKey(chr)) {
+                    offsets.put(chr, 0.0);
+                }
+            }
+        }
+        double total = 0;
+        for (Map.Entry<String, Double> e : offsets.entrySet()) {
+            e.setValue(total);
+            total += ends.get(e.getKey());
+        }
+        double[] values = new double[copy.size()];
+        int n = 0;
+        for (int i = 0; i < copy.size(); i++) {
+            if (!Double.isNaN(copy.get("copy", i))) {
+                values[n++] = copy.get("copy", i);
+            }
+        }
+        Arrays.sort(values, 0, n);
+        double yMin = n == 0 ? -2 : Math.max(-3, values[(int) (0.001 * (n - 1))] - 0.2);
+        double yMax = n == 0 ? 2 : Math.min(3, values[(int) (0.999 * (n - 1))] + 0.2);
+
+        Chart chart = new Chart(1200, 450);
+        chart.panel(0, 0, 1200, 450, 0, total, yMin, yMax, "Segmentation for Chromosomes", "Chromosome Position", "Tumour Copy Number");
+        chart.yTicks();
+        chart.horizontalLine(0, Color.LIGHT_GRAY);
+        for (Map.Entry<String, Double> e : offsets.entrySet()) {
+            chart.verticalLine(e.getValue(), Color.LIGHT_GRAY);
+            chart.xLabel(e.getValue() + ends.get(e.getKey()) / 2, e.getKey().startsWith("chr") ? e.getKey().substring(3) : e.getKey());
+        }
+        for (int i = 0; i < copy.size(); i++) {
+            Double offset = offsets.get(copy.keys.get(i));
+            int state = (int) copy.get("state", i);
+            if (offset != null && state >= 1 && state <= STATE_COLORS.length) {
+                chart.point(offset + (copy.get("start", i) + copy.get("end", i)) / 2, copy.get("copy", i), STATE_COLORS[state - 1]);
+            }
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            Double offset = offsets.get(segments.keys.get(i));
+            if (offset != null) {
+                double median = segments.get("median", i);
+                chart.line(offset + segments.get("start", i), median, offset + segments.get("end", i), median, Color.BLACK, 2f);
+            }
+        }
+        chart.legend(STATE_NAMES, STATE_COLORS);
+        chart.write(output);
+    }
+
+    static void biasPlot(Table bias, File output) throws IOException {
+        Chart chart = new Chart(1200, 580);
+        chart.panel(0, 0, 600, 580, 0, 1, 0, upper(bias, "reads"), "Uncorrected", "GC content", "Reads");
+        chart.xTicks();
+        chart.yTicks();
+        for (int i = 0; i < bias.size(); i++) {
+            chart.point(bias.get("gc", i), bias.get("reads", i), Color.DARK_GRAY);
+        }
+        chart.panel(600, 0, 600, 580, 0, 1, 0, upper(bias, "cor.gc"), "GC corrected", "Mappability", "GC-corrected reads");
+        chart.xTicks();
+        chart.yTicks();
+        for (int i = 0; i < bias.size(); i++) {
+            chart.point(bias.get("map", i), bias.get("cor.gc", i), Color.DARK_GRAY);
+        }
+        chart.write(output);
+    }
+
+    /**
+     * 99th percentile, keeps a few extreme bins from squashing the plot
+     */
+    private static double upper(Table table, String column) {
+        double[] values = new double[table.size()];
+        int n = 0;
+        for (int i = 0; i < table.size(); i++) {
+            double v = table.get(column, i);
+            if (!Double.isNaN(v)) {
+                values[n++] = v;
+            }
+        }
+        if (n == 0) {
+            return 1;
+        }
+        Arrays.sort(values, 0, n);
+        return values[(int) (0.99 * (n - 1))] * 1.1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> copySpec = parser.accepts("copy", "Required. Downsampled copy and states (chr, start, end, copy, state)").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> segmentsSpec = parser.accepts("segments", "Required. Segments (.tsv) written by runHMMcopy").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> biasSpec = parser.accepts("bias", "Optional. Sample of bins (gc, map, reads, cor.gc) for the bias plot").withRequiredArg().ofType(File.class);
+        OptionSpec<String> prefixSpec = parser.accepts("output-prefix", "Required. Prefix of the .png files").withRequiredArg().required();
+        OptionSet options = parser.parse(args);
+
+        String prefix = options.valueOf(prefixSpec);
+        Table copy = Table.read(options.valueOf(copySpec), "start", "end", "copy", "state");
+        Table segments = Table.read(options.valueOf(segmentsSpec), "start", "end", "median");
+        segmentationPlot(copy, segments, new File(prefix + ".s_plot.png"));
+        if (options.has(biasSpec)) {
+            biasPlot(Table.read(options.valueOf(biasSpec), "gc", "map", "reads", "cor.gc"), new File(prefix + ".bias_plot.png"));
+        }
+        LOG.info("Rendered plots for " + copy.size() + " points and " + segments.size() + " segments");
+    }
+}
@@ -0,0 +1,190 @@
+package ca.on.oicr.pde.cnv.hmmcopy;
+
+import ca.on.oicr.pde.cnv.io.BinFile;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import ca.on.oicr.pde.cnv.segment.HmmSegmentation;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Replacement for HMMsegment() in run_HMMcopy.r. Reads corrected copy from a
+ * .bins file, fits the six-state model on the autosomes and writes segments
+ * the way write.table(segmented_copy$segs) does: a header of chr, start, end,
+ * state, median and a row number in front of every segment. States are 1 (HOMD)
+ * to 6 (HLAMP), median is the median copy of the non-missing bins of a segment.
+ */
+public class HmmSegment {
+
+    private static final Logger LOG = Logger.getLogger(HmmSegment.class.getName());
+
+    /**
+     * Name of the track with 1-based states in the optional .bins output
+     */
+    public static final String STATE = "state";
+
+    private HmmSegment() {
+    }
+
+    /**
+     * The autosomes of HMMsegment(): every contig but X, Y and the
+     * mitochondrial genome, with or without the chr prefix. Unplaced and
+     * random contigs take part in training like in HMMcopy
+     */
+    static boolean isAutosome(String chromosome) {
+        String name = chromosome.startsWith("chr") ? chromosome.substring(3) : chromosome;
+        return !(name.equals("X") || name.equals("Y") || name.equals("M") || name.equals("MT"));
+    }
+
+    /**
+     * Write segments: runs of bins in the same state
+     *
+     * @param contigs  contig names
+     * @param copy     copy per contig
+     * @param states   0-based states per contig
+     * @param window   bin size
+     * @param output   .tsv file
+     * @return number of segments
+     * @throws IOException
+     */
+    static int writeSegments(List<String> contigs, List<double[]> copy, int[][] states, int window, File output) throws IOException {
+        int row = 0;
+        try (BufferedWriter writer = TextFiles.openWriter(output)) {
+            writer.write("chr\tstart\tend\tstate\tmedian");
+            writer.newLine();
+            for (int c = 0; c < contigs.size(); c++) {
+                int[] path = states[c];
+                double[] y = copy.get(c);
+                int from = 0;
+                for (int t = 1; t <= path.length; t++) {
+                    if (t < path.length && path[t] == path[from]) {
+                        continue;
+                    }
+                    row++;
+                    writer.write(row + "\t" + contigs.get(c) + "\t" + ((long) from * window + 1) + "\t" + ((long) t * window)
+                            + "\t" + (path[from] + 1) + "\t" + format(median(y, from, t)));
+                    writer.newLine();
+                    from = t;
+                }
+            }
+        }
+        return row;
+    }
+
+    private static double median(double[] y, int from, int to) {
+        double[] values = new double[to - from];
+        int n = 0;
+        for (int t = from; t < to; t++) {
+            if (!Double.isNaN(y[t])) {
+                values[n++] = y[t];
+            }
+        }
+        if (n == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(values, 0, n);
+        return n % 2 == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2.0;
+    }
+
+    /**
+     * 15 significant digits like R, NA for missing values
+     */
+    static String format(double v) {
+        if (Double.isNaN(v)) {
+            return "NA";
+        }
+        return new BigDecimal(v).round(new MathContext(15)).stripTrailingZeros().toPlainString();
+    }
+
+    private static double[] parseList(String list) {
+        String[] tmp = list.split(",");
+        double[] values = new double[tmp.length];
+        for (int i = 0; i < tmp.length; i++) {
+            values[i] = Double.parseDouble(tmp[i].trim());
+        }
+        return values;
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> inputSpec = parser.accepts("input", "Required. Corrected copy (.bins)").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> trackSpec = parser.accepts("track", "Optional. Track with corrected copy").withRequiredArg().defaultsTo("copy");
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Segments (.tsv)").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> statesSpec = parser.accepts("states", "Optional. State of every bin (.bins, int track state)").withRequiredArg().ofType(File.class);
+        OptionSpec<String> muSpec = parser.accepts("mu", "Optional. Comma-separated initial state means, also used as prior means (m)").withRequiredArg();
+        OptionSpec<Double> strengthSpec = parser.accepts("strength", "Optional. Strength of the transition prior").withRequiredArg().ofType(Double.class).defaultsTo(1e7);
+        OptionSpec<Double> eSpec = parser.accepts("e", "Optional. Prior probability of staying in a state").withRequiredArg().ofType(Double.class).defaultsTo(0.9999999);
+        OptionSpec<Integer> iterSpec = parser.accepts("max-iter", "Optional. Maximum number of EM iterations").withRequiredArg().ofType(Integer.class).defaultsTo(50);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of chromosomes processed in parallel").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        List<String> contigs;
+        List<double[]> copy = new ArrayList<double[]>();
+        int window;
+        try (BinFile bins = BinFile.open(options.valueOf(inputSpec))) {
+            contigs = new ArrayList<String>(bins.getContigs());
+            window = bins.getWindow();
+            for (String contig : contigs) {
+                float[] values = bins.floats(options.valueOf(trackSpec), contig);
+                double[] y = new double[values.length];
+                for (int i = 0; i < y.length; i++) {
+                    y[i] = values[i];
+                }
+                copy.add(y);
+            }
+        }
+        boolean[] train = new boolean[contigs.size()];
+        boolean autosomes = false;
+        for (int c = 0; c < train.length; c++) {
+            train[c] = isAutosome(contigs.get(c));
+            autosomes |= train[c];
+        }
+        if (!autosomes) {
+            LOG.warning("No autosomes in " + options.valueOf(inputSpec) + ", training on all contigs");
+            Arrays.fill(train, true);
+        }
+
+        HmmSegmentation.Parameters parameters = new HmmSegmentation.Parameters();
+        if (options.has(muSpec)) {
+            double[] mu = parseList(options.valueOf(muSpec));
+            if (mu.length != parameters.states()) {
+                throw new IllegalArgumentException("Expected " + parameters.states() + " state means, got " + mu.length);
+            }
+            parameters.mu = mu;
+            parameters.m = mu.clone();
+        }
+        parameters.strength = options.valueOf(strengthSpec);
+        parameters.e = options.valueOf(eSpec);
+        parameters.setS(copy, train);
+
+        HmmSegmentation hmm = new HmmSegmentation(parameters, options.valueOf(threadsSpec));
+        hmm.setMaxIterations(options.valueOf(iterSpec));
+        HmmSegmentation.Result result = hmm.segment(copy, train);
+        int segments = writeSegments(contigs, copy, result.states, window, options.valueOf(outputSpec));
+
+        if (options.has(statesSpec)) {
+            Map<String, int[]> states = new LinkedHashMap<String, int[]>();
+            for (int c = 0; c < contigs.size(); c++) {
+                int[] path = result.states[c].clone();
+                for (int t = 0; t < path.length; t++) {
+                    path[t]++;
+                }
+                states.put(contigs.get(c), path);
+            }
+            new BinFile.Builder(window).intTrack(STATE, states).write(options.valueOf(statesSpec));
+        }
+        LOG.info("Wrote " + segments + " segments to " + options.valueOf(outputSpec));
+    }
+}
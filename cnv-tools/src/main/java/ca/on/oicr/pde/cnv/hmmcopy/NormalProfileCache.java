@@ -0,0 +1,96 @@
+package ca.on.oicr.pde.cnv.hmmcopy;
+
+import ca.on.oicr.pde.cnv.io.DiskCache;
+import ca.on.oicr.pde.cnv.util.Checksums;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Cache of GC/mappability-corrected normal profiles (.bins with a float track
+ * "copy" written by run_HMMcopy.r), so a normal paired with several tumors is
+ * counted and corrected once. Entries are keyed by the normal .bam (its known
+ * checksum, or name, size and modification time), the window, the chromosome
+ * list and the name, size and modification time of the reference files. No
+ * file is read to make the key.
+ *
+ * java -jar cnv-tools.jar normal-cache lookup|store [options]
+ *
+ * lookup prints true and copies the profile to --output on a hit, prints
+ * false otherwise. The key is written to --key-file in both cases. store adds
+ * a profile under that key and evicts least recently used profiles when the
+ * cache is over --max-size.
+ */
+public class NormalProfileCache {
+
+    private static final Logger LOG = Logger.getLogger(NormalProfileCache.class.getName());
+
+    /**
+     * Bumped when the way profiles are made changes, so old entries are not used
+     */
+    private static final String VERSION = "2";
+
+    private NormalProfileCache() {
+    }
+
+    /**
+     * @param bam         checksum of the normal .bam, or its {@link Checksums#identity}
+     * @param window      window size
+     * @param chromosomes comma-separated chromosomes, empty for all
+     * @param references  reference files (gc, map or .bins)
+     * @return cache key
+     * @throws IOException
+     */
+    public static String key(String bam, int window, String chromosomes, List<File> references) throws IOException {
+        List<String> parts = new ArrayList<String>(Arrays.asList("normal-profile", VERSION, bam, Integer.toString(window), chromosomes));
+        for (File reference : references) {
+            parts.add(Checksums.identity(reference));
+        }
+        return Checksums.key(parts.toArray(new String[parts.size()])) + ".bins";
+    }
+
+    public static void main(String[] args) throws IOException {
+        String action = args.length == 0 ? "" : args[0];
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> dirSpec = parser.accepts("dir", "Required. Cache directory").withRequiredArg().ofType(File.class).required();
+        OptionSet options;
+        if (action.equals("lookup")) {
+            OptionSpec<File> bamSpec = parser.accepts("bam", "Required. Normal .bam, identified by name, size and modification time unless --checksum is set").withRequiredArg().ofType(File.class).required();
+            OptionSpec<String> checksumSpec = parser.accepts("checksum", "Optional. Known checksum of the normal .bam, e.g. its md5 from file provenance").withRequiredArg();
+            OptionSpec<Integer> windowSpec = parser.accepts("window", "Optional. Window size in bases").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+            OptionSpec<String> chromosomesSpec = parser.accepts("chromosomes", "Optional. Comma-separated list of chromosomes, all by default").withRequiredArg().defaultsTo("");
+            OptionSpec<File> referenceSpec = parser.accepts("reference", "Required. Reference file (gc, map or .bins), may be repeated")
+                    .withRequiredArg().ofType(File.class).required();
+            OptionSpec<File> outputSpec = parser.accepts("output", "Required. Where to copy the cached profile").withRequiredArg().ofType(File.class).required();
+            OptionSpec<File> keySpec = parser.accepts("key-file", "Required. File to write the key to").withRequiredArg().ofType(File.class).required();
+            options = parser.parse(Arrays.copyOfRange(args, 1, args.length));
+
+            String bam = options.has(checksumSpec) ? options.valueOf(checksumSpec) : Checksums.identity(options.valueOf(bamSpec));
+            String key = key(bam, options.valueOf(windowSpec), options.valueOf(chromosomesSpec), options.valuesOf(referenceSpec));
+            Files.write(options.valueOf(keySpec).toPath(), key.getBytes(StandardCharsets.UTF_8));
+            DiskCache cache = new DiskCache(options.valueOf(dirSpec), Long.MAX_VALUE);
+            boolean hit = cache.get(key, options.valueOf(outputSpec));
+            LOG.info((hit ? "Cache hit " : "Cache miss ") + key + " for " + options.valueOf(bamSpec));
+            System.out.println(hit);
+        } else if (action.equals("store")) {
+            OptionSpec<String> keySpec = parser.accepts("key", "Required. Key from lookup").withRequiredArg().required();
+            OptionSpec<File> inputSpec = parser.accepts("input", "Required. Corrected normal profile (.bins)").withRequiredArg().ofType(File.class).required();
+            OptionSpec<Double> sizeSpec = parser.accepts("max-size", "Optional. Size limit of the cache in GB").withRequiredArg().ofType(Double.class).defaultsTo(50.0);
+            options = parser.parse(Arrays.copyOfRange(args, 1, args.length));
+
+            DiskCache cache = new DiskCache(options.valueOf(dirSpec), (long) (options.valueOf(sizeSpec) * (1L << 30)));
+            cache.put(options.valueOf(keySpec).trim(), options.valueOf(inputSpec));
+            LOG.info("Stored " + options.valueOf(keySpec).trim() + " in " + options.valueOf(dirSpec));
+        } else {
+            throw new IllegalArgumentException("Usage: normal-cache lookup|store [options]");
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package ca.on.oicr.pde.cnv.hmmcopy;
+
+import ca.on.oicr.pde.cnv.bam.BinCounter;
+import ca.on.oicr.pde.cnv.io.BinFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Counts a tumor and a normal .bam at the same time in one process, for the
+ * fused HMMcopy task. Both are counted like read-counter, each with half of
+ * the threads, and the counts go to a single .bins file with int tracks
+ * "tumor" and "normal" that run_HMMcopy.r reads when it gets the same file as
+ * normal and tumor input.
+ */
+public class PairCounter {
+
+    private static final Logger LOG = Logger.getLogger(PairCounter.class.getName());
+
+    public static final String TUMOR = "tumor";
+    public static final String NORMAL = "normal";
+
+    private PairCounter() {
+    }
+
+    private static Future<Map<String, int[]>> submit(ExecutorService pool, final BinCounter counter, final File bam, final File index,
+                                                     final List<String> chromosomes) {
+        return pool.submit(new Callable<Map<String, int[]>>() {
+            @Override
+            public Map<String, int[]> call() throws IOException {
+                return counter.count(bam, index, chromosomes);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> tumorSpec = parser.accepts("tumor", "Required. Tumor .bam file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> tumorIndexSpec = parser.accepts("tumor-index", "Optional. .bai file of the tumor, looked up next to the .bam if not set")
+                .withRequiredArg().ofType(File.class);
+        OptionSpec<File> normalSpec = parser.accepts("normal", "Required. Normal .bam file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> normalIndexSpec = parser.accepts("normal-index", "Optional. .bai file of the normal, looked up next to the .bam if not set")
+                .withRequiredArg().ofType(File.class);
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Output .bins file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<Integer> windowSpec = parser.accepts("window", "Optional. Window size in bases").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+        OptionSpec<Integer> qualitySpec = parser.accepts("quality", "Optional. Minimum mapping quality").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<String> chromosomesSpec = parser.accepts("chromosomes", "Optional. Comma-separated list of chromosomes, all by default").withRequiredArg();
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of contigs counted in parallel, split between the two files")
+                .withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        List<String> chromosomes = options.has(chromosomesSpec) ? Arrays.asList(options.valueOf(chromosomesSpec).split(",")) : Collections.<String>emptyList();
+        int threads = Math.max(1, options.valueOf(threadsSpec) / 2);
+        int window = options.valueOf(windowSpec);
+        int quality = options.valueOf(qualitySpec);
+
+        Map<String, int[]> tumor;
+        Map<String, int[]> normal;
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Map<String, int[]>> tumorCounts = submit(pool, new BinCounter(window, quality, threads),
+                    options.valueOf(tumorSpec), options.valueOf(tumorIndexSpec), chromosomes);
+            Future<Map<String, int[]>> normalCounts = submit(pool, new BinCounter(window, quality, threads),
+                    options.valueOf(normalSpec), options.valueOf(normalIndexSpec), chromosomes);
+            tumor = tumorCounts.get();
+            normal = normalCounts.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting", ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Counting failed", ee.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        new BinFile.Builder(window).intTrack(TUMOR, tumor).intTrack(NORMAL, normal).write(options.valueOf(outputSpec));
+        LOG.info("Counted " + tumor.size() + " tumor and " + normal.size() + " normal contigs");
+    }
+}
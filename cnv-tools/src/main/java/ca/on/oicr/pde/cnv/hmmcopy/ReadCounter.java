@@ -0,0 +1,54 @@
+package ca.on.oicr.pde.cnv.hmmcopy;
+
+import ca.on.oicr.pde.cnv.bam.BinCounter;
+import ca.on.oicr.pde.cnv.io.BinFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Replacement for HMMcopy readCounter: one pass per contig straight from the
+ * BAM index (no readCounter -b step), contigs counted in parallel. Output
+ * named *.bins is written as a binary bin file with an int track "reads",
+ * anything else as fixedStep .wig
+ */
+public class ReadCounter {
+
+    private static final Logger LOG = Logger.getLogger(ReadCounter.class.getName());
+
+    /**
+     * Name of the track with counts in .bins output
+     */
+    public static final String READS = "reads";
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> bamSpec = parser.accepts("input", "Required. Input .bam file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> indexSpec = parser.accepts("index", "Optional. .bai file, looked up next to the .bam if not set").withRequiredArg().ofType(File.class);
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Output .wig or .bins file").withRequiredArg().ofType(File.class).required();
+        OptionSpec<Integer> windowSpec = parser.accepts("window", "Optional. Window size in bases").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
+        OptionSpec<Integer> qualitySpec = parser.accepts("quality", "Optional. Minimum mapping quality").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSpec<String> chromosomesSpec = parser.accepts("chromosomes", "Optional. Comma-separated list of chromosomes, all by default").withRequiredArg();
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of contigs counted in parallel").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSet options = parser.parse(args);
+
+        List<String> chromosomes = options.has(chromosomesSpec) ? Arrays.asList(options.valueOf(chromosomesSpec).split(",")) : Collections.<String>emptyList();
+        BinCounter counter = new BinCounter(options.valueOf(windowSpec), options.valueOf(qualitySpec), options.valueOf(threadsSpec));
+        Map<String, int[]> counts = counter.count(options.valueOf(bamSpec), options.valueOf(indexSpec), chromosomes);
+        File output = options.valueOf(outputSpec);
+        if (BinFile.isBinFile(output)) {
+            new BinFile.Builder(counter.getWindow()).intTrack(READS, counts).write(output);
+        } else {
+            Wig.write(counts, counter.getWindow(), output);
+        }
+        LOG.info("Counted " + counts.size() + " contigs of " + options.valueOf(bamSpec));
+    }
+}
@@ -0,0 +1,127 @@
+package ca.on.oicr.pde.cnv.hmmcopy;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import ca.on.oicr.pde.cnv.util.FloatList;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * fixedStep .wig files in the flavour written by HMMcopy readCounter
+ */
+public final class Wig {
+
+    private Wig() {
+    }
+
+    /**
+     * Values of a fixedStep .wig, one float per bin
+     */
+    public static final class Track {
+
+        private final int window;
+        private final Map<String, float[]> values;
+
+        Track(int window, Map<String, float[]> values) {
+            this.window = window;
+            this.values = values;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        /**
+         * @return values per contig, in file order
+         */
+        public Map<String, float[]> getValues() {
+            return values;
+        }
+    }
+
+    /**
+     * Read a fixedStep .wig (readCounter, gcCounter, mapCounter output). Bins
+     * before the start of a block are NaN, step should be the same everywhere.
+     *
+     * @param input .wig file, may be gzipped
+     * @return values
+     * @throws IOException
+     */
+    public static Track read(File input) throws IOException {
+        Map<String, FloatList> contigs = new LinkedHashMap<String, FloatList>();
+        int window = 0;
+        FloatList current = null;
+        try (BufferedReader reader = TextFiles.openReader(input)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("track")) {
+                    continue;
+                }
+                if (line.startsWith("fixedStep")) {
+                    String chrom = null;
+                    long start = 1;
+                    int step = 0;
+                    for (String token : line.split("\\s+")) {
+                        if (token.startsWith("chrom=")) {
+                            chrom = token.substring(6);
+                        } else if (token.startsWith("start=")) {
+                            start = Long.parseLong(token.substring(6));
+                        } else if (token.startsWith("step=")) {
+                            step = Integer.parseInt(token.substring(5));
+                        }
+                    }
+                    if (chrom == null || step <= 0) {
+                        throw new IOException("Malformed header at line " + lineNumber + " of " + input + ": " + line);
+                    }
+                    if (window != 0 && step != window) {
+                        throw new IOException("Step changes from " + window + " to " + step + " at line " + lineNumber + " of " + input);
+                    }
+                    window = step;
+                    current = contigs.get(chrom);
+                    if (current == null) {
+                        current = new FloatList();
+                        contigs.put(chrom, current);
+                    }
+                    while (current.size() < (start - 1) / step) {
+                        current.add(Float.NaN);
+                    }
+                } else if (line.startsWith("variableStep")) {
+                    throw new IOException("Only fixedStep .wig files are supported, " + input + " is variableStep");
+                } else if (current == null) {
+                    throw new IOException("Value before the first fixedStep line at line " + lineNumber + " of " + input);
+                } else {
+                    current.add(Float.parseFloat(line.trim()));
+                }
+            }
+        }
+        Map<String, float[]> values = new LinkedHashMap<String, float[]>();
+        for (Map.Entry<String, FloatList> e : contigs.entrySet()) {
+            values.put(e.getKey(), e.getValue().toArray());
+        }
+        return new Track(window, values);
+    }
+
+    /**
+     * @param counts bin counts per contig
+     * @param window window size
+     * @param output .wig file
+     * @throws IOException
+     */
+    public static void write(Map<String, int[]> counts, int window, File output) throws IOException {
+        try (BufferedWriter writer = TextFiles.openWriter(output)) {
+            for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+                writer.write("fixedStep chrom=" + entry.getKey() + " start=1 step=" + window + " span=" + window);
+                writer.newLine();
+                for (int c : entry.getValue()) {
+                    writer.write(Integer.toString(c));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+}
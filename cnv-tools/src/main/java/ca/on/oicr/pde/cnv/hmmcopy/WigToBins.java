@@ -0,0 +1,47 @@
+package ca.on.oicr.pde.cnv.hmmcopy;
+
+import ca.on.oicr.pde.cnv.io.BinFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * One-time conversion of reference .wig files (HMMcopy gcCounter and
+ * mapCounter output) into a single .bins file with one float track per .wig,
+ * so runs no longer parse the same text every time
+ */
+public class WigToBins {
+
+    private static final Logger LOG = Logger.getLogger(WigToBins.class.getName());
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> trackSpec = parser.accepts("track", "Required. Track to convert as name=file.wig, e.g. gc=gc.wig, may be repeated")
+                .withRequiredArg().required();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Output .bins file").withRequiredArg().ofType(File.class).required();
+        OptionSet options = parser.parse(args);
+
+        BinFile.Builder builder = null;
+        int window = 0;
+        for (String track : options.valuesOf(trackSpec)) {
+            int eq = track.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Track should be given as name=file.wig, got " + track);
+            }
+            File wig = new File(track.substring(eq + 1));
+            Wig.Track values = Wig.read(wig);
+            if (builder == null) {
+                window = values.getWindow();
+                builder = new BinFile.Builder(window);
+            } else if (values.getWindow() != window) {
+                throw new IllegalArgumentException("Window of " + wig + " is " + values.getWindow() + ", expected " + window);
+            }
+            builder.floatTrack(track.substring(0, eq), values.getValues());
+            LOG.info("Read " + values.getValues().size() + " contigs from " + wig);
+        }
+        builder.write(options.valueOf(outputSpec));
+    }
+}
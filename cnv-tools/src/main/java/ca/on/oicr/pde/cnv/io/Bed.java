@@ -0,0 +1,99 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reading and normalizing .bed files
+ */
+public final class Bed {
+
+    private Bed() {
+    }
+
+    /**
+     * Read intervals from a .bed file, track/browser/comment lines are skipped
+     *
+     * @param file .bed file, may be gzipped
+     * @return intervals in file order
+     * @throws IOException
+     */
+    public static List<Interval> read(File file) throws IOException {
+        List<Interval> intervals = new ArrayList<Interval>();
+        try (BufferedReader reader = TextFiles.openReader(file)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+                String[] tmp = line.split("\t");
+                if (tmp.length < 3) {
+                    throw new IOException("Line " + lineNumber + " of " + file + " has less than 3 columns");
+                }
+                try {
+                    intervals.add(new Interval(tmp[0], Long.parseLong(tmp[1].trim()), Long.parseLong(tmp[2].trim()),
+                                               tmp.length > 3 ? tmp[3] : null));
+                } catch (NumberFormatException nfe) {
+                    throw new IOException("Line " + lineNumber + " of " + file + " has invalid coordinates: " + line);
+                }
+            }
+        }
+        return intervals;
+    }
+
+    /**
+     * Sort intervals by contig and start
+     *
+     * @param intervals list to sort in place
+     * @param order     contig order
+     */
+    public static void sort(List<Interval> intervals, final ContigOrder order) {
+        Collections.sort(intervals, new Comparator<Interval>() {
+            @Override
+            public int compare(Interval a, Interval b) {
+                int c = order.compare(a.getContig(), b.getContig());
+                if (c == 0) {
+                    c = Long.compare(a.getStart(), b.getStart());
+                }
+                return c != 0 ? c : Long.compare(a.getEnd(), b.getEnd());
+            }
+        });
+    }
+
+    /**
+     * Merge overlapping intervals and those separated by no more than maxGap bases
+     *
+     * @param sorted intervals sorted with {@link #sort}
+     * @param maxGap largest gap which still gets merged, 0 merges only overlapping and book-ended intervals
+     * @return merged intervals, names are dropped
+     */
+    public static List<Interval> merge(List<Interval> sorted, long maxGap) {
+        List<Interval> merged = new ArrayList<Interval>();
+        String contig = null;
+        long start = 0;
+        long end = 0;
+        for (Interval i : sorted) {
+            if (contig != null && contig.equals(i.getContig()) && i.getStart() <= end + maxGap) {
+                end = Math.max(end, i.getEnd());
+            } else {
+                if (contig != null) {
+                    merged.add(new Interval(contig, start, end));
+                }
+                contig = i.getContig();
+                start = i.getStart();
+                end = i.getEnd();
+            }
+        }
+        if (contig != null) {
+            merged.add(new Interval(contig, start, end));
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,323 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary columnar file of per-bin values, replaces fixedStep .wig text for
+ * read counts, GC content and mappability. All bins of all contigs make up one
+ * column, every track is a column of 32-bit ints or floats, so a track can be
+ * memory-mapped and read without any parsing.
+ *
+ * Layout, little-endian:
+ * <pre>
+ * "CNVBIN01"                     magic, 8 bytes
+ * int32 window, int32 contigs, int32 tracks, int32 dataOffset
+ * contigs x (int32 nameLength, name, int32 firstBin, int32 binCount)
+ * tracks  x (int32 nameLength, name, int32 type: 0 int, 1 float)
+ * zero padding up to dataOffset (multiple of 64)
+ * tracks  x (totalBins x int32 or float32)
+ * </pre>
+ * Bin i of a contig covers bases i * window + 1 to (i + 1) * window. Missing
+ * values are 0 in int tracks and NaN in float tracks.
+ */
+public final class BinFile implements Closeable {
+
+    public static final String EXTENSION = ".bins";
+    private static final byte[] MAGIC = "CNVBIN01".getBytes(StandardCharsets.US_ASCII);
+    private static final int ALIGN = 64;
+
+    public enum Type {
+        INT, FLOAT
+    }
+
+    private final File file;
+    private final RandomAccessFile input;
+    private final int window;
+    private final int dataOffset;
+    private final List<String> contigs = new ArrayList<String>();
+    private final Map<String, int[]> contigBins = new HashMap<String, int[]>();
+    private final List<String> tracks = new ArrayList<String>();
+    private final Map<String, Type> types = new HashMap<String, Type>();
+    private int totalBins;
+
+    private BinFile(File file) throws IOException {
+        this.file = file;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a bin file");
+            }
+            this.window = readInt(in);
+            int contigCount = readInt(in);
+            int trackCount = readInt(in);
+            this.dataOffset = readInt(in);
+            for (int i = 0; i < contigCount; i++) {
+                String name = readString(in);
+                int first = readInt(in);
+                int bins = readInt(in);
+                contigs.add(name);
+                contigBins.put(name, new int[]{first, bins});
+                totalBins = Math.max(totalBins, first + bins);
+            }
+            for (int i = 0; i < trackCount; i++) {
+                String name = readString(in);
+                tracks.add(name);
+                types.put(name, Type.values()[readInt(in)]);
+            }
+        }
+        this.input = new RandomAccessFile(file, "r");
+    }
+
+    /**
+     * @param file .bins file
+     * @return open bin file, columns are mapped on request
+     * @throws IOException if the file is not a bin file
+     */
+    public static BinFile open(File file) throws IOException {
+        return new BinFile(file);
+    }
+
+    public static boolean isBinFile(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public List<String> getContigs() {
+        return Collections.unmodifiableList(contigs);
+    }
+
+    public boolean hasContig(String contig) {
+        return contigBins.containsKey(contig);
+    }
+
+    /**
+     * @return index of the first bin of the contig within a column
+     */
+    public int getFirstBin(String contig) {
+        return contig(contig)[0];
+    }
+
+    public int getBinCount(String contig) {
+        return contig(contig)[1];
+    }
+
+    public int getTotalBins() {
+        return totalBins;
+    }
+
+    public List<String> getTracks() {
+        return Collections.unmodifiableList(tracks);
+    }
+
+    public boolean hasTrack(String track) {
+        return types.containsKey(track);
+    }
+
+    /**
+     * @param track name of an int track
+     * @return whole column, memory-mapped
+     * @throws IOException
+     */
+    public IntBuffer ints(String track) throws IOException {
+        return map(track, Type.INT).asIntBuffer();
+    }
+
+    /**
+     * @param track name of a float track
+     * @return whole column, memory-mapped
+     * @throws IOException
+     */
+    public FloatBuffer floats(String track) throws IOException {
+        return map(track, Type.FLOAT).asFloatBuffer();
+    }
+
+    /**
+     * @return copy of the values of one contig
+     */
+    public int[] ints(String track, String contig) throws IOException {
+        int[] values = new int[getBinCount(contig)];
+        IntBuffer column = ints(track);
+        column.position(getFirstBin(contig));
+        column.get(values);
+        return values;
+    }
+
+    /**
+     * @return copy of the values of one contig
+     */
+    public float[] floats(String track, String contig) throws IOException {
+        float[] values = new float[getBinCount(contig)];
+        FloatBuffer column = floats(track);
+        column.position(getFirstBin(contig));
+        column.get(values);
+        return values;
+    }
+
+    private ByteBuffer map(String track, Type type) throws IOException {
+        Type actual = types.get(track);
+        if (actual == null) {
+            throw new IllegalArgumentException("No track " + track + " in " + file);
+        }
+        if (actual != type) {
+            throw new IllegalArgumentException("Track " + track + " in " + file + " is " + actual + ", not " + type);
+        }
+        long offset = dataOffset + 4L * totalBins * tracks.indexOf(track);
+        return input.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, 4L * totalBins).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int[] contig(String contig) {
+        int[] bins = contigBins.get(contig);
+        if (bins == null) {
+            throw new IllegalArgumentException("No contig " + contig + " in " + file);
+        }
+        return bins;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Collects tracks in memory and writes them out in one go. Contigs are
+     * kept in the order they are declared or first seen in a track, the bin
+     * count of a contig is the largest one among the tracks, shorter tracks
+     * are padded with missing values.
+     */
+    public static final class Builder {
+
+        private final int window;
+        private final Map<String, Integer> contigs = new LinkedHashMap<String, Integer>();
+        private final Map<String, Map<String, ?>> tracks = new LinkedHashMap<String, Map<String, ?>>();
+        private final Map<String, Type> types = new HashMap<String, Type>();
+
+        public Builder(int window) {
+            this.window = window;
+        }
+
+        /**
+         * Declare a contig, fixes contig order
+         */
+        public Builder contig(String name, int bins) {
+            Integer current = contigs.get(name);
+            contigs.put(name, current == null ? bins : Math.max(current, bins));
+            return this;
+        }
+
+        public Builder intTrack(String name, Map<String, int[]> values) {
+            for (Map.Entry<String, int[]> e : values.entrySet()) {
+                contig(e.getKey(), e.getValue().length);
+            }
+            return track(name, Type.INT, values);
+        }
+
+        public Builder floatTrack(String name, Map<String, float[]> values) {
+            for (Map.Entry<String, float[]> e : values.entrySet()) {
+                contig(e.getKey(), e.getValue().length);
+            }
+            return track(name, Type.FLOAT, values);
+        }
+
+        private Builder track(String name, Type type, Map<String, ?> values) {
+            if (tracks.containsKey(name)) {
+                throw new IllegalArgumentException("Duplicate track " + name);
+            }
+            tracks.put(name, values);
+            types.put(name, type);
+            return this;
+        }
+
+        /**
+         * @param output .bins file
+         * @throws IOException
+         */
+        public void write(File output) throws IOException {
+            List<byte[]> contigNames = new ArrayList<byte[]>();
+            List<byte[]> trackNames = new ArrayList<byte[]>();
+            int headerSize = MAGIC.length + 16;
+            for (String contig : contigs.keySet()) {
+                contigNames.add(contig.getBytes(StandardCharsets.UTF_8));
+                headerSize += 12 + contigNames.get(contigNames.size() - 1).length;
+            }
+            for (String track : tracks.keySet()) {
+                trackNames.add(track.getBytes(StandardCharsets.UTF_8));
+                headerSize += 8 + trackNames.get(trackNames.size() - 1).length;
+            }
+            int dataOffset = (headerSize + ALIGN - 1) / ALIGN * ALIGN;
+
+            ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(window).putInt(contigs.size()).putInt(tracks.size()).putInt(dataOffset);
+            int first = 0;
+            int c = 0;
+            for (Integer bins : contigs.values()) {
+                byte[] name = contigNames.get(c++);
+                header.putInt(name.length).put(name).putInt(first).putInt(bins);
+                first += bins;
+            }
+            int t = 0;
+            for (String track : tracks.keySet()) {
+                byte[] name = trackNames.get(t++);
+                header.putInt(name.length).put(name).putInt(types.get(track).ordinal());
+            }
+
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+                out.write(header.array());
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+                for (Map.Entry<String, Map<String, ?>> track : tracks.entrySet()) {
+                    boolean isInt = types.get(track.getKey()) == Type.INT;
+                    for (Map.Entry<String, Integer> contig : contigs.entrySet()) {
+                        Object values = track.getValue().get(contig.getKey());
+                        int length = values == null ? 0 : isInt ? ((int[]) values).length : ((float[]) values).length;
+                        for (int i = 0; i < contig.getValue(); i++) {
+                            if (buffer.remaining() < 4) {
+                                out.write(buffer.array(), 0, buffer.position());
+                                buffer.clear();
+                            }
+                            if (isInt) {
+                                buffer.putInt(i < length ? ((int[]) values)[i] : 0);
+                            } else {
+                                buffer.putFloat(i < length ? ((float[]) values)[i] : Float.NaN);
+                            }
+                        }
+                    }
+                }
+                out.write(buffer.array(), 0, buffer.position());
+            }
+        }
+    }
+}
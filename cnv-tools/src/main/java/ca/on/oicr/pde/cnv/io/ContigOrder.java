@@ -0,0 +1,161 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ordering of contigs. Either follows a sequence dictionary (.dict or .fai)
+ * or, when no dictionary is available, the natural (sort -V) order with
+ * mitochondrial contig placed last, which is what our workflows used to get
+ * with sort -V | grep -v chrM
+ */
+public class ContigOrder implements Comparator<String> {
+
+    private final Map<String, Integer> ranks;
+    private final List<String> contigs;
+
+    private ContigOrder(List<String> contigs) {
+        this.contigs = contigs;
+        this.ranks = new HashMap<String, Integer>();
+        for (int i = 0; i < contigs.size(); i++) {
+            this.ranks.put(contigs.get(i), i);
+        }
+    }
+
+    /**
+     * Natural order, chr1 < chr2 < chr10 < chrX < chrY < chrM
+     * @return ordering not backed by a dictionary
+     */
+    public static ContigOrder natural() {
+        return new ContigOrder(Collections.<String>emptyList());
+    }
+
+    /**
+     * Load contig order from a sequence dictionary (@SQ lines) or a fasta index
+     *
+     * @param file .dict or .fai file
+     * @return ordering backed by the file
+     * @throws IOException
+     */
+    public static ContigOrder fromFile(File file) throws IOException {
+        List<String> names = new ArrayList<String>();
+        try (BufferedReader reader = TextFiles.openReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("@SQ")) {
+                    for (String field : line.split("\t")) {
+                        if (field.startsWith("SN:")) {
+                            names.add(field.substring(3));
+                        }
+                    }
+                } else if (!line.startsWith("@") && !line.isEmpty()) {
+                    names.add(line.substring(0, line.indexOf('\t') > 0 ? line.indexOf('\t') : line.length()));
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IOException("No contigs found in " + file);
+        }
+        return new ContigOrder(names);
+    }
+
+    /**
+     * @return contigs in dictionary order, empty list if this is a natural ordering
+     */
+    public List<String> getContigs() {
+        return Collections.unmodifiableList(contigs);
+    }
+
+    /**
+     * @param contig name of a contig
+     * @return position of the contig in the dictionary, -1 if not there
+     */
+    public int rank(String contig) {
+        Integer r = ranks.get(contig);
+        return r == null ? -1 : r;
+    }
+
+    /**
+     * Contigs missing from the dictionary go after all the known ones
+     */
+    @Override
+    public int compare(String a, String b) {
+        if (a.equals(b)) {
+            return 0;
+        }
+        int ra = rank(a);
+        int rb = rank(b);
+        if (ra >= 0 && rb >= 0) {
+            return Integer.compare(ra, rb);
+        }
+        if (ra >= 0 || rb >= 0) {
+            return ra >= 0 ? -1 : 1;
+        }
+        boolean ma = isMitochondrial(a);
+        boolean mb = isMitochondrial(b);
+        if (ma != mb) {
+            return ma ? 1 : -1;
+        }
+        return versionCompare(a, b);
+    }
+
+    static boolean isMitochondrial(String contig) {
+        return contig.equals("chrM") || contig.equals("MT") || contig.equals("chrMT");
+    }
+
+    /**
+     * Comparison similar to sort -V: runs of digits are compared as numbers,
+     * a digit goes before any other character
+     */
+    static int versionCompare(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int si = i;
+                int sj = j;
+                while (si < a.length() && a.charAt(si) == '0') {
+                    si++;
+                }
+                while (sj < b.length() && b.charAt(sj) == '0') {
+                    sj++;
+                }
+                int ei = si;
+                int ej = sj;
+                while (ei < a.length() && Character.isDigit(a.charAt(ei))) {
+                    ei++;
+                }
+                while (ej < b.length() && Character.isDigit(b.charAt(ej))) {
+                    ej++;
+                }
+                if (ei - si != ej - sj) {
+                    return ei - si < ej - sj ? -1 : 1;
+                }
+                int c = a.substring(si, ei).compareTo(b.substring(sj, ej));
+                if (c != 0) {
+                    return c;
+                }
+                i = ei;
+                j = ej;
+            } else if (Character.isDigit(ca) != Character.isDigit(cb)) {
+                return Character.isDigit(ca) ? -1 : 1;
+            } else {
+                if (ca != cb) {
+                    return ca < cb ? -1 : 1;
+                }
+                i++;
+                j++;
+            }
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+}
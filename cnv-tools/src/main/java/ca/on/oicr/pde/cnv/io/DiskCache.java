@@ -0,0 +1,147 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Size-bounded cache of files in a local (or shared) directory, entries are
+ * named by their key. Modification time of an entry is its last use, when
+ * the cache grows over its limit the least recently used entries are removed.
+ *
+ * Entries are published with an atomic rename and all changes to the
+ * directory happen under a file lock, so concurrent jobs can share a cache.
+ * File locks are held by the whole JVM, threads of one JVM storing into the
+ * same directory take turns on a monitor of the directory first.
+ * A reader never sees a partially written entry, an entry evicted while it
+ * is being copied out simply turns into a miss next time.
+ */
+public class DiskCache {
+
+    private static final Logger LOG = Logger.getLogger(DiskCache.class.getName());
+    private static final String LOCK = ".lock";
+    private static final String TMP = ".tmp-";
+    private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<String, Object>();
+
+    private final File directory;
+    private final long maxBytes;
+    private final Object monitor;
+
+    /**
+     * @param directory cache directory, created if needed
+     * @param maxBytes  size limit for all entries together
+     * @throws IOException
+     */
+    public DiskCache(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create cache directory " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        String path = directory.getCanonicalPath();
+        MONITORS.putIfAbsent(path, new Object());
+        this.monitor = MONITORS.get(path);
+    }
+
+    /**
+     * Copy an entry out of the cache and mark it as recently used
+     *
+     * @param key    entry key
+     * @param target where to copy the entry
+     * @return false on a miss
+     * @throws IOException
+     */
+    public boolean get(String key, File target) throws IOException {
+        File entry = entry(key);
+        try {
+            Files.copy(entry.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException nsfe) {
+            return false;
+        }
+        if (!entry.setLastModified(System.currentTimeMillis())) {
+            LOG.warning("Could not update last use of " + entry);
+        }
+        return true;
+    }
+
+    public boolean contains(String key) {
+        return entry(key).isFile();
+    }
+
+    /**
+     * Add (or replace) an entry and evict least recently used entries if the
+     * cache is over its limit. The new entry itself is never evicted.
+     *
+     * @param key    entry key
+     * @param source file to store, copied
+     * @throws IOException
+     */
+    public void put(String key, File source) throws IOException {
+        File tmp = File.createTempFile(TMP, "", directory);
+        try {
+            Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            // Closing the file releases the lock
+            synchronized (monitor) {
+                try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK), "rw")) {
+                    lockFile.getChannel().lock();
+                    Files.move(tmp.toPath(), entry(key).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    evict(key);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private void evict(String keep) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<File>();
+        long total = 0;
+        for (File f : files) {
+            if (f.isFile() && !f.getName().startsWith(".")) {
+                entries.add(f);
+                total += f.length();
+            }
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        File kept = entry(keep);
+        for (File f : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (f.equals(kept)) {
+                continue;
+            }
+            long size = f.length();
+            if (f.delete()) {
+                total -= size;
+                LOG.info("Evicted " + f.getName() + " from " + directory);
+            }
+        }
+    }
+
+    private File entry(String key) {
+        if (key.isEmpty() || key.startsWith(".") || key.contains(File.separator)) {
+            throw new IllegalArgumentException("Invalid cache key " + key);
+        }
+        return new File(directory, key);
+    }
+}
@@ -0,0 +1,208 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Samples x genes matrix of log2 ratios, memory-mapped. Stored by gene: the
+ * values of one gene over all samples are one column, so a gene can be read
+ * across a whole cohort at once. Workers of different samples write their
+ * cells straight into the mapped file.
+ *
+ * Layout, little-endian:
+ * <pre>
+ * "CNVGMX01"                     magic, 8 bytes
+ * int32 samples, int32 genes, int32 dataOffset, int32 reserved
+ * samples x (int32 nameLength, name)
+ * genes   x (int32 nameLength, name, int32 contigLength, contig, int32 start, int32 end)
+ * zero padding up to dataOffset (multiple of 64)
+ * genes   x samples x float32
+ * </pre>
+ * Gene coordinates are 0-based half-open, genes without any segment are NaN.
+ */
+public final class GeneMatrix implements Closeable {
+
+    public static final String EXTENSION = ".gmx";
+    private static final byte[] MAGIC = "CNVGMX01".getBytes(StandardCharsets.US_ASCII);
+    private static final int ALIGN = 64;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer mapped;
+    private final FloatBuffer data;
+    private final List<String> samples;
+    private final List<Interval> genes;
+
+    private GeneMatrix(RandomAccessFile file, MappedByteBuffer mapped, List<String> samples, List<Interval> genes) {
+        this.file = file;
+        this.mapped = mapped;
+        this.data = mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        this.samples = samples;
+        this.genes = genes;
+    }
+
+    /**
+     * Writes the header and maps the values for writing, all NaN
+     *
+     * @param output  .gmx file, overwritten
+     * @param samples sample names, rows
+     * @param genes   genes, named intervals, columns
+     * @return writable matrix, close to flush
+     * @throws IOException if the matrix is larger than 2 GB
+     */
+    public static GeneMatrix create(File output, List<String> samples, List<Interval> genes) throws IOException {
+        long size = 4L * samples.size() * genes.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(samples.size() + " samples x " + genes.size() + " genes do not fit into one matrix");
+        }
+        List<byte[]> names = new ArrayList<byte[]>();
+        int headerSize = MAGIC.length + 16;
+        for (String sample : samples) {
+            names.add(sample.getBytes(StandardCharsets.UTF_8));
+            headerSize += 4 + names.get(names.size() - 1).length;
+        }
+        for (Interval gene : genes) {
+            names.add(name(gene).getBytes(StandardCharsets.UTF_8));
+            names.add(gene.getContig().getBytes(StandardCharsets.UTF_8));
+            headerSize += 16 + names.get(names.size() - 2).length + names.get(names.size() - 1).length;
+        }
+        int dataOffset = (headerSize + ALIGN - 1) / ALIGN * ALIGN;
+        ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(samples.size()).putInt(genes.size()).putInt(dataOffset).putInt(0);
+        int n = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            byte[] name = names.get(n++);
+            header.putInt(name.length).put(name);
+        }
+        for (Interval gene : genes) {
+            byte[] name = names.get(n++);
+            byte[] contig = names.get(n++);
+            header.putInt(name.length).put(name).putInt(contig.length).put(contig).putInt((int) gene.getStart()).putInt((int) gene.getEnd());
+        }
+
+        RandomAccessFile file = new RandomAccessFile(output, "rw");
+        try {
+            file.setLength(0);
+            file.write(header.array());
+            file.setLength(dataOffset + size);
+            MappedByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, dataOffset, size);
+            GeneMatrix matrix = new GeneMatrix(file, mapped, new ArrayList<String>(samples), new ArrayList<Interval>(genes));
+            for (int i = 0; i < matrix.data.limit(); i++) {
+                matrix.data.put(i, Float.NaN);
+            }
+            return matrix;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param input .gmx file
+     * @return matrix mapped read-only
+     * @throws IOException if the file is not a gene matrix
+     */
+    public static GeneMatrix open(File input) throws IOException {
+        List<String> samples = new ArrayList<String>();
+        List<Interval> genes = new ArrayList<Interval>();
+        int dataOffset;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(input))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(input + " is not a gene matrix");
+            }
+            int sampleCount = readInt(in);
+            int geneCount = readInt(in);
+            dataOffset = readInt(in);
+            readInt(in);
+            for (int i = 0; i < sampleCount; i++) {
+                samples.add(readString(in));
+            }
+            for (int i = 0; i < geneCount; i++) {
+                String name = readString(in);
+                String contig = readString(in);
+                int start = readInt(in);
+                genes.add(new Interval(contig, start, readInt(in), name));
+            }
+        }
+        RandomAccessFile file = new RandomAccessFile(input, "r");
+        try {
+            return new GeneMatrix(file, file.getChannel().map(FileChannel.MapMode.READ_ONLY, dataOffset, 4L * samples.size() * genes.size()),
+                                  samples, genes);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public static boolean isGeneMatrix(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * @return name of a gene, its region if the .bed has no names
+     */
+    public static String name(Interval gene) {
+        return gene.getName() == null ? gene.toRegion() : gene.getName();
+    }
+
+    public List<String> getSamples() {
+        return Collections.unmodifiableList(samples);
+    }
+
+    public List<Interval> getGenes() {
+        return Collections.unmodifiableList(genes);
+    }
+
+    public float get(int gene, int sample) {
+        return data.get(gene * samples.size() + sample);
+    }
+
+    /**
+     * Cells of different samples can be set from different threads
+     */
+    public void set(int gene, int sample, float value) {
+        data.put(gene * samples.size() + sample, value);
+    }
+
+    /**
+     * @return values of a gene over all samples, in sample order
+     */
+    public FloatBuffer column(int gene) {
+        FloatBuffer column = data.duplicate();
+        column.position(gene * samples.size()).limit((gene + 1) * samples.size());
+        return column.slice();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!mapped.isReadOnly()) {
+            mapped.force();
+        }
+        file.close();
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
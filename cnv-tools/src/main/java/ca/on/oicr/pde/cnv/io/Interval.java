@@ -0,0 +1,61 @@
+package ca.on.oicr.pde.cnv.io;
+
+/**
+ * Genomic interval, 0-based half-open coordinates as in .bed files
+ */
+public class Interval {
+
+    private final String contig;
+    private final long start;
+    private final long end;
+    private final String name;
+
+    public Interval(String contig, long start, long end) {
+        this(contig, start, end, null);
+    }
+
+    public Interval(String contig, long start, long end, String name) {
+        if (end < start) {
+            throw new IllegalArgumentException("Interval " + contig + ":" + start + "-" + end + " ends before it starts");
+        }
+        this.contig = contig;
+        this.start = start;
+        this.end = end;
+        this.name = name;
+    }
+
+    public String getContig() {
+        return contig;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return value of the 4th .bed column, null if there was none
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long length() {
+        return end - start;
+    }
+
+    /**
+     * @return region in samtools notation, 1-based inclusive
+     */
+    public String toRegion() {
+        return contig + ":" + (start + 1) + "-" + end;
+    }
+
+    @Override
+    public String toString() {
+        return contig + "\t" + start + "\t" + end;
+    }
+}
@@ -0,0 +1,246 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * BGZF writer which deflates blocks on a thread pool. Blocks are written in
+ * order, at most a few blocks per thread are kept in memory. Output can be
+ * read by anything that reads bgzip files (samtools, tabix, htsjdk).
+ *
+ * Virtual file offsets of what is being written are not known until the
+ * preceding blocks are compressed, callers that need them (indexing) record
+ * block number and offset within the block and get notified through
+ * {@link BlockListener} once the block lands in the file.
+ */
+public class ParallelBgzfOutputStream extends OutputStream {
+
+    /**
+     * Uncompressed size of a block, same as bgzip, so a stored block still fits into 64 KB
+     */
+    public static final int BLOCK_SIZE = 0xff00;
+    private static final int MAX_BLOCK = 0x10000;
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+    private static final byte[] EOF_BLOCK = {
+        0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43,
+        0x02, 0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00
+    };
+
+    /**
+     * Notified, in order, when a block has been written
+     */
+    public interface BlockListener {
+
+        void blockWritten(long block, long compressedOffset) throws IOException;
+    }
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private final int maxPending;
+    private final int level;
+    private BlockListener listener;
+
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private int used;
+    private long block;
+    private long writtenBlocks;
+    private long written;
+    private boolean closed;
+
+    /**
+     * @param out     destination
+     * @param threads number of compression threads
+     * @param level   deflate level, 1 to 9
+     */
+    public ParallelBgzfOutputStream(OutputStream out, int threads, int level) {
+        this.out = out;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        this.maxPending = 4 * Math.max(1, threads);
+        this.level = level;
+    }
+
+    public void setBlockListener(BlockListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return number of the block currently being filled
+     */
+    public long getBlock() {
+        return block;
+    }
+
+    /**
+     * @return offset within the block currently being filled
+     */
+    public int getBlockOffset() {
+        return used;
+    }
+
+    /**
+     * @return bytes that can still go into the current block
+     */
+    public int remaining() {
+        return BLOCK_SIZE - used;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (used == BLOCK_SIZE) {
+            endBlock();
+        }
+        buffer[used++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (used == BLOCK_SIZE) {
+                endBlock();
+            }
+            int n = Math.min(len, BLOCK_SIZE - used);
+            System.arraycopy(b, off, buffer, used, n);
+            used += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Submit the current block for compression and start a new one, does nothing if the block is empty
+     *
+     * @throws IOException
+     */
+    public void endBlock() throws IOException {
+        if (used == 0) {
+            return;
+        }
+        final byte[] data = buffer;
+        final int length = used;
+        pending.add(pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data, length, level);
+            }
+        }));
+        buffer = new byte[BLOCK_SIZE];
+        used = 0;
+        block++;
+        while (pending.size() > maxPending) {
+            drain();
+        }
+    }
+
+    /**
+     * Compress and write everything, after this all blocks have been reported to the listener
+     *
+     * @return compressed offset of the end of data
+     * @throws IOException
+     */
+    public long finish() throws IOException {
+        endBlock();
+        while (!pending.isEmpty()) {
+            drain();
+        }
+        return written;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+            out.write(EOF_BLOCK);
+            out.close();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void drain() throws IOException {
+        byte[] compressed;
+        try {
+            compressed = pending.poll().get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Compression failed", ee.getCause());
+        }
+        if (listener != null) {
+            listener.blockWritten(writtenBlocks, written);
+        }
+        out.write(compressed);
+        written += compressed.length;
+        writtenBlocks++;
+    }
+
+    /**
+     * Build one BGZF block, falls back to a stored block if the data does not compress
+     */
+    static byte[] compress(byte[] data, int length, int level) {
+        byte[] block = new byte[MAX_BLOCK];
+        Deflater deflater = new Deflater(level, true);
+        int size;
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            size = deflater.deflate(block, HEADER_SIZE, MAX_BLOCK - HEADER_SIZE - FOOTER_SIZE);
+            if (!deflater.finished()) {
+                deflater.reset();
+                deflater.setLevel(Deflater.NO_COMPRESSION);
+                deflater.setInput(data, 0, length);
+                deflater.finish();
+                size = deflater.deflate(block, HEADER_SIZE, MAX_BLOCK - HEADER_SIZE - FOOTER_SIZE);
+            }
+        } finally {
+            deflater.end();
+        }
+        int total = HEADER_SIZE + size + FOOTER_SIZE;
+        block[0] = 0x1f;
+        block[1] = (byte) 0x8b;
+        block[2] = 0x08;
+        block[3] = 0x04;
+        block[9] = (byte) 0xff;
+        block[10] = 0x06;
+        block[12] = 0x42;
+        block[13] = 0x43;
+        block[14] = 0x02;
+        putShort(block, 16, total - 1);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        putInt(block, HEADER_SIZE + size, (int) crc.getValue());
+        putInt(block, HEADER_SIZE + size + 4, length);
+        return Arrays.copyOf(block, total);
+    }
+
+    private static void putShort(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        putShort(b, offset, value);
+        putShort(b, offset + 2, value >>> 16);
+    }
+}
@@ -0,0 +1,56 @@
+package ca.on.oicr.pde.cnv.io;
+
+/**
+ * Segment of a caller output, 0-based half-open coordinates like
+ * {@link Interval}, with its log2 ratio and the call the caller made, if any
+ */
+public final class Segment {
+
+    private final String contig;
+    private final long start;
+    private final long end;
+    private final double value;
+    private final String call;
+
+    public Segment(String contig, long start, long end, double value, String call) {
+        if (end < start) {
+            throw new IllegalArgumentException("Segment " + contig + ":" + start + "-" + end + " ends before it starts");
+        }
+        this.contig = contig;
+        this.start = start;
+        this.end = end;
+        this.value = value;
+        this.call = call;
+    }
+
+    public String getContig() {
+        return contig;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return log2 ratio of tumor to normal
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return call of the caller (gain, loss, amp, del, neutral...), null if it makes none
+     */
+    public String getCall() {
+        return call;
+    }
+
+    @Override
+    public String toString() {
+        return contig + "\t" + start + "\t" + end + "\t" + value;
+    }
+}
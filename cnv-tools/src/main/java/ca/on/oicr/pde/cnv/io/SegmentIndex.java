@@ -0,0 +1,412 @@
+package ca.on.oicr.pde.cnv.io;
+
+import ca.on.oicr.pde.cnv.util.FloatList;
+import ca.on.oicr.pde.cnv.util.LongList;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Sorted-array index of the segments (or bins) of a caller output for region
+ * queries: every contig is four primitive columns sorted by start, start, end,
+ * running maximum of the ends and log2 ratio. A point or overlap query is two
+ * binary searches, no objects are made, so millions of queries per second can
+ * be answered from one index.
+ *
+ * Built from any file {@link SegmentReader} reads, or memory-mapped from a
+ * .sidx file written by {@link #write}. Layout, little-endian:
+ * <pre>
+ * "CNVSEG01"                     magic, 8 bytes
+ * int32 contigs, int32 segments, int32 dataOffset, int32 reserved
+ * contigs x (int32 nameLength, name, int32 firstSegment, int32 segmentCount)
+ * zero padding up to dataOffset (multiple of 64)
+ * segments x int32 start, segments x int32 end, segments x int32 maximum end,
+ * segments x float32 log2 ratio
+ * </pre>
+ * Coordinates are 0-based half-open like {@link Interval}.
+ */
+public final class SegmentIndex implements Closeable {
+
+    public static final String EXTENSION = ".sidx";
+    private static final byte[] MAGIC = "CNVSEG01".getBytes(StandardCharsets.US_ASCII);
+    private static final int ALIGN = 64;
+
+    private final RandomAccessFile input;
+    private final IntBuffer starts;
+    private final IntBuffer ends;
+    private final IntBuffer maxEnds;
+    private final FloatBuffer values;
+    private final Map<String, Contig> contigs = new LinkedHashMap<String, Contig>();
+
+    private SegmentIndex(RandomAccessFile input, IntBuffer starts, IntBuffer ends, IntBuffer maxEnds, FloatBuffer values) {
+        this.input = input;
+        this.starts = starts;
+        this.ends = ends;
+        this.maxEnds = maxEnds;
+        this.values = values;
+    }
+
+    /**
+     * @param file .sidx file
+     * @return index with its columns memory-mapped
+     * @throws IOException if the file is not a segment index
+     */
+    public static SegmentIndex open(File file) throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<int[]> ranges = new ArrayList<int[]>();
+        int total;
+        int dataOffset;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a segment index");
+            }
+            int contigCount = readInt(in);
+            total = readInt(in);
+            dataOffset = readInt(in);
+            readInt(in);
+            for (int i = 0; i < contigCount; i++) {
+                byte[] name = new byte[readInt(in)];
+                in.readFully(name);
+                names.add(new String(name, StandardCharsets.UTF_8));
+                ranges.add(new int[]{readInt(in), readInt(in)});
+            }
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            SegmentIndex index = new SegmentIndex(input, column(channel, dataOffset, 0, total).asIntBuffer(), column(channel, dataOffset, 1, total).asIntBuffer(),
+                                                  column(channel, dataOffset, 2, total).asIntBuffer(), column(channel, dataOffset, 3, total).asFloatBuffer());
+            for (int i = 0; i < names.size(); i++) {
+                index.contigs.put(names.get(i), index.new Contig(names.get(i), ranges.get(i)[0], ranges.get(i)[1]));
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    public static boolean isSegmentIndex(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * Index the segments of a caller output in memory. Segments of a contig
+     * are sorted by start here, so they need not be sorted or contiguous in
+     * the file if the reader accepts them (SegmentReader.setSorted).
+     *
+     * @param reader reader of the caller output, read to the end
+     * @return index backed by heap arrays
+     * @throws IOException if a position does not fit into 31 bits
+     */
+    public static SegmentIndex build(SegmentReader reader) throws IOException {
+        Map<String, LongList> segmentStarts = new LinkedHashMap<String, LongList>();
+        Map<String, LongList> segmentEnds = new LinkedHashMap<String, LongList>();
+        Map<String, FloatList> segmentValues = new LinkedHashMap<String, FloatList>();
+        int total = 0;
+        Segment s;
+        while ((s = reader.next()) != null) {
+            if (s.getEnd() > Integer.MAX_VALUE) {
+                throw new IOException("Position " + s.getEnd() + " on " + s.getContig() + " in " + reader.getFile() + " is too large to index");
+            }
+            if (!segmentStarts.containsKey(s.getContig())) {
+                segmentStarts.put(s.getContig(), new LongList());
+                segmentEnds.put(s.getContig(), new LongList());
+                segmentValues.put(s.getContig(), new FloatList());
+            }
+            segmentStarts.get(s.getContig()).add(s.getStart());
+            segmentEnds.get(s.getContig()).add(s.getEnd());
+            segmentValues.get(s.getContig()).add((float) s.getValue());
+            total++;
+        }
+
+        int[] allStarts = new int[total];
+        int[] allEnds = new int[total];
+        int[] allMaxEnds = new int[total];
+        float[] allValues = new float[total];
+        SegmentIndex index = new SegmentIndex(null, IntBuffer.wrap(allStarts), IntBuffer.wrap(allEnds), IntBuffer.wrap(allMaxEnds),
+                                              FloatBuffer.wrap(allValues));
+        int first = 0;
+        for (String contig : segmentStarts.keySet()) {
+            final LongList cs = segmentStarts.get(contig);
+            LongList ce = segmentEnds.get(contig);
+            FloatList cv = segmentValues.get(contig);
+            Integer[] order = null;
+            for (int i = 1; i < cs.size() && order == null; i++) {
+                if (cs.get(i) < cs.get(i - 1)) {
+                    order = new Integer[cs.size()];
+                }
+            }
+            if (order != null) {
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return Long.compare(cs.get(a), cs.get(b));
+                    }
+                });
+            }
+            int maxEnd = 0;
+            for (int i = 0; i < cs.size(); i++) {
+                int j = order == null ? i : order[i];
+                allStarts[first + i] = (int) cs.get(j);
+                allEnds[first + i] = (int) ce.get(j);
+                allValues[first + i] = cv.get(j);
+                maxEnd = Math.max(maxEnd, allEnds[first + i]);
+                allMaxEnds[first + i] = maxEnd;
+            }
+            index.contigs.put(contig, index.new Contig(contig, first, cs.size()));
+            first += cs.size();
+        }
+        return index;
+    }
+
+    /**
+     * @param file   .sidx file or a caller output
+     * @param format format of a caller output, not used for .sidx
+     * @param ploidy normal ploidy for FREEC copy numbers
+     * @return mapped index or one built in memory
+     * @throws IOException
+     */
+    public static SegmentIndex load(File file, SegmentReader.Format format, double ploidy) throws IOException {
+        if (isSegmentIndex(file)) {
+            return open(file);
+        }
+        try (SegmentReader reader = new SegmentReader(file, format, ploidy)) {
+            reader.setSorted(false);
+            return build(reader);
+        }
+    }
+
+    public List<String> getContigs() {
+        return Collections.unmodifiableList(new ArrayList<String>(contigs.keySet()));
+    }
+
+    /**
+     * @return segments of a contig, null if it has none
+     */
+    public Contig contig(String name) {
+        return contigs.get(name);
+    }
+
+    public int size() {
+        return starts.limit();
+    }
+
+    /**
+     * @param output .sidx file
+     * @throws IOException
+     */
+    public void write(File output) throws IOException {
+        List<byte[]> names = new ArrayList<byte[]>();
+        int headerSize = MAGIC.length + 16;
+        for (String contig : contigs.keySet()) {
+            names.add(contig.getBytes(StandardCharsets.UTF_8));
+            headerSize += 12 + names.get(names.size() - 1).length;
+        }
+        int dataOffset = (headerSize + ALIGN - 1) / ALIGN * ALIGN;
+        ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(contigs.size()).putInt(size()).putInt(dataOffset).putInt(0);
+        int c = 0;
+        for (Contig contig : contigs.values()) {
+            byte[] name = names.get(c++);
+            header.putInt(name.length).put(name).putInt(contig.first).putInt(contig.count);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+            out.write(header.array());
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int column = 0; column < 4; column++) {
+                for (int i = 0; i < size(); i++) {
+                    if (buffer.remaining() < 4) {
+                        out.write(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                    }
+                    if (column == 3) {
+                        buffer.putFloat(values.get(i));
+                    } else {
+                        buffer.putInt((column == 0 ? starts : column == 1 ? ends : maxEnds).get(i));
+                    }
+                }
+            }
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    /**
+     * Segments of one contig, i is the rank of a segment by start
+     */
+    public final class Contig {
+
+        private final String name;
+        private final int first;
+        private final int count;
+
+        private Contig(String name, int first, int count) {
+            this.name = name;
+            this.first = first;
+            this.count = count;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int start(int i) {
+            return starts.get(first + i);
+        }
+
+        public int end(int i) {
+            return ends.get(first + i);
+        }
+
+        public float value(int i) {
+            return values.get(first + i);
+        }
+
+        /**
+         * @param position 0-based position
+         * @return the last starting segment containing the position, -1 if there is none
+         */
+        public int find(long position) {
+            for (int i = firstStartingAt(position + 1) - 1; i >= 0 && maxEnds.get(first + i) > position; i--) {
+                if (ends.get(first + i) > position) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Calls the consumer with every segment overlapping [start, end), by start
+         *
+         * @return number of overlapping segments
+         */
+        public int overlaps(long start, long end, IntConsumer consumer) {
+            int found = 0;
+            int to = firstStartingAt(end);
+            for (int i = firstEndingAfter(start); i < to; i++) {
+                if (ends.get(first + i) > start) {
+                    consumer.accept(i);
+                    found++;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * @return mean log2 ratio over [start, end) weighted by overlap, NaN if no segment overlaps
+         */
+        public double mean(long start, long end) {
+            double sum = 0.0;
+            long covered = 0;
+            int to = firstStartingAt(end);
+            for (int i = firstEndingAfter(start); i < to; i++) {
+                long overlap = Math.min(end, ends.get(first + i)) - Math.max(start, starts.get(first + i));
+                if (overlap > 0) {
+                    sum += overlap * (double) values.get(first + i);
+                    covered += overlap;
+                }
+            }
+            return covered == 0 ? Double.NaN : sum / covered;
+        }
+
+        /**
+         * @return bases of [start, end) covered by segments, overlapping segments count once
+         */
+        public long covered(long start, long end) {
+            long covered = 0;
+            long reached = start;
+            int to = firstStartingAt(end);
+            for (int i = firstEndingAfter(start); i < to; i++) {
+                long s = Math.max(reached, starts.get(first + i));
+                long e = Math.min(end, ends.get(first + i));
+                if (e > s) {
+                    covered += e - s;
+                    reached = e;
+                }
+            }
+            return covered;
+        }
+
+        /**
+         * @return first rank with start at or after position, count if none
+         */
+        private int firstStartingAt(long position) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts.get(first + mid) < position) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * @return first rank whose maximum end is after position, the maximum ends never decrease
+         */
+        private int firstEndingAfter(long position) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (maxEnds.get(first + mid) <= position) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (input != null) {
+            input.close();
+        }
+    }
+
+    /**
+     * Every column is mapped on its own at an offset computed in long, so only
+     * a single column has to fit in the 2 GB of a mapping
+     */
+    private static ByteBuffer column(FileChannel channel, long dataOffset, int column, int total) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + 4L * column * total, 4L * total).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+}
@@ -0,0 +1,275 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming reader of the segment files of our callers, one line at a time:
+ *
+ * BICSEQ  - .bicseg, log2.copyRatio
+ * VARSCAN - copy-caller/copyCaller .copynumber.filtered (adjusted_log_ratio,
+ *           region_call) or its segmentation (chrom, start, end, num.mark,
+ *           seg.mean without a header)
+ * HMMCOPY - .seg (seg.mean or seg.median.logR) or the segments table (median)
+ * FREEC   - _CNVs: chromosome, start, end, copy number, status, no header
+ * FREEC_RATIO - _ratio.txt: Chromosome, Start, Ratio, MedianRatio, windows
+ *           end where the next one starts
+ *
+ * Columns are found by their header, R row names are skipped. All formats but
+ * FREEC have 1-based inclusive coordinates, FREEC starts are 0-based. FREEC copy
+ * numbers and ratios (MedianRatio if there is one) are turned into log2 ratios
+ * against the ploidy. Rows without a value (NA, -1 in FREEC ratios) are skipped.
+ */
+public class SegmentReader implements SegmentSource {
+
+    public enum Format {
+        BICSEQ, VARSCAN, HMMCOPY, FREEC, FREEC_RATIO;
+
+        /**
+         * @param name format name, case-insensitive, freec-ratio for FREEC_RATIO
+         */
+        public static Format forName(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private static final List<String> CONTIG_COLUMNS = Arrays.asList("chrom", "chr", "chromosome");
+    private static final List<String> START_COLUMNS  = Arrays.asList("loc.start", "start", "chr_start");
+    private static final List<String> END_COLUMNS    = Arrays.asList("loc.end", "end", "chr_stop");
+    private static final List<String> VALUE_COLUMNS  = Arrays.asList("log2.copyratio", "seg.mean", "seg.median.logr",
+                                                                     "adjusted_log_ratio", "log2_ratio", "median", "copy",
+                                                                     "medianratio", "ratio");
+    private static final List<String> CALL_COLUMNS   = Arrays.asList("region_call", "status", "call");
+
+    /**
+     * Copy number used in place of 0 in log2 ratios of homozygous deletions
+     */
+    static final double MIN_COPY = 0.1;
+
+    private final File file;
+    private final Format format;
+    private final double ploidy;
+    private final BufferedReader reader;
+    private int contigColumn = 0;
+    private int startColumn  = 1;
+    private int endColumn    = 2;
+    private int valueColumn  = -1;
+    private int callColumn   = -1;
+    private int headerLength = -1;
+    private int offset       = -1;
+    private String pending;
+    private int lineNumber;
+    private String lastContig;
+    private long lastStart;
+    private Segment held;
+    private long window;
+    private String lastRawContig;
+    private long lastRawStart;
+    private boolean sorted = true;
+
+    /**
+     * @param file   segment file, may be gzipped
+     * @param format caller the file comes from
+     * @param ploidy normal ploidy, used for FREEC copy numbers
+     * @throws IOException
+     */
+    public SegmentReader(File file, Format format, double ploidy) throws IOException {
+        this.file = file;
+        this.format = format;
+        this.ploidy = ploidy;
+        this.reader = TextFiles.openReader(file);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                break;
+            }
+        }
+        if (line == null) {
+            return;
+        }
+        String[] fields = split(line);
+        if (fields.length > 1 && isNumber(fields[1])) {
+            // No header, FREEC or the Varscan segmentation
+            pending = line;
+            valueColumn = format == Format.FREEC ? 3 : fields.length - 1;
+            callColumn = format == Format.FREEC && fields.length > 4 ? 4 : -1;
+            offset = 0;
+            return;
+        }
+        headerLength = fields.length;
+        contigColumn = -1;
+        startColumn = -1;
+        endColumn = -1;
+        int valueRank = VALUE_COLUMNS.size();
+        for (int i = fields.length - 1; i >= 0; i--) {
+            String name = unquote(fields[i]).toLowerCase(Locale.ROOT);
+            contigColumn = CONTIG_COLUMNS.contains(name) ? i : contigColumn;
+            startColumn = START_COLUMNS.contains(name) ? i : startColumn;
+            endColumn = END_COLUMNS.contains(name) ? i : endColumn;
+            callColumn = CALL_COLUMNS.contains(name) ? i : callColumn;
+            // The first name of VALUE_COLUMNS found wins
+            int rank = VALUE_COLUMNS.indexOf(name);
+            if (rank >= 0 && rank < valueRank) {
+                valueColumn = i;
+                valueRank = rank;
+            }
+        }
+        if (valueColumn < 0) {
+            throw new IOException("No log2 ratio column (" + VALUE_COLUMNS + ") in the header of " + file);
+        }
+        if (contigColumn < 0 || startColumn < 0 || (endColumn < 0 && format != Format.FREEC_RATIO)) {
+            throw new IOException("No chromosome, start or end column in the header of " + file);
+        }
+    }
+
+    /**
+     * @param sorted false accepts the rows of a contig in any order, for
+     *               readers that do not stream (SegmentIndex.build)
+     */
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    /**
+     * @return next segment, null at the end of the file
+     * @throws IOException if a line can't be parsed or the file is not sorted by position
+     */
+    @Override
+    public Segment next() throws IOException {
+        if (format != Format.FREEC_RATIO) {
+            return parse();
+        }
+        // Windows are as long as the smallest step between starts seen so far (parse), windows with -1 are gaps
+        if (held == null) {
+            held = parse();
+            if (held == null) {
+                return null;
+            }
+        }
+        Segment following = parse();
+        Segment s = new Segment(held.getContig(), held.getStart(), held.getStart() + window, held.getValue(), held.getCall());
+        held = following;
+        return s;
+    }
+
+    private Segment parse() throws IOException {
+        String line;
+        while ((line = nextLine()) != null) {
+            String[] fields = split(line);
+            if (offset < 0) {
+                // write.table has one column of row names more than its header
+                offset = fields.length == headerLength + 1 ? 1 : 0;
+            }
+            if (fields.length <= offset + Math.max(Math.max(contigColumn, startColumn), Math.max(endColumn, valueColumn))) {
+                throw new IOException("Line " + lineNumber + " of " + file + " has too few columns");
+            }
+            String value = unquote(fields[offset + valueColumn]);
+            if (value.equals("NA") || value.equals("NaN") || value.isEmpty()) {
+                continue;
+            }
+            String contig = unquote(fields[offset + contigColumn]);
+            long start;
+            long end;
+            double ratio;
+            try {
+                start = coordinate(fields[offset + startColumn]);
+                end = endColumn < 0 ? start : coordinate(fields[offset + endColumn]);
+                ratio = Double.parseDouble(value);
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Line " + lineNumber + " of " + file + " has invalid values: " + line);
+            }
+            if (format == Format.FREEC) {
+                ratio = Math.log(Math.max(ratio, MIN_COPY) / ploidy) / Math.log(2);
+                end++;
+            } else if (format == Format.FREEC_RATIO) {
+                if (contig.equals(lastRawContig) && start > lastRawStart) {
+                    window = window == 0 ? start - lastRawStart : Math.min(window, start - lastRawStart);
+                }
+                lastRawContig = contig;
+                lastRawStart = start;
+                if (ratio < 0) {
+                    continue;
+                }
+                ratio = Math.log(Math.max(ratio, MIN_COPY / ploidy)) / Math.log(2);
+            } else {
+                start--;
+            }
+            if (sorted && contig.equals(lastContig) && start < lastStart) {
+                throw new IOException(file + " is not sorted by position at line " + lineNumber);
+            }
+            lastContig = contig;
+            lastStart = start;
+            String call = callColumn >= 0 && offset + callColumn < fields.length ? unquote(fields[offset + callColumn]) : null;
+            return new Segment(contig, start, end, ratio, call);
+        }
+        return null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String getName() {
+        return file.getPath();
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    private String nextLine() throws IOException {
+        if (pending != null) {
+            String line = pending;
+            pending = null;
+            return line;
+        }
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private static String[] split(String line) {
+        return line.trim().split("\\s+");
+    }
+
+    private static String unquote(String field) {
+        return field.replace("\"", "");
+    }
+
+    private static boolean isNumber(String field) {
+        try {
+            Double.parseDouble(unquote(field));
+            return true;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    /**
+     * R writes large positions like 1e+05
+     */
+    private static long coordinate(String field) {
+        String s = unquote(field);
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException nfe) {
+            return (long) Double.parseDouble(s);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,20 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Stream of segments, sorted by start within a contig
+ */
+public interface SegmentSource extends Closeable {
+
+    /**
+     * @return next segment, null at the end
+     */
+    Segment next() throws IOException;
+
+    /**
+     * @return where the segments come from, for messages
+     */
+    String getName();
+}
@@ -0,0 +1,154 @@
+package ca.on.oicr.pde.cnv.io;
+
+import ca.on.oicr.pde.cnv.util.LongList;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Known SNP sites held per contig as a sorted array of 1-based positions and
+ * the reference base of every site, about 5 bytes a site. Reads .vcf files
+ * (single-base REF only) and tab-separated site lists with contig and 1-based
+ * position followed by either a single reference base or alleles like A/G.
+ */
+public final class SnpSites {
+
+    private final Map<String, int[]> positions = new LinkedHashMap<String, int[]>();
+    private final Map<String, byte[]> bases = new LinkedHashMap<String, byte[]>();
+
+    private SnpSites() {
+    }
+
+    /**
+     * @param file     .vcf or site list, may be gzipped
+     * @param contigs  contigs to load, null or empty for all
+     * @return sites, duplicate positions are kept once
+     * @throws IOException
+     */
+    public static SnpSites read(File file, Collection<String> contigs) throws IOException {
+        // Position and reference base packed in one long, so sorting keeps them together
+        Map<String, LongList> packed = new LinkedHashMap<String, LongList>();
+        boolean vcf = file.getName().endsWith(".vcf") || file.getName().endsWith(".vcf.gz");
+        try (BufferedReader reader = TextFiles.openReader(file)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tmp = line.split("\t");
+                if (contigs != null && !contigs.isEmpty() && !contigs.contains(tmp[0])) {
+                    continue;
+                }
+                byte base = vcf ? vcfBase(tmp) : listBase(tmp);
+                if (base == 0) {
+                    continue;
+                }
+                long position;
+                try {
+                    position = Long.parseLong(tmp[1].trim());
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Line " + lineNumber + " of " + file + " has no valid position: " + line);
+                }
+                LongList list = packed.get(tmp[0]);
+                if (list == null) {
+                    list = new LongList();
+                    packed.put(tmp[0], list);
+                }
+                list.add(position << 8 | base);
+            }
+        }
+        SnpSites sites = new SnpSites();
+        for (Map.Entry<String, LongList> e : packed.entrySet()) {
+            long[] values = e.getValue().toArray();
+            Arrays.sort(values);
+            int[] p = new int[values.length];
+            byte[] b = new byte[values.length];
+            int n = 0;
+            for (long v : values) {
+                int position = (int) (v >>> 8);
+                if (n == 0 || p[n - 1] != position) {
+                    p[n] = position;
+                    b[n] = (byte) (v & 0xff);
+                    n++;
+                }
+            }
+            sites.positions.put(e.getKey(), Arrays.copyOf(p, n));
+            sites.bases.put(e.getKey(), Arrays.copyOf(b, n));
+        }
+        return sites;
+    }
+
+    /**
+     * REF of a .vcf line when REF is a single base and ALT has a single-base allele
+     */
+    private static byte vcfBase(String[] tmp) {
+        if (tmp.length < 5 || tmp[3].length() != 1) {
+            return 0;
+        }
+        for (String alt : tmp[4].split(",")) {
+            if (alt.length() == 1 && isBase(alt.charAt(0))) {
+                return base(tmp[3].charAt(0));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * First single base or first allele of A/G after the position
+     */
+    private static byte listBase(String[] tmp) {
+        for (int i = 2; i < tmp.length; i++) {
+            String field = tmp[i].trim();
+            if (field.length() == 1 && isBase(field.charAt(0))) {
+                return base(field.charAt(0));
+            }
+            if (field.length() == 3 && field.charAt(1) == '/' && isBase(field.charAt(0))) {
+                return base(field.charAt(0));
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isBase(char c) {
+        return "ACGTacgt".indexOf(c) >= 0;
+    }
+
+    private static byte base(char c) {
+        return isBase(c) ? (byte) Character.toUpperCase(c) : 0;
+    }
+
+    public Set<String> getContigs() {
+        return positions.keySet();
+    }
+
+    /**
+     * @return sorted 1-based positions, empty if the contig has no sites
+     */
+    public int[] getPositions(String contig) {
+        int[] p = positions.get(contig);
+        return p == null ? new int[0] : p;
+    }
+
+    /**
+     * @return reference bases (A, C, G or T) in the order of the positions
+     */
+    public byte[] getBases(String contig) {
+        byte[] b = bases.get(contig);
+        return b == null ? new byte[0] : b;
+    }
+
+    public long size() {
+        long n = 0;
+        for (int[] p : positions.values()) {
+            n += p.length;
+        }
+        return n;
+    }
+}
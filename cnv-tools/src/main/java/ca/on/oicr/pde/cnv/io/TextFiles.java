@@ -0,0 +1,72 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Helpers for the tab-delimited text files our callers produce
+ */
+public final class TextFiles {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private TextFiles() {
+    }
+
+    /**
+     * Open a text file for reading, gzip/bgzip compressed files are detected by their magic number
+     *
+     * @param file plain or compressed text file
+     * @return buffered reader
+     * @throws IOException
+     */
+    public static BufferedReader openReader(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        if (b1 == 0x1f && b2 == 0x8b) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * @param file output file, overwritten if exists
+     * @return buffered writer
+     * @throws IOException
+     */
+    public static BufferedWriter openWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Return the n-th (0-based) tab-delimited field without splitting the whole line
+     *
+     * @param line  tab-delimited line
+     * @param index 0-based column
+     * @return field value or null if the line is too short
+     */
+    public static String field(String line, int index) {
+        int start = 0;
+        for (int i = 0; i < index; i++) {
+            start = line.indexOf('\t', start) + 1;
+            if (start == 0) {
+                return null;
+            }
+        }
+        int end = line.indexOf('\t', start);
+        return end < 0 ? line.substring(start) : line.substring(start, end);
+    }
+}
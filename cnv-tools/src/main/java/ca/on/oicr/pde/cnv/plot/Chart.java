@@ -0,0 +1,205 @@
+package ca.on.oicr.pde.cnv.plot;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import javax.imageio.ImageIO;
+
+/**
+ * Minimal x/y chart on a java.awt image: panels with axes, points, lines and
+ * labels, enough for the HMMcopy QC plots without R and Cairo. Runs headless.
+ */
+public class Chart {
+
+    private static final int MARGIN_LEFT = 70;
+    private static final int MARGIN_RIGHT = 20;
+    private static final int MARGIN_TOP = 40;
+    private static final int MARGIN_BOTTOM = 55;
+
+    private final BufferedImage image;
+    private final Graphics2D g;
+
+    // Current panel
+    private int left;
+    private int top;
+    private int width;
+    private int height;
+    private double xMin;
+    private double xMax;
+    private double yMin;
+    private double yMax;
+
+    public Chart(int width, int height) {
+        System.setProperty("java.awt.headless", "true");
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
+    }
+
+    /**
+     * Start a panel in the given part of the image and draw its frame, title and axis labels
+     */
+    public void panel(int x, int y, int w, int h, double xMin, double xMax, double yMin, double yMax, String title, String xLabel, String yLabel) {
+        this.left = x + MARGIN_LEFT;
+        this.top = y + MARGIN_TOP;
+        this.width = w - MARGIN_LEFT - MARGIN_RIGHT;
+        this.height = h - MARGIN_TOP - MARGIN_BOTTOM;
+        this.xMin = xMin;
+        this.xMax = xMax > xMin ? xMax : xMin + 1;
+        this.yMin = yMin;
+        this.yMax = yMax > yMin ? yMax : yMin + 1;
+        g.setColor(Color.BLACK);
+        g.setStroke(new BasicStroke(1f));
+        g.drawRect(left, top, width, height);
+        Font font = g.getFont();
+        g.setFont(font.deriveFont(Font.BOLD, 15f));
+        centered(title, left + width / 2, y + MARGIN_TOP / 2 + 6);
+        g.setFont(font);
+        centered(xLabel, left + width / 2, top + height + 42);
+        AffineTransform saved = g.getTransform();
+        g.rotate(-Math.PI / 2);
+        centered(yLabel, -(top + height / 2), x + 18);
+        g.setTransform(saved);
+    }
+
+    /**
+     * Ticks and labels on the y axis
+     */
+    public void yTicks() {
+        for (double v : ticks(yMin, yMax)) {
+            int py = y(v);
+            g.setColor(Color.BLACK);
+            g.drawLine(left - 5, py, left, py);
+            String label = format(v);
+            g.drawString(label, left - 8 - g.getFontMetrics().stringWidth(label), py + 4);
+        }
+    }
+
+    /**
+     * Ticks and labels on the x axis
+     */
+    public void xTicks() {
+        for (double v : ticks(xMin, xMax)) {
+            int px = x(v);
+            g.setColor(Color.BLACK);
+            g.drawLine(px, top + height, px, top + height + 5);
+            centered(format(v), px, top + height + 20);
+        }
+    }
+
+    /**
+     * Label under the x axis at a data position, used instead of ticks
+     */
+    public void xLabel(double v, String label) {
+        g.setColor(Color.BLACK);
+        centered(label, x(v), top + height + 20);
+    }
+
+    public void verticalLine(double v, Color color) {
+        g.setColor(color);
+        g.setStroke(new BasicStroke(1f));
+        g.drawLine(x(v), top, x(v), top + height);
+    }
+
+    public void horizontalLine(double v, Color color) {
+        g.setColor(color);
+        g.setStroke(new BasicStroke(1f));
+        g.drawLine(left, y(v), left + width, y(v));
+    }
+
+    /**
+     * Small point, values outside of the panel are drawn on its border
+     */
+    public void point(double vx, double vy, Color color) {
+        if (Double.isNaN(vx) || Double.isNaN(vy)) {
+            return;
+        }
+        g.setColor(color);
+        g.fillRect(x(vx) - 1, y(vy) - 1, 2, 2);
+    }
+
+    public void line(double x1, double y1, double x2, double y2, Color color, float stroke) {
+        if (Double.isNaN(y1) || Double.isNaN(y2)) {
+            return;
+        }
+        g.setColor(color);
+        g.setStroke(new BasicStroke(stroke));
+        g.drawLine(x(x1), y(y1), x(x2), y(y2));
+    }
+
+    /**
+     * Horizontal legend with filled boxes in the top left corner of the panel
+     */
+    public void legend(String[] labels, Color[] colors) {
+        int px = left + 10;
+        int py = top + 10;
+        FontMetrics metrics = g.getFontMetrics();
+        for (int i = 0; i < labels.length; i++) {
+            g.setColor(colors[i]);
+            g.fillRect(px, py, 12, 12);
+            g.setColor(Color.BLACK);
+            g.drawString(labels[i], px + 16, py + 11);
+            px += 28 + metrics.stringWidth(labels[i]);
+        }
+    }
+
+    public void write(File output) throws IOException {
+        g.dispose();
+        ImageIO.write(image, "png", output);
+    }
+
+    private int x(double v) {
+        double clipped = Math.max(xMin, Math.min(xMax, v));
+        return left + (int) Math.round((clipped - xMin) / (xMax - xMin) * width);
+    }
+
+    private int y(double v) {
+        double clipped = Math.max(yMin, Math.min(yMax, v));
+        return top + height - (int) Math.round((clipped - yMin) / (yMax - yMin) * height);
+    }
+
+    private void centered(String text, int x, int y) {
+        g.drawString(text, x - g.getFontMetrics().stringWidth(text) / 2, y);
+    }
+
+    /**
+     * About five round tick positions
+     */
+    static double[] ticks(double min, double max) {
+        double raw = (max - min) / 5;
+        double magnitude = Math.pow(10, Math.floor(Math.log10(raw)));
+        double step = magnitude;
+        for (double m : new double[]{2, 5, 10}) {
+            if (raw / magnitude > m * 0.7) {
+                step = magnitude * m;
+            }
+        }
+        double first = Math.ceil(min / step) * step;
+        int n = (int) Math.floor((max - first) / step) + 1;
+        double[] ticks = new double[Math.max(0, n)];
+        for (int i = 0; i < ticks.length; i++) {
+            ticks[i] = first + i * step;
+        }
+        return ticks;
+    }
+
+    private static String format(double v) {
+        if (Math.abs(v - Math.rint(v)) < 1e-9) {
+            return Long.toString(Math.round(v));
+        }
+        return new BigDecimal(v).round(new MathContext(2)).stripTrailingZeros().toPlainString();
+    }
+}
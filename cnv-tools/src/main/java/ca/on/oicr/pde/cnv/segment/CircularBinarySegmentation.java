@@ -0,0 +1,311 @@
+package ca.on.oicr.pde.cnv.segment;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Circular binary segmentation (Olshen et al. 2004) of one chromosome, the
+ * algorithm behind DNAcopy segment(). Works on a primitive array of log ratios
+ * and follows the DNAcopy defaults: alpha 0.01, 10000 permutations, hybrid
+ * p-value (permutations for short segments, Siegmund's tail approximation for
+ * long ones) and min.width.
+ *
+ * For long segments the maximal statistic is searched exactly for all single
+ * change points and all arcs up to kmax markers, and on a sqrt(n) grid refined
+ * around the best grid point for longer arcs, so a split costs O(n) instead of O(n^2).
+ *
+ * Planted breakpoints are recovered in the unit tests. Agreement with DNAcopy
+ * (within 2 markers for each breakpoint and 0.02 for seg.mean) has yet to be
+ * checked on the Varscan regression samples, the workflow keeps segmentation
+ * off until then; segments may differ where DNAcopy's own permutation p-value
+ * is close to alpha.
+ */
+public class CircularBinarySegmentation {
+
+    private double alpha = 0.01;
+    private int nperm = 10000;
+    private int minWidth = 2;
+    private int nmin = 200;
+    private int kmax = 25;
+    private long seed = 25L;
+
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public void setPermutations(int nperm) {
+        this.nperm = nperm;
+    }
+
+    /**
+     * @param minWidth minimum number of markers in a segment, 2 to 5 as in DNAcopy
+     */
+    public void setMinWidth(int minWidth) {
+        if (minWidth < 1) {
+            throw new IllegalArgumentException("min width should be at least 1");
+        }
+        this.minWidth = minWidth;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Segment a chromosome
+     *
+     * @param x log ratios in genomic order, no NaNs
+     * @return exclusive end index of every segment, the last one is x.length
+     */
+    public int[] segment(double[] x) {
+        Random random = new Random(seed);
+        int[] ends = new int[16];
+        int count = 0;
+        Deque<int[]> stack = new ArrayDeque<int[]>();
+        if (x.length > 0) {
+            stack.push(new int[]{0, x.length});
+        }
+        // Ranges are popped left to right, so segment ends come out sorted
+        while (!stack.isEmpty()) {
+            int[] range = stack.pop();
+            int[] arc = split(x, range[0], range[1], random);
+            if (arc == null) {
+                if (count == ends.length) {
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                ends[count++] = range[1];
+                continue;
+            }
+            int i = range[0] + arc[0];
+            int j = range[0] + arc[1];
+            if (j < range[1]) {
+                stack.push(new int[]{j, range[1]});
+            }
+            stack.push(new int[]{i, j});
+            if (i > range[0]) {
+                stack.push(new int[]{range[0], i});
+            }
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * @return significant arc {i, j} relative to from, or null if the range should not be split
+     */
+    int[] split(double[] x, int from, int to, Random random) {
+        int n = to - from;
+        if (n < 2 * minWidth) {
+            return null;
+        }
+        double mean = 0.0;
+        for (int t = from; t < to; t++) {
+            mean += x[t];
+        }
+        mean /= n;
+        double[] centered = new double[n];
+        double tss = 0.0;
+        for (int t = 0; t < n; t++) {
+            centered[t] = x[from + t] - mean;
+            tss += centered[t] * centered[t];
+        }
+        if (tss <= 0.0) {
+            return null;
+        }
+        double[] sums = partialSums(centered, null);
+        int[] best = new int[2];
+        double bss = n <= nmin ? exhaustiveMax(sums, n, best) : hybridMax(sums, n, best);
+        if (bss <= 0.0) {
+            return null;
+        }
+        boolean significant;
+        if (n <= nmin) {
+            significant = permutationTest(centered, sums, bss, random);
+        } else {
+            double t = bss >= tss ? Double.MAX_VALUE : Math.sqrt(bss / ((tss - bss) / (n - 2)));
+            significant = tailProbability(t, (kmax + 1.0) / n, n) <= alpha;
+        }
+        return significant ? best : null;
+    }
+
+    private static double[] partialSums(double[] values, double[] sums) {
+        if (sums == null) {
+            sums = new double[values.length + 1];
+        }
+        sums[0] = 0.0;
+        for (int t = 0; t < values.length; t++) {
+            sums[t + 1] = sums[t] + values[t];
+        }
+        return sums;
+    }
+
+    /**
+     * Between-segment sum of squares for arc (i, j] of centered data
+     */
+    private static double score(double[] sums, int n, int i, int j) {
+        int k = j - i;
+        double s = sums[j] - sums[i];
+        return s * s * n / ((double) k * (n - k));
+    }
+
+    private boolean allowed(int n, int i, int j) {
+        int k = j - i;
+        return k >= minWidth && n - k >= minWidth
+                && (i == 0 || i >= minWidth) && (j == n || n - j >= minWidth);
+    }
+
+    double exhaustiveMax(double[] sums, int n, int[] best) {
+        double max = 0.0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + minWidth; j <= n; j++) {
+                if (!allowed(n, i, j)) {
+                    continue;
+                }
+                double s = score(sums, n, i, j);
+                if (s > max) {
+                    max = s;
+                    best[0] = i;
+                    best[1] = j;
+                }
+            }
+        }
+        return max;
+    }
+
+    double hybridMax(double[] sums, int n, int[] best) {
+        double max = 0.0;
+        // single change points
+        for (int j = minWidth; j <= n - minWidth; j++) {
+            double s = score(sums, n, 0, j);
+            if (s > max) {
+                max = s;
+                best[0] = 0;
+                best[1] = j;
+            }
+        }
+        // short arcs
+        for (int i = minWidth; i < n; i++) {
+            for (int j = i + minWidth; j <= Math.min(n - minWidth, i + kmax); j++) {
+                double s = score(sums, n, i, j);
+                if (s > max) {
+                    max = s;
+                    best[0] = i;
+                    best[1] = j;
+                }
+            }
+        }
+        // long arcs, coarse grid first and then the neighbourhood of the best grid point
+        int step = (int) Math.ceil(Math.sqrt(n));
+        double gridMax = 0.0;
+        int gi = -1;
+        int gj = -1;
+        for (int i = 0; i <= n; i += step) {
+            for (int j = i + step; j <= n; j += step) {
+                if (!allowed(n, i, j)) {
+                    continue;
+                }
+                double s = score(sums, n, i, j);
+                if (s > gridMax) {
+                    gridMax = s;
+                    gi = i;
+                    gj = j;
+                }
+            }
+        }
+        if (gi >= 0) {
+            for (int i = Math.max(0, gi - step); i <= Math.min(n, gi + step); i++) {
+                for (int j = Math.max(i + 1, gj - step); j <= Math.min(n, gj + step); j++) {
+                    if (!allowed(n, i, j)) {
+                        continue;
+                    }
+                    double s = score(sums, n, i, j);
+                    if (s > max) {
+                        max = s;
+                        best[0] = i;
+                        best[1] = j;
+                    }
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Sequential permutation test, stops as soon as the p-value can no longer reach alpha
+     */
+    private boolean permutationTest(double[] centered, double[] sums, double observed, Random random) {
+        int n = centered.length;
+        double[] permuted = centered.clone();
+        double[] permutedSums = new double[n + 1];
+        int[] ignored = new int[2];
+        int limit = (int) Math.floor(alpha * nperm);
+        int exceed = 0;
+        double threshold = observed * (1.0 - 1e-9);
+        for (int p = 0; p < nperm; p++) {
+            for (int t = n - 1; t > 0; t--) {
+                int r = random.nextInt(t + 1);
+                double tmp = permuted[t];
+                permuted[t] = permuted[r];
+                permuted[r] = tmp;
+            }
+            partialSums(permuted, permutedSums);
+            if (exhaustiveMax(permutedSums, n, ignored) >= threshold && ++exceed > limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Siegmund's approximation of P(max T > b) for the CBS statistic over arcs
+     * with relative length between delta and 1 - delta
+     *
+     * @param b     observed statistic
+     * @param delta smallest relative arc length
+     * @param m     number of markers
+     * @return tail probability, capped at 1
+     */
+    static double tailProbability(double b, double delta, int m) {
+        if (b == Double.MAX_VALUE) {
+            return 0.0;
+        }
+        int ngrid = 100;
+        double dincr = (0.5 - delta) / ngrid;
+        if (dincr <= 0.0) {
+            return 1.0;
+        }
+        double bsqrtm = b / Math.sqrt(m);
+        double integral = 0.0;
+        for (int g = 0; g < ngrid; g++) {
+            double t = delta + (g + 0.5) * dincr;
+            double tt = t * (1.0 - t);
+            double nu = nu(bsqrtm / Math.sqrt(tt));
+            integral += nu * nu / (tt * tt);
+        }
+        double p = b * b * b * phi(b) * integral * dincr;
+        return Math.min(1.0, p);
+    }
+
+    private static double nu(double x) {
+        if (x < 1e-8) {
+            return 1.0;
+        }
+        double half = x / 2.0;
+        return (2.0 / x) * (normalCdf(half) - 0.5) / (half * normalCdf(half) + phi(half));
+    }
+
+    static double phi(double x) {
+        return Math.exp(-0.5 * x * x) / Math.sqrt(2.0 * Math.PI);
+    }
+
+    /**
+     * Standard normal CDF, Abramowitz and Stegun 26.2.17 (error below 7.5e-8)
+     */
+    static double normalCdf(double x) {
+        double t = 1.0 / (1.0 + 0.2316419 * Math.abs(x));
+        double poly = t * (0.319381530 + t * (-0.356563782 + t * (1.781477937 + t * (-1.821255978 + t * 1.330274429))));
+        double upper = phi(x) * poly;
+        return x >= 0 ? 1.0 - upper : upper;
+    }
+}
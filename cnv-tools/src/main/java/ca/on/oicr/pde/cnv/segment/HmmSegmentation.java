@@ -0,0 +1,532 @@
+package ca.on.oicr.pde.cnv.segment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Six-state HMM segmentation of corrected log2 copy, the model of HMMcopy
+ * HMMsegment(): states HOMD, HETD, NEUT, GAIN, AMPL, HLAMP with Student-t
+ * emissions, a Normal-Gamma prior on state mean and precision and Dirichlet
+ * priors on the transition matrix and the initial state distribution.
+ *
+ * Parameters are fitted with MAP EM on the training chromosomes (autosomes by
+ * default), each iteration runs forward-backward on all chromosomes in
+ * parallel and only sums up per-state sufficient statistics. The M-step for
+ * state k, with u = (nu + 1) / (nu + lambda * (y - mu)^2) from the previous
+ * parameters and r the posterior of state k:
+ * <pre>
+ * mu     = (sum(r u y) + eta m) / (sum(r u) + eta)
+ * lambda = (sum(r) + 2 gamma - 1) / (sum(r u (y - mu)^2) + eta (mu - m)^2 + 2 S)
+ * A[j,]  ~ expected transitions from j + strength * prior A[j,]
+ * pi     ~ sum(r) + kappa - 1
+ * </pre>
+ * EM stops when the log posterior improves by less than the tolerance or
+ * after maxIterations, then every chromosome is decoded with Viterbi.
+ * Missing values (NaN) have emission probability 1 in every state, as in HMMcopy.
+ */
+public class HmmSegmentation {
+
+    private static final Logger LOG = Logger.getLogger(HmmSegmentation.class.getName());
+
+    public static final String[] STATES = {"HOMD", "HETD", "NEUT", "GAIN", "AMPL", "HLAMP"};
+
+    /**
+     * Model parameters, one value per state where it is an array.
+     * Defaults are those of HMMsegment(getparam = TRUE), S has to be set from the data
+     */
+    public static final class Parameters {
+        public double strength = 1e7;
+        public double e = 0.9999999;
+        public double[] mu = {-0.5, -0.4, -0.15, 0.1, 0.4, 0.7};
+        public double[] lambda = filled(20);
+        public double[] nu = filled(2.1);
+        public double[] kappa = {50, 50, 700, 100, 50, 50};
+        public double[] m = mu.clone();
+        public double[] eta = filled(50000);
+        public double[] gamma = filled(3);
+        public double[] s = filled(0);
+
+        public int states() {
+            return mu.length;
+        }
+
+        /**
+         * Prior precision scale the way HMMsegment sets it: (sd(2^copy) / sqrt(K))^2 over training bins
+         */
+        public void setS(List<double[]> copy, boolean[] train) {
+            double sum = 0.0;
+            double sum2 = 0.0;
+            long n = 0;
+            for (int c = 0; c < copy.size(); c++) {
+                if (!train[c]) {
+                    continue;
+                }
+                for (double y : copy.get(c)) {
+                    if (!Double.isNaN(y)) {
+                        double v = Math.pow(2.0, y);
+                        sum += v;
+                        sum2 += v * v;
+                        n++;
+                    }
+                }
+            }
+            double variance = n > 1 ? (sum2 - sum * sum / n) / (n - 1) : 0.0;
+            Arrays.fill(s, variance / states());
+        }
+
+        private static double[] filled(double v) {
+            double[] a = new double[6];
+            Arrays.fill(a, v);
+            return a;
+        }
+    }
+
+    /**
+     * Fitted model and the state path of every chromosome
+     */
+    public static final class Result {
+        public final double[] mu;
+        public final double[] lambda;
+        public final double[] pi;
+        public final double[][] transitions;
+        public final int[][] states;
+        public final int iterations;
+        public final double logPosterior;
+
+        Result(Model model, int[][] states, int iterations, double logPosterior) {
+            this.mu = model.mu;
+            this.lambda = model.lambda;
+            this.pi = model.pi;
+            this.transitions = model.a;
+            this.states = states;
+            this.iterations = iterations;
+            this.logPosterior = logPosterior;
+        }
+    }
+
+    /**
+     * Current estimates
+     */
+    private static final class Model {
+        final double[] mu;
+        final double[] lambda;
+        final double[] pi;
+        final double[][] a;
+
+        Model(double[] mu, double[] lambda, double[] pi, double[][] a) {
+            this.mu = mu;
+            this.lambda = lambda;
+            this.pi = pi;
+            this.a = a;
+        }
+    }
+
+    /**
+     * Sufficient statistics of one or more chromosomes
+     */
+    private static final class Statistics {
+        final double[] r;
+        final double[] ru;
+        final double[] ruy;
+        final double[] ruyy;
+        final double[][] transitions;
+        double logLikelihood;
+
+        Statistics(int k) {
+            r = new double[k];
+            ru = new double[k];
+            ruy = new double[k];
+            ruyy = new double[k];
+            transitions = new double[k][k];
+        }
+
+        void add(Statistics other) {
+            for (int i = 0; i < r.length; i++) {
+                r[i] += other.r[i];
+                ru[i] += other.ru[i];
+                ruy[i] += other.ruy[i];
+                ruyy[i] += other.ruyy[i];
+                for (int j = 0; j < r.length; j++) {
+                    transitions[i][j] += other.transitions[i][j];
+                }
+            }
+            logLikelihood += other.logLikelihood;
+        }
+    }
+
+    private final Parameters parameters;
+    private final int threads;
+    private int maxIterations = 50;
+    private double tolerance = 1e-3;
+
+    public HmmSegmentation(Parameters parameters, int threads) {
+        this.parameters = parameters;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Train on some chromosomes, decode all of them
+     *
+     * @param copy  corrected copy per chromosome, NaN for missing bins
+     * @param train chromosomes used for EM
+     * @return fitted model and state index (0 = HOMD) for every bin
+     */
+    public Result segment(final List<double[]> copy, boolean[] train) {
+        final int k = parameters.states();
+        double[][] priorA = new double[k][k];
+        for (int i = 0; i < k; i++) {
+            Arrays.fill(priorA[i], (1.0 - parameters.e) / (k - 1));
+            priorA[i][i] = parameters.e;
+        }
+        Model model = new Model(parameters.mu.clone(), parameters.lambda.clone(), normalize(parameters.kappa.clone()), copyOf(priorA));
+
+        final List<double[]> training = new ArrayList<double[]>();
+        for (int c = 0; c < copy.size(); c++) {
+            if (train[c]) {
+                training.add(copy.get(c));
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Model best = model;
+            double previous = Double.NEGATIVE_INFINITY;
+            int iteration = 0;
+            while (iteration < maxIterations) {
+                iteration++;
+                final Model current = model;
+                List<Callable<Statistics>> tasks = new ArrayList<Callable<Statistics>>();
+                for (final double[] y : training) {
+                    tasks.add(new Callable<Statistics>() {
+                        @Override
+                        public Statistics call() {
+                            return expectation(y, current);
+                        }
+                    });
+                }
+                Statistics total = new Statistics(k);
+                for (Statistics s : runAll(pool, tasks)) {
+                    total.add(s);
+                }
+                double posterior = total.logLikelihood + logPrior(current, priorA);
+                LOG.fine("EM iteration " + iteration + ", log posterior " + posterior);
+                if (posterior < previous) {
+                    // Numerical noise near the optimum, keep the better previous estimate
+                    break;
+                }
+                best = current;
+                if (posterior - previous < tolerance) {
+                    previous = posterior;
+                    break;
+                }
+                previous = posterior;
+                model = maximization(total, current, priorA);
+            }
+            LOG.info("EM finished after " + iteration + " iterations, log posterior " + previous
+                    + ", state means " + Arrays.toString(best.mu));
+
+            final Model fitted = best;
+            List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+            for (final double[] y : copy) {
+                tasks.add(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        return viterbi(y, fitted);
+                    }
+                });
+            }
+            List<int[]> paths = runAll(pool, tasks);
+            return new Result(fitted, paths.toArray(new int[paths.size()][]), iteration, previous);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> List<T> runAll(ExecutorService pool, List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>();
+        try {
+            for (Future<T> f : pool.invokeAll(tasks)) {
+                results.add(f.get());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during segmentation", ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Segmentation failed", ee.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Student-t density of every state for every bin, 1 for missing values
+     */
+    private double[] emissions(double[] y, Model model) {
+        int k = model.mu.length;
+        double[] p = new double[y.length * k];
+        double[] norm = new double[k];
+        for (int s = 0; s < k; s++) {
+            double nu = parameters.nu[s];
+            norm[s] = Math.exp(logGamma(nu / 2 + 0.5) - logGamma(nu / 2)) * Math.sqrt(model.lambda[s] / (Math.PI * nu));
+        }
+        for (int t = 0; t < y.length; t++) {
+            for (int s = 0; s < k; s++) {
+                if (Double.isNaN(y[t])) {
+                    p[t * k + s] = 1.0;
+                } else {
+                    double d = y[t] - model.mu[s];
+                    double nu = parameters.nu[s];
+                    p[t * k + s] = norm[s] * Math.pow(1 + model.lambda[s] * d * d / nu, -0.5 * nu - 0.5);
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Scaled forward-backward on one chromosome, returns its sufficient statistics
+     */
+    Statistics expectation(double[] y, Model model) {
+        int k = model.mu.length;
+        int n = y.length;
+        Statistics stats = new Statistics(k);
+        if (n == 0) {
+            return stats;
+        }
+        double[] p = emissions(y, model);
+        double[] alpha = new double[n * k];
+        double[] scale = new double[n];
+        for (int s = 0; s < k; s++) {
+            alpha[s] = model.pi[s] * p[s];
+        }
+        scale[0] = rescale(alpha, 0, k);
+        for (int t = 1; t < n; t++) {
+            for (int s = 0; s < k; s++) {
+                double sum = 0.0;
+                for (int j = 0; j < k; j++) {
+                    sum += alpha[(t - 1) * k + j] * model.a[j][s];
+                }
+                alpha[t * k + s] = sum * p[t * k + s];
+            }
+            scale[t] = rescale(alpha, t * k, k);
+        }
+        double[] beta = new double[k];
+        double[] next = new double[k];
+        Arrays.fill(beta, 1.0);
+        double[] weighted = new double[k];
+        for (int t = n - 1; t >= 0; t--) {
+            if (t < n - 1) {
+                for (int s = 0; s < k; s++) {
+                    weighted[s] = p[(t + 1) * k + s] * next[s] / scale[t + 1];
+                }
+                for (int j = 0; j < k; j++) {
+                    double sum = 0.0;
+                    for (int s = 0; s < k; s++) {
+                        double xi = alpha[t * k + j] * model.a[j][s] * weighted[s];
+                        stats.transitions[j][s] += xi;
+                        sum += model.a[j][s] * weighted[s];
+                    }
+                    beta[j] = sum;
+                }
+            }
+            for (int s = 0; s < k; s++) {
+                double r = alpha[t * k + s] * beta[s];
+                if (!Double.isNaN(y[t])) {
+                    double d = y[t] - model.mu[s];
+                    double u = (parameters.nu[s] + 1) / (parameters.nu[s] + model.lambda[s] * d * d);
+                    stats.r[s] += r;
+                    stats.ru[s] += r * u;
+                    stats.ruy[s] += r * u * y[t];
+                    stats.ruyy[s] += r * u * y[t] * y[t];
+                }
+            }
+            System.arraycopy(beta, 0, next, 0, k);
+        }
+        for (int t = 0; t < n; t++) {
+            stats.logLikelihood += Math.log(scale[t]);
+        }
+        return stats;
+    }
+
+    private static double rescale(double[] values, int from, int k) {
+        double sum = 0.0;
+        for (int s = 0; s < k; s++) {
+            sum += values[from + s];
+        }
+        if (sum <= 0.0) {
+            // Every state has underflowed, treat the bin as missing
+            for (int s = 0; s < k; s++) {
+                values[from + s] = 1.0 / k;
+            }
+            return Double.MIN_NORMAL;
+        }
+        for (int s = 0; s < k; s++) {
+            values[from + s] /= sum;
+        }
+        return sum;
+    }
+
+    private Model maximization(Statistics stats, Model model, double[][] priorA) {
+        int k = model.mu.length;
+        double[] mu = new double[k];
+        double[] lambda = new double[k];
+        double[] pi = new double[k];
+        for (int s = 0; s < k; s++) {
+            mu[s] = (stats.ruy[s] + parameters.eta[s] * parameters.m[s]) / (stats.ru[s] + parameters.eta[s]);
+            double residual = stats.ruyy[s] - 2 * mu[s] * stats.ruy[s] + mu[s] * mu[s] * stats.ru[s];
+            double prior = parameters.eta[s] * (mu[s] - parameters.m[s]) * (mu[s] - parameters.m[s]) + 2 * parameters.s[s];
+            lambda[s] = (stats.r[s] + 2 * parameters.gamma[s] - 1) / Math.max(residual + prior, Double.MIN_NORMAL);
+            pi[s] = Math.max(stats.r[s] + parameters.kappa[s] - 1, 0.0);
+        }
+        double[][] a = new double[k][k];
+        for (int j = 0; j < k; j++) {
+            for (int s = 0; s < k; s++) {
+                a[j][s] = stats.transitions[j][s] + parameters.strength * priorA[j][s];
+            }
+            normalize(a[j]);
+        }
+        return new Model(mu, lambda, normalize(pi), a);
+    }
+
+    /**
+     * Log density of the priors at the current estimates, added to the log likelihood to follow MAP EM
+     */
+    private double logPrior(Model model, double[][] priorA) {
+        int k = model.mu.length;
+        double sum = 0.0;
+        for (int s = 0; s < k; s++) {
+            double precision = parameters.eta[s] * model.lambda[s];
+            double d = model.mu[s] - parameters.m[s];
+            sum += 0.5 * Math.log(precision / (2 * Math.PI)) - 0.5 * precision * d * d;
+            if (parameters.s[s] > 0) {
+                double g = parameters.gamma[s];
+                sum += g * Math.log(parameters.s[s]) - logGamma(g) + (g - 1) * Math.log(model.lambda[s]) - parameters.s[s] * model.lambda[s];
+            }
+        }
+        for (int j = 0; j < k; j++) {
+            double[] concentration = new double[k];
+            for (int s = 0; s < k; s++) {
+                concentration[s] = parameters.strength * priorA[j][s];
+            }
+            sum += logDirichlet(model.a[j], concentration);
+        }
+        return sum + logDirichlet(model.pi, parameters.kappa);
+    }
+
+    private static double logDirichlet(double[] x, double[] alpha) {
+        double total = 0.0;
+        double sum = 0.0;
+        for (int i = 0; i < x.length; i++) {
+            total += alpha[i];
+            sum += (alpha[i] - 1) * Math.log(Math.max(x[i], Double.MIN_NORMAL)) - logGamma(alpha[i]);
+        }
+        return sum + logGamma(total);
+    }
+
+    /**
+     * Most likely state path of one chromosome, ties go to the lower state
+     */
+    int[] viterbi(double[] y, Model model) {
+        int k = model.mu.length;
+        int n = y.length;
+        int[] path = new int[n];
+        if (n == 0) {
+            return path;
+        }
+        double[] p = emissions(y, model);
+        double[][] logA = new double[k][k];
+        for (int j = 0; j < k; j++) {
+            for (int s = 0; s < k; s++) {
+                logA[j][s] = Math.log(model.a[j][s]);
+            }
+        }
+        int[] from = new int[n * k];
+        double[] delta = new double[k];
+        double[] next = new double[k];
+        for (int s = 0; s < k; s++) {
+            delta[s] = Math.log(model.pi[s]) + Math.log(p[s]);
+        }
+        for (int t = 1; t < n; t++) {
+            for (int s = 0; s < k; s++) {
+                int arg = 0;
+                double max = delta[0] + logA[0][s];
+                for (int j = 1; j < k; j++) {
+                    double v = delta[j] + logA[j][s];
+                    if (v > max) {
+                        max = v;
+                        arg = j;
+                    }
+                }
+                from[t * k + s] = arg;
+                next[s] = max + Math.log(p[t * k + s]);
+            }
+            double[] tmp = delta;
+            delta = next;
+            next = tmp;
+        }
+        int state = 0;
+        for (int s = 1; s < k; s++) {
+            if (delta[s] > delta[state]) {
+                state = s;
+            }
+        }
+        for (int t = n - 1; t >= 0; t--) {
+            path[t] = state;
+            state = from[t * k + state];
+        }
+        return path;
+    }
+
+    private static double[] normalize(double[] x) {
+        double sum = 0.0;
+        for (double v : x) {
+            sum += v;
+        }
+        for (int i = 0; i < x.length; i++) {
+            x[i] /= sum;
+        }
+        return x;
+    }
+
+    private static double[][] copyOf(double[][] x) {
+        double[][] copy = new double[x.length][];
+        for (int i = 0; i < x.length; i++) {
+            copy[i] = x[i].clone();
+        }
+        return copy;
+    }
+
+    private static final double[] LANCZOS = {
+        0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+        -176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7
+    };
+
+    /**
+     * Log gamma function, Lanczos approximation (g = 7)
+     */
+    static double logGamma(double x) {
+        if (x < 0.5) {
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1 - x);
+        }
+        x -= 1;
+        double a = LANCZOS[0];
+        double t = x + 7.5;
+        for (int i = 1; i < LANCZOS.length; i++) {
+            a += LANCZOS[i] / (x + i);
+        }
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(a);
+    }
+}
@@ -0,0 +1,109 @@
+package ca.on.oicr.pde.cnv.segment;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Outlier smoothing, same rule as DNAcopy smooth.CNA: a value further than
+ * outlierScale * SD from all of its neighbours within smoothRegion markers is
+ * replaced by the neighbourhood median +/- smoothScale * SD. Used before
+ * segmentation and, on request, by copy-caller on its streaming window.
+ */
+public final class OutlierSmoother {
+
+    private static final double MAD_TO_SD = 1.4826;
+
+    private OutlierSmoother() {
+    }
+
+    /**
+     * Robust SD of a sample: MAD of differences between neighbouring markers,
+     * computed over all chromosomes as DNAcopy does
+     *
+     * @param chromosomes log ratios, one array per chromosome
+     * @return SD estimate, 0 if there are less than 2 markers on every chromosome
+     */
+    public static double robustSD(List<double[]> chromosomes) {
+        int n = 0;
+        for (double[] x : chromosomes) {
+            n += Math.max(0, x.length - 1);
+        }
+        if (n == 0) {
+            return 0.0;
+        }
+        double[] diffs = new double[n];
+        int d = 0;
+        for (double[] x : chromosomes) {
+            for (int i = 1; i < x.length; i++) {
+                diffs[d++] = Math.abs(x[i] - x[i - 1]);
+            }
+        }
+        Arrays.sort(diffs);
+        return toSD(n % 2 == 1 ? diffs[n / 2] : (diffs[n / 2 - 1] + diffs[n / 2]) / 2.0);
+    }
+
+    /**
+     * @param medianDiff median absolute difference between neighbouring markers
+     * @return SD of the markers
+     */
+    public static double toSD(double medianDiff) {
+        return MAD_TO_SD * medianDiff / Math.sqrt(2.0);
+    }
+
+    /**
+     * @param x            log ratios of one chromosome
+     * @param smoothRegion neighbours on each side
+     * @param outlierSD    outlier threshold (DNAcopy: 4 * SD)
+     * @param smoothSD     offset from the median for smoothed values (DNAcopy: 2 * SD)
+     * @return smoothed copy of x
+     */
+    public static double[] smooth(double[] x, int smoothRegion, double outlierSD, double smoothSD) {
+        double[] smoothed = x.clone();
+        if (smoothRegion <= 0 || outlierSD <= 0) {
+            return smoothed;
+        }
+        double[] window = new double[2 * smoothRegion + 1];
+        for (int i = 0; i < x.length; i++) {
+            smoothed[i] = smooth(x, Math.max(0, i - smoothRegion), Math.min(x.length - 1, i + smoothRegion), i, outlierSD, smoothSD, window);
+        }
+        return smoothed;
+    }
+
+    /**
+     * Smoothed value of one marker
+     *
+     * @param x      log ratios, x[from..to] is the neighbourhood of x[i]
+     * @param buffer at least to - from + 1 long, for the median
+     * @return x[i] or, for an outlier, the neighbourhood median +/- smoothSD
+     */
+    public static double smooth(double[] x, int from, int to, int i, double outlierSD, double smoothSD, double[] buffer) {
+        if (to == from || outlierSD <= 0) {
+            return x[i];
+        }
+        double closestAbove = Double.MAX_VALUE;
+        double closestBelow = Double.MAX_VALUE;
+        for (int j = from; j <= to; j++) {
+            if (j == i) {
+                continue;
+            }
+            if (x[j] >= x[i]) {
+                closestAbove = Math.min(closestAbove, x[j] - x[i]);
+            } else {
+                closestBelow = Math.min(closestBelow, x[i] - x[j]);
+            }
+        }
+        if (closestAbove == Double.MAX_VALUE && closestBelow > outlierSD) {
+            return median(x, from, to, buffer) + smoothSD;
+        } else if (closestBelow == Double.MAX_VALUE && closestAbove > outlierSD) {
+            return median(x, from, to, buffer) - smoothSD;
+        }
+        return x[i];
+    }
+
+    private static double median(double[] x, int from, int to, double[] buffer) {
+        int n = to - from + 1;
+        System.arraycopy(x, from, buffer, 0, n);
+        Arrays.sort(buffer, 0, n);
+        return n % 2 == 1 ? buffer[n / 2] : (buffer[n / 2 - 1] + buffer[n / 2]) / 2.0;
+    }
+}
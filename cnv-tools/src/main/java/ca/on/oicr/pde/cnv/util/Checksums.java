@@ -0,0 +1,77 @@
+package ca.on.oicr.pde.cnv.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digests used to build cache keys
+ */
+public final class Checksums {
+
+    private Checksums() {
+    }
+
+    /**
+     * @return hex MD5 of the file contents, same as md5sum
+     */
+    public static String md5(File file) throws IOException {
+        MessageDigest digest = digest("MD5");
+        byte[] buffer = new byte[1 << 20];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Cheap identity of a file: name, size and modification time, without
+     * reading it. The directory is left out so a file linked into a task
+     * directory keeps its identity; a copy with a new mtime does not.
+     *
+     * @return name:size:mtime
+     * @throws NoSuchFileException if the file does not exist
+     */
+    public static String identity(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new NoSuchFileException(file.getPath());
+        }
+        return file.getName() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * @return hex SHA-256 of the parts, each part followed by a newline
+     */
+    public static String key(String... parts) {
+        MessageDigest digest = digest("SHA-256");
+        for (String part : parts) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(algorithm + " is not available", nsae);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package ca.on.oicr.pde.cnv.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of doubles, avoids boxing when collecting per-contig values
+ */
+public final class DoubleList {
+
+    private double[] values;
+    private int size;
+
+    public DoubleList() {
+        this(1024);
+    }
+
+    public DoubleList(int capacity) {
+        values = new double[Math.max(1, capacity)];
+    }
+
+    public void add(double v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = v;
+    }
+
+    public double get(int i) {
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return copy trimmed to size
+     */
+    public double[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
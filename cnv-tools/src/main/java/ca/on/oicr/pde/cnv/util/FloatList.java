@@ -0,0 +1,42 @@
+package ca.on.oicr.pde.cnv.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of floats, avoids boxing when collecting per-contig values
+ */
+public final class FloatList {
+
+    private float[] values;
+    private int size;
+
+    public FloatList() {
+        this(1024);
+    }
+
+    public FloatList(int capacity) {
+        values = new float[Math.max(1, capacity)];
+    }
+
+    public void add(float v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = v;
+    }
+
+    public float get(int i) {
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return copy trimmed to size
+     */
+    public float[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
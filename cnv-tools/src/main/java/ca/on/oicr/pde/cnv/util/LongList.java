@@ -0,0 +1,42 @@
+package ca.on.oicr.pde.cnv.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of longs, avoids boxing when collecting per-contig values
+ */
+public final class LongList {
+
+    private long[] values;
+    private int size;
+
+    public LongList() {
+        this(1024);
+    }
+
+    public LongList(int capacity) {
+        values = new long[Math.max(1, capacity)];
+    }
+
+    public void add(long v) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = v;
+    }
+
+    public long get(int i) {
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return copy trimmed to size
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,103 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.io.ParallelBgzfOutputStream;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes merged lines as BGZF, optionally building a tabix (.tbi) index for
+ * vcf records on the fly. A record never starts a block it does not fit into,
+ * so for ordinary line lengths every record sits in a single block.
+ */
+class BgzfSink implements SortedMerge.Sink, ParallelBgzfOutputStream.BlockListener {
+
+    private static final int BLOCK_SHIFT = 16;
+
+    private final ParallelBgzfOutputStream out;
+    private final TabixIndexCreator indexCreator;
+    private final File indexFile;
+    private final Deque<PendingFeature> pending = new ArrayDeque<PendingFeature>();
+
+    /**
+     * Record whose virtual offset is known once its block is written
+     */
+    private static final class PendingFeature {
+        final SimpleFeature feature;
+        final long block;
+        final int offset;
+
+        PendingFeature(SimpleFeature feature, long block, int offset) {
+            this.feature = feature;
+            this.block = block;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * @param output  .gz file
+     * @param threads compression threads
+     * @param index   build output.tbi for vcf records
+     * @throws IOException
+     */
+    BgzfSink(File output, int threads, boolean index) throws IOException {
+        this.out = new ParallelBgzfOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16), threads, 6);
+        this.indexCreator = index ? new TabixIndexCreator(TabixFormat.VCF) : null;
+        this.indexFile = index ? new File(output.getPath() + ".tbi") : null;
+        this.out.setBlockListener(this);
+    }
+
+    @Override
+    public void header(String line) throws IOException {
+        write(line);
+    }
+
+    @Override
+    public void record(String line, String contig, long position) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > out.remaining()) {
+            out.endBlock();
+        }
+        if (indexCreator != null) {
+            String ref = TextFiles.field(line, 3);
+            int end = (int) position + (ref == null ? 1 : ref.length()) - 1;
+            pending.add(new PendingFeature(new SimpleFeature(contig, (int) position, end), out.getBlock(), out.getBlockOffset()));
+        }
+        out.write(bytes);
+    }
+
+    private void write(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void blockWritten(long block, long compressedOffset) {
+        while (!pending.isEmpty() && pending.peek().block == block) {
+            PendingFeature p = pending.poll();
+            indexCreator.addFeature(p.feature, (compressedOffset << BLOCK_SHIFT) | p.offset);
+        }
+    }
+
+    /**
+     * Flush all blocks, write the index and close the file
+     *
+     * @throws IOException
+     */
+    void close() throws IOException {
+        long end = out.finish();
+        out.close();
+        if (indexCreator != null) {
+            Index index = indexCreator.finalizeIndex(end << BLOCK_SHIFT);
+            index.write(indexFile);
+        }
+    }
+}
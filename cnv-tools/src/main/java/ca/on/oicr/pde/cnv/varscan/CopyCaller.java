@@ -0,0 +1,355 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import ca.on.oicr.pde.cnv.segment.OutlierSmoother;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Streaming replacement for VarScan copyCaller. The genome-wide .copynumber
+ * file is read once and never held in memory: regions pass coverage and size
+ * filters, get recentered and are called as amp, del or neutral.
+ *
+ * Outlier smoothing is off by default, copyCaller does not smooth. With
+ * smoothRegion > 0 the file is read twice:
+ *
+ * 1. noise estimate - robust SD of the log2 ratio from a fixed-size histogram
+ *    of differences between neighbouring regions
+ * 2. calling - as above, with every region smoothed within a sliding window of
+ *    2 * smoothRegion + 1 regions of the same chromosome by
+ *    {@link OutlierSmoother} (DNAcopy smooth.CNA) before it is called
+ *
+ * Output columns follow copyCaller: chrom, chr_start, chr_stop, num_positions,
+ * normal_depth, tumor_depth, adjusted_log_ratio, gc_content, region_call, raw_ratio
+ */
+public class CopyCaller {
+
+    private static final Logger LOG = Logger.getLogger(CopyCaller.class.getName());
+
+    public static final String HEADER = "chrom\tchr_start\tchr_stop\tnum_positions\tnormal_depth\ttumor_depth\t"
+                                      + "adjusted_log_ratio\tgc_content\tregion_call\traw_ratio";
+    // Histogram of |diff| between neighbours, 0.001 resolution up to 20
+    private static final double HIST_STEP = 0.001;
+    private static final int    HIST_BINS = 20000;
+
+    private int minCoverage = 20;
+    private int minTumorCoverage = 10;
+    private int maxHomdelCoverage = 5;
+    private double ampThreshold = 0.25;
+    private double delThreshold = 0.25;
+    private int minRegionSize = 10;
+    private double recenterUp = 0.0;
+    private double recenterDown = 0.0;
+    private int smoothRegion = 0;
+    private double outlierScale = 4.0;
+    private double smoothScale = 2.0;
+
+    private double[] medianBuffer;
+
+    private long rawRegions;
+    private long goodRegions;
+    private long ampRegions;
+    private long delRegions;
+    private long homdelRegions;
+
+    /**
+     * Parsed line of the input, only the columns we need
+     */
+    static final class Region {
+        String line;
+        String contig;
+        long start;
+        long stop;
+        long normalDepth;
+        long tumorDepth;
+        double ratio;
+    }
+
+    /**
+     * Column indices, taken from the header if there is one
+     */
+    private int colStart = 1;
+    private int colStop = 2;
+    private int colNormal = 4;
+    private int colTumor = 5;
+    private int colRatio = 6;
+
+    public void setMinCoverage(int minCoverage) {
+        this.minCoverage = minCoverage;
+    }
+
+    public void setMinTumorCoverage(int minTumorCoverage) {
+        this.minTumorCoverage = minTumorCoverage;
+    }
+
+    public void setMaxHomdelCoverage(int maxHomdelCoverage) {
+        this.maxHomdelCoverage = maxHomdelCoverage;
+    }
+
+    public void setAmpThreshold(double ampThreshold) {
+        this.ampThreshold = ampThreshold;
+    }
+
+    public void setDelThreshold(double delThreshold) {
+        this.delThreshold = delThreshold;
+    }
+
+    public void setMinRegionSize(int minRegionSize) {
+        this.minRegionSize = minRegionSize;
+    }
+
+    public void setRecenterUp(double recenterUp) {
+        this.recenterUp = recenterUp;
+    }
+
+    public void setRecenterDown(double recenterDown) {
+        this.recenterDown = recenterDown;
+    }
+
+    /**
+     * @param smoothRegion number of neighbours on each side used for smoothing, 0 disables smoothing
+     */
+    public void setSmoothRegion(int smoothRegion) {
+        this.smoothRegion = smoothRegion;
+    }
+
+    /**
+     * Estimate noise of the log2 ratio: MAD of differences between neighbouring
+     * regions, scaled to SD. Uses a fixed histogram, so memory does not depend on input size
+     *
+     * @param input .copynumber file
+     * @return robust SD estimate, 0 if there are not enough regions
+     * @throws IOException
+     */
+    public double estimateSD(File input) throws IOException {
+        long[] histogram = new long[HIST_BINS + 1];
+        long n = 0;
+        try (BufferedReader reader = TextFiles.openReader(input)) {
+            Region previous = null;
+            Region region;
+            while ((region = next(reader)) != null) {
+                if (!passes(region)) {
+                    continue;
+                }
+                if (previous != null && previous.contig.equals(region.contig)) {
+                    int bin = (int) Math.min(HIST_BINS, Math.abs(region.ratio - previous.ratio) / HIST_STEP);
+                    histogram[bin]++;
+                    n++;
+                }
+                previous = region;
+            }
+        }
+        if (n == 0) {
+            return 0.0;
+        }
+        long half = (n + 1) / 2;
+        long seen = 0;
+        int bin = 0;
+        while (seen + histogram[bin] < half) {
+            seen += histogram[bin++];
+        }
+        return OutlierSmoother.toSD((bin + 0.5) * HIST_STEP);
+    }
+
+    /**
+     * Call copy number changes
+     *
+     * @param input  .copynumber file
+     * @param output called and smoothed regions
+     * @param homdel optional file for homozygous deletions, may be null
+     * @throws IOException
+     */
+    public void call(File input, File output, File homdel) throws IOException {
+        double sd = smoothRegion > 0 ? estimateSD(input) : 0.0;
+        double outlierSD = outlierScale * sd;
+        double smoothSD = smoothScale * sd;
+        double shift = recenterDown - recenterUp;
+
+        int width = 2 * smoothRegion + 1;
+        Region[] window = new Region[width];
+        double[] neighbours = new double[width];
+        medianBuffer = new double[width];
+        for (int i = 0; i < width; i++) {
+            window[i] = new Region();
+        }
+
+        try (BufferedReader reader = TextFiles.openReader(input);
+             BufferedWriter writer = TextFiles.openWriter(output);
+             BufferedWriter homdelWriter = homdel == null ? null : TextFiles.openWriter(homdel)) {
+            writer.write(HEADER);
+            writer.newLine();
+            if (homdelWriter != null) {
+                homdelWriter.write(HEADER);
+                homdelWriter.newLine();
+            }
+            // window holds regions [first, first + size) of the current chromosome, 'emitted' of them are already written
+            long first = 0;
+            int size = 0;
+            long emitted = 0;
+            String contig = null;
+            Region region = new Region();
+            while (next(reader, region) != null) {
+                rawRegions++;
+                if (isHomdel(region)) {
+                    homdelRegions++;
+                    if (homdelWriter != null) {
+                        write(homdelWriter, region, region.ratio + shift, "homdel");
+                    }
+                }
+                if (!passes(region)) {
+                    continue;
+                }
+                goodRegions++;
+                if (contig != null && !contig.equals(region.contig)) {
+                    while (emitted < first + size) {
+                        emit(writer, window, width, first, size, emitted++, neighbours, outlierSD, smoothSD, shift);
+                    }
+                    first = 0;
+                    size = 0;
+                    emitted = 0;
+                }
+                contig = region.contig;
+                if (size == width) {
+                    first++;
+                    size--;
+                }
+                // swap the parsed region into the ring buffer and reuse the evicted object for parsing
+                int slot = (int) ((first + size) % width);
+                Region evicted = window[slot];
+                window[slot] = region;
+                region = evicted;
+                size++;
+                // region 'emitted' has all of its right-hand neighbours once we are smoothRegion past it
+                if (first + size - 1 - emitted >= smoothRegion) {
+                    emit(writer, window, width, first, size, emitted++, neighbours, outlierSD, smoothSD, shift);
+                }
+            }
+            while (emitted < first + size) {
+                emit(writer, window, width, first, size, emitted++, neighbours, outlierSD, smoothSD, shift);
+            }
+        }
+        LOG.info(rawRegions + " raw regions, " + goodRegions + " good regions, " + ampRegions + " amplified, "
+                + delRegions + " deleted, " + homdelRegions + " homozygous deletions. Noise SD " + sd);
+    }
+
+    private void emit(BufferedWriter writer, Region[] window, int width, long first, int size, long index,
+                      double[] neighbours, double outlierSD, double smoothSD, double shift) throws IOException {
+        Region r = window[(int) (index % width)];
+        double value = r.ratio;
+        if (smoothRegion > 0 && outlierSD > 0) {
+            long from = Math.max(first, index - smoothRegion);
+            long to = Math.min(first + size - 1, index + smoothRegion);
+            int n = 0;
+            for (long j = from; j <= to; j++) {
+                neighbours[n++] = window[(int) (j % width)].ratio;
+            }
+            value = OutlierSmoother.smooth(neighbours, 0, n - 1, (int) (index - from), outlierSD, smoothSD, medianBuffer);
+        }
+        double adjusted = value + shift;
+        String call = "neutral";
+        if (adjusted >= ampThreshold) {
+            call = "amp";
+            ampRegions++;
+        } else if (adjusted <= -delThreshold) {
+            call = "del";
+            delRegions++;
+        }
+        write(writer, r, adjusted, call);
+    }
+
+    private void write(BufferedWriter writer, Region r, double adjusted, String call) throws IOException {
+        String[] tmp = r.line.split("\t");
+        writer.write(tmp[0] + "\t" + tmp[colStart] + "\t" + tmp[colStop] + "\t" + tmp[3] + "\t" + tmp[colNormal] + "\t"
+                + tmp[colTumor] + "\t" + String.format("%.3f", adjusted) + "\t" + (tmp.length > 7 ? tmp[7] : "NA") + "\t"
+                + call + "\t" + tmp[colRatio]);
+        writer.newLine();
+    }
+
+    private boolean passes(Region r) {
+        return r.normalDepth >= minCoverage && r.tumorDepth >= minTumorCoverage && r.stop - r.start + 1 >= minRegionSize;
+    }
+
+    private boolean isHomdel(Region r) {
+        return r.tumorDepth <= maxHomdelCoverage && r.normalDepth >= minCoverage && r.ratio < 0
+                && r.stop - r.start + 1 >= minRegionSize;
+    }
+
+    private Region next(BufferedReader reader) throws IOException {
+        return next(reader, new Region());
+    }
+
+    private Region next(BufferedReader reader, Region region) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("chrom")) {
+                readHeader(line);
+                continue;
+            }
+            String[] tmp = line.split("\t");
+            region.line = line;
+            region.contig = tmp[0].equals(region.contig) ? region.contig : tmp[0];
+            region.start = Long.parseLong(tmp[colStart]);
+            region.stop = Long.parseLong(tmp[colStop]);
+            region.normalDepth = (long) Double.parseDouble(tmp[colNormal]);
+            region.tumorDepth = (long) Double.parseDouble(tmp[colTumor]);
+            region.ratio = Double.parseDouble(tmp[colRatio]);
+            return region;
+        }
+        return null;
+    }
+
+    private void readHeader(String line) {
+        String[] names = line.split("\t");
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals("chr_start")) {
+                colStart = i;
+            } else if (names[i].equals("chr_stop")) {
+                colStop = i;
+            } else if (names[i].equals("normal_depth")) {
+                colNormal = i;
+            } else if (names[i].equals("tumor_depth")) {
+                colTumor = i;
+            } else if (names[i].equals("log2_ratio") || names[i].equals("adjusted_log_ratio")) {
+                colRatio = i;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> inputSpec = parser.accepts("input", "Required. Merged .copynumber file produced by Varscan").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> outputSpec = parser.accepts("output-file", "Required. Output file with called regions").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> homdelSpec = parser.accepts("output-homdel-file", "Optional. File for homozygous deletions").withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> minCoverageSpec = parser.accepts("min-coverage", "Optional. Minimum normal depth of a region").withRequiredArg().ofType(Integer.class).defaultsTo(20);
+        OptionSpec<Integer> minTumorSpec = parser.accepts("min-tumor-coverage", "Optional. Minimum tumor depth of a region for a non-homdel call").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Integer> maxHomdelSpec = parser.accepts("max-homdel-coverage", "Optional. Maximum tumor depth for a homozygous deletion").withRequiredArg().ofType(Integer.class).defaultsTo(5);
+        OptionSpec<Double> ampSpec = parser.accepts("amp-threshold", "Optional. Lower bound of log2 ratio for amplification").withRequiredArg().ofType(Double.class).defaultsTo(0.25);
+        OptionSpec<Double> delSpec = parser.accepts("del-threshold", "Optional. Upper bound of negative log2 ratio for deletion").withRequiredArg().ofType(Double.class).defaultsTo(0.25);
+        OptionSpec<Integer> minSizeSpec = parser.accepts("min-region-size", "Optional. Minimum size of a region in bases").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Double> upSpec = parser.accepts("recenter-up", "Optional. Recenter data around an adjusted baseline > 0").withRequiredArg().ofType(Double.class).defaultsTo(0.0);
+        OptionSpec<Double> downSpec = parser.accepts("recenter-down", "Optional. Recenter data around an adjusted baseline < 0").withRequiredArg().ofType(Double.class).defaultsTo(0.0);
+        OptionSpec<Integer> smoothSpec = parser.accepts("smooth-region", "Optional. Neighbours on each side used to smooth outliers (DNAcopy smooth.CNA), 0 (the default) calls the regions as VarScan copyCaller does").withRequiredArg().ofType(Integer.class).defaultsTo(0);
+        OptionSet options = parser.parse(args);
+
+        CopyCaller caller = new CopyCaller();
+        caller.setMinCoverage(options.valueOf(minCoverageSpec));
+        caller.setMinTumorCoverage(options.valueOf(minTumorSpec));
+        caller.setMaxHomdelCoverage(options.valueOf(maxHomdelSpec));
+        caller.setAmpThreshold(options.valueOf(ampSpec));
+        caller.setDelThreshold(options.valueOf(delSpec));
+        caller.setMinRegionSize(options.valueOf(minSizeSpec));
+        caller.setRecenterUp(options.valueOf(upSpec));
+        caller.setRecenterDown(options.valueOf(downSpec));
+        caller.setSmoothRegion(options.valueOf(smoothSpec));
+        caller.call(options.valueOf(inputSpec), options.valueOf(outputSpec), options.valueOf(homdelSpec));
+    }
+}
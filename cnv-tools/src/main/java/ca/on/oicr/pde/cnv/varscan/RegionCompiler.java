@@ -0,0 +1,236 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.io.Bed;
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.Interval;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Turns a .bed file with targets into a bounded number of scatter shards.
+ * Overlapping and nearby intervals are merged, intervals longer than a shard
+ * are split and the rest is packed into shards of roughly equal size. A shard
+ * never spans more than one contig, so it can be described by a single
+ * samtools region (-r) plus a .bed list of targets (-l). The shard size grows
+ * until the shards, counted per contig, fit into the maximum. Merging only
+ * decides where shards start and end, a shard lists the input targets which
+ * fall into it so the gaps between nearby targets are not piled up.
+ *
+ * Writes into the output directory:
+ *  shard_NNNNN.bed - input targets of a shard, cut at the shard ends
+ *  regions.txt     - spanning region of each shard, one per line
+ *  shards.list     - names of the shard .bed files, same order as regions.txt
+ */
+public class RegionCompiler {
+
+    private static final Logger LOG = Logger.getLogger(RegionCompiler.class.getName());
+
+    public static final long DEFAULT_SHARD_SIZE = 2000000L;
+    public static final int  DEFAULT_MAX_SHARDS = 100;
+    public static final long DEFAULT_MERGE_GAP  = 100L;
+
+    private final long shardSize;
+    private final int maxShards;
+    private final long mergeGap;
+
+    /**
+     * @param shardSize target number of bases in a shard
+     * @param maxShards upper limit for the number of shards, shard size grows if needed.
+     *                  Can only be exceeded when there are more contigs with targets than shards
+     * @param mergeGap  intervals closer than this are merged
+     */
+    public RegionCompiler(long shardSize, int maxShards, long mergeGap) {
+        if (shardSize <= 0 || maxShards <= 0 || mergeGap < 0) {
+            throw new IllegalArgumentException("Shard size and number of shards should be positive, merge gap non-negative");
+        }
+        this.shardSize = shardSize;
+        this.maxShards = maxShards;
+        this.mergeGap = mergeGap;
+    }
+
+    /**
+     * @param intervals targets in any order
+     * @param order     contig order
+     * @return shards, each shard is a sorted list of non-overlapping intervals on one contig
+     *         which cover the same bases as the targets inside the shard
+     */
+    public List<List<Interval>> compile(List<Interval> intervals, ContigOrder order) {
+        List<Interval> sorted = new ArrayList<Interval>(intervals);
+        Bed.sort(sorted, order);
+        List<Interval> merged = Bed.merge(sorted, mergeGap);
+
+        Map<String, Long> contigBases = new LinkedHashMap<String, Long>();
+        long total = 0;
+        long largest = 0;
+        for (Interval i : merged) {
+            total += i.length();
+            if (i.length() > 0) {
+                Long bases = contigBases.get(i.getContig());
+                contigBases.put(i.getContig(), (bases == null ? 0 : bases) + i.length());
+                largest = Math.max(largest, contigBases.get(i.getContig()));
+            }
+        }
+        long size = Math.max(shardSize, (total + maxShards - 1) / maxShards);
+        // Shards do not span contigs, the smallest size which fits is found by bisection
+        int limit = Math.max(maxShards, contigBases.size());
+        if (shardCount(contigBases, size) > limit) {
+            long low = size;
+            size = largest;
+            while (low < size) {
+                long mid = low + (size - low) / 2;
+                if (shardCount(contigBases, mid) > limit) {
+                    low = mid + 1;
+                } else {
+                    size = mid;
+                }
+            }
+        }
+
+        Map<String, List<Interval>> targets = new LinkedHashMap<String, List<Interval>>();
+        for (Interval i : Bed.merge(sorted, 0)) {
+            if (!targets.containsKey(i.getContig())) {
+                targets.put(i.getContig(), new ArrayList<Interval>());
+            }
+            targets.get(i.getContig()).add(i);
+        }
+        TargetCursor cursor = new TargetCursor(targets);
+
+        List<List<Interval>> shards = new ArrayList<List<Interval>>();
+        List<Interval> shard = new ArrayList<Interval>();
+        long filled = 0;
+        for (Interval i : merged) {
+            if (!shard.isEmpty() && !shard.get(0).getContig().equals(i.getContig())) {
+                shards.add(shard);
+                shard = new ArrayList<Interval>();
+                filled = 0;
+            }
+            long start = i.getStart();
+            while (start < i.getEnd()) {
+                long end = Math.min(i.getEnd(), start + size - filled);
+                shard.add(new Interval(i.getContig(), start, end));
+                filled += end - start;
+                start = end;
+                if (filled >= size) {
+                    shards.add(shard);
+                    shard = new ArrayList<Interval>();
+                    filled = 0;
+                }
+            }
+        }
+        if (!shard.isEmpty()) {
+            shards.add(shard);
+        }
+
+        // Replace the merged pieces by the targets they hold, a shard cut out of a gap is dropped
+        List<List<Interval>> targetShards = new ArrayList<List<Interval>>();
+        for (List<Interval> pieces : shards) {
+            List<Interval> shardTargets = new ArrayList<Interval>();
+            for (Interval piece : pieces) {
+                cursor.clip(piece.getContig(), piece.getStart(), piece.getEnd(), shardTargets);
+            }
+            if (!shardTargets.isEmpty()) {
+                targetShards.add(shardTargets);
+            }
+        }
+        return targetShards;
+    }
+
+    /**
+     * Walks the targets of each contig in order, the pieces of the merged
+     * intervals are visited in the same order
+     */
+    private static class TargetCursor {
+
+        private final Map<String, List<Interval>> targets;
+        private final Map<String, Integer> next = new LinkedHashMap<String, Integer>();
+
+        TargetCursor(Map<String, List<Interval>> targets) {
+            this.targets = targets;
+        }
+
+        /**
+         * Adds the targets within [start, end) of a contig to the shard, cut at start and end
+         */
+        void clip(String contig, long start, long end, List<Interval> shard) {
+            List<Interval> onContig = targets.get(contig);
+            Integer n = next.get(contig);
+            int t = n == null ? 0 : n;
+            while (t < onContig.size() && onContig.get(t).getEnd() <= start) {
+                t++;
+            }
+            next.put(contig, t);
+            for (; t < onContig.size() && onContig.get(t).getStart() < end; t++) {
+                Interval target = onContig.get(t);
+                shard.add(new Interval(contig, Math.max(start, target.getStart()), Math.min(end, target.getEnd())));
+            }
+        }
+    }
+
+    /**
+     * @return number of shards of the given size, a shard holds bases of one contig only
+     */
+    static long shardCount(Map<String, Long> contigBases, long size) {
+        long count = 0;
+        for (long bases : contigBases.values()) {
+            count += (bases + size - 1) / size;
+        }
+        return count;
+    }
+
+    /**
+     * @param shard intervals of one shard
+     * @return region which covers all intervals of the shard
+     */
+    public static Interval span(List<Interval> shard) {
+        Interval first = shard.get(0);
+        return new Interval(first.getContig(), first.getStart(), shard.get(shard.size() - 1).getEnd());
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> bedSpec = parser.accepts("bed", "Required. .bed file with target intervals").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> outputSpec = parser.accepts("output-dir", "Required. Directory for shard files").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> dictSpec = parser.accepts("dict", "Optional. Sequence dictionary (.dict or .fai) which defines contig order").withRequiredArg().ofType(File.class);
+        OptionSpec<Long> sizeSpec = parser.accepts("shard-size", "Optional. Target size of a shard in bases").withRequiredArg().ofType(Long.class).defaultsTo(DEFAULT_SHARD_SIZE);
+        OptionSpec<Integer> maxSpec = parser.accepts("max-shards", "Optional. Upper limit for the number of shards, unless there are more contigs with targets (one shard each)").withRequiredArg().ofType(Integer.class).defaultsTo(DEFAULT_MAX_SHARDS);
+        OptionSpec<Long> gapSpec = parser.accepts("merge-gap", "Optional. Merge intervals separated by no more than this many bases").withRequiredArg().ofType(Long.class).defaultsTo(DEFAULT_MERGE_GAP);
+        OptionSet options = parser.parse(args);
+
+        ContigOrder order = options.has(dictSpec) ? ContigOrder.fromFile(options.valueOf(dictSpec)) : ContigOrder.natural();
+        List<Interval> intervals = Bed.read(options.valueOf(bedSpec));
+        List<List<Interval>> shards = new RegionCompiler(options.valueOf(sizeSpec), options.valueOf(maxSpec), options.valueOf(gapSpec))
+                .compile(intervals, order);
+
+        File outputDir = options.valueOf(outputSpec);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create " + outputDir);
+        }
+        try (BufferedWriter regions = TextFiles.openWriter(new File(outputDir, "regions.txt"));
+             BufferedWriter list = TextFiles.openWriter(new File(outputDir, "shards.list"))) {
+            for (int s = 0; s < shards.size(); s++) {
+                String name = String.format("shard_%05d.bed", s + 1);
+                try (BufferedWriter bed = TextFiles.openWriter(new File(outputDir, name))) {
+                    for (Interval i : shards.get(s)) {
+                        bed.write(i.toString());
+                        bed.newLine();
+                    }
+                }
+                regions.write(span(shards.get(s)).toRegion());
+                regions.newLine();
+                list.write(new File(outputDir, name).getPath());
+                list.newLine();
+            }
+        }
+        LOG.info("Compiled " + intervals.size() + " intervals into " + shards.size() + " shards");
+    }
+}
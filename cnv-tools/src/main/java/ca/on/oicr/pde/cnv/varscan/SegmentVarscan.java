@@ -0,0 +1,207 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import ca.on.oicr.pde.cnv.segment.CircularBinarySegmentation;
+import ca.on.oicr.pde.cnv.segment.OutlierSmoother;
+import ca.on.oicr.pde.cnv.util.DoubleList;
+import ca.on.oicr.pde.cnv.util.LongList;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Replacement for smooth_varscan.r: smooths outliers and segments Varscan log
+ * ratios with circular binary segmentation, chromosomes are segmented in parallel.
+ *
+ * Output has the same columns as the R script (DNAcopy segs$output[,2:6]):
+ * chrom, loc.start, loc.end, num.mark, seg.mean without a header
+ */
+public class SegmentVarscan {
+
+    private static final Logger LOG = Logger.getLogger(SegmentVarscan.class.getName());
+
+    private final CircularBinarySegmentation cbs;
+    private final int threads;
+    private int smoothRegion = 10;
+    private double outlierScale = 4.0;
+    private double smoothScale = 2.0;
+
+    /**
+     * Log ratios and positions of one chromosome
+     */
+    static final class Chromosome {
+        final String name;
+        final LongList positions = new LongList();
+        final DoubleList ratios = new DoubleList();
+        double[] values;
+
+        Chromosome(String name) {
+            this.name = name;
+        }
+    }
+
+    public SegmentVarscan(CircularBinarySegmentation cbs, int threads) {
+        this.cbs = cbs;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param smoothRegion neighbours on each side used for outlier smoothing, 0 disables smoothing
+     */
+    public void setSmoothRegion(int smoothRegion) {
+        this.smoothRegion = smoothRegion;
+    }
+
+    /**
+     * Read log ratios grouped by chromosome, in order of appearance
+     *
+     * @param input  Varscan .copynumber (or copy-caller output) file
+     * @param column name or 1-based index of the log ratio column, null to pick it from the header
+     * @return chromosomes
+     * @throws IOException
+     */
+    static List<Chromosome> read(File input, String column) throws IOException {
+        Map<String, Chromosome> chromosomes = new LinkedHashMap<String, Chromosome>();
+        int ratioColumn = column != null && column.matches("\\d+") ? Integer.parseInt(column) - 1 : 6;
+        int startColumn = 1;
+        try (BufferedReader reader = TextFiles.openReader(input)) {
+            String line;
+            Chromosome current = null;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] tmp = line.split("\t");
+                if (line.startsWith("chrom")) {
+                    for (int i = 0; i < tmp.length; i++) {
+                        if (column != null ? tmp[i].equals(column) : tmp[i].equals("adjusted_log_ratio") || tmp[i].equals("log2_ratio")) {
+                            ratioColumn = i;
+                        } else if (tmp[i].equals("chr_start")) {
+                            startColumn = i;
+                        }
+                    }
+                    continue;
+                }
+                if (tmp[ratioColumn].equals("NA") || tmp[ratioColumn].equals("NaN")) {
+                    continue;
+                }
+                if (current == null || !current.name.equals(tmp[0])) {
+                    current = chromosomes.get(tmp[0]);
+                    if (current == null) {
+                        current = new Chromosome(tmp[0]);
+                        chromosomes.put(tmp[0], current);
+                    }
+                }
+                current.positions.add(Long.parseLong(tmp[startColumn]));
+                current.ratios.add(Double.parseDouble(tmp[ratioColumn]));
+            }
+        }
+        List<Chromosome> result = new ArrayList<Chromosome>(chromosomes.values());
+        for (Chromosome c : result) {
+            c.values = c.ratios.toArray();
+        }
+        return result;
+    }
+
+    /**
+     * Smooth and segment all chromosomes, write segments in input order
+     *
+     * @param chromosomes data
+     * @param output      segment table
+     * @throws IOException
+     */
+    public void segment(List<Chromosome> chromosomes, File output) throws IOException {
+        List<double[]> values = new ArrayList<double[]>();
+        for (Chromosome c : chromosomes) {
+            values.add(c.values);
+        }
+        double sd = smoothRegion > 0 ? OutlierSmoother.robustSD(values) : 0.0;
+        final double outlierSD = outlierScale * sd;
+        final double smoothSD = smoothScale * sd;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+        for (final Chromosome c : chromosomes) {
+            futures.add(pool.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    c.values = OutlierSmoother.smooth(c.values, smoothRegion, outlierSD, smoothSD);
+                    return cbs.segment(c.values);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        DecimalFormat format = new DecimalFormat("0.####", DecimalFormatSymbols.getInstance(Locale.US));
+        int segments = 0;
+        try (BufferedWriter writer = TextFiles.openWriter(output)) {
+            for (int i = 0; i < chromosomes.size(); i++) {
+                Chromosome c = chromosomes.get(i);
+                int[] ends;
+                try {
+                    ends = futures.get(i).get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while segmenting " + c.name, ie);
+                } catch (ExecutionException ee) {
+                    throw new IOException("Segmentation of " + c.name + " failed", ee.getCause());
+                }
+                int start = 0;
+                for (int end : ends) {
+                    double sum = 0.0;
+                    for (int m = start; m < end; m++) {
+                        sum += c.values[m];
+                    }
+                    writer.write(c.name + "\t" + c.positions.get(start) + "\t" + c.positions.get(end - 1) + "\t"
+                            + (end - start) + "\t" + format.format(sum / (end - start)));
+                    writer.newLine();
+                    segments++;
+                    start = end;
+                }
+            }
+        }
+        LOG.info("Wrote " + segments + " segments for " + chromosomes.size() + " chromosomes, noise SD " + sd);
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> inputSpec = parser.accepts("input", "Required. Varscan .copynumber or copy-caller output").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Segment table").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> columnSpec = parser.accepts("column", "Optional. Name or 1-based index of the log ratio column, "
+                + "by default adjusted_log_ratio or log2_ratio from the header").withRequiredArg();
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Number of chromosomes segmented in parallel").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<Double> alphaSpec = parser.accepts("alpha", "Optional. Significance level for accepting change points").withRequiredArg().ofType(Double.class).defaultsTo(0.01);
+        OptionSpec<Integer> npermSpec = parser.accepts("nperm", "Optional. Number of permutations for short segments").withRequiredArg().ofType(Integer.class).defaultsTo(10000);
+        OptionSpec<Integer> minWidthSpec = parser.accepts("min-width", "Optional. Minimum number of markers in a segment").withRequiredArg().ofType(Integer.class).defaultsTo(2);
+        OptionSpec<Integer> smoothSpec = parser.accepts("smooth-region", "Optional. Neighbours on each side used to smooth outliers, 0 disables smoothing").withRequiredArg().ofType(Integer.class).defaultsTo(10);
+        OptionSpec<Long> seedSpec = parser.accepts("seed", "Optional. Seed for permutations").withRequiredArg().ofType(Long.class).defaultsTo(25L);
+        OptionSet options = parser.parse(args);
+
+        CircularBinarySegmentation cbs = new CircularBinarySegmentation();
+        cbs.setAlpha(options.valueOf(alphaSpec));
+        cbs.setPermutations(options.valueOf(npermSpec));
+        cbs.setMinWidth(options.valueOf(minWidthSpec));
+        cbs.setSeed(options.valueOf(seedSpec));
+        SegmentVarscan segmenter = new SegmentVarscan(cbs, options.valueOf(threadsSpec));
+        segmenter.setSmoothRegion(options.valueOf(smoothSpec));
+        segmenter.segment(read(options.valueOf(inputSpec), options.valueOf(columnSpec)), options.valueOf(outputSpec));
+    }
+}
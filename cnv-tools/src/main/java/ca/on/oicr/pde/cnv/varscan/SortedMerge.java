@@ -0,0 +1,227 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * K-way merge of per-region Varscan outputs (native or vcf). Every shard is
+ * already sorted by position, so we only need to interleave them: single pass,
+ * O(n log k) comparisons and k open readers. Header of the first shard is kept,
+ * headers of all other shards are dropped.
+ *
+ * Lines starting with '#' or 'chrom' are treated as header lines, for all other
+ * lines the first column is the contig and the second one is the position.
+ */
+public class SortedMerge {
+
+    private static final Logger LOG = Logger.getLogger(SortedMerge.class.getName());
+
+    private final List<File> inputs;
+    private final ContigOrder order;
+
+    /**
+     * Receives merged lines
+     */
+    public interface Sink {
+
+        void header(String line) throws IOException;
+
+        void record(String line, String contig, long position) throws IOException;
+    }
+
+    public SortedMerge(List<File> inputs, ContigOrder order) {
+        this.inputs = inputs;
+        this.order = order;
+    }
+
+    /**
+     * Run the merge
+     *
+     * @param sink destination for header and records
+     * @return number of records written
+     * @throws IOException
+     */
+    public long merge(Sink sink) throws IOException {
+        final Comparator<Cursor> byPosition = new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor a, Cursor b) {
+                int c = a.contig.equals(b.contig) ? 0 : order.compare(a.contig, b.contig);
+                if (c == 0) {
+                    c = Long.compare(a.position, b.position);
+                }
+                return c != 0 ? c : Integer.compare(a.shard, b.shard);
+            }
+        };
+        PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, inputs.size()), byPosition);
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        long count = 0;
+        try {
+            boolean headerDone = false;
+            for (int i = 0; i < inputs.size(); i++) {
+                Cursor c = new Cursor(inputs.get(i), i);
+                cursors.add(c);
+                List<String> header = c.readHeader();
+                if (!headerDone && !header.isEmpty()) {
+                    for (String h : header) {
+                        sink.header(h);
+                    }
+                    headerDone = true;
+                }
+                if (c.line != null) {
+                    queue.add(c);
+                }
+            }
+            Cursor current;
+            while ((current = queue.poll()) != null) {
+                sink.record(current.line, current.contig, current.position);
+                count++;
+                if (current.advance(order)) {
+                    queue.add(current);
+                }
+            }
+        } finally {
+            for (Cursor c : cursors) {
+                c.close();
+            }
+        }
+        return count;
+    }
+
+    static boolean isHeader(String line) {
+        return line.startsWith("#") || line.startsWith("chrom");
+    }
+
+    /**
+     * Current line of one shard
+     */
+    private static final class Cursor {
+
+        private final File file;
+        private final int shard;
+        private final BufferedReader reader;
+        private String line;
+        private String contig;
+        private long position;
+        private long lineNumber;
+
+        Cursor(File file, int shard) throws IOException {
+            this.file = file;
+            this.shard = shard;
+            this.reader = TextFiles.openReader(file);
+        }
+
+        List<String> readHeader() throws IOException {
+            List<String> header = new ArrayList<String>();
+            String l;
+            while ((l = nextLine()) != null && isHeader(l)) {
+                header.add(l);
+            }
+            line = l;
+            if (line != null) {
+                parse();
+            }
+            return header;
+        }
+
+        boolean advance(ContigOrder order) throws IOException {
+            String previousContig = contig;
+            long previousPosition = position;
+            line = nextLine();
+            if (line == null) {
+                return false;
+            }
+            parse();
+            int c = previousContig.equals(contig) ? Long.compare(previousPosition, position) : order.compare(previousContig, contig);
+            if (c > 0) {
+                throw new IllegalStateException(file + " is not sorted at line " + lineNumber + ": "
+                        + contig + ":" + position + " follows " + previousContig + ":" + previousPosition);
+            }
+            return true;
+        }
+
+        private String nextLine() throws IOException {
+            String l;
+            do {
+                l = reader.readLine();
+                lineNumber++;
+            } while (l != null && l.isEmpty());
+            return l;
+        }
+
+        private void parse() {
+            int t1 = line.indexOf('\t');
+            int t2 = t1 < 0 ? -1 : line.indexOf('\t', t1 + 1);
+            if (t1 < 0) {
+                throw new IllegalStateException("Malformed line " + lineNumber + " in " + file + ": " + line);
+            }
+            String c = line.substring(0, t1);
+            // Keep one String instance per contig, equals() then short-circuits on identity
+            contig = c.equals(contig) ? contig : c;
+            position = Long.parseLong(t2 < 0 ? line.substring(t1 + 1) : line.substring(t1 + 1, t2));
+        }
+
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                LOG.warning("Could not close " + file);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> outputSpec = parser.accepts("output", "Required. Merged output file, bgzip-compressed if the name ends with .gz")
+                .withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> dictSpec = parser.accepts("dict", "Optional. Sequence dictionary (.dict or .fai) which defines contig order. "
+                + "Natural order with chrM last is used if not set").withRequiredArg().ofType(File.class);
+        OptionSpec<Integer> threadsSpec = parser.accepts("threads", "Optional. Compression threads for .gz output").withRequiredArg().ofType(Integer.class).defaultsTo(4);
+        parser.accepts("index", "Optional. Build a tabix index (.tbi) of the .gz vcf output");
+        OptionSpec<File> inputSpec = parser.nonOptions("sorted input files").ofType(File.class);
+        OptionSet options = parser.parse(args);
+
+        ContigOrder order = options.has(dictSpec) ? ContigOrder.fromFile(options.valueOf(dictSpec)) : ContigOrder.natural();
+        List<File> inputs = options.valuesOf(inputSpec);
+        File output = options.valueOf(outputSpec);
+        boolean compressed = output.getName().endsWith(".gz");
+        if (options.has("index") && !compressed) {
+            throw new IllegalArgumentException("--index needs bgzip-compressed output, use a .gz file name");
+        }
+
+        long records;
+        if (compressed) {
+            BgzfSink sink = new BgzfSink(output, options.valueOf(threadsSpec), options.has("index"));
+            records = new SortedMerge(inputs, order).merge(sink);
+            sink.close();
+        } else {
+            try (final BufferedWriter writer = TextFiles.openWriter(output)) {
+                records = new SortedMerge(inputs, order).merge(new Sink() {
+                    @Override
+                    public void header(String line) throws IOException {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+
+                    @Override
+                    public void record(String line, String contig, long position) throws IOException {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                });
+            }
+        }
+        LOG.info("Merged " + records + " records from " + inputs.size() + " files into " + output);
+    }
+}
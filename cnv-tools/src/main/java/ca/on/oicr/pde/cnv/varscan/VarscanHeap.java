@@ -0,0 +1,166 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Sizes the JVM of the Varscan tasks of one pileup shard. Varscan streams the
+ * pileup a line at a time, its heap is a fixed base plus the working copies of
+ * the longest line (deep or amplified positions make long lines) plus state
+ * that grows slowly with the amount of data. From the compressed pileup and
+ * its number of records (and, when known, its uncompressed size and longest
+ * record, which makePileups counts while writing the pileup):
+ *
+ * <pre>
+ * heap MB   = base + longest record * line factor / 1 MB + uncompressed GB * per GB
+ * javaMemory = heap * 1.5 (room for the collector) rounded up to GB, within min and max
+ * jobMemory  = javaMemory * 1.25 (metaspace, code cache, thread stacks) + overhead rounded up
+ * </pre>
+ * Without the uncompressed size it is the compressed size times 4, without the
+ * longest record 50 times the mean one.
+ *
+ * The default factors are not measured on Varscan. They are starting values:
+ * 512 MB for an idle JVM with Varscan loaded, 40 bytes of heap per byte of
+ * the longest line (its String, the split fields and per-read arrays) and
+ * 64 MB per GB of pileup. The workflow keeps sizing off until they are
+ * calibrated. To calibrate, run with fixed memory and fit the options to the
+ * peak_java_rss_kb of the Varscan task metrics against the records, bytes and
+ * longest record in pileup.stats of makePileups.
+ *
+ * The collector suits a short single-threaded streaming job: nearly all
+ * objects die with their line, so half of the heap goes to the young
+ * generation and a throughput collector is used. Small heaps get the serial
+ * collector, which has no GC threads competing with Varscan for the task's
+ * cores, larger ones the parallel collector with two threads. The shared
+ * hsperfdata file is turned off.
+ *
+ * Writes into the output directory java_memory.txt and job_memory.txt (GB)
+ * and java_options.txt (the collector options, without -Xmx).
+ */
+public class VarscanHeap {
+
+    private static final Logger LOG = Logger.getLogger(VarscanHeap.class.getName());
+
+    private static final long MB = 1024L * 1024L;
+    private static final long GB = 1024L * MB;
+    private static final double COMPRESSION = 4.0;
+    private static final double LONGEST_TO_MEAN = 50.0;
+    private static final double COLLECTOR_ROOM = 1.5;
+    private static final double NON_HEAP = 0.25;
+    static final int SERIAL_MAX_GB = 2;
+
+    private final int baseMb;
+    private final double lineFactor;
+    private final int perGbMb;
+
+    private long heapMb;
+    private int javaMemory;
+    private int jobMemory;
+
+    /**
+     * @param baseMb     heap of Varscan with nothing to do, MB
+     * @param lineFactor heap per byte of the longest record
+     * @param perGbMb    heap per GB of uncompressed pileup, MB
+     */
+    public VarscanHeap(int baseMb, double lineFactor, int perGbMb) {
+        this.baseMb = baseMb;
+        this.lineFactor = lineFactor;
+        this.perGbMb = perGbMb;
+    }
+
+    /**
+     * @param compressed   size of the compressed pileup, bytes
+     * @param records      pileup records
+     * @param uncompressed uncompressed size, bytes, -1 if unknown
+     * @param longest      length of the longest record, bytes, -1 if unknown
+     * @param minGb        least javaMemory
+     * @param maxGb        most javaMemory
+     * @param overheadGb   memory of the rest of the task (zcat, python), GB
+     */
+    public VarscanHeap size(long compressed, long records, long uncompressed, long longest, int minGb, int maxGb, int overheadGb) {
+        double bytes = uncompressed >= 0 ? uncompressed : compressed * COMPRESSION;
+        double line = longest >= 0 ? longest : records == 0 ? 0 : bytes / records * LONGEST_TO_MEAN;
+        heapMb = (long) Math.ceil(baseMb + line * lineFactor / MB + bytes / GB * perGbMb);
+        javaMemory = (int) Math.min(maxGb, Math.max(minGb, Math.ceil(heapMb * COLLECTOR_ROOM / 1024)));
+        jobMemory = (int) Math.ceil(javaMemory * (1 + NON_HEAP)) + overheadGb;
+        return this;
+    }
+
+    public long getHeapMb() {
+        return heapMb;
+    }
+
+    public int getJavaMemory() {
+        return javaMemory;
+    }
+
+    public int getJobMemory() {
+        return jobMemory;
+    }
+
+    /**
+     * @return collector options for the heap, -Xmx excluded
+     */
+    public String getJavaOptions() {
+        return (javaMemory <= SERIAL_MAX_GB ? "-XX:+UseSerialGC" : "-XX:+UseParallelGC -XX:ParallelGCThreads=2")
+                + " -XX:NewRatio=1 -XX:-UsePerfData";
+    }
+
+    private static void write(File file, String value) throws IOException {
+        try (BufferedWriter writer = TextFiles.openWriter(file)) {
+            writer.write(value);
+            writer.newLine();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> pileupSpec = parser.accepts("pileup", "Required. Compressed pileup of the shard").withRequiredArg().ofType(File.class).required();
+        OptionSpec<Long> recordsSpec = parser.accepts("records", "Required. Number of pileup records").withRequiredArg().ofType(Long.class).required();
+        OptionSpec<File> outputSpec = parser.accepts("output-dir", "Required. Directory for java_memory.txt, job_memory.txt and java_options.txt")
+                .withRequiredArg().ofType(File.class).required();
+        OptionSpec<Long> bytesSpec = parser.accepts("bytes", "Optional. Uncompressed size of the pileup, estimated from the compressed size by default")
+                .withRequiredArg().ofType(Long.class);
+        OptionSpec<Long> longestSpec = parser.accepts("max-record", "Optional. Length of the longest record, estimated from the mean by default")
+                .withRequiredArg().ofType(Long.class);
+        OptionSpec<Integer> minSpec = parser.accepts("min-java-memory", "Optional. Least heap, GB").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec<Integer> maxSpec = parser.accepts("max-java-memory", "Optional. Most heap, GB").withRequiredArg().ofType(Integer.class).defaultsTo(16);
+        OptionSpec<Integer> overheadSpec = parser.accepts("overhead", "Optional. Task memory outside the JVM, GB").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(1);
+        OptionSpec<Integer> baseSpec = parser.accepts("base-heap", "Optional. Heap of Varscan with nothing to do, MB").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(512);
+        OptionSpec<Double> lineSpec = parser.accepts("line-factor", "Optional. Heap per byte of the longest record").withRequiredArg().ofType(Double.class)
+                .defaultsTo(40.0);
+        OptionSpec<Integer> perGbSpec = parser.accepts("heap-per-gb", "Optional. Heap per GB of uncompressed pileup, MB").withRequiredArg().ofType(Integer.class)
+                .defaultsTo(64);
+        OptionSet options = parser.parse(args);
+
+        File pileup = options.valueOf(pileupSpec);
+        if (!pileup.isFile()) {
+            throw new IOException(pileup + " does not exist");
+        }
+        if (options.valueOf(minSpec) < 1 || options.valueOf(maxSpec) < options.valueOf(minSpec)) {
+            throw new IllegalArgumentException("Heap limits should be at least 1 GB and the maximum not below the minimum");
+        }
+        VarscanHeap heap = new VarscanHeap(options.valueOf(baseSpec), options.valueOf(lineSpec), options.valueOf(perGbSpec))
+                .size(pileup.length(), options.valueOf(recordsSpec), options.has(bytesSpec) ? options.valueOf(bytesSpec) : -1,
+                      options.has(longestSpec) ? options.valueOf(longestSpec) : -1, options.valueOf(minSpec), options.valueOf(maxSpec),
+                      options.valueOf(overheadSpec));
+
+        File outputDir = options.valueOf(outputSpec);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create " + outputDir);
+        }
+        write(new File(outputDir, "java_memory.txt"), Integer.toString(heap.getJavaMemory()));
+        write(new File(outputDir, "job_memory.txt"), Integer.toString(heap.getJobMemory()));
+        write(new File(outputDir, "java_options.txt"), heap.getJavaOptions());
+        LOG.info("Estimated " + heap.getHeapMb() + " MB of heap for " + options.valueOf(recordsSpec) + " records of " + pileup + ": -Xmx"
+                + heap.getJavaMemory() + "G, " + heap.getJobMemory() + " GB for the task");
+    }
+}
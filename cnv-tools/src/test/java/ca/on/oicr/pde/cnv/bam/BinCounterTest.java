@@ -0,0 +1,109 @@
+package ca.on.oicr.pde.cnv.bam;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+public class BinCounterTest {
+
+    /**
+     * Reads of chr1 (250 bases) and chr2 (100 bases) with the counts expected
+     * in windows of 100 at mapping quality 10 or more
+     */
+    private static final int[] CHR1 = {3, 0, 2};
+    private static final int[] CHR2 = {1};
+
+    private static File fixture(String extension) throws IOException {
+        File dir = Files.createTempDirectory("bincounter").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir, "reads" + extension);
+        file.deleteOnExit();
+        new File(dir, "reads.bai").deleteOnExit();
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(
+                new SAMSequenceRecord("chr1", 250), new SAMSequenceRecord("chr2", 100), new SAMSequenceRecord("chr3", 50))));
+        SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeWriter(header, true, file, null);
+        try {
+            writer.addAlignment(read(header, "a", "chr1", 1, 60, 0));
+            writer.addAlignment(read(header, "b", "chr1", 50, 60, 0));
+            writer.addAlignment(read(header, "c", "chr1", 100, 10, 0));
+            // Below minimum quality, secondary and supplementary alignments are not counted
+            writer.addAlignment(read(header, "d", "chr1", 101, 9, 0));
+            writer.addAlignment(read(header, "e", "chr1", 120, 60, 0x100));
+            writer.addAlignment(read(header, "f", "chr1", 150, 60, 0x800));
+            writer.addAlignment(read(header, "g", "chr1", 201, 60, 0));
+            // A read which runs past the end of the contig counts in the window of its start
+            writer.addAlignment(read(header, "h", "chr1", 245, 60, 0));
+            writer.addAlignment(read(header, "i", "chr2", 100, 60, 0));
+            SAMRecord unmapped = read(header, "j", "chr2", 100, 0, 0x4);
+            unmapped.setCigarString("*");
+            writer.addAlignment(unmapped);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static SAMRecord read(SAMFileHeader header, String name, String contig, int start, int quality, int flags) {
+        SAMRecord r = new SAMRecord(header);
+        r.setReadName(name);
+        r.setReferenceName(contig);
+        r.setAlignmentStart(start);
+        r.setMappingQuality(quality);
+        r.setFlags(flags);
+        r.setCigarString("10M");
+        r.setReadString("ACGTACGTAC");
+        r.setBaseQualityString("IIIIIIIIII");
+        return r;
+    }
+
+    private static void assertCounts(Map<String, int[]> bins) {
+        assertEquals(bins.keySet().toArray(), new String[]{"chr1", "chr2", "chr3"});
+        assertEquals(bins.get("chr1"), CHR1);
+        assertEquals(bins.get("chr2"), CHR2);
+        assertEquals(bins.get("chr3"), new int[1]);
+    }
+
+    @Test
+    public void countsIndexedBamInParallel() throws IOException {
+        assertCounts(new BinCounter(100, 10, 3).count(fixture(".bam"), null, null));
+    }
+
+    @Test
+    public void countsIndexedBamSequentially() throws IOException {
+        assertCounts(new BinCounter(100, 10, 1).count(fixture(".bam"), null, null));
+    }
+
+    @Test
+    public void countsSamWithoutIndex() throws IOException {
+        assertCounts(new BinCounter(100, 10, 3).count(fixture(".sam"), null, null));
+    }
+
+    @Test
+    public void countsSelectedContigs() throws IOException {
+        Map<String, int[]> bins = new BinCounter(100, 10, 2).count(fixture(".bam"), null, Arrays.asList("chr2"));
+        assertEquals(bins.size(), 1);
+        assertEquals(bins.get("chr2"), CHR2);
+    }
+
+    @Test
+    public void windowCount() {
+        BinCounter counter = new BinCounter(100, 0, 1);
+        assertEquals(counter.binCount(1), 1);
+        assertEquals(counter.binCount(100), 1);
+        assertEquals(counter.binCount(101), 2);
+        assertEquals(new BinCounter(1000, 0, 1).binCount(Integer.MAX_VALUE), 2147484);
+    }
+}
@@ -0,0 +1,147 @@
+package ca.on.oicr.pde.cnv.compare;
+
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class OutputComparatorTest {
+
+    private static final List<String> EXPECTED = Arrays.asList("chrom\tstart\tend\tmedian",
+            "chr1\t1\t1000\t0.5", "chr1\t1001\t2000\t0.0", "chr2\t1\t1000\t-0.5");
+    // Shifted ratios and a segment 50 bases shorter
+    private static final List<String> ACTUAL = Arrays.asList("chrom\tstart\tend\tmedian",
+            "chr1\t1\t1000\t0.55", "chr1\t1001\t1950\t0.02", "chr2\t1\t1000\t-0.45");
+
+    private static OutputComparator comparator(double minOverlap, double maxCountDelta) {
+        return new OutputComparator(ContigOrder.natural(), 0.2, -0.2, 2.0, minOverlap, 0.95, 0.9, maxCountDelta);
+    }
+
+    private static File write(File dir, String name, List<String> lines) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), lines);
+        return file;
+    }
+
+    /**
+     * @return metric, score, limit and pass of every check
+     */
+    private static List<String> checks(OutputComparator.Checks checks) {
+        List<String> lines = new ArrayList<String>();
+        for (String line : checks.lines) {
+            String[] tmp = line.split("\t");
+            lines.add(tmp[1] + " " + tmp[4] + " " + tmp[5] + " " + tmp[6]);
+        }
+        return lines;
+    }
+
+    @Test
+    public void countTolerance() {
+        OutputComparator.Checks checks = comparator(0.95, 0.05).new Checks("f");
+        checks.count("segments", 100, 105);
+        checks.count("gains", 100, 106);
+        // Relative to at least one, so small counts may differ by a fraction
+        checks.count("losses", 0, 0.04);
+        checks.count("bases", 0, 1);
+        assertEquals(checks(checks), Arrays.asList("segments 0.0500 0.0500 true", "gains 0.0600 0.0500 false",
+                                                   "losses 0.0400 0.0500 true", "bases 1 0.0500 false"));
+        assertEquals(checks.failed, 2);
+    }
+
+    @Test
+    public void scoreMinimum() {
+        OutputComparator.Checks checks = comparator(0.95, 0.05).new Checks("f");
+        checks.score("overlap", 0.95, 0.95);
+        checks.score("concordance", 0.9499, 0.95);
+        checks.score("correlation", Double.NaN, 0.9);
+        checks.score("call_concordance", 0.1, Double.NaN);
+        assertEquals(checks(checks), Arrays.asList("overlap 0.9500 0.9500 true", "concordance 0.9499 0.9500 false",
+                                                   "correlation NA 0.9000 false", "call_concordance 0.1000 NA true"));
+        assertEquals(checks.failed, 2);
+    }
+
+    @Test
+    public void segmentsWithinTolerance() throws IOException {
+        File dir = Files.createTempDirectory("compare").toFile();
+        File expected = write(dir, "expected.seg", EXPECTED);
+        File actual = write(dir, "actual.seg", ACTUAL);
+        OutputComparator.Checks checks = comparator(0.95, 0.05).compareFiles("sample.seg", expected, actual, "hmmcopy");
+        List<String> lines = checks(checks);
+        assertEquals(lines.subList(0, 6), Arrays.asList("segments 0 0.0500 true", "gains 0 0.0500 true", "losses 0 0.0500 true",
+                                                        "bases 0.0167 0.0500 true", "overlap 0.9833 0.9500 true",
+                                                        "concordance 0.9833 0.9500 true"));
+        assertEquals(lines.get(6), "call_concordance 1 NA true");
+        assertTrue(lines.get(7).startsWith("correlation 0.99"), lines.get(7));
+        assertEquals(checks.failed, 0);
+        assertTrue(checks.lines.get(3).startsWith("sample.seg\tbases\t3000\t2950\t"), checks.lines.get(3));
+    }
+
+    @Test
+    public void segmentsOutsideTolerance() throws IOException {
+        File dir = Files.createTempDirectory("compare").toFile();
+        OutputComparator.Checks checks = comparator(0.99, 0.01).compareFiles("sample.seg", write(dir, "expected.seg", EXPECTED),
+                                                                             write(dir, "actual.seg", ACTUAL), "hmmcopy");
+        List<String> failed = new ArrayList<String>();
+        for (String line : checks(checks)) {
+            if (line.endsWith("false")) {
+                failed.add(line);
+            }
+        }
+        assertEquals(failed, Arrays.asList("bases 0.0167 0.0100 false", "overlap 0.9833 0.9900 false"));
+        assertEquals(checks.failed, 2);
+    }
+
+    @Test
+    public void variants() throws IOException {
+        File dir = Files.createTempDirectory("compare").toFile();
+        File expected = write(dir, "expected.vcf", Arrays.asList("##fileformat=VCFv4.2", "#CHROM\tPOS\tID\tREF\tALT",
+                "chr1\t100\t.\tA\tG", "chr1\t200\t.\tC\tT", "chr2\t50\t.\tG\tA"));
+        File actual = write(dir, "actual.vcf", Arrays.asList("#CHROM\tPOS\tID\tREF\tALT",
+                "chr1\t100\t.\tA\tG", "chr1\t200\t.\tC\tA", "chr2\t50\t.\tG\tA", "chr2\t60\t.\tT\tC"));
+        VariantComparison c = new VariantComparison(ContigOrder.natural()).run(expected, actual);
+        assertEquals(c.getVariants(SegmentComparison.EXPECTED), 3);
+        assertEquals(c.getVariants(SegmentComparison.ACTUAL), 4);
+        assertEquals(c.getShared(), 2);
+        assertEquals(c.getConcordance(), 0.4, 1e-9);
+        OutputComparator.Checks checks = comparator(0.95, 0.5).compareFiles("sample.vcf", expected, actual, OutputComparator.VARIANTS);
+        assertEquals(checks(checks), Arrays.asList("variants 0.3333 0.5000 true", "concordance 0.4000 0.9500 false"));
+    }
+
+    @Test
+    public void profiles() throws IOException {
+        File expectedDir = Files.createTempDirectory("expected").toFile();
+        File actualDir = Files.createTempDirectory("actual").toFile();
+        write(expectedDir, "sample.seg", EXPECTED);
+        write(actualDir, "sample.seg", ACTUAL);
+        write(actualDir, "extra.seg", ACTUAL);
+        OutputComparator comparator = comparator(0.95, 0.05);
+        File expected = new File(expectedDir, "profile.txt");
+        File actual = new File(actualDir, "profile.txt");
+        for (File[] pair : new File[][]{{expectedDir, expected}, {actualDir, actual}}) {
+            StringWriter writer = new StringWriter();
+            comparator.profile(pair[0], 1000, writer);
+            Files.write(pair[1].toPath(), writer.toString().getBytes("UTF-8"));
+        }
+        assertEquals(Files.readAllLines(expected.toPath()), Arrays.asList(Profile.MAGIC + "\twindow=1000",
+                "file\tkind\tchrom\tstart\tend\tvalue\tcall",
+                "sample.seg\tsegments\tchr1\t1\t1000\t0.5000\tgain",
+                "sample.seg\tsegments\tchr1\t1001\t2000\t0.0000\tneutral",
+                "sample.seg\tsegments\tchr2\t1\t1000\t-0.5000\tloss"));
+        assertTrue(Profile.isProfile(expected));
+
+        List<OutputComparator.Checks> results = comparator.compareProfiles(expected, actual);
+        assertEquals(results.size(), 2);
+        assertEquals(checks(results.get(0)), Arrays.asList("present NA NA false"));
+        assertEquals(results.get(0).file, "extra.seg");
+        assertEquals(results.get(1).file, "sample.seg");
+        assertEquals(results.get(1).failed, 0);
+        assertEquals(checks(results.get(1)).get(0), "windows 0 0.0500 true");
+    }
+}
@@ -0,0 +1,110 @@
+package ca.on.oicr.pde.cnv.consensus;
+
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.Segment;
+import ca.on.oicr.pde.cnv.io.SegmentReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class ConsensusCallerTest {
+
+    private static File segments(String... lines) throws IOException {
+        File file = File.createTempFile("segments", ".seg");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList(lines));
+        return file;
+    }
+
+    /**
+     * Three callers on chr1:1-200. a and b only have log2 ratios, the calls
+     * of c win over its ratios
+     */
+    private static List<File> callers() throws IOException {
+        return Arrays.asList(
+                segments("chrom\tstart\tend\tmedian", "chr1\t1\t100\t0.5", "chr1\t101\t200\t0.0"),
+                segments("chrom\tstart\tend\tmedian", "chr1\t51\t150\t0.6", "chr1\t151\t200\t-0.5"),
+                segments("chrom\tstart\tend\tmedian\tcall", "chr1\t1\t120\t0.9\tdel", "chr1\t121\t200\t0.0\tneutral"));
+    }
+
+    private static List<String> consensus(List<File> files, int minSupport, boolean callsOnly) throws IOException {
+        List<SegmentReader> readers = new ArrayList<SegmentReader>();
+        for (File f : files) {
+            readers.add(new SegmentReader(f, SegmentReader.Format.HMMCOPY, 2.0));
+        }
+        StringWriter out = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(out);
+             ConsensusCaller caller = new ConsensusCaller(readers, Arrays.asList("a", "b", "c").subList(0, files.size()),
+                     ContigOrder.natural(), 0.2, -0.2, minSupport, callsOnly, writer)) {
+            caller.run();
+        }
+        List<String> lines = new ArrayList<String>(Arrays.asList(out.toString().split("\n")));
+        assertEquals(lines.remove(0), "chrom\tstart\tend\tcall\tsupport\tcovered\tconfidence\tcallers"
+                + (files.size() == 3 ? "\ta_log2\tb_log2\tc_log2" : "\ta_log2"));
+        return lines;
+    }
+
+    @Test
+    public void majorityOfTwo() throws IOException {
+        assertEquals(consensus(callers(), 2, false), Arrays.asList(
+                // a gain and c loss cancel out, no caller says neutral
+                "chr1\t1\t50\tneutral\t0\t2\t0.000\t-\t0.5000\tNA\t0.9000",
+                "chr1\t51\t100\tgain\t2\t3\t0.667\ta,b\t0.5000\t0.6000\t0.9000",
+                "chr1\t101\t120\tneutral\t1\t3\t0.333\ta\t0.0000\t0.6000\t0.9000",
+                // b alone is not enough, its gain and loss are one neutral piece with a and c
+                "chr1\t121\t200\tneutral\t2\t3\t0.667\ta,c\t0.0000\t-0.0875\t0.0000"));
+    }
+
+    @Test
+    public void singleSupport() throws IOException {
+        assertEquals(consensus(callers(), 1, true), Arrays.asList(
+                "chr1\t51\t100\tgain\t2\t3\t0.667\ta,b\t0.5000\t0.6000\t0.9000",
+                "chr1\t121\t150\tgain\t1\t3\t0.333\tb\t0.0000\t0.6000\t0.0000",
+                "chr1\t151\t200\tloss\t1\t3\t0.333\tb\t0.0000\t-0.5000\t0.0000"));
+    }
+
+    @Test
+    public void supportAboveCallersHasNoCalls() throws IOException {
+        List<String> lines = consensus(callers().subList(0, 1), 2, false);
+        // The gain of a is not called, it is a neutral piece nobody supports
+        assertEquals(lines, Arrays.asList("chr1\t1\t100\tneutral\t0\t1\t0.000\t-\t0.5000",
+                                          "chr1\t101\t200\tneutral\t1\t1\t1.000\ta\t0.0000"));
+        assertTrue(consensus(callers().subList(0, 1), 2, true).isEmpty());
+    }
+
+    @Test
+    public void contigsInOrder() throws IOException {
+        List<File> files = Arrays.asList(
+                segments("chrom\tstart\tend\tmedian", "chr2\t1\t10\t0.5", "chr10\t1\t10\t0.5"),
+                segments("chrom\tstart\tend\tmedian", "chr1\t1\t10\t0.5", "chr10\t5\t10\t0.5"),
+                segments("chrom\tstart\tend\tmedian", "chr1\t1\t10\t-0.5", "chr2\t1\t10\t0.5"));
+        assertEquals(consensus(files, 2, true), Arrays.asList(
+                "chr2\t1\t10\tgain\t2\t2\t0.667\ta,c\t0.5000\tNA\t0.5000",
+                "chr10\t5\t10\tgain\t2\t2\t0.667\ta,b\t0.5000\t0.5000\tNA"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void contigComingBackFails() throws IOException {
+        consensus(Arrays.asList(
+                segments("chrom\tstart\tend\tmedian", "chr2\t1\t10\t0.5", "chr1\t1\t10\t0.5"),
+                segments("chrom\tstart\tend\tmedian", "chr1\t1\t10\t0.5")), 1, false);
+    }
+
+    @Test
+    public void states() {
+        assertEquals(ConsensusCaller.state(new Segment("chr1", 0, 10, 0.25, null), 0.2, -0.2), ConsensusCaller.GAIN);
+        assertEquals(ConsensusCaller.state(new Segment("chr1", 0, 10, -0.2, null), 0.2, -0.2), ConsensusCaller.LOSS);
+        assertEquals(ConsensusCaller.state(new Segment("chr1", 0, 10, 0.1, null), 0.2, -0.2), ConsensusCaller.NEUTRAL);
+        assertEquals(ConsensusCaller.state(new Segment("chr1", 0, 10, -1.0, "AMP"), 0.2, -0.2), ConsensusCaller.GAIN);
+        assertEquals(ConsensusCaller.state(new Segment("chr1", 0, 10, 1.0, "loss"), 0.2, -0.2), ConsensusCaller.LOSS);
+        assertEquals(ConsensusCaller.state(new Segment("chr1", 0, 10, 1.0, "normal"), 0.2, -0.2), ConsensusCaller.NEUTRAL);
+    }
+}
@@ -0,0 +1,139 @@
+package ca.on.oicr.pde.cnv.coverage;
+
+import ca.on.oicr.pde.cnv.bam.BinCounter;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+public class CoverageIndexTest {
+
+    private static SAMRecord read(SAMFileHeader header, String name, int start, String cigar, int quality, int flags) {
+        SAMRecord r = new SAMRecord(header);
+        r.setReadName(name);
+        r.setReferenceName("chr1");
+        r.setAlignmentStart(start);
+        r.setMappingQuality(quality);
+        r.setFlags(flags);
+        r.setCigarString(cigar);
+        r.setReadString("ACGTACGTAC");
+        r.setBaseQualityString("IIIIIIIIII");
+        return r;
+    }
+
+    /**
+     * Indexes reads on chr1 (250 bases), chr2 (100 bases) has none. Bins of
+     * 10 and 50 bases, depth from reads of mapping quality 10 or more
+     */
+    private static File index(File dir) throws IOException {
+        File bam = new File(dir, "reads.bam");
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(
+                new SAMSequenceRecord("chr1", 250), new SAMSequenceRecord("chr2", 100))));
+        SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeWriter(header, true, bam, null);
+        try {
+            writer.addAlignment(read(header, "a", 1, "10M", 60, 0x10));
+            // Duplicate, low quality and QC failed reads have starts but no depth
+            writer.addAlignment(read(header, "b", 5, "10M", 60, 0x400));
+            writer.addAlignment(read(header, "c", 8, "10M", 5, 0));
+            writer.addAlignment(read(header, "d", 20, "5M10N5M", 60, 0));
+            writer.addAlignment(read(header, "e", 30, "10M", 30, 0x200));
+            writer.addAlignment(read(header, "f", 100, "10M", 60, 0x100));
+            writer.addAlignment(read(header, "g", 245, "10M", 60, 0));
+        } finally {
+            writer.close();
+        }
+        File cov = new File(dir, "reads" + CoverageIndex.EXTENSION);
+        assertEquals(new CoverageIndexer(10, 5, 2, 10, 2).index(bam, null, null, cov), 6);
+        return cov;
+    }
+
+    private static int[] ints(IntBuffer buffer) {
+        int[] values = new int[buffer.limit()];
+        buffer.get(values);
+        return values;
+    }
+
+    private static long[] longs(LongBuffer buffer) {
+        long[] values = new long[buffer.limit()];
+        buffer.get(values);
+        return values;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] values = new byte[buffer.limit()];
+        buffer.get(values);
+        return values;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File dir = Files.createTempDirectory("coverage").toFile();
+        try (CoverageIndex index = CoverageIndex.open(index(dir))) {
+            assertEquals(index.getContigs(), Arrays.asList("chr1", "chr2"));
+            assertEquals(index.getResolution(), 10);
+            assertEquals(index.getLevels(), 2);
+            assertEquals(index.getBinSize(1), 50);
+            assertEquals(index.getLevel(100), 1);
+            assertEquals(index.getLevel(30), 0);
+            assertEquals(index.getLevel(15), -1);
+            assertEquals(index.getQuality(), 10);
+            assertEquals(index.getLength("chr1"), 250);
+            assertEquals(index.getReadCount("chr2"), 0);
+
+            assertEquals(ints(index.starts("chr1")), new int[]{1, 5, 8, 20, 30, 245});
+            assertEquals(bytes(index.qualities("chr1")), new byte[]{60, 60, 5, 60, 30, 60});
+            assertEquals(bytes(index.flags("chr1")), new byte[]{CoverageIndex.REVERSE, CoverageIndex.DUPLICATE, 0, 0, CoverageIndex.QC_FAIL, 0});
+
+            long[] bases = new long[25];
+            int[] covered = new int[25];
+            // a covers 1-10, d 20-24 and 35-39, g 245-250 up to the contig end
+            bases[0] = 10;
+            bases[1] = 1;
+            bases[2] = 4;
+            bases[3] = 5;
+            bases[24] = 6;
+            for (int i = 0; i < bases.length; i++) {
+                covered[i] = (int) bases[i];
+            }
+            assertEquals(longs(index.bases(0, "chr1")), bases);
+            assertEquals(ints(index.covered(0, "chr1")), covered);
+            assertEquals(longs(index.bases(1, "chr1")), new long[]{20, 0, 0, 0, 6});
+            assertEquals(ints(index.covered(1, "chr1")), new int[]{20, 0, 0, 0, 6});
+            assertEquals(longs(index.bases(1, "chr2")), new long[2]);
+        }
+    }
+
+    @Test
+    public void startCountsMatchTheBam() throws IOException {
+        File dir = Files.createTempDirectory("coverage").toFile();
+        File cov = index(dir);
+        Map<String, int[]> fromIndex = new BinCounter(100, 10, 1).count(cov, null, null);
+        Map<String, int[]> fromBam = new BinCounter(100, 10, 1).count(new File(dir, "reads.bam"), null, null);
+        assertEquals(fromIndex.keySet(), fromBam.keySet());
+        assertEquals(fromIndex.get("chr1"), new int[]{4, 0, 1});
+        assertEquals(fromIndex.get("chr1"), fromBam.get("chr1"));
+        assertEquals(fromIndex.get("chr2"), fromBam.get("chr2"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void notACoverageIndex() throws IOException {
+        File file = File.createTempFile("reads", CoverageIndex.EXTENSION);
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[64]);
+        CoverageIndex.open(file).close();
+    }
+}
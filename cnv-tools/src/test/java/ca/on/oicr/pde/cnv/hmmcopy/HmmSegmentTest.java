@@ -0,0 +1,44 @@
+package ca.on.oicr.pde.cnv.hmmcopy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class HmmSegmentTest {
+
+    @Test
+    public void autosomesAreTrained() {
+        for (String contig : new String[]{"chr1", "22", "chr1_gl000191_random", "chrUn_gl000220", "GL000192.1", "chr17_ctg5_hap1", "chrEBV", "chr"}) {
+            assertTrue(HmmSegment.isAutosome(contig), contig);
+        }
+    }
+
+    @Test
+    public void sexChromosomesAndMitochondriaAreNotTrained() {
+        for (String contig : new String[]{"chrX", "X", "chrY", "Y", "chrM", "M", "chrMT", "MT"}) {
+            assertFalse(HmmSegment.isAutosome(contig), contig);
+        }
+    }
+
+    /**
+     * Same contigs as HMMsegment() trains on for a hg19 reference with
+     * unplaced and random contigs
+     */
+    @Test
+    public void parityWithHmmcopy() {
+        List<String> reference = Arrays.asList("chr1", "chr1_gl000191_random", "chr2", "chr9_gl000199_random", "chr21", "chr22",
+                                               "chrX", "chrY", "chrM", "chrUn_gl000211", "chrUn_gl000249", "chr6_apd_hap1");
+        List<String> trained = new ArrayList<String>();
+        for (String contig : reference) {
+            if (HmmSegment.isAutosome(contig)) {
+                trained.add(contig);
+            }
+        }
+        assertEquals(trained, Arrays.asList("chr1", "chr1_gl000191_random", "chr2", "chr9_gl000199_random", "chr21", "chr22",
+                                            "chrUn_gl000211", "chrUn_gl000249", "chr6_apd_hap1"));
+    }
+}
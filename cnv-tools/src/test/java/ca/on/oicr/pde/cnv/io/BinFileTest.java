@@ -0,0 +1,94 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class BinFileTest {
+
+    static File temp(String extension) throws IOException {
+        File file = File.createTempFile("cnv", extension);
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        // More values than fit into one write buffer
+        int[] reads = new int[40000];
+        float[] gc = new float[40000];
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = i * 7;
+            gc[i] = i / 40000f;
+        }
+        Map<String, int[]> readTrack = new LinkedHashMap<String, int[]>();
+        readTrack.put("chr2", new int[]{5, 6});
+        readTrack.put("chr1", reads);
+        Map<String, float[]> gcTrack = new LinkedHashMap<String, float[]>();
+        gcTrack.put("chr1", gc);
+        gcTrack.put("chr2", new float[]{0.25f, 0.5f, 0.75f});
+
+        File file = temp(BinFile.EXTENSION);
+        new BinFile.Builder(1000).contig("chrM", 1).intTrack("reads", readTrack).floatTrack("gc", gcTrack).write(file);
+
+        try (BinFile bins = BinFile.open(file)) {
+            assertEquals(bins.getWindow(), 1000);
+            assertEquals(bins.getContigs(), Arrays.asList("chrM", "chr2", "chr1"));
+            assertEquals(bins.getTracks(), Arrays.asList("reads", "gc"));
+            assertEquals(bins.getFirstBin("chrM"), 0);
+            assertEquals(bins.getFirstBin("chr2"), 1);
+            assertEquals(bins.getFirstBin("chr1"), 4);
+            // chr2 has 3 bins, the longest of its tracks
+            assertEquals(bins.getBinCount("chr2"), 3);
+            assertEquals(bins.getTotalBins(), 40004);
+
+            assertEquals(bins.ints("reads", "chr1"), reads);
+            assertEquals(bins.ints("reads", "chr2"), new int[]{5, 6, 0});
+            assertEquals(bins.ints("reads", "chrM"), new int[]{0});
+            assertEquals(bins.floats("gc", "chr1"), gc);
+            assertEquals(bins.floats("gc", "chr2"), new float[]{0.25f, 0.5f, 0.75f});
+            assertTrue(Float.isNaN(bins.floats("gc", "chrM")[0]));
+            assertEquals(bins.ints("reads").get(4 + 39999), 39999 * 7);
+        }
+    }
+
+    @Test
+    public void headerIsPaddedTo64() throws IOException {
+        File file = temp(BinFile.EXTENSION);
+        Map<String, int[]> track = new LinkedHashMap<String, int[]>();
+        track.put("chr1", new int[]{1, 2, 3});
+        new BinFile.Builder(100).intTrack("reads", track).write(file);
+        assertEquals((file.length() - 3 * 4) % 64, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void wrongTrackType() throws IOException {
+        File file = temp(BinFile.EXTENSION);
+        Map<String, int[]> track = new LinkedHashMap<String, int[]>();
+        track.put("chr1", new int[]{1});
+        new BinFile.Builder(100).intTrack("reads", track).write(file);
+        try (BinFile bins = BinFile.open(file)) {
+            bins.floats("reads");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void duplicateTrack() {
+        Map<String, int[]> track = new LinkedHashMap<String, int[]>();
+        new BinFile.Builder(100).intTrack("reads", track).intTrack("reads", track);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void notABinFile() throws IOException {
+        File file = temp(BinFile.EXTENSION);
+        Files.write(file.toPath(), "fixedStep chrom=chr1 start=1 step=100 span=100\n".getBytes(StandardCharsets.US_ASCII));
+        BinFile.open(file).close();
+    }
+}
@@ -0,0 +1,138 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class DiskCacheTest {
+
+    private static File source(int bytes, byte fill) throws IOException {
+        File file = BinFileTest.temp(".entry");
+        byte[] data = new byte[bytes];
+        Arrays.fill(data, fill);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static File directory() throws IOException {
+        File dir = Files.createTempDirectory("cache").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * Last use of an entry, set explicitly since file times may be as coarse as a second
+     */
+    private static void used(File dir, String key, long time) {
+        assertTrue(new File(dir, key).setLastModified(time));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        File dir = directory();
+        DiskCache cache = new DiskCache(dir, 300);
+        long now = System.currentTimeMillis();
+        cache.put("a", source(100, (byte) 1));
+        used(dir, "a", now - 30000);
+        cache.put("b", source(100, (byte) 2));
+        used(dir, "b", now - 20000);
+        cache.put("c", source(100, (byte) 3));
+        used(dir, "c", now - 10000);
+
+        // Reading a makes b the least recently used entry
+        File copy = BinFileTest.temp(".copy");
+        assertTrue(cache.get("a", copy));
+        assertEquals(Files.readAllBytes(copy.toPath()), Files.readAllBytes(source(100, (byte) 1).toPath()));
+
+        cache.put("d", source(100, (byte) 4));
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertTrue(cache.contains("d"));
+        assertFalse(cache.get("b", copy));
+    }
+
+    @Test
+    public void newEntryIsKeptWhenOverLimit() throws IOException {
+        File dir = directory();
+        DiskCache cache = new DiskCache(dir, 100);
+        cache.put("small", source(50, (byte) 1));
+        used(dir, "small", System.currentTimeMillis() + 60000);
+        cache.put("large", source(500, (byte) 2));
+        assertTrue(cache.contains("large"));
+        assertFalse(cache.contains("small"));
+    }
+
+    @Test
+    public void replacesEntry() throws IOException {
+        DiskCache cache = new DiskCache(directory(), 1000);
+        cache.put("key", source(10, (byte) 1));
+        cache.put("key", source(20, (byte) 2));
+        File copy = BinFileTest.temp(".copy");
+        assertTrue(cache.get("key", copy));
+        assertEquals(copy.length(), 20);
+    }
+
+    @Test
+    public void concurrentStores() throws Exception {
+        final File dir = directory();
+        final int entries = 40;
+        final int size = 1000;
+        final long limit = 10 * size;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> stores = new ArrayList<Future<Void>>();
+            for (int i = 0; i < entries; i++) {
+                final int entry = i;
+                stores.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        // A cache per store, as separate jobs would open it
+                        new DiskCache(dir, limit).put("entry" + entry, source(size, (byte) entry));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : stores) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long total = 0;
+        int kept = 0;
+        for (File f : dir.listFiles()) {
+            assertFalse(f.getName().startsWith(".tmp-"), "left over " + f);
+            if (f.getName().startsWith("entry")) {
+                kept++;
+                total += f.length();
+                // Every entry left is complete and holds its own content
+                byte[] data = Files.readAllBytes(f.toPath());
+                assertEquals(data.length, size);
+                byte fill = (byte) Integer.parseInt(f.getName().substring("entry".length()));
+                for (byte b : data) {
+                    assertEquals(b, fill, f.getName());
+                }
+            }
+        }
+        assertTrue(total <= limit, total + " bytes cached");
+        assertTrue(kept > 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void hiddenKeysAreInvalid() throws IOException {
+        new DiskCache(directory(), 100).contains(".lock");
+    }
+}
@@ -0,0 +1,78 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class GeneMatrixTest {
+
+    private static List<Interval> genes() {
+        return Arrays.asList(new Interval("chr1", 100, 200, "BRCA2"),
+                             new Interval("chr1", 1000, 5000, null),
+                             new Interval("chrX", 0, 10, "ÄGENE"));
+    }
+
+    private static float[] floats(FloatBuffer buffer) {
+        float[] values = new float[buffer.remaining()];
+        buffer.get(values);
+        return values;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = BinFileTest.temp(GeneMatrix.EXTENSION);
+        try (GeneMatrix matrix = GeneMatrix.create(file, Arrays.asList("s1", "s2"), genes())) {
+            matrix.set(0, 0, 0.5f);
+            matrix.set(0, 1, -1.25f);
+            matrix.set(2, 1, 2f);
+        }
+        assertEquals(file.length() % 64, (4 * 2 * 3) % 64);
+
+        try (GeneMatrix matrix = GeneMatrix.open(file)) {
+            assertEquals(matrix.getSamples(), Arrays.asList("s1", "s2"));
+            List<Interval> genes = matrix.getGenes();
+            assertEquals(genes.size(), 3);
+            assertEquals(genes.get(0).getName(), "BRCA2");
+            assertEquals(genes.get(0).getContig(), "chr1");
+            assertEquals(genes.get(0).getStart(), 100);
+            assertEquals(genes.get(0).getEnd(), 200);
+            // Genes without a name are stored under their region
+            assertEquals(genes.get(1).getName(), genes().get(1).toRegion());
+            assertEquals(genes.get(2).getName(), "ÄGENE");
+            assertEquals(genes.get(2).getContig(), "chrX");
+
+            assertEquals(matrix.get(0, 0), 0.5f);
+            assertEquals(matrix.get(0, 1), -1.25f);
+            assertTrue(Float.isNaN(matrix.get(1, 0)));
+            assertTrue(Float.isNaN(matrix.get(1, 1)));
+            assertTrue(Float.isNaN(matrix.get(2, 0)));
+            assertEquals(matrix.get(2, 1), 2f);
+            assertEquals(floats(matrix.column(0)), new float[]{0.5f, -1.25f});
+            assertEquals(floats(matrix.column(2))[1], 2f);
+        }
+    }
+
+    @Test
+    public void emptyMatrix() throws IOException {
+        File file = BinFileTest.temp(GeneMatrix.EXTENSION);
+        GeneMatrix.create(file, Arrays.<String>asList(), genes()).close();
+        try (GeneMatrix matrix = GeneMatrix.open(file)) {
+            assertTrue(matrix.getSamples().isEmpty());
+            assertEquals(matrix.getGenes().size(), 3);
+            assertEquals(matrix.column(1).remaining(), 0);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void notAGeneMatrix() throws IOException {
+        File file = BinFileTest.temp(GeneMatrix.EXTENSION);
+        Files.write(file.toPath(), new byte[64]);
+        GeneMatrix.open(file).close();
+    }
+}
@@ -0,0 +1,166 @@
+package ca.on.oicr.pde.cnv.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class SegmentIndexTest {
+
+    /**
+     * HMMcopy segments table, 1-based inclusive. chr1 has a segment nested in
+     * the first one, so the running maximum end differs from the ends
+     */
+    private static File segments() throws IOException {
+        File file = BinFileTest.temp(".seg");
+        Files.write(file.toPath(), Arrays.asList("chrom\tstart\tend\tmedian",
+                "chr1\t1\t1000\t0.5",
+                "chr1\t101\t200\t-1.0",
+                "chr1\t1001\t2000\t0.0",
+                "chr1\t3001\t4000\t1.0",
+                "chr2\t1\t500\t-0.25"));
+        return file;
+    }
+
+    private static List<Integer> overlaps(SegmentIndex.Contig contig, long start, long end) {
+        final List<Integer> found = new ArrayList<Integer>();
+        int count = contig.overlaps(start, end, new IntConsumer() {
+            @Override
+            public void accept(int i) {
+                found.add(i);
+            }
+        });
+        assertEquals(count, found.size());
+        return found;
+    }
+
+    private static void assertQueries(SegmentIndex index) {
+        assertEquals(index.getContigs(), Arrays.asList("chr1", "chr2"));
+        assertEquals(index.size(), 5);
+        SegmentIndex.Contig chr1 = index.contig("chr1");
+        assertEquals(chr1.size(), 4);
+        assertEquals(chr1.start(1), 100);
+        assertEquals(chr1.end(1), 200);
+        assertEquals(chr1.value(3), 1.0f);
+
+        assertEquals(chr1.find(0), 0);
+        assertEquals(chr1.find(150), 1);
+        // Past the nested segment the enclosing one is found again
+        assertEquals(chr1.find(500), 0);
+        assertEquals(chr1.find(2500), -1);
+        assertEquals(chr1.find(3999), 3);
+        assertEquals(chr1.find(4000), -1);
+
+        assertEquals(overlaps(chr1, 150, 1500), Arrays.asList(0, 1, 2));
+        assertEquals(overlaps(chr1, 300, 1000), Arrays.asList(0));
+        assertEquals(overlaps(chr1, 2000, 3000), new ArrayList<Integer>());
+        assertEquals(chr1.covered(0, 5000), 3000);
+        assertEquals(chr1.covered(900, 1100), 200);
+        assertEquals(chr1.mean(900, 1100), 0.25, 1e-9);
+        assertTrue(Double.isNaN(chr1.mean(2000, 3000)));
+        assertEquals(index.contig("chr2").mean(0, 1000), -0.25, 1e-9);
+        assertEquals(index.contig("chr3"), null);
+    }
+
+    @Test
+    public void builtIndex() throws IOException {
+        try (SegmentIndex index = SegmentIndex.load(segments(), SegmentReader.Format.HMMCOPY, 2.0)) {
+            assertQueries(index);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = BinFileTest.temp(SegmentIndex.EXTENSION);
+        try (SegmentIndex built = SegmentIndex.load(segments(), SegmentReader.Format.HMMCOPY, 2.0)) {
+            built.write(file);
+        }
+        assertEquals(file.length() % 4, 0);
+        try (SegmentIndex index = SegmentIndex.load(file, null, 2.0)) {
+            assertQueries(index);
+        }
+    }
+
+    @Test
+    public void unsortedSegments() throws IOException {
+        File file = BinFileTest.temp(".seg");
+        Files.write(file.toPath(), Arrays.asList("chrom\tstart\tend\tmedian",
+                "chr1\t3001\t4000\t1.0",
+                "chr2\t1\t500\t-0.25",
+                "chr1\t1001\t2000\t0.0",
+                "chr1\t1\t1000\t0.5",
+                "chr1\t101\t200\t-1.0"));
+        try (SegmentIndex index = SegmentIndex.load(file, SegmentReader.Format.HMMCOPY, 2.0)) {
+            assertEquals(index.getContigs(), Arrays.asList("chr1", "chr2"));
+            SegmentIndex.Contig chr1 = index.contig("chr1");
+            assertEquals(chr1.start(0), 0);
+            assertEquals(chr1.start(3), 3000);
+            assertEquals(chr1.find(500), 0);
+            assertEquals(chr1.find(150), 1);
+            assertEquals(chr1.value(chr1.find(1500)), 0.0f);
+            assertEquals(overlaps(chr1, 150, 1500), Arrays.asList(0, 1, 2));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void readerRejectsUnsortedSegments() throws IOException {
+        File file = BinFileTest.temp(".seg");
+        Files.write(file.toPath(), Arrays.asList("chrom\tstart\tend\tmedian", "chr1\t1001\t2000\t0.0", "chr1\t1\t1000\t0.5"));
+        try (SegmentReader reader = new SegmentReader(file, SegmentReader.Format.HMMCOPY, 2.0)) {
+            while (reader.next() != null) {
+            }
+        }
+    }
+
+    /**
+     * Columns of an index with more than 2^29 / 3 segments start beyond 2 GB.
+     * The file is sparse, only the last segment has values
+     */
+    @Test
+    public void columnsAtLongOffsets() throws IOException {
+        int total = 200000000;
+        File file = BinFileTest.temp(SegmentIndex.EXTENSION);
+        byte[] name = "chr1".getBytes(StandardCharsets.UTF_8);
+        int dataOffset = 64;
+        ByteBuffer header = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("CNVSEG01".getBytes(StandardCharsets.US_ASCII)).putInt(1).putInt(total).putInt(dataOffset).putInt(0);
+        header.putInt(name.length).put(name).putInt(0).putInt(total);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.write(header.array());
+            out.setLength(dataOffset + 16L * total);
+            int[] last = {2000000000, 2000000100, 2000000100, Float.floatToIntBits(1.5f)};
+            for (int column = 0; column < 4; column++) {
+                out.seek(dataOffset + 4L * column * total + 4L * (total - 1));
+                out.writeInt(Integer.reverseBytes(last[column]));
+            }
+        }
+        try (SegmentIndex index = SegmentIndex.open(file)) {
+            SegmentIndex.Contig chr1 = index.contig("chr1");
+            assertEquals(chr1.size(), total);
+            assertEquals(chr1.start(total - 1), 2000000000);
+            assertEquals(chr1.end(total - 1), 2000000100);
+            assertEquals(chr1.value(total - 1), 1.5f);
+            assertEquals(chr1.start(total - 2), 0);
+            assertEquals(chr1.find(2000000050L), total - 1);
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void notASegmentIndex() throws IOException {
+        File file = BinFileTest.temp(SegmentIndex.EXTENSION);
+        Files.write(file.toPath(), new byte[64]);
+        SegmentIndex.open(file).close();
+    }
+}
@@ -0,0 +1,106 @@
+package ca.on.oicr.pde.cnv.segment;
+
+import java.util.Random;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class CircularBinarySegmentationTest {
+
+    /**
+     * Gaussian noise with the given means between planted breakpoints
+     */
+    private static double[] planted(int[] ends, double[] means, double sd, long seed) {
+        Random random = new Random(seed);
+        double[] x = new double[ends[ends.length - 1]];
+        int start = 0;
+        for (int s = 0; s < ends.length; s++) {
+            for (int t = start; t < ends[s]; t++) {
+                x[t] = means[s] + sd * random.nextGaussian();
+            }
+            start = ends[s];
+        }
+        return x;
+    }
+
+    private static CircularBinarySegmentation cbs() {
+        CircularBinarySegmentation cbs = new CircularBinarySegmentation();
+        cbs.setPermutations(1000);
+        return cbs;
+    }
+
+    private static void assertBreakpoints(int[] actual, int[] expected, int tolerance) {
+        assertEquals(actual.length, expected.length, "segments");
+        for (int s = 0; s < expected.length; s++) {
+            assertTrue(Math.abs(actual[s] - expected[s]) <= tolerance, "end " + actual[s] + " expected " + expected[s]);
+        }
+    }
+
+    @Test
+    public void emptyChromosomeHasNoSegments() {
+        assertEquals(cbs().segment(new double[0]).length, 0);
+    }
+
+    @Test
+    public void constantIsOneSegment() {
+        assertEquals(cbs().segment(new double[50]), new int[]{50});
+    }
+
+    @Test
+    public void noiseIsOneSegment() {
+        assertEquals(cbs().segment(planted(new int[]{150}, new double[]{0.0}, 0.2, 1L)), new int[]{150});
+    }
+
+    @Test
+    public void singleChangePointPermutationTest() {
+        int[] ends = {70, 150};
+        assertBreakpoints(cbs().segment(planted(ends, new double[]{0.0, 0.8}, 0.2, 2L)), ends, 0);
+    }
+
+    @Test
+    public void arcPermutationTest() {
+        int[] ends = {60, 100, 180};
+        assertBreakpoints(cbs().segment(planted(ends, new double[]{0.0, -1.0, 0.0}, 0.2, 3L)), ends, 0);
+    }
+
+    @Test
+    public void breakpointsOfLongChromosomeTailApproximation() {
+        int[] ends = {900, 1300, 1350, 2600, 3000};
+        double[] means = {0.0, 0.6, -1.0, 0.0, 0.4};
+        assertBreakpoints(cbs().segment(planted(ends, means, 0.2, 4L)), ends, 2);
+    }
+
+    @Test
+    public void shortArcOfLongChromosome() {
+        int[] ends = {1000, 1012, 2000};
+        assertBreakpoints(cbs().segment(planted(ends, new double[]{0.0, 1.5, 0.0}, 0.2, 5L)), ends, 2);
+    }
+
+    @Test
+    public void singleOutlierIsNotASegment() {
+        double[] x = planted(new int[]{100}, new double[]{0.0}, 0.1, 6L);
+        x[40] = 3.0;
+        assertEquals(cbs().segment(x), new int[]{100});
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void minWidthBelowOne() {
+        new CircularBinarySegmentation().setMinWidth(0);
+    }
+
+    @Test
+    public void tailProbabilityDecreases() {
+        double low = CircularBinarySegmentation.tailProbability(3.0, 0.01, 1000);
+        double high = CircularBinarySegmentation.tailProbability(6.0, 0.01, 1000);
+        assertTrue(high < low);
+        assertTrue(high < 0.01);
+        assertEquals(CircularBinarySegmentation.tailProbability(1.0, 0.01, 1000), 1.0);
+    }
+
+    @Test
+    public void normalCdf() {
+        assertEquals(CircularBinarySegmentation.normalCdf(0.0), 0.5, 1e-7);
+        assertEquals(CircularBinarySegmentation.normalCdf(1.96), 0.9750021, 1e-6);
+        assertEquals(CircularBinarySegmentation.normalCdf(-1.96), 0.0249979, 1e-6);
+    }
+}
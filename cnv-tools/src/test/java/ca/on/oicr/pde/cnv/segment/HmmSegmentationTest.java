@@ -0,0 +1,106 @@
+package ca.on.oicr.pde.cnv.segment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class HmmSegmentationTest {
+
+    /**
+     * State means run_HMMcopy.r passes to hmm-segment
+     */
+    private static final double[] MU = new double[6];
+
+    static {
+        double[] copies = {1, 1.4, 2, 2.7, 3, 4.5};
+        for (int k = 0; k < MU.length; k++) {
+            MU[k] = Math.log(copies[k] / 2) / Math.log(2);
+        }
+    }
+
+    private static final int HOMD = 0;
+    private static final int HETD = 1;
+    private static final int NEUT = 2;
+    private static final int HLAMP = 5;
+
+    /**
+     * @param states planted state of every bin
+     */
+    private static double[] copy(int[] states, double sd, Random random) {
+        double[] y = new double[states.length];
+        for (int t = 0; t < y.length; t++) {
+            y[t] = MU[states[t]] + sd * random.nextGaussian();
+        }
+        return y;
+    }
+
+    private static int[] planted(int bins, int state, int from, int to) {
+        int[] states = new int[bins];
+        for (int t = 0; t < bins; t++) {
+            states[t] = t >= from && t < to ? state : NEUT;
+        }
+        return states;
+    }
+
+    private static HmmSegmentation.Result segment(List<int[]> planted, boolean[] train, int threads) {
+        Random random = new Random(34L);
+        List<double[]> copy = new ArrayList<double[]>();
+        for (int[] states : planted) {
+            copy.add(copy(states, 0.08, random));
+        }
+        HmmSegmentation.Parameters parameters = new HmmSegmentation.Parameters();
+        parameters.mu = MU.clone();
+        parameters.m = MU.clone();
+        parameters.setS(copy, train);
+        return new HmmSegmentation(parameters, threads).segment(copy, train);
+    }
+
+    private static List<int[]> genome() {
+        List<int[]> planted = new ArrayList<int[]>();
+        planted.add(planted(3000, NEUT, 0, 0));
+        planted.add(planted(3000, HOMD, 1000, 1400));
+        planted.add(planted(3000, HLAMP, 200, 900));
+        planted.add(planted(3000, HETD, 1500, 3000));
+        return planted;
+    }
+
+    @Test
+    public void plantedStatesAreRecovered() {
+        List<int[]> planted = genome();
+        boolean[] train = {true, true, true, true};
+        HmmSegmentation.Result result = segment(planted, train, 2);
+        for (int c = 0; c < planted.size(); c++) {
+            int wrong = 0;
+            for (int t = 0; t < planted.get(c).length; t++) {
+                if (result.states[c][t] != planted.get(c)[t]) {
+                    wrong++;
+                }
+            }
+            assertTrue(wrong <= 10, wrong + " bins in the wrong state on chromosome " + (c + 1));
+        }
+    }
+
+    @Test
+    public void untrainedChromosomesAreDecoded() {
+        List<int[]> planted = genome();
+        int[] contig = planted(2000, HLAMP, 500, 1500);
+        planted.add(contig);
+        HmmSegmentation.Result result = segment(planted, new boolean[]{true, true, true, true, false}, 1);
+        assertEquals(result.states[4][1000], HLAMP);
+        assertEquals(result.states[4][100], NEUT);
+    }
+
+    @Test
+    public void threadsDoNotChangeTheResult() {
+        boolean[] train = {true, true, true, true};
+        HmmSegmentation.Result one = segment(genome(), train, 1);
+        HmmSegmentation.Result four = segment(genome(), train, 4);
+        for (int c = 0; c < one.states.length; c++) {
+            assertEquals(four.states[c], one.states[c]);
+        }
+        assertEquals(four.logPosterior, one.logPosterior, 1e-6 * Math.abs(one.logPosterior));
+    }
+}
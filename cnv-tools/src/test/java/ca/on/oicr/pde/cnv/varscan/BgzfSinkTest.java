@@ -0,0 +1,106 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.tribble.readers.TabixReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+public class BgzfSinkTest {
+
+    private static String vcfLine(String contig, long position) {
+        return contig + "\t" + position + "\t.\tA\tG\t.\tPASS\tDP=" + (position % 97) + ";SS=2;SSC=" + (position % 13) + "\tGT\t0/1";
+    }
+
+    /**
+     * Two shards with records of three contigs, about 900 kB or 14 BGZF blocks
+     */
+    private static List<File> shards(List<String> expected) throws IOException {
+        List<String> first = new ArrayList<String>();
+        List<String> second = new ArrayList<String>();
+        first.add("##fileformat=VCFv4.1");
+        first.add("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tSAMPLE");
+        second.add("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tSAMPLE");
+        for (String contig : new String[]{"chr1", "chr2", "chr10"}) {
+            for (long p = 1; p <= 6000; p++) {
+                String line = vcfLine(contig, p * 10);
+                (p % 2 == 0 ? first : second).add(line);
+                expected.add(line);
+            }
+        }
+        List<File> shards = new ArrayList<File>();
+        shards.add(SortedMergeTest.shard(first.toArray(new String[0])));
+        shards.add(SortedMergeTest.shard(second.toArray(new String[0])));
+        return shards;
+    }
+
+    private static File merge(List<File> shards, boolean index) throws IOException {
+        File output = File.createTempFile("merged", ".vcf.gz");
+        output.deleteOnExit();
+        new File(output.getPath() + ".tbi").deleteOnExit();
+        List<String> args = new ArrayList<String>();
+        args.add("--output");
+        args.add(output.getPath());
+        args.add("--threads");
+        args.add("3");
+        if (index) {
+            args.add("--index");
+        }
+        for (File shard : shards) {
+            args.add(shard.getPath());
+        }
+        SortedMerge.main(args.toArray(new String[0]));
+        return output;
+    }
+
+    @Test
+    public void htsjdkReadsMergedBgzf() throws IOException {
+        List<String> expected = new ArrayList<String>();
+        File output = merge(shards(expected), false);
+        List<String> records = new ArrayList<String>();
+        List<String> header = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new BlockCompressedInputStream(output), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                (line.startsWith("#") ? header : records).add(line);
+            }
+        }
+        assertEquals(header.size(), 2);
+        assertEquals(records, expected);
+    }
+
+    @Test
+    public void tabixQueriesFindAllRecords() throws IOException {
+        List<String> expected = new ArrayList<String>();
+        File output = merge(shards(expected), true);
+        TabixReader reader = new TabixReader(output.getPath(), output.getPath() + ".tbi");
+        try {
+            for (String contig : new String[]{"chr1", "chr2", "chr10"}) {
+                // Regions at the start, across block ends and at the end of a contig
+                for (int start : new int[]{1, 12345, 33333, 59000}) {
+                    int end = start + 1500;
+                    List<String> found = new ArrayList<String>();
+                    TabixReader.Iterator records = reader.query(contig + ":" + start + "-" + end);
+                    String line;
+                    while ((line = records.next()) != null) {
+                        found.add(line);
+                    }
+                    List<String> wanted = new ArrayList<String>();
+                    for (long p = (start + 9) / 10 * 10; p <= Math.min(end, 60000); p += 10) {
+                        wanted.add(vcfLine(contig, p));
+                    }
+                    assertEquals(found, wanted, contig + ":" + start + "-" + end);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
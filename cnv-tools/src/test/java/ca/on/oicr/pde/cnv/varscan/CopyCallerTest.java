@@ -0,0 +1,117 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.segment.OutlierSmoother;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class CopyCallerTest {
+
+    private static final String COPYNUMBER_HEADER = "chrom\tchr_start\tchr_stop\tnum_positions\tnormal_depth\ttumor_depth\tlog2_ratio\tgc_content";
+
+    private static String region(String contig, long start, long stop, double normal, double tumor, double ratio) {
+        return contig + "\t" + start + "\t" + stop + "\t" + (stop - start + 1) + "\t" + normal + "\t" + tumor + "\t" + ratio + "\t50.0";
+    }
+
+    private static File copynumber(List<String> regions) throws IOException {
+        File file = File.createTempFile("varscan", ".copynumber");
+        file.deleteOnExit();
+        List<String> lines = new ArrayList<String>();
+        lines.add(COPYNUMBER_HEADER);
+        lines.addAll(regions);
+        Files.write(file.toPath(), lines);
+        return file;
+    }
+
+    private static List<String[]> call(CopyCaller caller, File input, File homdel) throws IOException {
+        File output = File.createTempFile("called", ".txt");
+        output.deleteOnExit();
+        caller.call(input, output, homdel);
+        List<String> lines = Files.readAllLines(output.toPath());
+        assertEquals(lines.get(0), CopyCaller.HEADER);
+        List<String[]> called = new ArrayList<String[]>();
+        for (String line : lines.subList(1, lines.size())) {
+            called.add(line.split("\t"));
+        }
+        return called;
+    }
+
+    @Test
+    public void callsAndFilters() throws IOException {
+        File input = copynumber(Arrays.asList(
+                region("chr1", 1, 100, 40, 60, 0.58),
+                region("chr1", 101, 200, 40, 20, -1.0),
+                region("chr1", 201, 300, 40, 40, 0.1),
+                // normal coverage below 20, region below 10 bases, tumor coverage below 10
+                region("chr1", 301, 400, 10, 15, 0.6),
+                region("chr1", 401, 405, 40, 60, 0.6),
+                region("chr2", 1, 100, 40, 2, -4.3)));
+        File homdel = File.createTempFile("homdel", ".txt");
+        homdel.deleteOnExit();
+        List<String[]> called = call(new CopyCaller(), input, homdel);
+        assertEquals(called.size(), 3);
+        assertEquals(called.get(0)[8], "amp");
+        assertEquals(called.get(1)[8], "del");
+        assertEquals(called.get(2)[8], "neutral");
+        assertEquals(called.get(0)[6], "0.580");
+        assertEquals(called.get(0)[9], "0.58");
+
+        List<String> homdels = Files.readAllLines(homdel.toPath());
+        assertEquals(homdels.size(), 2);
+        assertTrue(homdels.get(1).startsWith("chr2\t1\t100\t"));
+        assertTrue(homdels.get(1).contains("\thomdel\t"));
+    }
+
+    @Test
+    public void recenterShiftsCalls() throws IOException {
+        File input = copynumber(Arrays.asList(
+                region("chr1", 1, 100, 40, 40, 0.3),
+                region("chr1", 101, 200, 40, 40, 0.1)));
+        CopyCaller caller = new CopyCaller();
+        caller.setRecenterUp(0.2);
+        List<String[]> called = call(caller, input, null);
+        assertEquals(called.get(0)[6], "0.100");
+        assertEquals(called.get(0)[8], "neutral");
+        assertEquals(called.get(1)[6], "-0.100");
+    }
+
+    @Test
+    public void smoothingPullsInOutliers() throws IOException {
+        // Alternating noise around 0 with one spike, smoothing keeps the spike out of the amp calls
+        List<String> regions = new ArrayList<String>();
+        for (int r = 0; r < 40; r++) {
+            double ratio = r == 20 ? 2.0 : (r % 2 == 0 ? 0.02 : -0.02);
+            regions.add(region("chr3", r * 100 + 1, r * 100 + 100, 40, 40, ratio));
+        }
+        File input = copynumber(regions);
+        assertEquals(call(new CopyCaller(), input, null).get(20)[8], "amp");
+
+        CopyCaller smoothing = new CopyCaller();
+        smoothing.setSmoothRegion(3);
+        List<String[]> called = call(smoothing, input, null);
+        assertEquals(called.size(), 40);
+        assertEquals(called.get(20)[8], "neutral");
+        assertTrue(Double.parseDouble(called.get(20)[6]) < 0.25);
+        // Unsmoothed ratio is kept in the last column
+        assertEquals(called.get(20)[9], "2.0");
+        for (int r = 0; r < 40; r++) {
+            assertEquals(called.get(r)[1], Integer.toString(r * 100 + 1));
+        }
+    }
+
+    @Test
+    public void noiseEstimate() throws IOException {
+        List<String> regions = new ArrayList<String>();
+        for (int r = 0; r < 101; r++) {
+            regions.add(region("chr1", r * 100 + 1, r * 100 + 100, 40, 40, r % 2 == 0 ? 0.1 : -0.1));
+        }
+        // Every neighbour differs by 0.2, the middle of its histogram bin is scaled to SD
+        assertEquals(new CopyCaller().estimateSD(copynumber(regions)), OutlierSmoother.toSD(0.2005), 1e-6);
+    }
+}
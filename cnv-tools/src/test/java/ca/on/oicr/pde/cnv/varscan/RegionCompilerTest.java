@@ -0,0 +1,122 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.io.Bed;
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.Interval;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class RegionCompilerTest {
+
+    private static long bases(List<List<Interval>> shards) {
+        long bases = 0;
+        for (List<Interval> shard : shards) {
+            for (Interval i : shard) {
+                assertEquals(i.getContig(), shard.get(0).getContig(), "shard spans contigs");
+                bases += i.length();
+            }
+        }
+        return bases;
+    }
+
+    @Test
+    public void contigBreaksDoNotExceedMaxShards() {
+        // 25 contigs of 1.5 Mb each, 10 shards of the even size would need 2 shards per contig
+        List<Interval> targets = new ArrayList<Interval>();
+        for (int c = 1; c <= 25; c++) {
+            targets.add(new Interval("chr" + c, 0, 1500000));
+        }
+        List<List<Interval>> shards = new RegionCompiler(100000, 30, 100).compile(targets, ContigOrder.natural());
+        assertTrue(shards.size() <= 30, shards.size() + " shards");
+        assertEquals(bases(shards), 25L * 1500000);
+    }
+
+    @Test
+    public void uniquelySizedContigs() {
+        List<Interval> targets = new ArrayList<Interval>();
+        for (int c = 1; c <= 12; c++) {
+            targets.add(new Interval("chr" + c, 1000, 1000 + c * 333333L));
+            targets.add(new Interval("chr" + c, 5000000, 5000000 + c * 7777L));
+        }
+        for (int max = 12; max <= 60; max += 7) {
+            List<List<Interval>> shards = new RegionCompiler(1000, max, 100).compile(targets, ContigOrder.natural());
+            assertTrue(shards.size() <= max, shards.size() + " shards for at most " + max);
+        }
+    }
+
+    @Test
+    public void moreContigsThanShards() {
+        List<Interval> targets = new ArrayList<Interval>();
+        for (int c = 1; c <= 8; c++) {
+            targets.add(new Interval("chr" + c, 0, 1000));
+        }
+        assertEquals(new RegionCompiler(100, 3, 100).compile(targets, ContigOrder.natural()).size(), 8);
+    }
+
+    @Test
+    public void smallShardsWithinLimit() {
+        List<Interval> targets = new ArrayList<Interval>();
+        targets.add(new Interval("chr1", 0, 1000));
+        targets.add(new Interval("chr1", 2000, 3000));
+        List<List<Interval>> shards = new RegionCompiler(500, 100, 100).compile(targets, ContigOrder.natural());
+        assertEquals(shards.size(), 4);
+        assertEquals(bases(shards), 2000);
+    }
+
+    @Test
+    public void shardBedsHoldOnlyTargetBases() throws IOException {
+        // Targets 50 bases apart are merged into one span but the gaps are not targets
+        List<Interval> targets = new ArrayList<Interval>();
+        long targetBases = 0;
+        for (int t = 0; t < 40; t++) {
+            targets.add(new Interval("chr1", t * 150L, t * 150L + 100));
+            targets.add(new Interval("chr2", t * 1000L, t * 1000L + 30 + t));
+            targetBases += 100 + 30 + t;
+        }
+        targets.add(new Interval("chr1", 20, 60));
+        File dir = Files.createTempDirectory("regions").toFile();
+        File bed = new File(dir, "targets.bed");
+        try (BufferedWriter writer = TextFiles.openWriter(bed)) {
+            for (Interval i : targets) {
+                writer.write(i.toString());
+                writer.newLine();
+            }
+        }
+        RegionCompiler.main(new String[]{"--bed", bed.getPath(), "--output-dir", dir.getPath(),
+            "--shard-size", "700", "--merge-gap", "1000"});
+
+        List<String> shardFiles = Files.readAllLines(new File(dir, "shards.list").toPath());
+        List<String> regions = Files.readAllLines(new File(dir, "regions.txt").toPath());
+        assertTrue(shardFiles.size() > 2, shardFiles.size() + " shards");
+        assertEquals(regions.size(), shardFiles.size());
+        long bases = 0;
+        for (int s = 0; s < shardFiles.size(); s++) {
+            for (Interval i : Bed.read(new File(shardFiles.get(s)))) {
+                assertTrue(regions.get(s).startsWith(i.getContig() + ":"), i + " outside " + regions.get(s));
+                for (long b = i.getStart(); b < i.getEnd(); b++) {
+                    assertTrue(isTarget(targets, i.getContig(), b), i.getContig() + ":" + b + " is not a target");
+                }
+                bases += i.length();
+            }
+        }
+        // Every target base is in exactly one shard
+        assertEquals(bases, targetBases);
+    }
+
+    private static boolean isTarget(List<Interval> targets, String contig, long base) {
+        for (Interval t : targets) {
+            if (t.getContig().equals(contig) && t.getStart() <= base && base < t.getEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package ca.on.oicr.pde.cnv.varscan;
+
+import ca.on.oicr.pde.cnv.io.ContigOrder;
+import ca.on.oicr.pde.cnv.io.TextFiles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import org.testng.annotations.Test;
+
+public class SortedMergeTest {
+
+    /**
+     * Keeps headers and records apart
+     */
+    private static class ListSink implements SortedMerge.Sink {
+
+        final List<String> header = new ArrayList<String>();
+        final List<String> records = new ArrayList<String>();
+
+        @Override
+        public void header(String line) {
+            header.add(line);
+        }
+
+        @Override
+        public void record(String line, String contig, long position) {
+            records.add(line);
+        }
+    }
+
+    static File shard(String... lines) throws IOException {
+        File file = File.createTempFile("shard", ".txt");
+        file.deleteOnExit();
+        try (BufferedWriter writer = TextFiles.openWriter(file)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void interleavesInContigOrder() throws IOException {
+        List<File> shards = Arrays.asList(
+                shard("chrom\tposition\tshard", "chr2\t5\ta", "chr10\t1\ta", "chrM\t3\ta"),
+                shard("chrom\tposition\tshard", "chr1\t7\tb", "chr2\t4\tb", "chrX\t9\tb"),
+                shard("chr2\t100\tc", "chr10\t2\tc"));
+        ListSink sink = new ListSink();
+        assertEquals(new SortedMerge(shards, ContigOrder.natural()).merge(sink), 8);
+        assertEquals(sink.header, Arrays.asList("chrom\tposition\tshard"));
+        assertEquals(sink.records, Arrays.asList("chr1\t7\tb", "chr2\t4\tb", "chr2\t5\ta", "chr2\t100\tc",
+                "chr10\t1\ta", "chr10\t2\tc", "chrX\t9\tb", "chrM\t3\ta"));
+    }
+
+    @Test
+    public void tiesKeepShardOrder() throws IOException {
+        List<File> shards = Arrays.asList(
+                shard("chr1\t10\tfirst", "chr1\t10\tfirst again", "chr1\t20\tfirst"),
+                shard("chr1\t10\tsecond", "chr1\t20\tsecond"),
+                shard("chr1\t10\tthird"));
+        ListSink sink = new ListSink();
+        new SortedMerge(shards, ContigOrder.natural()).merge(sink);
+        assertEquals(sink.records, Arrays.asList("chr1\t10\tfirst", "chr1\t10\tfirst again", "chr1\t10\tsecond",
+                "chr1\t10\tthird", "chr1\t20\tfirst", "chr1\t20\tsecond"));
+    }
+
+    @Test
+    public void headerOnlyAndEmptyShards() throws IOException {
+        List<File> shards = Arrays.asList(shard(), shard("#one", "#two"), shard("#ignored", "chr3\t1\tx"));
+        ListSink sink = new ListSink();
+        assertEquals(new SortedMerge(shards, ContigOrder.natural()).merge(sink), 1);
+        assertEquals(sink.header, Arrays.asList("#one", "#two"));
+        assertEquals(sink.records, Arrays.asList("chr3\t1\tx"));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void unsortedShardFails() throws IOException {
+        new SortedMerge(Arrays.asList(shard("chr1\t20\tx", "chr1\t10\tx")), ContigOrder.natural()).merge(new ListSink());
+    }
+}
@@ -4,13 +4,8 @@
  */
 package ca.on.oicr.pde.deciders;
 
-import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -29,9 +24,7 @@ import net.sourceforge.seqware.common.util.Log;
  * issue this command:
  * export _JAVA_OPTIONS="-Xmx3000M"
  */
-public class BicSeqDecider extends OicrDecider {
-    private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S");
-    private Map<String, BeSmall> fileSwaToSmall;
+public class BicSeqDecider extends TumorNormalDecider {
 
     
     //CNV specific stuff
@@ -49,14 +42,12 @@ public class BicSeqDecider extends OicrDecider {
     private static final String BICSEQ_I_DEFAULT         = "150";
     private static final String BICSEQ_S_DEFAULT         = "20";
 
-    private final static String BAM_METATYPE = "application/bam";
     private final static String WG           = "WG";
     private String tumorType;
     private List<String> duplicates;
     
     public BicSeqDecider() {
         super();
-        fileSwaToSmall  = new HashMap<String, BeSmall>();
         parser.acceptsAll(Arrays.asList("ini-file"), "Optional: the location of the INI file.").withRequiredArg();
         parser.accepts("manual-output","Optional*. Set the manual output "
                 + "either to true or false").withRequiredArg();
@@ -123,7 +114,7 @@ public class BicSeqDecider extends OicrDecider {
 	}
         
         if (this.options.has("manual-output")) {
-            this.manual_output = options.valueOf("manual_output").toString();
+            this.manual_output = options.valueOf("manual-output").toString();
             Log.debug("Setting manual output, default is false and needs to be set only in special cases");
 	}
         
@@ -248,81 +239,6 @@ public class BicSeqDecider extends OicrDecider {
         return super.checkFileDetails(returnValue, fm);
     }
 
-    @Override
-    public Map<String, List<ReturnValue>> separateFiles(List<ReturnValue> vals, String groupBy) {
-        // get files from study
-        Map<String, ReturnValue> iusDeetsToRV = new HashMap<String, ReturnValue>();
-        // Override the supplied group-by value
-        for (ReturnValue currentRV : vals) {
-            boolean metatypeOK = false;
-            
-            for (int f = 0; f < currentRV.getFiles().size(); f++) {
-               try {
-                 if (currentRV.getFiles().get(f).getMetaType().equals(BAM_METATYPE))
-                     metatypeOK = true;
-               } catch (Exception e) {
-                 Log.stderr("Error checking a file");
-               }
-            }
-            
-            if (!metatypeOK)
-                continue; // Go to the next value
-            
-            
-            BeSmall currentSmall = new BeSmall(currentRV);
-            fileSwaToSmall.put(currentRV.getAttribute(groupBy), currentSmall);
-            //make sure you only have the most recent single file for each
-            //sequencer run + lane + barcode + meta-type
-            String fileDeets = currentSmall.getIusDetails();
-            Date currentDate = currentSmall.getDate();
-            
-            //if there is no entry yet, add it
-            if (iusDeetsToRV.get(fileDeets) == null) {
-                iusDeetsToRV.put(fileDeets, currentRV);
-            } 
-            //if there is an entry, compare the current value to the 'old' one in
-            //the map. if the current date is newer than the 'old' date, replace
-            //it in the map
-            else {
-                ReturnValue oldRV = iusDeetsToRV.get(fileDeets);               
-                BeSmall oldSmall  = fileSwaToSmall.get(oldRV.getAttribute(Header.FILE_SWA.getTitle()));
-                Date oldDate      = oldSmall.getDate();
-                if (currentDate.after(oldDate)) {
-                    iusDeetsToRV.put(fileDeets, currentRV);
-                } 
-            }
-        }
-
-        
-        //only use those files that entered into the iusDeetsToRV
-        //since it's a map, only the most recent values
-        List<ReturnValue> newValues = new ArrayList<ReturnValue>(iusDeetsToRV.values());       
-        Map<String, List<ReturnValue>> map = new HashMap<String, List<ReturnValue>>();
-
-        //group files according to the designated header (e.g. sample SWID)
-        for (ReturnValue r : newValues) {
-            String currVal = fileSwaToSmall.get(r.getAttribute(Header.FILE_SWA.getTitle())).getGroupByAttribute();
-            List<ReturnValue> vs = map.get(currVal);
-            if (vs == null) {
-                vs = new ArrayList<ReturnValue>();
-            }
-            vs.add(r);
-            map.put(currVal, vs);
-        }
-        
-        return map;
-    }
-
-    @Override
-    protected String handleGroupByAttribute(String attribute) {
-        String a = super.handleGroupByAttribute(attribute);
-        BeSmall small = fileSwaToSmall.get(a);
-        if (small != null) {
-            return small.getGroupByAttribute();
-        }
-        return attribute;
-    }
-
     @Override
     protected Map<String, String> modifyIniFile(String commaSeparatedFilePaths, String commaSeparatedParentAccessions) {
 
@@ -432,127 +348,4 @@ public class BicSeqDecider extends OicrDecider {
         net.sourceforge.seqware.pipeline.runner.PluginRunner.main(params.toArray(new String[params.size()]));
          
     }
-   
-   private class BeSmall {
-
-        private Date   date = null;
-        private String iusDetails = null;
-        private String groupByAttribute = null;
-        private String tissueType = null;
-        private String path = null;
-        private String tubeID = null;
-        private String groupID = null;
-        private String groupDescription = null;
-        
-        public BeSmall(ReturnValue rv) {
-            try {
-                date = format.parse(rv.getAttribute(Header.PROCESSING_DATE.getTitle()));
-            } catch (ParseException ex) {
-                Log.error("Bad date!", ex);
-                ex.printStackTrace();
-            }
-            FileAttributes fa = new FileAttributes(rv, rv.getFiles().get(0));
-            iusDetails = fa.getLibrarySample() + fa.getSequencerRun() + fa.getLane() + fa.getBarcode();
-            tissueType = fa.getLimsValue(Lims.TISSUE_TYPE);
-            tubeID     = fa.getLimsValue(Lims.TUBE_ID);
-            if (null == tubeID || tubeID.isEmpty()) {
-                tubeID = "NA";
-            }
-            groupID    = fa.getLimsValue(Lims.GROUP_ID);
-            if (null == groupID || groupID.isEmpty()) {
-                groupID = "NA";
-            }
-            groupDescription = fa.getLimsValue(Lims.GROUP_DESC);
-            if (null == groupDescription || groupDescription.isEmpty()) {
-                groupDescription = "NA";
-            }
-            groupByAttribute = fa.getDonor() + ":" + fa.getLimsValue(Lims.LIBRARY_TEMPLATE_TYPE);           
-            path = rv.getFiles().get(0).getFilePath() + "";
-        }
-
-        public Date getDate() {
-            return date;
-        }
-
-        public void setDate(Date date) {
-            this.date = date;
-        }
-
-        public String getGroupByAttribute() {
-            return groupByAttribute;
-        }
-
-        public void setGroupByAttribute(String groupByAttribute) {
-            this.groupByAttribute = groupByAttribute;
-        }
-        
-        public String getTissueType() {
-            return tissueType;
-        }
-        
-        public String getIusDetails() {
-            return iusDetails;
-        }
-
-        public void setIusDetails(String iusDetails) {
-            this.iusDetails = iusDetails;
-        }
-
-        public String getPath() {
-            return path;
-        }
-        
-        public String getTubeId () {
-            return tubeID;
-        }
-        
-        public String getGroupID() {
-            return groupID;
-        }
-
-        public String getGroupDescription() {
-            return groupDescription;
-        }
-
-        public void setPath(String path) {
-            this.path = path;
-        }
-    }
-   public static boolean fileExistsAndIsAccessible(String filePath) {
-
-        File file = new File(filePath);
-        return (file.exists() && file.canRead() && file.isFile());
-
-    }
-   
-   public static List<String> detectDuplicates(String commaSeparatedFilePaths) {
-       
-       String [] filePaths = commaSeparatedFilePaths.split(",");
-       List<String> list    = new ArrayList<String>();
-       List<String> checker = new ArrayList<String>();
-       
-       for (String path : filePaths) {
-           String baseName = makeBasename(path, ".bam");
-           
-           if (checker.contains(baseName) && !list.contains(path)) {
-               list.add(path);
-           } else {
-               checker.add(baseName);
-           }
-       }
-       
-       return list.isEmpty() ? null : list;
-       
-   }
-   
-    /**
-     * Utility function
-     * 
-     * @param path
-     * @param extension
-     * @return 
-     */
-    public static String makeBasename(String path, String extension) {
-        return path.substring(path.lastIndexOf("/") + 1, path.lastIndexOf(extension));
-    }
 }
@@ -0,0 +1,103 @@
+package ca.on.oicr.pde.deciders;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+/**
+ * CNV callers scheduled by {@link CNVDecider}, with the INI keys their own
+ * deciders set. Every caller option lives in the caller's namespace, i.e.
+ * --hmmcopy-r-module or --varscan-pvalue, options shared by several callers
+ * (--r-module, --force-crosscheck) are used when a caller does not set its own.
+ *
+ * @author pruzanov@oicr.on.ca
+ */
+enum CNVCaller {
+
+    // option, INI key, shared option, default
+    HMMCOPY("hmmcopy", Arrays.asList("WG"), 0, new String[][]{
+        {"r-module", "R_module", "r-module", "R/3.2.1-deb8"},
+        {"force-crosscheck", "force_crosscheck", "force-crosscheck", "true"},
+        {"supported-chromosomes", "supported_chromosomes", null, null}}),
+    BICSEQ("bicseq", Arrays.asList("WG"), 0, new String[][]{
+        {"r-module", "R_module", "r-module", "R/3.2.1-deb8"},
+        {"interval", "biqseq_interval", null, null},
+        {"spread", "biqseq_spread", null, null}}),
+    VARSCAN("varscan", Arrays.asList("WG", "EX"), 1, new String[][]{
+        {"r-module", "R_module", "r-module", "R/3.2.1-deb8"},
+        {"force-crosscheck", "force_crosscheck", "force-crosscheck", "true"},
+        {"java-xmx", "varscan_java_xmx", null, null},
+        {"pvalue", "varscan_pvalue", null, "0.05"},
+        {"min-coverage", "varscan_min_coverage", null, null},
+        {"del-coverage", "varscan_del_coverage", null, null},
+        {"min-region", "varscan_min_region", null, null},
+        {"recenter-up", "varscan_recenter_up", null, null},
+        {"recenter-down", "varscan_recenter_down", null, null}});
+
+    private final String name;
+    private final List<String> templateTypes;
+    private final int maxNormals;
+    private final String[][] settings;
+
+    CNVCaller(String name, List<String> templateTypes, int maxNormals, String[][] settings) {
+        this.name = name;
+        this.templateTypes = templateTypes;
+        this.maxNormals = maxNormals;
+        this.settings = settings;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static CNVCaller forName(String name) {
+        for (CNVCaller c : values()) {
+            if (c.name.equalsIgnoreCase(name.trim())) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Namespaced options of this caller, --[name]-wf-accession and one per INI key
+     */
+    public void accepts(OptionParser parser) {
+        parser.accepts(name + "-wf-accession", "Optional: " + name + " workflow accession, required when " + name
+                + " is not the first of --callers").withRequiredArg();
+        for (String[] s : settings) {
+            parser.accepts(name + "-" + s[0], "Optional: Set " + s[1] + " of the " + name + " workflow"
+                    + (s[3] == null ? "" : " (Default: " + s[3] + ")")).withRequiredArg();
+        }
+    }
+
+    /**
+     * @return INI keys of this caller from its options, the shared options or the defaults
+     */
+    public Map<String, String> settings(OptionSet options) {
+        Map<String, String> ini = new TreeMap<String, String>();
+        for (String[] s : settings) {
+            String value = s[3];
+            if (options.has(name + "-" + s[0])) {
+                value = options.valueOf(name + "-" + s[0]).toString();
+            } else if (s[2] != null && options.has(s[2])) {
+                value = options.valueOf(s[2]).toString();
+            }
+            if (null != value && !value.isEmpty()) {
+                ini.put(s[1], value);
+            }
+        }
+        return ini;
+    }
+
+    /**
+     * @param normals number of normal files of the group
+     * @return true if this caller can run on a group of the template type
+     */
+    public boolean runsOn(String templateType, int normals) {
+        return templateTypes.contains(templateType) && (maxNormals == 0 || normals <= maxNormals);
+    }
+}
@@ -0,0 +1,446 @@
+package ca.on.oicr.pde.deciders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import net.sourceforge.seqware.common.hibernate.FindAllTheFiles.Header;
+import net.sourceforge.seqware.common.module.FileMetadata;
+import net.sourceforge.seqware.common.module.ReturnValue;
+import net.sourceforge.seqware.common.util.Log;
+
+/**
+ *
+ * @author pruzanov@oicr.on.ca
+ *
+ * One decider for the HMMcopy, BicSeq and Varscan workflows: options are
+ * read, donors grouped and tumor/normal files paired by one decider instead of
+ * one per caller. Every group gets one INI per caller in --callers that can run
+ * on it, made of the shared keys and the keys of the caller (see CNVCaller).
+ *
+ * File metadata is read and grouped once. The groups are then handed to the
+ * framework once per caller, so every caller's group goes through the file
+ * checks, previous run checks and launching under the workflow accession of
+ * that caller (--[caller]-wf-accession, --wf-accession for the first one) as
+ * if its own decider had run.
+ *
+ * Before running test (i.e
+ *  mvn failsafe:integration-test -DskipITs=false
+ *                                -DwebserviceUrl=http://hsqwstage-www1.hpc.oicr.on.ca:8080/seqware-webservice)
+ * issue this command:
+ * export _JAVA_OPTIONS="-Xmx3000M"
+ */
+public class CNVDecider extends TumorNormalDecider {
+
+
+    //CNV specific stuff
+    private String templateTypeFilter = "";
+    private String output_prefix      = "./";
+    private String queue              = " ";
+    private String output_dir      = "seqware-results";
+    private String skipMissing     = "true";
+    private String manual_output   = "false";
+    private String do_sort         = "false";
+
+    private final static String WG           = "WG";
+    private final static String EX           = "EX";
+    private String tumorType;
+    private List<String> duplicates;
+    private List<CNVCaller> callers;
+    private Map<CNVCaller, Map<String, String>> callerSettings;
+    private Map<CNVCaller, String> callerAccessions;
+    private Map<ReturnValue, CNVCaller> callerOfFile;
+    private CNVCaller caller;
+
+    public CNVDecider() {
+        super();
+        parser.acceptsAll(Arrays.asList("ini-file"), "Optional: the location of the INI file.").withRequiredArg();
+        parser.accepts("callers", "Optional: comma-separated list of callers to schedule, the first one is launched "
+                + "with --wf-accession unless --[caller]-wf-accession is given. Default: hmmcopy,bicseq,varscan").withRequiredArg();
+        parser.accepts("manual-output","Optional*. Set the manual output "
+                + "either to true or false").withRequiredArg();
+        parser.accepts("template-type","Required. Set the template type to limit the workflow run "
+                + "so that it runs on data only of this template type").withRequiredArg();
+        parser.accepts("r-module","Optional. Set the R module of all callers, --[caller]-r-module overrides it").withRequiredArg();
+        parser.accepts("force-crosscheck","Optional. Set the crosscheck to true or false "
+                + "for all callers, the default is true").withRequiredArg();
+        for (CNVCaller c : CNVCaller.values()) {
+            c.accepts(parser);
+        }
+        parser.accepts("output-path", "Optional: the path where the files should be copied to "
+                + "after analysis. Corresponds to output-prefix in INI file. Default: ./").withRequiredArg();
+        parser.accepts("output-folder", "Optional: the name of the folder to put the output into relative to "
+	        + "the output-path. Corresponds to output-dir in INI file. Default: seqware-results").withRequiredArg();
+        parser.accepts("queue", "Optional: Set the queue (Default: not set)").withRequiredArg();
+        parser.accepts("tumor-type", "Optional: Set tumor tissue type to something other than primary tumor (P), i.e. X . Default: Not set (All)").withRequiredArg();
+        parser.accepts("do-sort", "Optional: Set the flag (true or false) to indicate if need to sort bam files. Default: false").withRequiredArg();
+        parser.accepts("skip-missing-files","Optional. Set the flag for skipping non-existing files to true or false "
+                + "when running the workflow, the default is true").withRequiredArg();
+        parser.accepts("verbose", "Optional: Enable verbose Logging").withRequiredArg();
+    }
+
+    @Override
+    public ReturnValue init() {
+        Log.debug("INIT");
+	this.setMetaType(Arrays.asList(BAM_METATYPE));
+        this.setGroupingStrategy(Header.FILE_SWA);
+                
+        ReturnValue rv = super.init();
+        rv.setExitStatus(ReturnValue.SUCCESS);
+        
+	//Group by sample if no other grouping selected
+        if (this.options.has("group-by")) {
+            Log.error("group-by parameter passed, but this decider does not allow overriding the default grouping (by Donor + Library Type)");
+        }
+               
+        if (this.options.has("queue")) {
+            this.queue   = options.valueOf("queue").toString();
+	} else {
+            this.queue   = " ";
+        }
+         
+        this.templateTypeFilter = WG;
+        if (this.options.has("template-type")) {
+            if (!options.hasArgument("template-type")) {
+                Log.error("--template-type requires an argument, WG or EX");
+                rv.setExitStatus(ReturnValue.INVALIDARGUMENT);
+                return rv;
+            } else {
+                this.templateTypeFilter = options.valueOf("template-type").toString();
+                if (!this.templateTypeFilter.equals(WG) && !this.templateTypeFilter.equals(EX)) {
+                    Log.stderr("NOTE THAT ONLY EX or WG template-type SUPPORTED");
+                    rv.setExitStatus(ReturnValue.INVALIDARGUMENT);
+                    return rv;
+                }
+            }
+	}
+
+         if (this.options.has("skip-missing-files")) {
+            if (options.hasArgument("skip-missing-files")) {
+                this.skipMissing = options.valueOf("skip-missing-files").toString();
+                if (!this.skipMissing.equals("false")) {
+                    this.skipMissing = "true"; // Default is true, so we care only when it is set to false
+                }
+            } 
+	}
+        
+        if (this.options.has("manual-output")) {
+            this.manual_output = options.valueOf("manual-output").toString();
+            Log.debug("Setting manual output, default is false and needs to be set only in special cases");
+	}
+        
+        if (this.options.has("tumor-type")) {
+            this.tumorType = options.valueOf("tumor-type").toString();
+            Log.debug("Setting tumor type to " + this.tumorType +  " as requested");
+	}
+        
+        if (this.options.has("verbose")) {
+            Log.setVerbose(true);
+	} 
+        
+        if (this.options.has("do-sort")) {
+            String tempSort = options.valueOf("do-sort").toString();
+            if (tempSort.equalsIgnoreCase("false") || tempSort.equalsIgnoreCase("true"))
+                this.do_sort = tempSort.toLowerCase();
+        }
+
+        if (this.options.has("output-path")) {
+             this.output_prefix = options.valueOf("output-path").toString();
+              if (!this.output_prefix.endsWith("/")) {
+                 this.output_prefix += "/";
+              }
+        }
+        
+        if (this.options.has("output-folder")) {
+            this.output_dir = options.valueOf("output-folder").toString();
+	}
+        
+        // Warn about using force-run-all (may not be relevant after 1.0.17 release)
+        if (options.has("force-run-all")) {
+            Log.stderr("Using --force-run-all WILL BREAK THE LOGIC OF THIS DECIDER, USE AT YOUR OWN RISK");
+        }
+
+        // Callers and their settings are read once, every group uses the same
+        this.callers = new ArrayList<CNVCaller>();
+        String callerList = options.has("callers") ? options.valueOf("callers").toString() : "hmmcopy,bicseq,varscan";
+        for (String name : callerList.split(",")) {
+            CNVCaller c = CNVCaller.forName(name);
+            if (null == c) {
+                Log.error("Unknown caller " + name + " in --callers, supported are hmmcopy, bicseq and varscan");
+                rv.setExitStatus(ReturnValue.INVALIDARGUMENT);
+                return rv;
+            }
+            if (!this.callers.contains(c)) {
+                this.callers.add(c);
+            }
+        }
+
+        this.callerSettings   = new EnumMap<CNVCaller, Map<String, String>>(CNVCaller.class);
+        this.callerAccessions = new EnumMap<CNVCaller, String>(CNVCaller.class);
+        for (CNVCaller c : this.callers) {
+            if (options.has(c.getName() + "-wf-accession")) {
+                this.callerAccessions.put(c, options.valueOf(c.getName() + "-wf-accession").toString());
+            } else if (c == this.callers.get(0) && options.has("wf-accession")) {
+                this.callerAccessions.put(c, options.valueOf("wf-accession").toString());
+            } else {
+                Log.error("--" + c.getName() + "-wf-accession is required to schedule " + c.getName());
+                rv.setExitStatus(ReturnValue.INVALIDARGUMENT);
+                return rv;
+            }
+            this.callerSettings.put(c, c.settings(options));
+        }
+        for (CNVCaller c : new ArrayList<CNVCaller>(this.callers)) {
+            if (!c.runsOn(this.templateTypeFilter, 1)) {
+                Log.stderr("Caller " + c.getName() + " does not run on " + this.templateTypeFilter + " data, it will not be scheduled");
+                this.callers.remove(c);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Groups the files once and hands every group to the framework once per
+     * caller, each copy of a file remembers the caller its group is run for
+     * @param vals
+     * @param groupBy
+     * @return the groups of all callers, keyed by group and caller name
+     */
+    @Override
+    public Map<String, List<ReturnValue>> separateFiles(List<ReturnValue> vals, String groupBy) {
+        Map<String, List<ReturnValue>> groups = super.separateFiles(vals, groupBy);
+        Map<String, List<ReturnValue>> callerGroups = new LinkedHashMap<String, List<ReturnValue>>();
+        this.callerOfFile = new IdentityHashMap<ReturnValue, CNVCaller>();
+        for (CNVCaller c : this.callers) {
+            for (Map.Entry<String, List<ReturnValue>> group : groups.entrySet()) {
+                List<ReturnValue> files = new ArrayList<ReturnValue>();
+                for (ReturnValue r : group.getValue()) {
+                    ReturnValue copy = new ReturnValue();
+                    copy.setAttributes(new HashMap<String, String>(r.getAttributes()));
+                    copy.setFiles(new ArrayList<FileMetadata>(r.getFiles()));
+                    this.callerOfFile.put(copy, c);
+                    files.add(copy);
+                }
+                callerGroups.put(group.getKey() + ":" + c.getName(), files);
+            }
+        }
+        return callerGroups;
+    }
+
+    /**
+     * Final check
+     * @param commaSeparatedFilePaths
+     * @param commaSeparatedParentAccessions
+     * @return    */
+    @Override
+    protected ReturnValue doFinalCheck(String commaSeparatedFilePaths, String commaSeparatedParentAccessions) {
+        String[] filePaths = commaSeparatedFilePaths.split(",");
+        boolean haveNorm = false;
+        boolean haveTumr = false;
+        int countNorm = 0;
+        
+        // Check for duplicate file names and exclude them from analysis
+        this.duplicates = detectDuplicates(commaSeparatedFilePaths);
+        
+        for (String p : filePaths) {
+            if (null != this.duplicates && this.duplicates.contains(p)) {
+                Log.stderr("File [" + p + "] has a name that cannot be disambiguated in current set, will skip it");
+                continue;
+            }
+            for (BeSmall bs : fileSwaToSmall.values()) {
+                if (!bs.getPath().equals(p))
+                    continue;
+                String tt = bs.getTissueType();
+                
+
+                if (!tt.isEmpty() && tt.equals("R")) {
+                    haveNorm = true;
+                    countNorm += 1;
+                } else if (!tt.isEmpty()) {
+                    haveTumr = true;
+                }
+            }
+        }
+        String templateType = templateType(filePaths);
+        if (haveNorm && haveTumr && !this.caller.runsOn(templateType, countNorm)) {
+            Log.error("Caller " + this.caller.getName() + " does not run on " + templateType + " data with "
+                    + countNorm + " normal(s), WON'T RUN");
+            return new ReturnValue(ReturnValue.INVALIDPARAMETERS);
+        }
+        if (haveNorm && haveTumr) {
+         return super.doFinalCheck(commaSeparatedFilePaths, commaSeparatedParentAccessions);
+        } 
+            
+        String absent = haveNorm ? "Tumor" : "Normal";
+        Log.error("Data for " + absent + " tissue are not available, WON'T RUN");
+        return new ReturnValue(ReturnValue.INVALIDPARAMETERS);
+    }
+
+    @Override
+    protected boolean checkFileDetails(ReturnValue returnValue, FileMetadata fm) {
+        Log.debug("CHECK FILE DETAILS:" + fm);
+        String currentTtype      = returnValue.getAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_library_source_template_type");
+        String currentTissueType = returnValue.getAttribute(Header.SAMPLE_TAG_PREFIX.getTitle() + "geo_tissue_type" );
+
+        if (null == currentTissueType )
+            return false; // we need only those which have their tissue type set
+        // Filter the data of a different template type if filter is specified
+        if (!this.templateTypeFilter.equalsIgnoreCase(currentTtype))
+            return false;
+        // Do not process tumor tissues of type that doesn't match set parameter
+        if (null != this.tumorType) {
+          if (!currentTissueType.equals("R") && !currentTissueType.equals(this.tumorType))
+            return false;
+        }
+        
+        // Groups are checked one after the other, launch this one as its caller
+        CNVCaller groupCaller = this.callerOfFile.get(returnValue);
+        if (groupCaller != this.caller) {
+            this.caller = groupCaller;
+            this.setWorkflowAccession(this.callerAccessions.get(groupCaller));
+            this.setWorkflowAccessionsToCheck(new HashSet<String>(Arrays.asList(this.callerAccessions.get(groupCaller))));
+            Log.stdout("Scheduling " + groupCaller.getName() + " with workflow accession " + this.callerAccessions.get(groupCaller));
+        }
+
+        for (FileMetadata fmeta : returnValue.getFiles()) {
+            if (!fmeta.getMetaType().equals(BAM_METATYPE))
+                continue;
+            if (!fmeta.getFilePath().contains("sorted"))
+                this.do_sort = "true"; // Force sorting of all files even if only one is unsorted
+        }
+       
+        return super.checkFileDetails(returnValue, fm);
+    }
+
+    /**
+     * Template type of a group, taken from its files
+     * @param filePaths
+     * @return the template type of the first file found, --template-type otherwise
+     */
+    private String templateType(String[] filePaths) {
+        for (String p : filePaths) {
+            for (BeSmall bs : fileSwaToSmall.values()) {
+                if (bs.getPath().equals(p) && null != bs.getTemplateType() && !bs.getTemplateType().isEmpty()) {
+                    return bs.getTemplateType();
+                }
+            }
+        }
+        return this.templateTypeFilter;
+    }
+
+    @Override
+    protected Map<String, String> modifyIniFile(String commaSeparatedFilePaths, String commaSeparatedParentAccessions) {
+
+        StringBuilder inputNormFiles  = new StringBuilder();
+        StringBuilder inputTumrFiles  = new StringBuilder();
+        StringBuilder groupIds        = new StringBuilder();
+        String [] filePaths = commaSeparatedFilePaths.split(",");
+        StringBuilder tubeId          = new StringBuilder();
+        StringBuilder groupDescription= new StringBuilder();
+        
+        for (String p :  filePaths) {
+            if (null != this.duplicates && this.duplicates.contains(p)) {
+                Log.stderr("Will not include file [" + p + "] since there is an ambiguity in names that cannot be resolved");
+                continue;
+            }
+            
+            for (BeSmall bs : fileSwaToSmall.values()) {
+                if (!bs.getPath().equals(p))
+                    continue;
+
+                String tt = bs.getTissueType();
+                if (!tt.isEmpty() && tt.equals("R")) {
+                    if (inputNormFiles.length() != 0) {
+                     inputNormFiles.append(",");
+                    }
+                 inputNormFiles.append(p);
+                } else if (!tt.isEmpty()) {
+                    if (inputTumrFiles.length() != 0) {
+                     inputTumrFiles.append(",");
+                     // group_ids recoreded using info from tumor entries, normal files do not have group_ids
+                     groupIds.append(",");
+                     groupDescription.append(",");
+                     tubeId.append(",");
+                    }
+                 inputTumrFiles.append(p);
+                 groupIds.append(bs.getGroupID());
+                 groupDescription.append(bs.getGroupDescription());
+                 tubeId.append(bs.getTubeId());
+                }
+            }
+        }
+        
+        //reset test mode
+        if (!this.options.has("test")) {
+            this.setTest(false);
+        }
+        
+        // Just in case
+        // This should handle possible problems with --force-run-all
+        if (inputNormFiles.length() == 0 || inputTumrFiles.length() == 0) {
+         Log.error("THE DONOR does not have data to run the workflow");
+         this.setTest(true);
+        }       
+        
+        Map<String, String> iniFileMap = new TreeMap<String, String>();
+        
+        iniFileMap.put("input_files_normal", inputNormFiles.toString());
+        iniFileMap.put("input_files_tumor",  inputTumrFiles.toString());
+        iniFileMap.put("data_dir", "data");
+        iniFileMap.put("template_type", templateType(filePaths));
+ 
+	iniFileMap.put("output_prefix",this.output_prefix);
+	iniFileMap.put("output_dir", this.output_dir);
+        if (!this.queue.isEmpty()) {
+         iniFileMap.put("queue", this.queue);
+        } else {
+         iniFileMap.put("queue", " ");
+        }
+
+        iniFileMap.put("manual_output",  this.manual_output);
+        iniFileMap.put("skip_missing_files", this.skipMissing);
+        iniFileMap.put("do_sort", this.do_sort);
+        
+        //Note that we can use group_id, group_description and external_name for tumor bams only
+        if (groupIds.length() != 0 && !groupIds.toString().contains("NA")) {
+          iniFileMap.put("group_id", groupIds.toString());
+        } else {
+          iniFileMap.put("group_id", "NA");    
+        }
+
+        if (groupDescription.length() != 0 && !groupIds.toString().contains("NA")) {
+          iniFileMap.put("group_id_description", groupDescription.toString());
+        } else {
+          iniFileMap.put("group_id_description", "NA");    
+        }
+        
+        if (tubeId.length() != 0 && !groupIds.toString().contains("NA")) {
+          iniFileMap.put("external_name", tubeId.toString());
+        } else {
+          iniFileMap.put("external_name", "NA");    
+        }
+        
+        // Shared keys, then the keys of the caller being scheduled
+        iniFileMap.putAll(this.callerSettings.get(this.caller));
+        
+        return iniFileMap;
+    }
+    
+   
+   public static void main(String args[]){
+ 
+        List<String> params = new ArrayList<String>();
+        params.add("--plugin");
+        params.add(CNVDecider.class.getCanonicalName());
+        params.add("--");
+        params.addAll(Arrays.asList(args));
+        System.out.println("Parameters: " + Arrays.deepToString(params.toArray()));
+        net.sourceforge.seqware.pipeline.runner.PluginRunner.main(params.toArray(new String[params.size()]));
+         
+    }
+}
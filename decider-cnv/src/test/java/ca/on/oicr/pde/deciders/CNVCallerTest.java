@@ -0,0 +1,56 @@
+package ca.on.oicr.pde.deciders;
+
+import java.util.Map;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+public class CNVCallerTest {
+
+    private static OptionSet parse(String... args) {
+        OptionParser parser = new OptionParser();
+        parser.accepts("r-module").withRequiredArg();
+        parser.accepts("force-crosscheck").withRequiredArg();
+        for (CNVCaller c : CNVCaller.values()) {
+            c.accepts(parser);
+        }
+        return parser.parse(args);
+    }
+
+    @Test
+    public void forName() {
+        assertEquals(CNVCaller.forName(" Varscan"), CNVCaller.VARSCAN);
+        assertNull(CNVCaller.forName("freec"));
+    }
+
+    @Test
+    public void defaults() {
+        Map<String, String> ini = CNVCaller.VARSCAN.settings(parse());
+        assertEquals(ini.get("R_module"), "R/3.2.1-deb8");
+        assertEquals(ini.get("force_crosscheck"), "true");
+        assertEquals(ini.get("varscan_pvalue"), "0.05");
+        // the heap is only sent when asked for, the workflow settings apply otherwise
+        assertFalse(ini.containsKey("varscan_java_xmx"));
+        assertFalse(ini.containsKey("varscan_min_coverage"));
+    }
+
+    @Test
+    public void callerOptionOverridesSharedOption() {
+        OptionSet options = parse("--r-module", "R/3.6", "--hmmcopy-r-module", "R/4.0", "--varscan-java-xmx", "8");
+        assertEquals(CNVCaller.HMMCOPY.settings(options).get("R_module"), "R/4.0");
+        assertEquals(CNVCaller.BICSEQ.settings(options).get("R_module"), "R/3.6");
+        assertEquals(CNVCaller.VARSCAN.settings(options).get("varscan_java_xmx"), "8");
+    }
+
+    @Test
+    public void runsOn() {
+        assertTrue(CNVCaller.HMMCOPY.runsOn("WG", 2));
+        assertFalse(CNVCaller.HMMCOPY.runsOn("EX", 1));
+        assertTrue(CNVCaller.VARSCAN.runsOn("EX", 1));
+        assertFalse(CNVCaller.VARSCAN.runsOn("WG", 2));
+    }
+}
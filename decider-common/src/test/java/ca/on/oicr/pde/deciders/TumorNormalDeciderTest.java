@@ -0,0 +1,26 @@
+package ca.on.oicr.pde.deciders;
+
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import org.testng.annotations.Test;
+
+public class TumorNormalDeciderTest {
+
+    @Test
+    public void basenameDropsDirectoryAndExtension() {
+        assertEquals(TumorNormalDecider.makeBasename("/a/b/PCSI_0101_Pa_P.sorted.bam", ".bam"), "PCSI_0101_Pa_P.sorted");
+        assertEquals(TumorNormalDecider.makeBasename("PCSI_0101_Ly_R.bam", ".bam"), "PCSI_0101_Ly_R");
+    }
+
+    @Test
+    public void noDuplicatesIsNull() {
+        assertNull(TumorNormalDecider.detectDuplicates("/a/tumor.bam,/a/normal.bam"));
+    }
+
+    @Test
+    public void duplicateNamesAfterTheFirstAreReported() {
+        assertEquals(TumorNormalDecider.detectDuplicates("/a/tumor.bam,/b/tumor.bam,/a/normal.bam,/c/tumor.bam"),
+                Arrays.asList("/b/tumor.bam", "/c/tumor.bam"));
+    }
+}
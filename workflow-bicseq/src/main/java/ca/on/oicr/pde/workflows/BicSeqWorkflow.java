@@ -16,6 +16,7 @@ public class BicSeqWorkflow extends OicrWorkflow {
     private String bicseqVersion;
     private String samtoolsVersion;
     private String rModule;
+    private String cnvToolsModule;
                
     //References
     private boolean manualOutput;
@@ -30,6 +31,8 @@ public class BicSeqWorkflow extends OicrWorkflow {
     private String[] localInputTumorFiles;
     private String[] normalBases;
     private String[] tumorBases;
+    private String[] coverageIndexNormal;
+    private String[] coverageIndexTumor;
 
     //Misc
     private String dataDir;
@@ -42,6 +45,7 @@ public class BicSeqWorkflow extends OicrWorkflow {
     private static final String BICSEQ_S_DEFAULT         = "20";
     private static final boolean DEFAULT_SKIP_IF_MISSING = true;  // Conditional provisioning
     private static final String BICSEQ_PREFIX  = "bicseq_";
+    private static final String CNV_TOOLS_MODULE_DEFAULT = "cnv-tools/1.0 java/8";
     private final static String WG           = "WG";    
     
     @Override
@@ -75,6 +79,19 @@ public class BicSeqWorkflow extends OicrWorkflow {
             this.bicseqVersion   = getProperty("bicseq_version");
             this.samtoolsVersion = getProperty("samtools_version");
             this.rModule         = getProperty("R_module");
+            this.cnvToolsModule  = getOptionalProperty("cnv_tools_module", CNV_TOOLS_MODULE_DEFAULT);
+
+            //=============Coverage indexes made by cnv-tools coverage-index, used instead of the .bam files when set
+            String normalIndexes = getOptionalProperty("coverage_index_normal", "");
+            String tumorIndexes  = getOptionalProperty("coverage_index_tumor", "");
+            if (!normalIndexes.isEmpty() && !tumorIndexes.isEmpty()) {
+                this.coverageIndexNormal = normalIndexes.split(",");
+                this.coverageIndexTumor  = tumorIndexes.split(",");
+                if (this.coverageIndexNormal.length != this.normal.length || this.coverageIndexTumor.length != this.tumor.length) {
+                    Logger.getLogger(BicSeqWorkflow.class.getName()).log(Level.SEVERE, "coverage indexes should be listed in the same order as the input files, one per file");
+                    return (null);
+                }
+            }
             
             //=============A special flag that determines if we need to sort/index
             String sortFlag = getProperty("do_sort");
@@ -207,7 +224,9 @@ public class BicSeqWorkflow extends OicrWorkflow {
                if (this.templateType.equals(WG)) {
                  // LAUNCH BICseq
                  launchBicSeq(this.localInputNormalFiles[n],
-                              this.localInputTumorFiles[t], n + 1, sortJobs);
+                              this.localInputTumorFiles[t], n + 1, sortJobs,
+                              this.coverageIndexNormal == null ? null : this.coverageIndexNormal[n],
+                              this.coverageIndexTumor  == null ? null : this.coverageIndexTumor[t]);
                
                } else {
                    throw new RuntimeException("Unsupported template type, workflow will terminate!");
@@ -222,21 +241,34 @@ public class BicSeqWorkflow extends OicrWorkflow {
     }
 
     /**
-     * BICseq configuring/launching
+     * BICseq configuring/launching, .seq files come from the coverage indexes
+     * when both are given, from the .bam files otherwise
      */
-    private void launchBicSeq(String inputNormal, String inputTumor, int id, List<Job> parents) {
+    private void launchBicSeq(String inputNormal, String inputTumor, int id, List<Job> parents,
+                              String normalIndex, String tumorIndex) {
 
         // Job convertJob and create configFile
         Job convertJob = this.getWorkflow().createBashJob("bicseq_prepare");
             
         String configFile = "bicseq_config." + id + ".conf";
-        convertJob.setCommand(getWorkflowBaseDir() + "/dependencies/configureBICseq.pl"
-                            + " --input-normal " + inputNormal
-                            + " --input-tumor "  + inputTumor
-                            + " --outdir " + this.dataDir
-                            + " --config-file " + configFile
-                            + " --samtools " + getWorkflowBaseDir() + "/bin/BICseq-" + this.bicseqVersion
-                            + "/PERL_pipeline/BICseq_" + this.bicseqVersion + "/SAMgetUnique/samtools-0.1.7a_getUnique-0.1.1/samtools");
+        if (normalIndex != null && tumorIndex != null) {
+            convertJob.setCommand("module load " + this.cnvToolsModule + ";"
+                                + "java -Xmx2G -jar $CNV_TOOLS_ROOT/cnv-tools.jar coverage-to-bicseq"
+                                + " --normal " + normalIndex
+                                + " --tumor "  + tumorIndex
+                                + " --normal-name " + this.makeBasename(inputNormal, ".bam")
+                                + " --tumor-name "  + this.makeBasename(inputTumor, ".bam")
+                                + " --outdir " + this.dataDir
+                                + " --config-file " + configFile);
+        } else {
+            convertJob.setCommand(getWorkflowBaseDir() + "/dependencies/configureBICseq.pl"
+                                + " --input-normal " + inputNormal
+                                + " --input-tumor "  + inputTumor
+                                + " --outdir " + this.dataDir
+                                + " --config-file " + configFile
+                                + " --samtools " + getWorkflowBaseDir() + "/bin/BICseq-" + this.bicseqVersion
+                                + "/PERL_pipeline/BICseq_" + this.bicseqVersion + "/SAMgetUnique/samtools-0.1.7a_getUnique-0.1.1/samtools");
+        }
         convertJob.setMaxMemory("4000");
         if (parents != null) {
             for (Job p : parents) {
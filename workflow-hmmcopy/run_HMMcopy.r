@@ -7,17 +7,140 @@ library(HMMcopy)
 .libPaths()
 
 cmd_args=commandArgs(trailingOnly = TRUE)
-# Arguments should be passed as: normal.wig, tumor.wig, refGC.wig, ref_mappable.wig, outputBasename
+# Arguments should be passed as: normal.wig, tumor.wig, refGC.wig, ref_mappable.wig, outputBasename [, normalProfile.bins]
+# Any of the inputs may be a .bins file instead: reads tracks for normal/tumor, gc and map tracks for the reference.
+# Normal may also be a cached, already corrected profile (.bins with a copy track), then only the tumor is corrected.
+# The same .bins file may be passed as normal and tumor, it then holds normal and tumor tracks (cnv-tools pair-counter).
+# With the optional 6th argument the corrected normal profile is written there so it can be cached,
+# with the optional 7th argument (path to cnv-tools.jar) segmentation runs in Java instead of HMMsegment.
+# Downsampled plot data is always written, images are rendered here only if HMMCOPY_PLOTS is not "data"
+# (cnv-tools plot-hmmcopy renders them from the plot data on request)
 normalReads<-cmd_args[1]
 tumorReads<-cmd_args[2]
 gcContent<-cmd_args[3]
 refMappable<-cmd_args[4]
 outputBasename<-cmd_args[5]
+normalProfile<-if (length(cmd_args) > 5) cmd_args[6] else ""
+cnvTools<-if (length(cmd_args) > 6) cmd_args[7] else ""
 
-tum_uncorrected_reads <- wigsToRangedData(tumorReads, gcContent, refMappable)
-norm_uncorrected_reads <- wigsToRangedData(normalReads, gcContent, refMappable)
+# Binary .bins files (cnv-tools read-counter and wig-to-bins) hold one column per track,
+# all bins of all contigs back to back, see BinFile.java in cnv-tools for the layout
+readBins <- function(binFile) {
+  con <- file(binFile, "rb")
+  on.exit(close(con))
+  if (readChar(con, 8, useBytes = TRUE) != "CNVBIN01") {
+    stop(paste(binFile, "is not a .bins file"))
+  }
+  header <- readBin(con, "integer", 4, size = 4, endian = "little")
+  contigs <- data.frame(chr = character(header[2]), first = integer(header[2]), bins = integer(header[2]), stringsAsFactors = FALSE)
+  for (i in seq_len(header[2])) {
+    contigs$chr[i] <- readChar(con, readBin(con, "integer", 1, size = 4, endian = "little"), useBytes = TRUE)
+    contigs[i, c("first", "bins")] <- readBin(con, "integer", 2, size = 4, endian = "little")
+  }
+  trackNames <- character(header[3])
+  trackTypes <- integer(header[3])
+  for (i in seq_len(header[3])) {
+    trackNames[i] <- readChar(con, readBin(con, "integer", 1, size = 4, endian = "little"), useBytes = TRUE)
+    trackTypes[i] <- readBin(con, "integer", 1, size = 4, endian = "little")
+  }
+  total <- sum(contigs$bins)
+  seek(con, header[4])
+  tracks <- list()
+  for (i in seq_len(header[3])) {
+    tracks[[trackNames[i]]] <- readBin(con, if (trackTypes[i] == 0) "integer" else "double", total, size = 4, endian = "little")
+  }
+  list(window = header[1], contigs = contigs, tracks = tracks)
+}
+
+# Every .bins input is read once, the same file may hold normal and tumor or gc and map tracks
+binsRead <- new.env()
+readBinsOnce <- function(binFile) {
+  if (!exists(binFile, envir = binsRead, inherits = FALSE)) {
+    assign(binFile, readBins(binFile), envir = binsRead)
+  }
+  get(binFile, envir = binsRead, inherits = FALSE)
+}
+
+# chr, start, end and value of one track from either a .bins or a fixedStep .wig file
+readTrack <- function(trackFile, track) {
+  if (grepl("\\.bins$", trackFile)) {
+    bins <- readBinsOnce(trackFile)
+    if (is.null(bins$tracks[[track]])) {
+      stop(paste("No track", track, "in", trackFile))
+    }
+    index <- sequence(bins$contigs$bins)
+    return(data.frame(chr = rep(bins$contigs$chr, bins$contigs$bins), start = (index - 1) * bins$window + 1,
+                      end = index * bins$window, value = bins$tracks[[track]], stringsAsFactors = FALSE))
+  }
+  wig <- wigToRangedData(trackFile, verbose = FALSE)
+  data.frame(chr = as.character(wig$chr), start = wig$start, end = wig$end, value = wig$value, stringsAsFactors = FALSE)
+}
+
+# Same table as wigsToRangedData, reference bins are matched to read bins by contig and start,
+# bins missing from the reference get gc -1 and map 0 and are not used for correction
+binsToRangedData <- function(readfile, gcfile, mapfile, track = "reads") {
+  reads <- readTrack(readfile, track)
+  gc <- readTrack(gcfile, "gc")
+  map <- readTrack(mapfile, "map")
+  key <- paste(reads$chr, reads$start)
+  output <- data.table(chr = factor(reads$chr, levels = unique(reads$chr)), start = reads$start, end = reads$end,
+                       reads = as.integer(reads$value),
+                       gc = gc$value[match(key, paste(gc$chr, gc$start))],
+                       map = map$value[match(key, paste(map$chr, map$start))])
+  output$gc[is.na(output$gc)] <- -1
+  output$map[is.na(output$map)] <- 0
+  output
+}
+
+# Single float track of a table with chr, start, end as .bins, rows are all bins of a contig in order
+writeBins <- function(binFile, x, track) {
+  chr <- as.character(x$chr)
+  contigs <- unique(chr)
+  counts <- as.integer(table(factor(chr, levels = contigs)))
+  first <- c(0L, cumsum(counts))[seq_along(contigs)]
+  headerSize <- 24 + sum(12 + nchar(contigs, type = "bytes")) + 8 + nchar(track, type = "bytes")
+  dataOffset <- ceiling(headerSize / 64) * 64
+  con <- file(binFile, "wb")
+  on.exit(close(con))
+  writeChar("CNVBIN01", con, eos = NULL, useBytes = TRUE)
+  writeBin(as.integer(c(x$end[1] - x$start[1] + 1, length(contigs), 1, dataOffset)), con, size = 4, endian = "little")
+  for (i in seq_along(contigs)) {
+    writeBin(nchar(contigs[i], type = "bytes"), con, size = 4, endian = "little")
+    writeChar(contigs[i], con, eos = NULL, useBytes = TRUE)
+    writeBin(c(first[i], counts[i]), con, size = 4, endian = "little")
+  }
+  writeBin(nchar(track, type = "bytes"), con, size = 4, endian = "little")
+  writeChar(track, con, eos = NULL, useBytes = TRUE)
+  writeBin(1L, con, size = 4, endian = "little")
+  writeBin(raw(dataOffset - headerSize), con)
+  writeBin(as.double(x[[track]]), con, size = 4, endian = "little")
+}
+
+cachedNormal <- grepl("\\.bins$", normalReads) && !is.null(readBinsOnce(normalReads)$tracks$copy)
+pairedBins <- normalReads == tumorReads
+
+if (any(grepl("\\.bins$", c(normalReads, tumorReads, gcContent, refMappable)))) {
+  library(data.table)
+  tum_uncorrected_reads <- binsToRangedData(tumorReads, gcContent, refMappable, if (pairedBins) "tumor" else "reads")
+  if (!cachedNormal) {
+    norm_uncorrected_reads <- binsToRangedData(normalReads, gcContent, refMappable, if (pairedBins) "normal" else "reads")
+  }
+} else {
+  tum_uncorrected_reads <- wigsToRangedData(tumorReads, gcContent, refMappable)
+  norm_uncorrected_reads <- wigsToRangedData(normalReads, gcContent, refMappable)
+}
 tum_corrected_copy <- correctReadcount(tum_uncorrected_reads)
-norm_corrected_copy <- correctReadcount(norm_uncorrected_reads)
+if (cachedNormal) {
+  # Corrected normal from the cache, matched to tumor bins by contig and start
+  normal <- readTrack(normalReads, "copy")
+  norm_copy <- normal$value[match(paste(tum_corrected_copy$chr, tum_corrected_copy$start), paste(normal$chr, normal$start))]
+} else {
+  norm_corrected_copy <- correctReadcount(norm_uncorrected_reads)
+  norm_copy <- norm_corrected_copy$copy
+  if (normalProfile != "") {
+    writeBins(normalProfile, norm_corrected_copy, "copy")
+  }
+}
 
 # Should take no longer than a few minutes on a human genome.
 # The correctReadcount requires at least about 1000 bins to work properly.
@@ -25,12 +148,29 @@ norm_corrected_copy <- correctReadcount(norm_uncorrected_reads)
 
 # Below commands in R
 # Normalizing Tumour by Normal
-tum_corrected_copy$copy <- tum_corrected_copy$copy - norm_corrected_copy$copy
+tum_corrected_copy$copy <- tum_corrected_copy$copy - norm_copy
 
-param <- HMMsegment(tum_corrected_copy, getparam = TRUE) # retrieve converged parameters via EM
-param$mu <- log(c(1, 1.4, 2, 2.7, 3, 4.5) / 2, 2)
-param$m <- param$mu
-segmented_copy <- HMMsegment(tum_corrected_copy, param) # perform segmentation via Viterbi
+stateMeans <- log(c(1, 1.4, 2, 2.7, 3, 4.5) / 2, 2)
+if (cnvTools != "") {
+  # Same model, EM parallel across chromosomes, see HmmSegmentation.java in cnv-tools
+  copyBins <- paste(outputBasename, "copy", "bins", sep = ".")
+  stateBins <- paste(outputBasename, "state", "bins", sep = ".")
+  segsFile <- paste(outputBasename, "segs", "tsv", sep = ".")
+  writeBins(copyBins, tum_corrected_copy, "copy")
+  status <- system2("java", c(paste0("-Xmx", Sys.getenv("JAVA_MEMORY", "4"), "G"), "-jar", cnvTools, "hmm-segment", "--input", copyBins,
+                              "--output", segsFile, "--states", stateBins, paste0("--mu=", paste(stateMeans, collapse = ",")),
+                              "--threads", Sys.getenv("HMMCOPY_THREADS", "1")))
+  if (status != 0) {
+    stop("hmm-segment failed")
+  }
+  segmented_copy <- list(segs = read.table(segsFile, header = TRUE, sep = "\t", stringsAsFactors = FALSE),
+                         state = readBins(stateBins)$tracks$state)
+} else {
+  param <- HMMsegment(tum_corrected_copy, getparam = TRUE) # retrieve converged parameters via EM
+  param$mu <- stateMeans
+  param$m <- param$mu
+  segmented_copy <- HMMsegment(tum_corrected_copy, param) # perform segmentation via Viterbi
+}
 
 # 3. Export
 # Export to SEG format for CNAseq segmentation
@@ -40,6 +180,40 @@ tsvFile<-paste(outputBasename, "tsv", sep = ".")
 rangedDataToSeg(tum_corrected_copy, file = segFile)
 write.table(segmented_copy$segs, file = tsvFile, quote = FALSE, sep = "\t")
 
+# Plot data: copy and state as block medians, at most maxPoints per chromosome, and a sample of ideal bins for the bias plot
+writePlotData <- function(corrected, state, basename, maxPoints = 2000, biasPoints = 20000) {
+  chr <- as.character(corrected$chr)
+  state <- as.integer(as.character(state))
+  blocks <- list()
+  for (chrom in unique(chr)) {
+    i <- which(chr == chrom)
+    block <- ceiling(seq_along(i) / ceiling(length(i) / maxPoints))
+    blocks[[chrom]] <- data.frame(chr = chrom,
+                                  start = as.vector(tapply(corrected$start[i], block, min)),
+                                  end = as.vector(tapply(corrected$end[i], block, max)),
+                                  copy = signif(as.vector(tapply(corrected$copy[i], block, median, na.rm = TRUE)), 4),
+                                  state = as.vector(tapply(state[i], block, function(s) s[ceiling(length(s) / 2)])))
+  }
+  con <- gzfile(paste(basename, "plot_copy", "tsv", "gz", sep = "."), "w")
+  write.table(do.call(rbind, blocks), con, quote = FALSE, sep = "\t", row.names = FALSE)
+  close(con)
+  ideal <- which(corrected$ideal)
+  set.seed(25)
+  if (length(ideal) > biasPoints) {
+    ideal <- sort(sample(ideal, biasPoints))
+  }
+  con <- gzfile(paste(basename, "plot_bias", "tsv", "gz", sep = "."), "w")
+  write.table(data.frame(gc = corrected$gc[ideal], map = corrected$map[ideal], reads = corrected$reads[ideal],
+                         cor.gc = signif(corrected$cor.gc[ideal], 4), check.names = FALSE),
+              con, quote = FALSE, sep = "\t", row.names = FALSE)
+  close(con)
+}
+writePlotData(tum_corrected_copy, segmented_copy$state, outputBasename)
+
+if (Sys.getenv("HMMCOPY_PLOTS") == "data") {
+  quit(save = "no")
+}
+
 options(bitmapType="cairo")
 # 4. Visualization - produce some images with hard-coded dimensions
 
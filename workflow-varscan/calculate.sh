@@ -1,3 +1,7 @@
 #!/bin/bash
+# Profile of the segments and variants of a run (cnv-tools compare-outputs),
+# binned into 100 kb windows, compared with the expected one by compare.sh
+set -o nounset -o pipefail
 cd $1
-ls -C | xargs wc -l | sort -n | sed 's!\S*/!\t!'
+module load cnv-tools/1.0 java/8 2>/dev/null || true
+java -jar $CNV_TOOLS_ROOT/cnv-tools.jar compare-outputs --profile .
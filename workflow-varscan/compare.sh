@@ -1,2 +1,6 @@
 #!/bin/bash
-diff -bws <(sort $1) <(sort $2)
+# Segment concordance, log2 ratio correlation and call counts of two profiles
+# written by calculate.sh, fails if any of them is outside the tolerances
+set -o nounset -o pipefail
+module load cnv-tools/1.0 java/8 2>/dev/null || true
+java -jar $CNV_TOOLS_ROOT/cnv-tools.jar compare-outputs --expected $1 --actual $2